@@ -0,0 +1,92 @@
+package com.example.im.bench;
+
+import com.example.im.message.AckAggregator;
+import com.example.im.protocol.Message;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 多线程并发向少量目标登记确认，结束时校验每个 id 恰好发出一次，并报告平均每帧携带的确认数。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AckAggregatorBenchmark {
+    @Param({"4", "256"})
+    private int peers;
+
+    private final AtomicLong sequence = new AtomicLong();
+    // 逐个记 id 内存放不下，用个数加校验和判断有无丢失或重复
+    private final LongAdder emittedCount = new LongAdder();
+    private final LongAdder emittedSum = new LongAdder();
+
+    private ConfigurableApplicationContext context;
+    private AckAggregator aggregator;
+    private String[] peerNames;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        context = BenchContext.start("ack");
+        aggregator = context.getBean(AckAggregator.class);
+        aggregator.setSink(this::record);
+        peerNames = new String[peers];
+        for (int i = 0; i < peers; i++) {
+            peerNames[i] = "peer" + i;
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        for (String peer : peerNames) {
+            aggregator.flush(peer);
+        }
+        long added = sequence.get();
+        long frames = aggregator.getFrameCount();
+        context.close();
+        long expectedSum = added * (added + 1) / 2;
+        if (emittedCount.sum() != added || emittedSum.sum() != expectedSum) {
+            throw new IllegalStateException("ACKs added " + added + ", emitted " + emittedCount.sum()
+                    + ", id checksum " + emittedSum.sum() + " != " + expectedSum);
+        }
+        System.out.printf("%n%d ACKs in %d frames (%.1f per frame)%n", added, frames, (double) added / frames);
+    }
+
+    @Benchmark
+    @Threads(8)
+    public void add() {
+        String peer = peerNames[ThreadLocalRandom.current().nextInt(peerNames.length)];
+        aggregator.add(peer, Long.toString(sequence.incrementAndGet()), Message.Status.DELIVERED);
+    }
+
+    private void record(Message ack) {
+        List<String> ids = ack.getType() == Message.Type.ACK
+                ? Collections.singletonList(ack.getAckMessageId()) : AckAggregator.expand(ack);
+        for (String id : ids) {
+            emittedCount.increment();
+            emittedSum.add(Long.parseLong(id));
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package com.example.im.bench;
+
+import com.example.im.IMApplication;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 压测用的应用上下文，数据库换成独立的内存 H2，默认不写预写日志；除 startServer 外不启动 Web 容器。
+ */
+final class BenchContext {
+    private BenchContext() {
+    }
+
+    static ConfigurableApplicationContext start(String databaseName, String... overrides) {
+        return start(WebApplicationType.NONE, databaseName, overrides);
+    }
+
+    // 启动 Web 容器（以及按 im.gateway.mode 启动的 Netty 网关），供需要真实连接的压测使用
+    static ConfigurableApplicationContext startServer(String databaseName, String... overrides) {
+        return start(WebApplicationType.SERVLET, databaseName, overrides);
+    }
+
+    private static ConfigurableApplicationContext start(WebApplicationType type, String databaseName,
+                                                        String... overrides) {
+        Map<String, String> properties = new LinkedHashMap<>();
+        properties.put("spring.datasource.url", "jdbc:h2:mem:" + databaseName + ";DB_CLOSE_DELAY=-1");
+        properties.put("spring.jpa.show-sql", "false");
+        properties.put("spring.jpa.properties.hibernate.format_sql", "false");
+        properties.put("spring.h2.console.enabled", "false");
+        properties.put("logging.level.com.example.im", "OFF");
+        properties.put("logging.level.org.springframework.web.socket", "WARN");
+        properties.put("im.cluster.enabled", "false");
+        properties.put("im.wal.enabled", "false");
+        properties.put("im.search.enabled", "false");
+        // 同名参数重复传入会被拼接成列表，覆盖项先合并再展开
+        for (String override : overrides) {
+            int eq = override.indexOf('=');
+            properties.put(override.substring(0, eq), override.substring(eq + 1));
+        }
+        // 以命令行参数传入，优先级高于 application.properties
+        return new SpringApplicationBuilder(IMApplication.class)
+                .web(type)
+                .run(properties.entrySet().stream()
+                        .map(entry -> "--" + entry.getKey() + "=" + entry.getValue())
+                        .toArray(String[]::new));
+    }
+}
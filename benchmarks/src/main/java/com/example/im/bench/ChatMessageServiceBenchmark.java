@@ -0,0 +1,140 @@
+package com.example.im.bench;
+
+import com.example.im.entity.ChatMessage;
+import com.example.im.protocol.Message;
+import com.example.im.service.ChatMessageService;
+import com.example.im.service.ChatMessageWriteBehind;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * ChatMessageService 在 H2 上的写入与分页查询，历史消息从一万条扫到一千万条，看分页查询是否与表大小无关。
+ * 数据库是 benchmarks/target 下的 H2 文件库（千万行放不进内存库），首次运行用一条 INSERT ... SELECT 预置，
+ * 条数不变时复用。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = {"-Xmx3g"})
+public class ChatMessageServiceBenchmark {
+    private static final int ASYNC_BATCH = 100;
+
+    @Param({"10000", "1000000", "10000000"})
+    private int historySize;
+
+    // 复用的库里已有上次运行写入的 bench 消息，messageId 加上本次的前缀避免冲突
+    private final String runPrefix = "bench-" + Long.toString(System.currentTimeMillis(), 36) + "-";
+
+    private final AtomicLong sequence = new AtomicLong();
+
+    private ConfigurableApplicationContext context;
+    private ChatMessageService chatMessageService;
+    private ChatMessageWriteBehind writeBehind;
+    private long middleTimestamp;
+    private String middleMessageId;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        Path dir = Paths.get("target", "history-db-" + historySize).toAbsolutePath();
+        context = BenchContext.start("persistence",
+                "spring.datasource.url=jdbc:h2:file:" + dir.resolve("chat") + ";DB_CLOSE_ON_EXIT=FALSE");
+        chatMessageService = context.getBean(ChatMessageService.class);
+        writeBehind = context.getBean(ChatMessageWriteBehind.class);
+
+        // 预置一段 alice 与 bob 的历史，其中四分之一未读；id 从 1 开始，与 Snowflake id 不冲突。
+        // 实体开启了 globally_quoted_identifiers，表名和列名都是小写的带引号标识符
+        JdbcTemplate jdbc = context.getBean(JdbcTemplate.class);
+        long base = 1_700_000_000_000L;
+        Long seeded = jdbc.queryForObject("SELECT COUNT(*) FROM \"chat_messages\" WHERE \"id\" <= ?",
+                Long.class, historySize);
+        if (seeded == null || seeded != historySize) {
+            long start = System.nanoTime();
+            jdbc.update("DELETE FROM \"chat_messages\" WHERE \"id\" <= ?", historySize);
+            jdbc.update("INSERT INTO \"chat_messages\" (\"id\", \"message_id\", \"from_user\", \"to_user\", "
+                            + "\"conversation_key\", \"content\", \"timestamp\", \"status\", \"created_at\") "
+                            + "SELECT X + 1, 'seed-' || X, CASEWHEN(MOD(X, 2) = 0, 'alice', 'bob'), "
+                            + "CASEWHEN(MOD(X, 2) = 0, 'bob', 'alice'), ?, 'hello seed-' || X, ? + X, "
+                            + "CASEWHEN(MOD(X, 4) = 0, 'SENT', 'READ'), CURRENT_TIMESTAMP "
+                            + "FROM SYSTEM_RANGE(0, ?)",
+                    ChatMessage.conversationKey("alice", "bob"), base, historySize - 1);
+            System.out.printf("%nseeded %d messages in %ds%n", historySize,
+                    TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - start));
+        }
+
+        int middle = historySize / 2;
+        middleTimestamp = base + middle;
+        middleMessageId = "seed-" + middle;
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public ChatMessage saveMessage() {
+        return chatMessageService.saveMessage(ChatMessage.of(nextChat()));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ASYNC_BATCH)
+    public boolean saveMessageAsyncAndFlush() throws InterruptedException {
+        for (int i = 0; i < ASYNC_BATCH; i++) {
+            chatMessageService.saveMessageAsync(ChatMessage.of(nextChat()));
+        }
+        return writeBehind.awaitFlush(10_000);
+    }
+
+    @Benchmark
+    public List<ChatMessage> chatHistoryLatestPage() {
+        return chatMessageService.getChatHistory("alice", "bob", 50, null, null);
+    }
+
+    @Benchmark
+    public List<ChatMessage> chatHistoryDeepPage() {
+        return chatMessageService.getChatHistory("alice", "bob", 50, middleTimestamp, middleMessageId);
+    }
+
+    @Benchmark
+    public List<ChatMessage> unreadMessages() {
+        return chatMessageService.getUnreadMessages("bob", 50, null, null);
+    }
+
+    private Message nextChat() {
+        return chat(runPrefix + sequence.incrementAndGet(), "carol", "dave", System.currentTimeMillis());
+    }
+
+    private static Message chat(String messageId, String from, String to, long timestamp) {
+        Message message = new Message();
+        message.setMessageId(messageId);
+        message.setType(Message.Type.CHAT);
+        message.setFrom(from);
+        message.setTo(to);
+        message.setContent("hello " + messageId);
+        message.setTimestamp(timestamp);
+        message.setStatus(Message.Status.SENDING);
+        return message;
+    }
+}
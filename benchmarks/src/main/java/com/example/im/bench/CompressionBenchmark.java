@@ -0,0 +1,203 @@
+package com.example.im.bench;
+
+import com.example.im.protocol.Message;
+import com.example.im.protocol.codec.BinaryMessageCodec;
+import com.example.im.protocol.codec.ContentCompressor;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
+
+/**
+ * 二进制协议 content 压缩的 CPU 与带宽：按 70% 短消息、20% 段落、10% 粘贴日志的分布生成消息，
+ * 对比不压缩、整帧 deflate（相当于 permessage-deflate，保留上下文）、LZ4、ZSTD 和带字典的 ZSTD。
+ * 每组参数开始时打印压缩后字节数占原始帧的比例（ratio），threshold 以下的消息不压缩。
+ * DEFLATE 的 decode 不含解压，与 NONE 相同。
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CompressionBenchmark {
+    private static final int MESSAGES = 4096;
+
+    @Param({"NONE", "DEFLATE", "LZ4", "ZSTD", "ZSTD_DICT"})
+    private String algorithm;
+
+    @Param({"256"})
+    private int threshold;
+
+    private Message[] messages;
+    private ByteBuf[] encoded;
+    private ContentCompressor compressor;
+    private Deflater deflater;
+    private final byte[] deflateBuffer = new byte[1 << 20];
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        messages = generate(new Random(42), MESSAGES);
+        switch (algorithm) {
+            case "NONE":
+            case "DEFLATE":
+                break;
+            case "ZSTD_DICT":
+                // 字典用另一批样本训练，避免与被测消息重合
+                List<byte[]> samples = new ArrayList<>();
+                for (Message message : generate(new Random(7), 20000)) {
+                    samples.add(message.getContent().getBytes(StandardCharsets.UTF_8));
+                }
+                byte[] dictionary = ContentCompressor.trainDictionary(samples, 64 * 1024);
+                compressor = new ContentCompressor(ContentCompressor.Algorithm.ZSTD, threshold, 3, dictionary);
+                break;
+            default:
+                compressor = new ContentCompressor(ContentCompressor.Algorithm.valueOf(algorithm), threshold);
+        }
+        deflater = new Deflater(6, true);
+        encoded = new ByteBuf[MESSAGES];
+        long rawBytes = 0;
+        long wireBytes = 0;
+        for (int i = 0; i < MESSAGES; i++) {
+            rawBytes += rawLength(messages[i]);
+            encoded[i] = PooledByteBufAllocator.DEFAULT.buffer();
+            BinaryMessageCodec.encode(messages[i], encoded[i], compressor);
+            wireBytes += "DEFLATE".equals(algorithm) ? deflate(encoded[i]) : encoded[i].readableBytes();
+        }
+        // 压缩率与消息顺序无关，在这里算一次，和耗时一起看
+        System.out.printf("%n%s: raw=%d wire=%d ratio=%.3f%n", algorithm, rawBytes, wireBytes, (double) wireBytes / rawBytes);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        for (ByteBuf buf : encoded) {
+            buf.release();
+        }
+        deflater.end();
+    }
+
+    @Benchmark
+    public int encode() {
+        ByteBuf out = PooledByteBufAllocator.DEFAULT.buffer();
+        try {
+            BinaryMessageCodec.encode(messages[next++ & (MESSAGES - 1)], out, compressor);
+            return "DEFLATE".equals(algorithm) ? deflate(out) : out.readableBytes();
+        } finally {
+            out.release();
+        }
+    }
+
+    @Benchmark
+    public Message decode() {
+        ByteBuf in = encoded[next++ & (MESSAGES - 1)].duplicate();
+        return BinaryMessageCodec.decode(in, compressor);
+    }
+
+    // 与 permessage-deflate 一样在同一连接上保留压缩上下文，每条消息以 SYNC_FLUSH 结束
+    private int deflate(ByteBuf frame) {
+        byte[] input = new byte[frame.readableBytes()];
+        frame.getBytes(frame.readerIndex(), input);
+        deflater.setInput(input);
+        int total = 0;
+        int n;
+        while ((n = deflater.deflate(deflateBuffer, 0, deflateBuffer.length, Deflater.SYNC_FLUSH)) > 0) {
+            total += n;
+            if (n < deflateBuffer.length) {
+                break;
+            }
+        }
+        // 末尾的 00 00 ff ff 不上线
+        return total - 4;
+    }
+
+    private static int rawLength(Message message) {
+        ByteBuf out = PooledByteBufAllocator.DEFAULT.buffer();
+        try {
+            BinaryMessageCodec.encode(message, out);
+            return out.readableBytes();
+        } finally {
+            out.release();
+        }
+    }
+
+    private static Message[] generate(Random random, int count) {
+        Message[] result = new Message[count];
+        for (int i = 0; i < count; i++) {
+            Message message = new Message();
+            message.setMessageId(Long.toString(7_000_000_000_000_000_000L + random.nextInt(1 << 30)));
+            message.setType(Message.Type.CHAT);
+            message.setFrom("user" + random.nextInt(10000));
+            message.setTo("user" + random.nextInt(10000));
+            message.setTimestamp(1_760_000_000_000L + random.nextInt(1 << 30));
+            message.setStatus(Message.Status.SENDING);
+            message.setNeedAck(true);
+            int kind = random.nextInt(10);
+            message.setContent(kind < 7 ? shortChat(random) : kind < 9 ? paragraph(random) : pastedLog(random));
+            result[i] = message;
+        }
+        return result;
+    }
+
+    private static final String[] CHAT = {
+            "好的", "收到", "晚上一起吃饭吗？", "我看一下", "ok", "明天上午十点开会", "哈哈哈",
+            "刚才那个问题解决了吗", "PR 已经提了，帮忙看下", "在路上，马上到", "thanks!", "这个需求下周再排"
+    };
+
+    private static final String[] WORDS = {
+            "服务", "接口", "超时", "数据库", "连接池", "重试", "消息", "队列", "部署", "回滚", "监控", "告警",
+            "延迟", "吞吐", "配置", "灰度", "客户端", "版本", "日志", "缓存", "the", "request", "latency", "error"
+    };
+
+    private static String shortChat(Random random) {
+        return CHAT[random.nextInt(CHAT.length)];
+    }
+
+    private static String paragraph(Random random) {
+        int words = 60 + random.nextInt(200);
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < words; i++) {
+            sb.append(WORDS[random.nextInt(WORDS.length)]);
+            if (random.nextInt(8) == 0) {
+                sb.append(random.nextBoolean() ? "，" : "。");
+            }
+        }
+        return sb.toString();
+    }
+
+    private static String pastedLog(Random random) {
+        int lines = 20 + random.nextInt(80);
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < lines; i++) {
+            sb.append("2025-10-18 12:")
+                    .append(10 + random.nextInt(50)).append(':').append(10 + random.nextInt(50))
+                    .append('.').append(100 + random.nextInt(900))
+                    .append(random.nextInt(5) == 0 ? "  WARN " : "  INFO ")
+                    .append(random.nextInt(90000) + 10000)
+                    .append(" --- [nio-8080-exec-").append(random.nextInt(200)).append("] ")
+                    .append("c.e.im.service.ChatMessageService       : ")
+                    .append("Saved message ").append(random.nextLong())
+                    .append(" from user").append(random.nextInt(10000))
+                    .append(" in ").append(random.nextInt(50)).append("ms\n");
+        }
+        return sb.toString();
+    }
+}
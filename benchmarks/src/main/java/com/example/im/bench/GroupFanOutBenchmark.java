@@ -0,0 +1,84 @@
+package com.example.im.bench;
+
+import com.example.im.group.MemberIndex;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 群消息扇出前的成员解析：位图索引遍历全部成员、判断发送者是否在群里，
+ * 以 HashSet<String> 存成员作为参照。成员加入时穿插其他群，位图不是连续区间。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class GroupFanOutBenchmark {
+    private static final long GROUP_ID = 1L;
+
+    @Param({"500", "10000"})
+    private int members;
+
+    private MemberIndex index;
+    private Set<String> memberSet;
+    private String[] probes;
+    private int probe;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        index = new MemberIndex();
+        memberSet = new HashSet<>();
+        for (int i = 0; i < members; i++) {
+            String username = "user" + i;
+            index.add(GROUP_ID, username);
+            memberSet.add(username);
+            index.add(100 + i % 50, "other" + i);
+        }
+        probes = new String[1024];
+        for (int i = 0; i < probes.length; i++) {
+            probes[i] = "user" + ThreadLocalRandom.current().nextInt(members * 2);
+        }
+        System.out.printf("%n%d members: bitmap index %d bytes%n", members, index.getSizeInBytes());
+    }
+
+    @Benchmark
+    public void bitmapForEach(Blackhole bh) {
+        index.forEachMember(GROUP_ID, bh::consume);
+    }
+
+    @Benchmark
+    public void hashSetForEach(Blackhole bh) {
+        for (String username : memberSet) {
+            bh.consume(username);
+        }
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public boolean bitmapContains() {
+        return index.contains(GROUP_ID, probes[probe++ & 1023]);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public boolean hashSetContains() {
+        return memberSet.contains(probes[probe++ & 1023]);
+    }
+}
@@ -0,0 +1,102 @@
+package com.example.im.bench;
+
+import com.example.im.config.WebSocketHandler;
+import com.example.im.entity.ChatMessage;
+import com.example.im.service.ChatMessageService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.TextMessage;
+
+import java.lang.reflect.Field;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * WebSocketHandler 处理一帧入站消息的开销：解析、路由、转发给本节点上的接收者。
+ * 持久化换成空实现，否则写入队列很快被填满，聊天消息走的是拒绝分支；配合 -prof gc 看每帧分配的字节数。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class InboundFrameBenchmark {
+    @Param({"CHAT", "ACK", "BATCH_ACK", "HEARTBEAT"})
+    private String frame;
+
+    private ConfigurableApplicationContext context;
+    private WebSocketHandler handler;
+    private BenchWebSocketSession alice;
+    private BenchWebSocketSession bob;
+    private TextMessage payload;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        context = BenchContext.start("inbound", "im.admission.enabled=false");
+        handler = context.getBean(WebSocketHandler.class);
+        Field field = WebSocketHandler.class.getDeclaredField("chatMessageService");
+        field.setAccessible(true);
+        field.set(handler, new ChatMessageService() {
+            @Override
+            public boolean saveMessageAsync(ChatMessage message) {
+                return true;
+            }
+
+            @Override
+            public boolean updateMessageStatusAsync(String messageId, ChatMessage.Status status) {
+                return true;
+            }
+        });
+
+        alice = new BenchWebSocketSession("alice");
+        bob = new BenchWebSocketSession("bob");
+        handler.afterConnectionEstablished(alice);
+        handler.afterConnectionEstablished(bob);
+        payload = new TextMessage(frame(frame));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        handler.afterConnectionClosed(alice, CloseStatus.NORMAL);
+        handler.afterConnectionClosed(bob, CloseStatus.NORMAL);
+        context.close();
+    }
+
+    // CHAT 由 alice 发给 bob，确认由 bob 发回 alice
+    @Benchmark
+    public void handle() throws Exception {
+        handler.handleMessage("CHAT".equals(frame) ? alice : bob, payload);
+    }
+
+    private static String frame(String type) {
+        long now = System.currentTimeMillis();
+        switch (type) {
+            case "CHAT":
+                return "{\"messageId\":\"7380000000000000001\",\"type\":\"CHAT\",\"to\":\"bob\","
+                        + "\"content\":\"晚上一起吃饭吗？六点半楼下见，顺便把周报的数据对一下\","
+                        + "\"timestamp\":" + now + ",\"status\":\"SENDING\",\"needAck\":true}";
+            case "ACK":
+                return "{\"type\":\"ACK\",\"to\":\"alice\",\"ackMessageId\":\"7380000000000000001\","
+                        + "\"status\":\"DELIVERED\",\"timestamp\":" + now + "}";
+            case "BATCH_ACK":
+                return "{\"type\":\"BATCH_ACK\",\"to\":\"alice\",\"status\":\"DELIVERED\","
+                        + "\"batchAckMessageIds\":[\"7380000000000000001\",\"7380000000000000005\",\"7380000000000000009\"],"
+                        + "\"batchAckRanges\":[\"7380000000000000100-7380000000000000115\"],\"timestamp\":" + now + "}";
+            default:
+                return "{\"type\":\"HEARTBEAT\",\"timestamp\":" + now + "}";
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package com.example.im.bench;
+
+import com.example.im.protocol.Message;
+import com.example.im.protocol.codec.BinaryMessageCodec;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.gson.Gson;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Message 的 JSON 序列化：WebSocket 链路用的 Jackson 与 Netty 链路用的 Gson，二进制编码作为参照。
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MessageCodecBenchmark {
+    @Param({"16", "1024"})
+    private int contentLength;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final Gson gson = new Gson();
+
+    private Message message;
+    private String jacksonJson;
+    private String gsonJson;
+    private ByteBuf binary;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        message = new Message();
+        message.setMessageId("1700000000000-0.123456789");
+        message.setType(Message.Type.CHAT);
+        message.setFrom("alice");
+        message.setTo("bob");
+        message.setContent(content(contentLength));
+        message.setTimestamp(System.currentTimeMillis());
+        message.setStatus(Message.Status.SENDING);
+        message.setNeedAck(true);
+
+        jacksonJson = objectMapper.writeValueAsString(message);
+        gsonJson = gson.toJson(message);
+        binary = PooledByteBufAllocator.DEFAULT.buffer();
+        BinaryMessageCodec.encode(message, binary);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        binary.release();
+    }
+
+    @Benchmark
+    public String jacksonSerialize() throws Exception {
+        return objectMapper.writeValueAsString(message);
+    }
+
+    @Benchmark
+    public Message jacksonDeserialize() throws Exception {
+        return objectMapper.readValue(jacksonJson, Message.class);
+    }
+
+    @Benchmark
+    public String gsonSerialize() {
+        return gson.toJson(message);
+    }
+
+    @Benchmark
+    public Message gsonDeserialize() {
+        return gson.fromJson(gsonJson, Message.class);
+    }
+
+    @Benchmark
+    public int binaryEncode() {
+        ByteBuf out = PooledByteBufAllocator.DEFAULT.buffer();
+        try {
+            BinaryMessageCodec.encode(message, out);
+            return out.readableBytes();
+        } finally {
+            out.release();
+        }
+    }
+
+    @Benchmark
+    public Message binaryDecode() {
+        return BinaryMessageCodec.decode(binary.duplicate());
+    }
+
+    private static String content(int length) {
+        StringBuilder sb = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            sb.append(i % 3 == 0 ? '消' : (char) ('a' + i % 26));
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,60 @@
+package com.example.im.bench;
+
+import com.example.im.message.MessageIdGenerator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Snowflake id 与原先 "毫秒-随机数" 字符串 id 的生成开销，多线程并发。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(4)
+public class MessageIdBenchmark {
+    private ConfigurableApplicationContext context;
+    private MessageIdGenerator generator;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        context = BenchContext.start("ids");
+        generator = context.getBean(MessageIdGenerator.class);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public long snowflake() {
+        return generator.nextId();
+    }
+
+    @Benchmark
+    public String snowflakeString() {
+        return Long.toString(generator.nextId());
+    }
+
+    @Benchmark
+    public String legacyRandom() {
+        return System.currentTimeMillis() + "-" + Math.random();
+    }
+}
@@ -0,0 +1,135 @@
+package com.example.im.bench;
+
+import com.example.im.config.WebSocketHandler;
+import com.example.im.message.MessageManager;
+import com.example.im.protocol.Message;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.web.socket.CloseStatus;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * MessageManager 发送登记、加入重试队列、收到确认后注销的整套记账开销。
+ * durable=true 时发送记录写入预写日志；每个线程最多 WINDOW 条发送未落盘，超出时等待最早的一条，
+ * 吞吐按已落盘的发送计，并发线程和同一线程的连续发送共享组提交。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MessageManagerBenchmark {
+    private static final int BATCH_SIZE = 10;
+    private static final int WINDOW = 64;
+
+    // 每个线程尚未落盘的发送
+    @State(Scope.Thread)
+    public static class InFlight {
+        private final ArrayDeque<CompletableFuture<String>> futures = new ArrayDeque<>();
+
+        void add(CompletableFuture<String> future) {
+            futures.addLast(future);
+            if (futures.size() > WINDOW) {
+                futures.pollFirst().join();
+            }
+        }
+
+        @TearDown(Level.Iteration)
+        public void drain() {
+            futures.forEach(CompletableFuture::join);
+            futures.clear();
+        }
+    }
+
+    @Param({"false", "true"})
+    private boolean durable;
+
+    private Path walDir;
+    private ConfigurableApplicationContext context;
+    private WebSocketHandler handler;
+    private MessageManager messageManager;
+    private BenchWebSocketSession recipient;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        walDir = Files.createTempDirectory("im-wal-bench");
+        context = BenchContext.start("manager", "im.wal.enabled=" + durable, "im.wal.dir=" + walDir);
+        handler = context.getBean(WebSocketHandler.class);
+        messageManager = context.getBean(MessageManager.class);
+        recipient = new BenchWebSocketSession("bob");
+        handler.afterConnectionEstablished(recipient);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        handler.afterConnectionClosed(recipient, CloseStatus.NORMAL);
+        context.close();
+        try (Stream<Path> files = Files.walk(walDir)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Benchmark
+    @Threads(8)
+    public String sendAndAck(InFlight inFlight) {
+        Message message = new Message();
+        message.setType(Message.Type.CHAT);
+        message.setFrom("alice");
+        message.setTo("bob");
+        message.setContent("hello");
+        inFlight.add(messageManager.sendMessage(message));
+
+        Message ack = new Message();
+        ack.setType(Message.Type.ACK);
+        ack.setAckMessageId(message.getMessageId());
+        messageManager.handleAck(ack);
+        return message.getMessageId();
+    }
+
+    @Benchmark
+    @Threads(8)
+    @OperationsPerInvocation(BATCH_SIZE)
+    public Message batchAck(InFlight inFlight) {
+        // 一次确认 10 条，对应客户端批量确认的默认批大小
+        Message ack = new Message();
+        ack.setType(Message.Type.BATCH_ACK);
+        List<String> ids = new ArrayList<>(BATCH_SIZE);
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            Message message = new Message();
+            message.setType(Message.Type.CHAT);
+            message.setFrom("alice");
+            message.setTo("bob");
+            message.setContent("hello");
+            inFlight.add(messageManager.sendMessage(message));
+            ids.add(message.getMessageId());
+        }
+        ack.setBatchAckMessageIds(ids);
+        messageManager.handleAck(ack);
+        return ack;
+    }
+}
@@ -0,0 +1,155 @@
+package com.example.im.bench;
+
+import com.example.im.entity.ChatMessage;
+import com.example.im.search.MessageSearchIndex;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * 全文检索的查询延迟：高频词、低频词、两词同时命中、限定单个会话，每次取一页 20 条。
+ * 消息内容从按 Zipf 分布的词表中随机生成，索引建在 benchmarks/target 下，条数不变时复用。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = {"-Xmx4g"})
+public class MessageSearchBenchmark {
+    private static final int VOCABULARY = 50_000;
+    private static final int USERS = 10_000;
+    private static final int PAGE = 20;
+    private static final int BATCH = 10_000;
+
+    @Param({"1000000", "10000000"})
+    private int messages;
+
+    private ConfigurableApplicationContext context;
+    private MessageSearchIndex index;
+    private MessageSearchIndex.Scope conversation;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        Path dir = Paths.get("target", "search-index-" + messages);
+        boolean reuse = Files.exists(dir);
+        context = BenchContext.start("search", "im.search.enabled=true", "im.search.dir=" + dir);
+        index = context.getBean(MessageSearchIndex.class);
+        if (reuse && index.getDocCount() != messages) {
+            context.close();
+            delete(dir);
+            context = BenchContext.start("search", "im.search.enabled=true", "im.search.dir=" + dir);
+            index = context.getBean(MessageSearchIndex.class);
+            reuse = false;
+        }
+        if (!reuse) {
+            build();
+        }
+        conversation = MessageSearchIndex.Scope.conversation(ChatMessage.conversationKey("user1", "user2"));
+        System.out.printf("%n%d messages indexed (%s)%n", index.getDocCount(), reuse ? "reused" : "built");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public List<Long> commonTerm() throws IOException {
+        return index.search("w1", null, null, PAGE);
+    }
+
+    @Benchmark
+    public List<Long> rareTerm() throws IOException {
+        return index.search("w40000", null, null, PAGE);
+    }
+
+    @Benchmark
+    public List<Long> twoTerms() throws IOException {
+        return index.search("w3 w50", null, null, PAGE);
+    }
+
+    @Benchmark
+    public List<Long> conversationScoped() throws IOException {
+        return index.search("w1", conversation, null, PAGE);
+    }
+
+    // 会话集中在少数用户之间，user1 与 user2 的会话足够大，限定范围的查询才有意义
+    private void build() throws IOException {
+        SplittableRandom random = new SplittableRandom(42);
+        double[] cumulative = zipf();
+        long start = System.nanoTime();
+        List<ChatMessage> batch = new ArrayList<>(BATCH);
+        for (int i = 1; i <= messages; i++) {
+            ChatMessage message = new ChatMessage();
+            message.setId((long) i);
+            int from = 1 + (int) (USERS * Math.pow(random.nextDouble(), 4));
+            int to = 1 + (int) (USERS * Math.pow(random.nextDouble(), 4));
+            message.setFrom("user" + from);
+            message.setTo("user" + (to == from ? to + 1 : to));
+            message.setConversationKey(ChatMessage.conversationKey(message.getFrom(), message.getTo()));
+            StringBuilder content = new StringBuilder();
+            int words = 4 + random.nextInt(12);
+            for (int w = 0; w < words; w++) {
+                content.append('w').append(sample(cumulative, random.nextDouble())).append(' ');
+            }
+            message.setContent(content.toString());
+            batch.add(message);
+            if (batch.size() == BATCH) {
+                index.index(batch);
+                batch.clear();
+            }
+        }
+        index.index(batch);
+        index.commit();
+        System.out.printf("%nindexed %d messages in %ds%n", messages,
+                TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - start));
+    }
+
+    private static double[] zipf() {
+        double[] cumulative = new double[VOCABULARY];
+        double sum = 0;
+        for (int rank = 1; rank <= VOCABULARY; rank++) {
+            sum += 1.0 / rank;
+            cumulative[rank - 1] = sum;
+        }
+        for (int i = 0; i < VOCABULARY; i++) {
+            cumulative[i] /= sum;
+        }
+        return cumulative;
+    }
+
+    private static int sample(double[] cumulative, double u) {
+        int pos = Arrays.binarySearch(cumulative, u);
+        return (pos >= 0 ? pos : -pos - 1) + 1;
+    }
+
+    private static void delete(Path dir) throws IOException {
+        try (Stream<Path> files = Files.walk(dir)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+}
@@ -0,0 +1,184 @@
+package com.example.im.bench;
+
+import com.example.im.client.IMClient;
+import com.example.im.client.IMClientHandler;
+import com.example.im.protocol.Message;
+import com.example.im.protocol.codec.CodecType;
+import com.example.im.server.IMServer;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.ChannelPipeline;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * IMServer 与两个 IMClient 走本机回环：sender 发出的聊天消息经服务端路由到 receiver。
+ */
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class NettyLoopbackBenchmark {
+    private static final int BATCH = 256;
+
+    @Param({"BINARY", "JSON"})
+    private CodecType codec;
+
+    @Param({"64"})
+    private int contentLength;
+
+    private final AtomicLong received = new AtomicLong();
+
+    private IMServer server;
+    private IMClient sender;
+    private IMClient receiver;
+    private Channel senderChannel;
+    private Message message;
+    private long sent;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        int port = freePort();
+        server = new IMServer(port, codec);
+        startDaemon("bench-im-server", server::start);
+        awaitListening(port);
+
+        sender = new IMClient("localhost", port, codec);
+        receiver = new IMClient("localhost", port, codec);
+        startDaemon("bench-im-sender", sender::start);
+        startDaemon("bench-im-receiver", receiver::start);
+        senderChannel = awaitChannel(sender);
+        Channel receiverChannel = awaitChannel(receiver);
+
+        // 在业务 handler 之前计数，后者会吞掉消息
+        ChannelPipeline pipeline = receiverChannel.pipeline();
+        pipeline.addBefore(pipeline.context(IMClientHandler.class).name(), "bench-counter",
+                new ChannelInboundHandlerAdapter() {
+                    @Override
+                    public void channelRead(ChannelHandlerContext ctx, Object msg) {
+                        received.incrementAndGet();
+                        ctx.fireChannelRead(msg);
+                    }
+                });
+
+        login(receiverChannel, "receiver");
+        login(senderChannel, "sender");
+
+        message = new Message();
+        message.setType(Message.Type.CHAT);
+        message.setFrom("sender");
+        message.setTo("receiver");
+        message.setContent("x".repeat(contentLength));
+        message.setTimestamp(System.currentTimeMillis());
+
+        // 确认路由已经建立
+        sendAndAwait(1);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        senderChannel.close();
+        receiver.getChannel().close();
+        server.stop();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SampleTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public long oneWayLatency() {
+        return sendAndAwait(1);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    @OperationsPerInvocation(BATCH)
+    public long throughput() {
+        return sendAndAwait(BATCH);
+    }
+
+    private long sendAndAwait(int count) {
+        // 编码在事件循环里进行，消息对象只读共享
+        for (int i = 0; i < count; i++) {
+            senderChannel.write(message);
+        }
+        senderChannel.flush();
+        sent += count;
+        while (received.get() < sent) {
+            Thread.onSpinWait();
+        }
+        return sent;
+    }
+
+    private static void login(Channel channel, String username) throws InterruptedException {
+        Message login = new Message();
+        login.setType(Message.Type.LOGIN);
+        login.setFrom(username);
+        channel.writeAndFlush(login).sync();
+    }
+
+    private static void startDaemon(String name, ThrowingRunnable task) {
+        Thread thread = new Thread(() -> {
+            try {
+                task.run();
+            } catch (Exception e) {
+                throw new IllegalStateException(name + " failed", e);
+            }
+        }, name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    private static void awaitListening(int port) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (System.currentTimeMillis() < deadline) {
+            try (Socket ignored = new Socket("localhost", port)) {
+                return;
+            } catch (IOException e) {
+                Thread.sleep(20);
+            }
+        }
+        throw new IllegalStateException("IMServer did not start on port " + port);
+    }
+
+    private static Channel awaitChannel(IMClient client) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (System.currentTimeMillis() < deadline) {
+            Channel channel = client.getChannel();
+            if (channel != null && channel.isActive()) {
+                return channel;
+            }
+            Thread.sleep(20);
+        }
+        throw new IllegalStateException("IMClient did not connect");
+    }
+
+    private interface ThrowingRunnable {
+        void run() throws Exception;
+    }
+}
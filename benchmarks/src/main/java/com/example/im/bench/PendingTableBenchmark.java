@@ -0,0 +1,130 @@
+package com.example.im.bench;
+
+import com.example.im.message.OffHeapPendingTable;
+import com.example.im.protocol.Message;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 常驻大量未确认消息时（模拟客户端断线），待确认表的登记 / 确认开销和内存占用。
+ * heap 是原先每条消息一个 Message 对象的做法，offheap 是堆外 slab 表，spill 把堆外上限压到 1MB，大部分积压溢出到磁盘。
+ * 配合 -prof gc 看 GC 次数与耗时；常驻的堆内 / 堆外字节数在 Setup 结束时打印。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx1g", "-XX:MaxDirectMemorySize=1g"})
+public class PendingTableBenchmark {
+    @Param({"heap", "offheap", "spill"})
+    private String store;
+
+    @Param({"200000"})
+    private int backlog;
+
+    private Map<Long, Message> heapTable;
+    private OffHeapPendingTable offHeapTable;
+    private Path spillDir;
+    private long nextId;
+    private long lookups;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        long baseline = usedHeapAfterGc();
+        if ("heap".equals(store)) {
+            heapTable = new ConcurrentHashMap<>();
+        } else {
+            spillDir = Files.createTempDirectory("im-pending-bench");
+            boolean spill = "spill".equals(store);
+            offHeapTable = new OffHeapPendingTable(16, spill ? 64 << 10 : 1 << 20, spill ? 1 << 20 : 1L << 30, spillDir);
+        }
+        // id 从 1 开始：0 是表内保留的空键
+        for (nextId = 1; nextId <= backlog; nextId++) {
+            put(nextId, message(nextId));
+        }
+        long heapBytes = usedHeapAfterGc() - baseline;
+        System.out.printf("%n[%s] backlog=%d resident heap=%,d bytes offheap=%,d bytes spilled=%,d bytes%n",
+                store, backlog, heapBytes,
+                offHeapTable != null ? offHeapTable.getOffHeapBytes() : 0,
+                offHeapTable != null ? offHeapTable.getSpilledBytes() : 0);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        if (offHeapTable != null) {
+            offHeapTable.close();
+            Files.deleteIfExists(spillDir);
+        }
+    }
+
+    /**
+     * 登记一条新消息并确认最早的一条，积压量保持不变。
+     */
+    @Benchmark
+    public boolean sendAndAck() {
+        long id = nextId++;
+        put(id, message(id));
+        return remove(id - backlog);
+    }
+
+    /**
+     * 重试时读取积压中的消息。
+     */
+    @Benchmark
+    public Message retryLookup() {
+        long id = nextId - 1 - (lookups++ * 7919 % backlog);
+        return heapTable != null ? heapTable.get(id) : offHeapTable.get(id);
+    }
+
+    private void put(long id, Message message) {
+        if (heapTable != null) {
+            heapTable.put(id, message);
+        } else {
+            offHeapTable.put(id, message);
+        }
+    }
+
+    private boolean remove(long id) {
+        return heapTable != null ? heapTable.remove(id) != null : offHeapTable.remove(id);
+    }
+
+    private static Message message(long id) {
+        Message message = new Message();
+        message.setMessageId(Long.toString(id));
+        message.setType(Message.Type.CHAT);
+        message.setFrom("alice");
+        message.setTo("bob");
+        message.setContent("pending message payload #" + id);
+        message.setTimestamp(System.currentTimeMillis());
+        message.setStatus(Message.Status.SENDING);
+        message.setNeedAck(true);
+        return message;
+    }
+
+    private static long usedHeapAfterGc() {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+}
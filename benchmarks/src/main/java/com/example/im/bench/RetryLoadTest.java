@@ -0,0 +1,125 @@
+package com.example.im.bench;
+
+import com.example.im.config.WebSocketHandler;
+import com.example.im.message.MessageManager;
+import com.example.im.message.RetryScheduler;
+import com.example.im.protocol.Message;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.web.socket.CloseStatus;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntConsumer;
+
+/**
+ * 重试调度压测：发出 inFlight 条一直不确认的消息，停留 holdSeconds 让重试按 3 秒周期触发，
+ * 再全部批量确认。每到一个十分之一和整个过程中记录线程数，验证待确认消息数上万时线程数不随之增长
+ * （改造前每条消息一个睡眠线程）。参数通过 -D 传入：
+ * <ul>
+ *   <li>inFlight：待确认消息数，默认 50000</li>
+ *   <li>holdSeconds：全部发出后不确认的时长，默认 5（重试间隔 3 秒，先发出的消息已重试过两轮，在重试次数用完前确认）</li>
+ * </ul>
+ */
+public class RetryLoadTest {
+    private static final int ACK_BATCH = 64;
+
+    private final int inFlight = Integer.getInteger("inFlight", 50000);
+    private final int holdSeconds = Integer.getInteger("holdSeconds", 5);
+    private final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    private volatile int maxThreads;
+
+    public static void main(String[] args) throws Exception {
+        new RetryLoadTest().run();
+    }
+
+    private void run() throws Exception {
+        ConfigurableApplicationContext context = BenchContext.start("retry",
+                "im.admission.enabled=false",
+                // 接收端不读也不能被当作慢连接丢帧，否则消息在发送时就失败，不进入重试
+                "websocket.outbound.buffer-size-limit=1073741824");
+        try {
+            WebSocketHandler handler = context.getBean(WebSocketHandler.class);
+            MessageManager messageManager = context.getBean(MessageManager.class);
+            RetryScheduler retryScheduler = context.getBean(RetryScheduler.class);
+            BenchWebSocketSession recipient = new BenchWebSocketSession("bob");
+            handler.afterConnectionEstablished(recipient);
+
+            Thread sampler = new Thread(() -> {
+                while (!Thread.currentThread().isInterrupted()) {
+                    maxThreads = Math.max(maxThreads, threads.getThreadCount());
+                    try {
+                        Thread.sleep(20);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+            }, "thread-sampler");
+            sampler.setDaemon(true);
+            sampler.start();
+
+            // 写线程池等按需创建的线程先起来，before 才是稳态的基线
+            acknowledge(messageManager, send(messageManager, 1000, null));
+            Thread.sleep(500);
+            int before = threads.getThreadCount();
+            System.out.printf("inFlight=%d hold=%ds threads before=%d%n", inFlight, holdSeconds, before);
+            long start = System.nanoTime();
+            List<String> ids = send(messageManager, inFlight, sent -> System.out.printf("  sent=%d pending=%d threads=%d%n",
+                    sent, messageManager.getPendingCount(), threads.getThreadCount()));
+            System.out.printf("sent %d in %dms, pending=%d%n", ids.size(),
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), messageManager.getPendingCount());
+
+            for (int second = 1; second <= holdSeconds; second++) {
+                Thread.sleep(1000);
+                System.out.printf("  t+%ds pending=%d frames written=%d threads=%d fireLag=%dms%n", second,
+                        messageManager.getPendingCount(), recipient.getSentCount(), threads.getThreadCount(),
+                        retryScheduler.getLastFireLagMillis());
+            }
+
+            acknowledge(messageManager, ids);
+            System.out.printf("after ACK pending=%d threads=%d%n", messageManager.getPendingCount(), threads.getThreadCount());
+            sampler.interrupt();
+            System.out.printf("threads before=%d max during=%d; retry timer fired=%d maxFireLag=%dms%n",
+                    before, maxThreads, retryScheduler.getFiredCount(), retryScheduler.getMaxFireLagMillis());
+            handler.afterConnectionClosed(recipient, CloseStatus.NORMAL);
+        } finally {
+            context.close();
+        }
+    }
+
+    // progress 不为空时每发出十分之一回调一次
+    private static List<String> send(MessageManager messageManager, int count, IntConsumer progress) {
+        List<CompletableFuture<String>> sent = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            Message message = new Message();
+            message.setType(Message.Type.CHAT);
+            message.setFrom("alice");
+            message.setTo("bob");
+            message.setContent("hello " + i);
+            sent.add(messageManager.sendMessage(message));
+            if (progress != null && (i + 1) % Math.max(1, count / 10) == 0) {
+                progress.accept(i + 1);
+            }
+        }
+        List<String> ids = new ArrayList<>(count);
+        for (CompletableFuture<String> future : sent) {
+            String id = future.join();
+            if (id != null) {
+                ids.add(id);
+            }
+        }
+        return ids;
+    }
+
+    private static void acknowledge(MessageManager messageManager, List<String> ids) {
+        for (int from = 0; from < ids.size(); from += ACK_BATCH) {
+            Message ack = new Message();
+            ack.setType(Message.Type.BATCH_ACK);
+            ack.setBatchAckMessageIds(ids.subList(from, Math.min(ids.size(), from + ACK_BATCH)));
+            messageManager.handleAck(ack);
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package com.example.im.bench;
+
+import com.example.im.config.WebSocketHandler;
+import com.example.im.protocol.Message;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.web.socket.CloseStatus;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * WebSocketHandler 按用户名查找连接并投递的开销，连接本身不写网络。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RoutingBenchmark {
+    @Param({"100", "5000"})
+    private int onlineUsers;
+
+    private ConfigurableApplicationContext context;
+    private WebSocketHandler handler;
+    private BenchWebSocketSession[] sessions;
+    private Message[] online;
+    private Message offline;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        context = BenchContext.start("routing");
+        handler = context.getBean(WebSocketHandler.class);
+
+        sessions = new BenchWebSocketSession[onlineUsers];
+        online = new Message[onlineUsers];
+        for (int i = 0; i < onlineUsers; i++) {
+            sessions[i] = new BenchWebSocketSession("user" + i);
+            handler.afterConnectionEstablished(sessions[i]);
+            online[i] = chat("user" + i);
+        }
+        offline = chat("nobody");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        for (BenchWebSocketSession session : sessions) {
+            handler.afterConnectionClosed(session, CloseStatus.NORMAL);
+        }
+        context.close();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void routeToOnlineUser() {
+        handler.sendMessage(online[ThreadLocalRandom.current().nextInt(online.length)]);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void routeToOfflineUser() {
+        handler.sendMessage(offline);
+    }
+
+    private static Message chat(String to) {
+        Message message = new Message();
+        message.setMessageId("bench-" + to);
+        message.setType(Message.Type.CHAT);
+        message.setFrom("sender");
+        message.setTo(to);
+        message.setContent("hello");
+        message.setTimestamp(System.currentTimeMillis());
+        message.setStatus(Message.Status.SENDING);
+        message.setNeedAck(true);
+        return message;
+    }
+}
@@ -0,0 +1,172 @@
+package com.example.im.bench;
+
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.WebSocket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 慢连接隔离压测：slowClients 个连接握手后不再读取，发送方持续给它们发大消息，直到服务端的 socket 缓冲写满；
+ * 同时给一个正常读取的连接按固定间隔发消息，统计它的端到端延迟。
+ * 写出被慢连接占住时（例如共享写线程池的线程都阻塞在慢连接上），正常连接的延迟会涨到发送时限（默认 10 秒）。
+ * 服务在本进程内启动，参数通过 -D 传入：
+ * <ul>
+ *   <li>gateway：spring / netty，默认 spring</li>
+ *   <li>slowClients：不读取的连接数，默认 32（大于默认的 16 个写线程）</li>
+ *   <li>floodMessages：发给每个慢连接的消息数，默认 1000（约 6MB，超过服务端 socket 发送缓冲的上限）</li>
+ *   <li>probes：发给正常连接的消息数，默认 100，间隔 50ms</li>
+ * </ul>
+ */
+public class SlowConsumerLoadTest {
+    private static final int PORT = 18090;
+    private static final int GATEWAY_PORT = 18091;
+    // Tomcat 默认的文本消息缓冲是 8KB，单帧留在其内
+    private static final int PAYLOAD_CHARS = 6000;
+
+    private final String gateway = System.getProperty("gateway", "spring");
+    private final int slowClients = Integer.getInteger("slowClients", 32);
+    private final int floodMessages = Integer.getInteger("floodMessages", 1000);
+    private final int probes = Integer.getInteger("probes", 100);
+
+    private final HttpClient http = HttpClient.newHttpClient();
+    private final AtomicInteger nextId = new AtomicInteger();
+    private final long idBase = System.currentTimeMillis() * 1000;
+
+    public static void main(String[] args) throws Exception {
+        new SlowConsumerLoadTest().run();
+    }
+
+    private void run() throws Exception {
+        ConfigurableApplicationContext context = BenchContext.startServer("slow-" + gateway,
+                "server.port=" + PORT,
+                "im.gateway.mode=" + gateway,
+                "im.gateway.port=" + GATEWAY_PORT,
+                "im.admission.enabled=false",
+                // 灌入的消息远多于默认的持久化队列容量，队列满时聊天消息会被拒绝（回 FAILED），与本压测无关
+                "im.persist.queue-capacity=100000");
+        int port = "netty".equals(gateway) ? GATEWAY_PORT : PORT;
+        List<Socket> slow = new ArrayList<>();
+        try {
+            for (int i = 0; i < slowClients; i++) {
+                slow.add(openWithoutReading(port, "slow-" + i));
+            }
+            Probe observer = new Probe();
+            WebSocket observerSocket = open(port, "observer", observer);
+            Probe senderProbe = new Probe();
+            WebSocket sender = open(port, "sender", senderProbe);
+            Thread.sleep(500);
+
+            String padding = "x".repeat(PAYLOAD_CHARS);
+            long floodStart = System.nanoTime();
+            for (int round = 0; round < floodMessages; round++) {
+                for (int i = 0; i < slowClients; i++) {
+                    sender.sendText(chat("slow-" + i, padding), true).join();
+                }
+            }
+            System.out.printf("gateway=%s slowClients=%d: flooded %d x %d chars in %dms%n", gateway, slowClients,
+                    slowClients * floodMessages, PAYLOAD_CHARS,
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - floodStart));
+
+            for (int i = 0; i < probes; i++) {
+                sender.sendText(chat("observer", "sent=" + System.nanoTime() + ";"), true).join();
+                Thread.sleep(50);
+            }
+            // 被阻塞的探测消息要等慢连接的发送超时之后才会到达
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(15);
+            while (observer.received < probes && System.nanoTime() < deadline) {
+                Thread.sleep(100);
+            }
+            observer.report(probes);
+            System.out.printf("sender got %d FAILED acks%n", senderProbe.failed);
+
+            observerSocket.sendClose(WebSocket.NORMAL_CLOSURE, "").join();
+            sender.sendClose(WebSocket.NORMAL_CLOSURE, "").join();
+        } finally {
+            for (Socket socket : slow) {
+                socket.close();
+            }
+            context.close();
+        }
+    }
+
+    // 手写握手请求，之后不读取任何数据；接收缓冲设得很小，让服务端很快写不进去
+    private static Socket openWithoutReading(int port, String username) throws Exception {
+        Socket socket = new Socket();
+        socket.setReceiveBufferSize(4096);
+        socket.connect(new InetSocketAddress("127.0.0.1", port));
+        String request = "GET /ws?username=" + username + " HTTP/1.1\r\n"
+                + "Host: 127.0.0.1:" + port + "\r\n"
+                + "Upgrade: websocket\r\n"
+                + "Connection: Upgrade\r\n"
+                + "Sec-WebSocket-Key: dGhlIHNhbXBsZSBub25jZQ==\r\n"
+                + "Sec-WebSocket-Version: 13\r\n\r\n";
+        OutputStream out = socket.getOutputStream();
+        out.write(request.getBytes(StandardCharsets.US_ASCII));
+        out.flush();
+        return socket;
+    }
+
+    private WebSocket open(int port, String username, Probe listener) {
+        return http.newWebSocketBuilder()
+                .buildAsync(URI.create("ws://127.0.0.1:" + port + "/ws?username=" + username), listener)
+                .join();
+    }
+
+    private String chat(String to, String content) {
+        return "{\"type\":\"CHAT\",\"messageId\":\"" + (idBase + nextId.incrementAndGet()) + "\",\"to\":\"" + to
+                + "\",\"content\":\"" + content + "\",\"timestamp\":" + System.currentTimeMillis()
+                + ",\"needAck\":true}";
+    }
+
+    private static final class Probe implements WebSocket.Listener {
+        private final StringBuilder partial = new StringBuilder();
+        private final long[] latencies = new long[1 << 16];
+        private volatile int received;
+        private volatile int failed;
+
+        @Override
+        public CompletionStage<?> onText(WebSocket webSocket, CharSequence data, boolean last) {
+            partial.append(data);
+            if (last) {
+                if (partial.indexOf("\"status\":\"FAILED\"") >= 0) {
+                    failed++;
+                }
+                int at = partial.indexOf("sent=");
+                if (at >= 0 && received < latencies.length) {
+                    long sent = Long.parseLong(partial.substring(at + 5, partial.indexOf(";", at)));
+                    latencies[received++] = System.nanoTime() - sent;
+                }
+                partial.setLength(0);
+            }
+            webSocket.request(1);
+            return null;
+        }
+
+        void report(int expected) {
+            long[] sorted = Arrays.copyOf(latencies, received);
+            Arrays.sort(sorted);
+            if (sorted.length == 0) {
+                System.out.printf("observer received 0/%d%n", expected);
+                return;
+            }
+            System.out.printf("observer received %d/%d, latency p50=%.1fms p99=%.1fms max=%.1fms%n",
+                    received, expected, millis(sorted[sorted.length / 2]),
+                    millis(sorted[(int) (sorted.length * 0.99)]), millis(sorted[sorted.length - 1]));
+        }
+
+        private static double millis(long nanos) {
+            return nanos / 1_000_000.0;
+        }
+    }
+}
@@ -0,0 +1,163 @@
+package com.example.im.bench;
+
+import com.example.im.config.VirtualThreads;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.ThreadMXBean;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 线程模型压测：sessions 个连接按固定总速率发消息，每条消息的处理包含一次阻塞调用（模拟 JDBC），
+ * 对比 im.threads.mode=platform（Tomcat 默认的 200 线程有界池）与 virtual（每条消息一个虚拟线程）
+ * 的端到端延迟、线程数和内存。不依赖网络，只衡量执行模型本身；virtual 需要 JDK 21+。
+ * 参数通过 -D 传入：
+ * <ul>
+ *   <li>mode：platform / virtual，默认 platform</li>
+ *   <li>sessions：并发连接数，默认 100000</li>
+ *   <li>rate：每秒消息总数，默认 20000</li>
+ *   <li>blockMillis：每条消息的阻塞时长，默认 20</li>
+ *   <li>platformThreads：platform 模式的线程数，默认 200（server.tomcat.threads.max 的默认值）</li>
+ *   <li>duration：发送时长（秒），默认 30</li>
+ * </ul>
+ */
+public class ThreadModelLoadTest {
+    private static final int MAX_SAMPLES = 1 << 22;
+
+    private final String mode;
+    private final int sessions;
+    private final int rate;
+    private final long blockMillis;
+    private final int platformThreads;
+    private final int durationSeconds;
+
+    private final long[] latencies = new long[MAX_SAMPLES];
+    private final AtomicInteger sampleCount = new AtomicInteger();
+    private final AtomicLong inFlight = new AtomicLong();
+    private final AtomicLong maxInFlight = new AtomicLong();
+    private final AtomicLong completed = new AtomicLong();
+    private volatile long maxHeapUsed;
+
+    private ThreadModelLoadTest() {
+        mode = System.getProperty("mode", "platform");
+        sessions = Integer.getInteger("sessions", 100000);
+        rate = Integer.getInteger("rate", 20000);
+        blockMillis = Long.getLong("blockMillis", 20L);
+        platformThreads = Integer.getInteger("platformThreads", 200);
+        durationSeconds = Integer.getInteger("duration", 30);
+    }
+
+    public static void main(String[] args) throws Exception {
+        new ThreadModelLoadTest().run();
+    }
+
+    private void run() throws Exception {
+        if (VirtualThreads.MODE_VIRTUAL.equals(mode) && !VirtualThreads.isSupported()) {
+            System.out.printf("mode=virtual requires JDK 21+, running on %s%n", System.getProperty("java.version"));
+            return;
+        }
+        // 每个连接常驻的状态：用户名与最近一帧，两种模式相同
+        String[] usernames = new String[sessions];
+        byte[][] lastFrames = new byte[sessions][];
+        for (int i = 0; i < sessions; i++) {
+            usernames[i] = "user" + i;
+            lastFrames[i] = new byte[64];
+        }
+        ExecutorService executor = VirtualThreads.MODE_VIRTUAL.equals(mode)
+                ? VirtualThreads.newThreadPerTaskExecutor("load-")
+                : new ThreadPoolExecutor(platformThreads, platformThreads, 0L, TimeUnit.MILLISECONDS,
+                        new LinkedBlockingQueue<>());
+        System.out.printf("mode=%s sessions=%d rate=%d/s block=%dms duration=%ds java=%s%n",
+                mode, sessions, rate, blockMillis, durationSeconds, System.getProperty("java.version"));
+
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        Thread sampler = new Thread(() -> {
+            while (!Thread.currentThread().isInterrupted()) {
+                maxHeapUsed = Math.max(maxHeapUsed, memory.getHeapMemoryUsage().getUsed());
+                try {
+                    Thread.sleep(100);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }, "heap-sampler");
+        sampler.setDaemon(true);
+        sampler.start();
+
+        long sent = 0;
+        long start = System.nanoTime();
+        long end = start + TimeUnit.SECONDS.toNanos(durationSeconds);
+        for (long now = start; now < end; now = System.nanoTime()) {
+            long due = (now - start) * rate / TimeUnit.SECONDS.toNanos(1);
+            for (; sent < due; sent++) {
+                int session = ThreadLocalRandom.current().nextInt(sessions);
+                long enqueuedAt = System.nanoTime();
+                track(inFlight.incrementAndGet());
+                executor.execute(() -> handle(usernames[session], lastFrames[session], enqueuedAt));
+            }
+            Thread.sleep(1);
+        }
+        executor.shutdown();
+        boolean drained = executor.awaitTermination(2, TimeUnit.MINUTES);
+        sampler.interrupt();
+
+        int samples = Math.min(sampleCount.get(), MAX_SAMPLES);
+        long[] sorted = Arrays.copyOf(latencies, samples);
+        Arrays.sort(sorted);
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        System.out.printf("sent=%d completed=%d drained=%s maxInFlight=%d%n", sent, completed.get(), drained, maxInFlight.get());
+        if (samples > 0) {
+            System.out.printf("latency ms: p50=%.2f p99=%.2f p999=%.2f max=%.2f%n",
+                    percentile(sorted, 0.50), percentile(sorted, 0.99), percentile(sorted, 0.999),
+                    sorted[samples - 1] / 1e6);
+        }
+        System.out.printf("peak platform threads=%d max heap used=%dMB rss=%s%n",
+                threads.getPeakThreadCount(), maxHeapUsed >> 20, rss());
+    }
+
+    private void handle(String username, byte[] lastFrame, long enqueuedAt) {
+        try {
+            Thread.sleep(blockMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        lastFrame[username.length() & 63]++;
+        int sample = sampleCount.getAndIncrement();
+        if (sample < MAX_SAMPLES) {
+            latencies[sample] = System.nanoTime() - enqueuedAt;
+        }
+        completed.incrementAndGet();
+        inFlight.decrementAndGet();
+    }
+
+    private void track(long current) {
+        long max;
+        while (current > (max = maxInFlight.get()) && !maxInFlight.compareAndSet(max, current)) {
+            // 重试
+        }
+    }
+
+    private static double percentile(long[] sorted, double p) {
+        return sorted[Math.min(sorted.length - 1, (int) (sorted.length * p))] / 1e6;
+    }
+
+    private static String rss() {
+        try {
+            return Files.readAllLines(Paths.get("/proc/self/status")).stream()
+                    .filter(line -> line.startsWith("VmRSS:"))
+                    .map(line -> line.substring("VmRSS:".length()).trim())
+                    .findFirst().orElse("n/a");
+        } catch (Exception e) {
+            return "n/a";
+        }
+    }
+}
@@ -0,0 +1,291 @@
+package com.example.im.bench;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.epoll.EpollSocketChannel;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.handler.codec.http.DefaultHttpHeaders;
+import io.netty.handler.codec.http.HttpClientCodec;
+import io.netty.handler.codec.http.HttpObjectAggregator;
+import io.netty.handler.codec.http.websocketx.TextWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.WebSocketClientProtocolHandler;
+import io.netty.handler.codec.http.websocketx.WebSocketVersion;
+
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * WebSocket 网关压测：对运行中的服务建立大量长连接，按固定速率在连接之间互发聊天消息，
+ * 统计建连耗时、投递吞吐和端到端延迟，用于 im.gateway.mode=spring / netty 的对比。
+ * 长连接场景不适合放进 JMH，这里是独立的 main，参数通过 -D 传入：
+ * <ul>
+ *   <li>url：网关地址，默认 ws://127.0.0.1:8080/ws</li>
+ *   <li>connections：连接数，默认 10000</li>
+ *   <li>connectRate：每秒新建连接数，默认 2000</li>
+ *   <li>rate：每秒发送的消息总数，默认 2000</li>
+ *   <li>duration：建连完成后的发送时长（秒），默认 30</li>
+ *   <li>sourceAddresses：客户端轮流绑定 127.0.0.1 ~ 127.0.0.N，单个源地址最多约 2.8 万个临时端口</li>
+ *   <li>serverPid：服务端进程号，给出时报告其常驻内存（VmRSS）</li>
+ * </ul>
+ */
+public class WebSocketLoadTest {
+    private static final String CONTENT_PREFIX = "\"content\":\"";
+    private static final int MAX_SAMPLES = 1 << 20;
+
+    private final URI uri;
+    private final int connections;
+    private final int connectRate;
+    private final int rate;
+    private final int durationSeconds;
+    private final int sourceAddresses;
+    private final String serverPid;
+
+    private final AtomicReferenceArray<Channel> channels;
+    private final AtomicInteger connected = new AtomicInteger();
+    private final AtomicInteger failed = new AtomicInteger();
+    private final AtomicInteger closed = new AtomicInteger();
+    private final AtomicLong sent = new AtomicLong();
+    private final AtomicLong received = new AtomicLong();
+    private final long[] latencies = new long[MAX_SAMPLES];
+    private final AtomicInteger sampleCount = new AtomicInteger();
+    private volatile boolean measuring;
+
+    private WebSocketLoadTest() {
+        uri = URI.create(System.getProperty("url", "ws://127.0.0.1:8080/ws"));
+        connections = Integer.getInteger("connections", 10000);
+        connectRate = Integer.getInteger("connectRate", 2000);
+        rate = Integer.getInteger("rate", 2000);
+        durationSeconds = Integer.getInteger("duration", 30);
+        sourceAddresses = Integer.getInteger("sourceAddresses", 1);
+        serverPid = System.getProperty("serverPid");
+        channels = new AtomicReferenceArray<>(connections);
+    }
+
+    public static void main(String[] args) throws Exception {
+        new WebSocketLoadTest().run();
+    }
+
+    private void run() throws Exception {
+        boolean epoll = Epoll.isAvailable();
+        EventLoopGroup group = epoll ? new EpollEventLoopGroup() : new NioEventLoopGroup();
+        try {
+            Bootstrap bootstrap = new Bootstrap()
+                    .group(group)
+                    .channel(epoll ? EpollSocketChannel.class : NioSocketChannel.class)
+                    .option(ChannelOption.TCP_NODELAY, true)
+                    .option(ChannelOption.ALLOCATOR, PooledByteBufAllocator.DEFAULT)
+                    .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, 10000);
+            System.out.printf("target=%s connections=%d rate=%d/s duration=%ds transport=%s%n",
+                    uri, connections, rate, durationSeconds, epoll ? "epoll" : "nio");
+            String rssBefore = serverRss();
+
+            long connectStart = System.nanoTime();
+            connectAll(bootstrap);
+            long connectMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - connectStart);
+            System.out.printf("connected=%d failed=%d in %dms (%.0f conn/s)%n", connected.get(), failed.get(),
+                    connectMillis, connected.get() * 1000.0 / Math.max(1, connectMillis));
+            if (serverPid != null) {
+                System.out.printf("server rss: idle %s, with connections %s%n", rssBefore, serverRss());
+            }
+
+            // 丢掉建连期间服务端推送的在线状态，只统计聊天消息
+            Thread.sleep(2000);
+            measuring = true;
+            long start = System.nanoTime();
+            sendFor(durationSeconds);
+            long elapsedNanos = System.nanoTime() - start;
+            // 等待在途消息
+            Thread.sleep(2000);
+            measuring = false;
+            report(elapsedNanos);
+        } finally {
+            group.shutdownGracefully().syncUninterruptibly();
+        }
+    }
+
+    private void connectAll(Bootstrap bootstrap) throws InterruptedException {
+        CountDownLatch done = new CountDownLatch(connections);
+        InetSocketAddress remote = new InetSocketAddress(uri.getHost(), uri.getPort());
+        long intervalNanos = TimeUnit.SECONDS.toNanos(1) / Math.max(1, connectRate);
+        long next = System.nanoTime();
+        for (int i = 0; i < connections; i++) {
+            final int index = i;
+            URI userUri = URI.create(uri + "?username=load-" + i);
+            Bootstrap b = bootstrap.clone().handler(new ChannelInitializer<SocketChannel>() {
+                @Override
+                protected void initChannel(SocketChannel ch) {
+                    ch.pipeline().addLast(new HttpClientCodec());
+                    ch.pipeline().addLast(new HttpObjectAggregator(65536));
+                    ch.pipeline().addLast(new WebSocketClientProtocolHandler(userUri, WebSocketVersion.V13,
+                            null, false, new DefaultHttpHeaders(), 65536));
+                    ch.pipeline().addLast(new LoadHandler(index, done));
+                }
+            });
+            InetSocketAddress local = new InetSocketAddress("127.0.0." + (1 + i % sourceAddresses), 0);
+            b.connect(remote, local).addListener(future -> {
+                if (!future.isSuccess()) {
+                    failed.incrementAndGet();
+                    done.countDown();
+                }
+            });
+            next += intervalNanos;
+            long wait = next - System.nanoTime();
+            if (wait > 0) {
+                TimeUnit.NANOSECONDS.sleep(wait);
+            }
+        }
+        done.await(60, TimeUnit.SECONDS);
+    }
+
+    private void sendFor(int seconds) throws InterruptedException {
+        int tickMillis = 10;
+        int perTick = Math.max(1, rate * tickMillis / 1000);
+        long end = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+        long next = System.nanoTime();
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        while (System.nanoTime() < end) {
+            for (int i = 0; i < perTick; i++) {
+                int from = random.nextInt(connections);
+                Channel channel = channels.get(from);
+                if (channel == null || !channel.isActive()) {
+                    continue;
+                }
+                int to = (from + 1 + random.nextInt(connections - 1)) % connections;
+                String json = "{\"type\":\"CHAT\",\"messageId\":\"load-" + sent.get() + "\",\"from\":\"load-" + from
+                        + "\",\"to\":\"load-" + to + "\",\"content\":\"" + System.nanoTime()
+                        + "\",\"timestamp\":" + System.currentTimeMillis() + ",\"needAck\":false}";
+                channel.writeAndFlush(new TextWebSocketFrame(json), channel.voidPromise());
+                sent.incrementAndGet();
+            }
+            next += TimeUnit.MILLISECONDS.toNanos(tickMillis);
+            long wait = next - System.nanoTime();
+            if (wait > 0) {
+                TimeUnit.NANOSECONDS.sleep(wait);
+            }
+        }
+    }
+
+    private void report(long elapsedNanos) {
+        int n = Math.min(sampleCount.get(), MAX_SAMPLES);
+        long[] sorted = Arrays.copyOf(latencies, n);
+        Arrays.sort(sorted);
+        double seconds = elapsedNanos / 1e9;
+        System.out.printf("sent=%d (%.0f msg/s) received=%d (%.0f msg/s) closedDuringRun=%d%n",
+                sent.get(), sent.get() / seconds, received.get(), received.get() / seconds, closed.get());
+        if (n > 0) {
+            System.out.printf("latency ms: p50=%.2f p99=%.2f p999=%.2f max=%.2f%n",
+                    percentile(sorted, 0.50), percentile(sorted, 0.99), percentile(sorted, 0.999),
+                    sorted[n - 1] / 1e6);
+        }
+        if (serverPid != null) {
+            System.out.printf("server rss after run: %s%n", serverRss());
+        }
+    }
+
+    private static double percentile(long[] sorted, double p) {
+        return sorted[Math.min(sorted.length - 1, (int) (sorted.length * p))] / 1e6;
+    }
+
+    private String serverRss() {
+        if (serverPid == null) {
+            return "n/a";
+        }
+        try {
+            return Files.readAllLines(Paths.get("/proc", serverPid, "status")).stream()
+                    .filter(line -> line.startsWith("VmRSS:"))
+                    .map(line -> line.substring("VmRSS:".length()).trim())
+                    .findFirst().orElse("n/a");
+        } catch (Exception e) {
+            return "n/a";
+        }
+    }
+
+    private void record(String text) {
+        if (!text.contains("\"type\":\"CHAT\"")) {
+            return;
+        }
+        int start = text.indexOf(CONTENT_PREFIX);
+        if (start < 0) {
+            return;
+        }
+        start += CONTENT_PREFIX.length();
+        int end = text.indexOf('"', start);
+        long sentAt;
+        try {
+            sentAt = Long.parseLong(text.substring(start, end));
+        } catch (NumberFormatException e) {
+            return;
+        }
+        received.incrementAndGet();
+        int slot = sampleCount.getAndIncrement();
+        if (slot < MAX_SAMPLES) {
+            latencies[slot] = System.nanoTime() - sentAt;
+        }
+    }
+
+    private class LoadHandler extends SimpleChannelInboundHandler<TextWebSocketFrame> {
+        private final int index;
+        private final CountDownLatch done;
+        private boolean counted;
+
+        LoadHandler(int index, CountDownLatch done) {
+            this.index = index;
+            this.done = done;
+        }
+
+        @Override
+        public void userEventTriggered(ChannelHandlerContext ctx, Object evt) throws Exception {
+            if (evt == WebSocketClientProtocolHandler.ClientHandshakeStateEvent.HANDSHAKE_COMPLETE) {
+                channels.set(index, ctx.channel());
+                connected.incrementAndGet();
+                counted = true;
+                done.countDown();
+            }
+            super.userEventTriggered(ctx, evt);
+        }
+
+        @Override
+        protected void channelRead0(ChannelHandlerContext ctx, TextWebSocketFrame frame) {
+            if (measuring) {
+                record(frame.text());
+            }
+        }
+
+        @Override
+        public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+            if (!counted) {
+                // 握手失败或超时
+                failed.incrementAndGet();
+                counted = true;
+                done.countDown();
+            } else {
+                closed.incrementAndGet();
+            }
+            super.channelInactive(ctx);
+        }
+
+        @Override
+        public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+            ctx.close();
+        }
+    }
+}
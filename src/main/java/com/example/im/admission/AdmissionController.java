@@ -0,0 +1,212 @@
+package com.example.im.admission;
+
+import com.example.im.service.ChatMessageWriteBehind;
+import com.example.im.session.SessionRegistry;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import io.netty.util.concurrent.EventExecutor;
+import io.netty.util.concurrent.EventExecutorGroup;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 入站消息的准入控制：
+ * 每个用户一个令牌桶，同一用户的多个连接共用，连接建立时取好放在会话属性里，热路径上不查表；
+ * 所有连接发送队列中的帧数、持久化队列长度或事件循环延迟超过阈值时进入过载状态，拒绝新的聊天消息，
+ * 降到阈值的 80% 以下才恢复，避免在阈值附近来回切换。确认和心跳不受限制，它们只会减轻负载。
+ */
+@Slf4j
+@Component
+public class AdmissionController {
+    @Autowired
+    private SessionRegistry sessionRegistry;
+
+    @Autowired
+    private ChatMessageWriteBehind writeBehind;
+
+    @Value("${im.admission.enabled:true}")
+    private boolean enabled;
+
+    @Value("${im.admission.user-rate:20}")
+    private double userRate;
+
+    @Value("${im.admission.user-burst:40}")
+    private int userBurst;
+
+    // 写出跟不上时帧积压在各连接的发送队列里；单个慢连接受自己的缓冲上限约束，这里看的是总量
+    @Value("${im.admission.max-queued-frames:200000}")
+    private long maxQueuedFrames;
+
+    @Value("${im.admission.max-persist-queue:8000}")
+    private int maxPersistQueue;
+
+    @Value("${im.admission.max-loop-lag-millis:200}")
+    private long maxLoopLagMillis;
+
+    @Value("${im.admission.check-millis:100}")
+    private long checkMillis;
+
+    // 过载时告诉客户端多久之后再试
+    @Value("${im.admission.overload-retry-after-millis:2000}")
+    private long overloadRetryAfterMillis;
+
+    private final Map<String, TokenBucket> buckets = new ConcurrentHashMap<>();
+    // 已经没有连接、桶还没攒满的用户，由 check() 在攒满后清理
+    private final Set<String> released = ConcurrentHashMap.newKeySet();
+    private final List<LagProbe> probes = new CopyOnWriteArrayList<>();
+    private volatile boolean overloaded;
+    private volatile long loopLagMillis;
+    private volatile long queuedFrames;
+    private ScheduledExecutorService checker;
+
+    @PostConstruct
+    public void start() {
+        if (!enabled) return;
+        checker = Executors.newSingleThreadScheduledExecutor(new DefaultThreadFactory("im-admission", true));
+        checker.scheduleWithFixedDelay(this::check, checkMillis, checkMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (checker != null) {
+            checker.shutdownNow();
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * 用户的令牌桶，连接建立时调用；未启用时返回 null。
+     */
+    public TokenBucket bucketFor(String username) {
+        if (!enabled || username == null) return null;
+        released.remove(username);
+        return buckets.computeIfAbsent(username, key -> new TokenBucket(userRate, userBurst));
+    }
+
+    /**
+     * 用户的最后一个连接关闭。桶要留到攒满再删，否则断线重连就能拿到一个新的满桶绕过限流。
+     */
+    public void release(String username) {
+        if (enabled && username != null) {
+            released.add(username);
+        }
+    }
+
+    public boolean isOverloaded() {
+        return overloaded;
+    }
+
+    public long getOverloadRetryAfterMillis() {
+        return overloadRetryAfterMillis;
+    }
+
+    public long getLoopLagMillis() {
+        return loopLagMillis;
+    }
+
+    public long getQueuedFrames() {
+        return queuedFrames;
+    }
+
+    public int getBucketCount() {
+        return buckets.size();
+    }
+
+    /**
+     * 在 group 的每个事件循环上周期性投递一个探测任务，实际执行时间与预定时间之差即事件循环延迟。
+     */
+    public void monitor(EventExecutorGroup group) {
+        if (!enabled) return;
+        for (EventExecutor executor : group) {
+            LagProbe probe = new LagProbe(executor);
+            probes.add(probe);
+            probe.schedule();
+        }
+    }
+
+    private void check() {
+        evictRefilled(System.nanoTime());
+        long lag = 0;
+        for (LagProbe probe : probes) {
+            if (probe.executor.isShuttingDown()) {
+                probes.remove(probe);
+            } else {
+                lag = Math.max(lag, probe.lagMillis());
+            }
+        }
+        loopLagMillis = lag;
+
+        long queued = sessionRegistry.getQueuedFrames();
+        queuedFrames = queued;
+        int persistQueue = writeBehind.getQueueSize();
+        boolean wasOverloaded = overloaded;
+        // 恢复阈值低于进入阈值
+        double factor = wasOverloaded ? 0.8 : 1.0;
+        boolean now = queued > maxQueuedFrames * factor
+                || persistQueue > maxPersistQueue * factor
+                || lag > maxLoopLagMillis * factor;
+        if (now != wasOverloaded) {
+            overloaded = now;
+            if (now) {
+                log.warn("Entering overload: queuedFrames={} persistQueue={} loopLag={}ms", queued, persistQueue, lag);
+            } else {
+                log.info("Leaving overload: queuedFrames={} persistQueue={} loopLag={}ms", queued, persistQueue, lag);
+            }
+        }
+    }
+
+    // 其间又连上的用户已被 bucketFor 移出 released，这里的 remove 失败，桶保留
+    private void evictRefilled(long nowNanos) {
+        for (String username : released) {
+            buckets.computeIfPresent(username,
+                    (key, bucket) -> bucket.isFull(nowNanos) && released.remove(key) ? null : bucket);
+            if (!buckets.containsKey(username)) {
+                released.remove(username);
+            }
+        }
+    }
+
+    private final class LagProbe implements Runnable {
+        private final EventExecutor executor;
+        private volatile long expectedAt;
+        private volatile long lagNanos;
+
+        private LagProbe(EventExecutor executor) {
+            this.executor = executor;
+        }
+
+        private void schedule() {
+            expectedAt = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(checkMillis);
+            executor.schedule(this, checkMillis, TimeUnit.MILLISECONDS);
+        }
+
+        @Override
+        public void run() {
+            lagNanos = Math.max(0, System.nanoTime() - expectedAt);
+            if (!executor.isShuttingDown()) {
+                schedule();
+            }
+        }
+
+        // 探测任务迟迟没有执行时，按已经等待的时间算
+        private long lagMillis() {
+            long waiting = System.nanoTime() - expectedAt;
+            return TimeUnit.NANOSECONDS.toMillis(Math.max(lagNanos, waiting));
+        }
+    }
+}
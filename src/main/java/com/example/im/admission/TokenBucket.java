@@ -0,0 +1,55 @@
+package com.example.im.admission;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 无锁令牌桶（GCRA 形式）：只保存下一个令牌的理论到达时间，取令牌是一次 CAS，不需要定时补充。
+ * 与每秒 rate 个令牌、容量 burst 的令牌桶等价。
+ */
+public final class TokenBucket {
+    private final long intervalNanos;
+    private final long burstNanos;
+    // 理论到达时间（System.nanoTime 时间轴）
+    private final AtomicLong arrival;
+
+    public TokenBucket(double ratePerSecond, int burst) {
+        if (ratePerSecond <= 0 || burst < 1) {
+            throw new IllegalArgumentException("rate and burst must be positive");
+        }
+        this.intervalNanos = Math.max(1L, (long) (TimeUnit.SECONDS.toNanos(1) / ratePerSecond));
+        this.burstNanos = intervalNanos * burst;
+        this.arrival = new AtomicLong(System.nanoTime() - burstNanos);
+    }
+
+    /**
+     * 取一个令牌。成功返回 0，否则返回还需等待的纳秒数，桶状态不变。
+     */
+    public long tryAcquire(long nowNanos) {
+        while (true) {
+            long current = arrival.get();
+            // 空闲期间攒下的令牌不超过 burst 个
+            long start = current - (nowNanos - burstNanos) < 0 ? nowNanos - burstNanos : current;
+            long next = start + intervalNanos;
+            long wait = next - nowNanos;
+            if (wait > 0) {
+                return wait;
+            }
+            if (arrival.compareAndSet(current, next)) {
+                return 0;
+            }
+        }
+    }
+
+    /**
+     * 桶已攒满 burst 个令牌，与新建的桶没有区别，可以丢弃。
+     */
+    public boolean isFull(long nowNanos) {
+        return arrival.get() - (nowNanos - burstNanos) <= 0;
+    }
+
+    // 从空到满所需的时间
+    public long getRefillNanos() {
+        return burstNanos;
+    }
+}
@@ -0,0 +1,45 @@
+package com.example.im.channel;
+
+import com.example.im.protocol.Message;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.ChannelPipeline;
+import io.netty.handler.timeout.IdleState;
+import io.netty.handler.timeout.IdleStateEvent;
+import io.netty.handler.timeout.IdleStateHandler;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * IMServer 与 IMClient 共用的心跳：写空闲超过 interval 时发一个 HEARTBEAT，读空闲超过 timeout 时断开。
+ * 两端配置相同，任意一端发出的心跳都会刷新对端的读空闲计时，半开连接在 timeout 内被关闭。
+ */
+@Slf4j
+public class HeartbeatHandler extends ChannelInboundHandlerAdapter {
+    public static final long DEFAULT_INTERVAL_MILLIS = 30000;
+    public static final long DEFAULT_TIMEOUT_MILLIS = 90000;
+
+    public static void addTo(ChannelPipeline pipeline, long intervalMillis, long timeoutMillis) {
+        pipeline.addLast(new IdleStateHandler(timeoutMillis, intervalMillis, 0, TimeUnit.MILLISECONDS));
+        pipeline.addLast(new HeartbeatHandler());
+    }
+
+    @Override
+    public void userEventTriggered(ChannelHandlerContext ctx, Object evt) throws Exception {
+        if (evt instanceof IdleStateEvent) {
+            IdleState state = ((IdleStateEvent) evt).state();
+            if (state == IdleState.READER_IDLE) {
+                log.info("Closing idle connection {}", ctx.channel().remoteAddress());
+                ctx.close();
+            } else if (state == IdleState.WRITER_IDLE) {
+                Message heartbeat = new Message();
+                heartbeat.setType(Message.Type.HEARTBEAT);
+                heartbeat.setTimestamp(System.currentTimeMillis());
+                ctx.writeAndFlush(heartbeat);
+            }
+            return;
+        }
+        super.userEventTriggered(ctx, evt);
+    }
+}
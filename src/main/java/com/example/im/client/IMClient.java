@@ -5,17 +5,40 @@ import io.netty.channel.*;
 import io.netty.channel.nio.NioEventLoopGroup;
 import io.netty.channel.socket.SocketChannel;
 import io.netty.channel.socket.nio.NioSocketChannel;
-import io.netty.handler.codec.string.StringDecoder;
-import io.netty.handler.codec.string.StringEncoder;
+import com.example.im.channel.HeartbeatHandler;
+import com.example.im.protocol.codec.CodecType;
+import com.example.im.protocol.codec.ContentCompressor;
+import com.example.im.protocol.codec.MessageCodecs;
 
 public class IMClient {
     private final String host;
     private final int port;
+    private final CodecType codec;
+    private final long heartbeatIntervalMillis;
+    private final long heartbeatTimeoutMillis;
+    private final ContentCompressor compressor;
     private Channel channel;
 
     public IMClient(String host, int port) {
+        this(host, port, CodecType.BINARY);
+    }
+
+    public IMClient(String host, int port, CodecType codec) {
+        this(host, port, codec, HeartbeatHandler.DEFAULT_INTERVAL_MILLIS, HeartbeatHandler.DEFAULT_TIMEOUT_MILLIS);
+    }
+
+    public IMClient(String host, int port, CodecType codec, long heartbeatIntervalMillis, long heartbeatTimeoutMillis) {
+        this(host, port, codec, heartbeatIntervalMillis, heartbeatTimeoutMillis, null);
+    }
+
+    public IMClient(String host, int port, CodecType codec, long heartbeatIntervalMillis, long heartbeatTimeoutMillis,
+                    ContentCompressor compressor) {
         this.host = host;
         this.port = port;
+        this.codec = codec;
+        this.heartbeatIntervalMillis = heartbeatIntervalMillis;
+        this.heartbeatTimeoutMillis = heartbeatTimeoutMillis;
+        this.compressor = compressor;
     }
 
     public void start() throws Exception {
@@ -28,8 +51,8 @@ public class IMClient {
                         @Override
                         protected void initChannel(SocketChannel ch) {
                             ChannelPipeline pipeline = ch.pipeline();
-                            pipeline.addLast(new StringDecoder());
-                            pipeline.addLast(new StringEncoder());
+                            MessageCodecs.addTo(pipeline, codec, compressor);
+                            HeartbeatHandler.addTo(pipeline, heartbeatIntervalMillis, heartbeatTimeoutMillis);
                             pipeline.addLast(new IMClientHandler());
                         }
                     });
@@ -1,7 +1,6 @@
 package com.example.im.client;
 
 import com.example.im.protocol.Message;
-import com.google.gson.Gson;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.SimpleChannelInboundHandler;
 import lombok.extern.slf4j.Slf4j;
@@ -11,7 +10,6 @@ import org.slf4j.LoggerFactory;
 @Slf4j
 public class IMClientHandler extends SimpleChannelInboundHandler<Message> {
     private static final Logger logger = LoggerFactory.getLogger(IMClientHandler.class);
-    private static final Gson gson = new Gson();
     private ChannelHandlerContext context;
 
     @Override
@@ -63,7 +61,7 @@ public class IMClientHandler extends SimpleChannelInboundHandler<Message> {
             ack.setFrom(message.getTo());
             ack.setTo(message.getFrom());
             ack.setTimestamp(System.currentTimeMillis());
-            context.writeAndFlush(gson.toJson(ack));
+            context.writeAndFlush(ack);
         }
     }
 
@@ -0,0 +1,64 @@
+package com.example.im.cluster;
+
+import com.example.im.protocol.Message;
+
+import java.time.Instant;
+
+public final class ClusterFrame {
+    public enum Kind {
+        FORWARD,
+        REGISTER,
+        UNREGISTER
+    }
+
+    private final Kind kind;
+    private final String sourceNode;
+    private final long sentAtMicros;
+    private final String username;
+    private final Message message;
+
+    ClusterFrame(Kind kind, String sourceNode, long sentAtMicros, String username, Message message) {
+        this.kind = kind;
+        this.sourceNode = sourceNode;
+        this.sentAtMicros = sentAtMicros;
+        this.username = username;
+        this.message = message;
+    }
+
+    public static ClusterFrame forward(String sourceNode, Message message) {
+        return new ClusterFrame(Kind.FORWARD, sourceNode, nowMicros(), null, message);
+    }
+
+    public static ClusterFrame register(String sourceNode, String username) {
+        return new ClusterFrame(Kind.REGISTER, sourceNode, nowMicros(), username, null);
+    }
+
+    public static ClusterFrame unregister(String sourceNode, String username) {
+        return new ClusterFrame(Kind.UNREGISTER, sourceNode, nowMicros(), username, null);
+    }
+
+    static long nowMicros() {
+        Instant now = Instant.now();
+        return now.getEpochSecond() * 1_000_000L + now.getNano() / 1_000;
+    }
+
+    public Kind getKind() {
+        return kind;
+    }
+
+    public String getSourceNode() {
+        return sourceNode;
+    }
+
+    public long getSentAtMicros() {
+        return sentAtMicros;
+    }
+
+    public String getUsername() {
+        return username;
+    }
+
+    public Message getMessage() {
+        return message;
+    }
+}
@@ -0,0 +1,53 @@
+package com.example.im.cluster;
+
+import com.example.im.protocol.codec.BinaryMessageCodec;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.CorruptedFrameException;
+import io.netty.handler.codec.MessageToMessageCodec;
+
+import java.util.List;
+
+/**
+ * 节点间帧格式: [kind][sourceNode][sentAtMicros][username | Message]，Message 复用二进制编码。
+ */
+public class ClusterFrameCodec extends MessageToMessageCodec<ByteBuf, ClusterFrame> {
+    private static final ClusterFrame.Kind[] KINDS = ClusterFrame.Kind.values();
+
+    @Override
+    protected void encode(ChannelHandlerContext ctx, ClusterFrame frame, List<Object> out) {
+        ByteBuf buf = ctx.alloc().buffer();
+        encode(frame, buf);
+        out.add(buf);
+    }
+
+    @Override
+    protected void decode(ChannelHandlerContext ctx, ByteBuf buf, List<Object> out) {
+        out.add(decode(buf));
+    }
+
+    public static void encode(ClusterFrame frame, ByteBuf out) {
+        out.writeByte(frame.getKind().ordinal());
+        BinaryMessageCodec.writeString(out, frame.getSourceNode());
+        BinaryMessageCodec.writeVarLong(out, frame.getSentAtMicros());
+        if (frame.getKind() == ClusterFrame.Kind.FORWARD) {
+            BinaryMessageCodec.encode(frame.getMessage(), out);
+        } else {
+            BinaryMessageCodec.writeString(out, frame.getUsername());
+        }
+    }
+
+    public static ClusterFrame decode(ByteBuf in) {
+        int ordinal = in.readByte();
+        if (ordinal < 0 || ordinal >= KINDS.length) {
+            throw new CorruptedFrameException("Unknown cluster frame kind: " + ordinal);
+        }
+        ClusterFrame.Kind kind = KINDS[ordinal];
+        String sourceNode = BinaryMessageCodec.readString(in);
+        long sentAtMicros = BinaryMessageCodec.readVarLong(in);
+        if (kind == ClusterFrame.Kind.FORWARD) {
+            return new ClusterFrame(kind, sourceNode, sentAtMicros, null, BinaryMessageCodec.decode(in));
+        }
+        return new ClusterFrame(kind, sourceNode, sentAtMicros, BinaryMessageCodec.readString(in), null);
+    }
+}
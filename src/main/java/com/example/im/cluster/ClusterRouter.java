@@ -0,0 +1,201 @@
+package com.example.im.cluster;
+
+import com.example.im.protocol.Message;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * 跨节点路由：本节点的上下线同步到其他节点的 SessionDirectory，
+ * 接收者不在本节点时把消息转发到其所在节点。
+ */
+@Slf4j
+@Component
+public class ClusterRouter {
+    @Value("${im.cluster.enabled:false}")
+    private boolean enabled;
+
+    @Value("${im.cluster.node-id:node-1}")
+    private String nodeId;
+
+    @Autowired
+    private SessionDirectory directory;
+
+    @Autowired
+    private NodeTransport transport;
+
+    private final Set<String> localUsers = ConcurrentHashMap.newKeySet();
+    private volatile Consumer<Message> localDelivery;
+
+    private final AtomicLong forwardedCount = new AtomicLong();
+    private final AtomicLong receivedCount = new AtomicLong();
+    private final AtomicLong totalHopMicros = new AtomicLong();
+    private final AtomicLong maxHopMicros = new AtomicLong();
+
+    @PostConstruct
+    public void start() {
+        if (enabled) {
+            transport.start(nodeId, this::onFrame, this::onPeerConnected, this::onPeerLost);
+            log.info("Cluster mode enabled, node id {}", nodeId);
+        }
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (enabled) {
+            transport.stop();
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    // 收到转发给本节点用户的消息时回调
+    public void setLocalDelivery(Consumer<Message> localDelivery) {
+        this.localDelivery = localDelivery;
+    }
+
+    public void onLocalLogin(String username) {
+        if (!enabled) return;
+        localUsers.add(username);
+        directory.register(username, nodeId);
+        transport.broadcast(ClusterFrame.register(nodeId, username));
+    }
+
+    public void onLocalLogout(String username) {
+        if (!enabled) return;
+        localUsers.remove(username);
+        directory.unregister(username, nodeId);
+        transport.broadcast(ClusterFrame.unregister(nodeId, username));
+    }
+
+    /**
+     * 接收者在其他节点上时转发消息，返回 false 表示接收者不在任何在线节点上。
+     */
+    public boolean forward(Message message) {
+        if (!enabled || message.getTo() == null) {
+            return false;
+        }
+        String targetNode = directory.lookup(message.getTo());
+        if (targetNode == null || targetNode.equals(nodeId)) {
+            return false;
+        }
+        if (transport.send(targetNode, ClusterFrame.forward(nodeId, message))) {
+            forwardedCount.incrementAndGet();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * 群消息按接收者所在节点分组，每个节点只转发一帧，users 中带上该节点上的接收者。
+     * 返回已转发的接收者数。
+     */
+    public int forwardToUsers(Message message, Collection<String> usernames) {
+        if (!enabled || usernames.isEmpty()) {
+            return 0;
+        }
+        Map<String, List<String>> byNode = new HashMap<>();
+        for (String username : usernames) {
+            String targetNode = directory.lookup(username);
+            if (targetNode != null && !targetNode.equals(nodeId)) {
+                byNode.computeIfAbsent(targetNode, k -> new ArrayList<>()).add(username);
+            }
+        }
+        int forwarded = 0;
+        for (Map.Entry<String, List<String>> entry : byNode.entrySet()) {
+            Message copy = new Message();
+            copy.setType(message.getType());
+            copy.setMessageId(message.getMessageId());
+            copy.setFrom(message.getFrom());
+            copy.setGroupId(message.getGroupId());
+            copy.setContent(message.getContent());
+            copy.setTimestamp(message.getTimestamp());
+            copy.setStatus(message.getStatus());
+            copy.setUsers(entry.getValue());
+            if (transport.send(entry.getKey(), ClusterFrame.forward(nodeId, copy))) {
+                forwardedCount.incrementAndGet();
+                forwarded += entry.getValue().size();
+            }
+        }
+        return forwarded;
+    }
+
+    public long getForwardedCount() {
+        return forwardedCount.get();
+    }
+
+    public long getReceivedCount() {
+        return receivedCount.get();
+    }
+
+    public long getAvgHopMicros() {
+        long received = receivedCount.get();
+        return received == 0 ? 0 : totalHopMicros.get() / received;
+    }
+
+    public long getMaxHopMicros() {
+        return maxHopMicros.get();
+    }
+
+    public int getDirectorySize() {
+        return directory.size();
+    }
+
+    private void onFrame(ClusterFrame frame) {
+        switch (frame.getKind()) {
+            case FORWARD:
+                recordHop(frame);
+                Consumer<Message> delivery = localDelivery;
+                if (delivery != null) {
+                    delivery.accept(frame.getMessage());
+                }
+                break;
+            case REGISTER:
+                directory.register(frame.getUsername(), frame.getSourceNode());
+                break;
+            case UNREGISTER:
+                directory.unregister(frame.getUsername(), frame.getSourceNode());
+                break;
+        }
+    }
+
+    private void onPeerConnected(String peerId) {
+        // 新连上的节点可能错过了之前的上线事件，补发本节点的全部在线用户
+        for (String username : localUsers) {
+            transport.send(peerId, ClusterFrame.register(nodeId, username));
+        }
+    }
+
+    private void onPeerLost(String peerId) {
+        // 对端重连后会补发它的全部在线用户，在此之前发往它的消息按离线处理
+        directory.removeNode(peerId);
+        log.info("Lost cluster node {}, directory size {}", peerId, directory.size());
+    }
+
+    // 跨机器时依赖节点间的时钟同步
+    private void recordHop(ClusterFrame frame) {
+        long hop = Math.max(0, ClusterFrame.nowMicros() - frame.getSentAtMicros());
+        receivedCount.incrementAndGet();
+        totalHopMicros.addAndGet(hop);
+        maxHopMicros.accumulateAndGet(hop, Math::max);
+    }
+}
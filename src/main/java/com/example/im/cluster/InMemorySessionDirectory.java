@@ -0,0 +1,34 @@
+package com.example.im.cluster;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+public class InMemorySessionDirectory implements SessionDirectory {
+    private final Map<String, String> userNodes = new ConcurrentHashMap<>();
+
+    @Override
+    public void register(String username, String nodeId) {
+        userNodes.put(username, nodeId);
+    }
+
+    @Override
+    public void unregister(String username, String nodeId) {
+        // 只有仍指向该节点时才删除，避免覆盖用户在其他节点上的新登录
+        userNodes.remove(username, nodeId);
+    }
+
+    @Override
+    public String lookup(String username) {
+        return userNodes.get(username);
+    }
+
+    @Override
+    public void removeNode(String nodeId) {
+        userNodes.values().removeIf(nodeId::equals);
+    }
+
+    @Override
+    public int size() {
+        return userNodes.size();
+    }
+}
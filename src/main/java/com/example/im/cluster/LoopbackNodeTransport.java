@@ -0,0 +1,89 @@
+package com.example.im.cluster;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+
+/**
+ * 同一 JVM 内的节点间通道，帧仍会经过编解码，便于在单机上测试多节点路由。
+ */
+@Slf4j
+public class LoopbackNodeTransport implements NodeTransport {
+    private static final Map<String, LoopbackNodeTransport> NODES = new ConcurrentHashMap<>();
+
+    private String nodeId;
+    private Consumer<ClusterFrame> receiver;
+    private Consumer<String> peerConnected;
+    private Consumer<String> peerLost;
+    private ExecutorService inbound;
+
+    @Override
+    public void start(String nodeId, Consumer<ClusterFrame> receiver, Consumer<String> peerConnected,
+                      Consumer<String> peerLost) {
+        this.nodeId = nodeId;
+        this.receiver = receiver;
+        this.peerConnected = peerConnected;
+        this.peerLost = peerLost;
+        // 单线程接收，保证同一来源的帧按顺序处理
+        this.inbound = Executors.newSingleThreadExecutor(new DefaultThreadFactory("im-cluster-" + nodeId, true));
+
+        NODES.put(nodeId, this);
+        NODES.forEach((peerId, peer) -> {
+            if (!peerId.equals(nodeId)) {
+                peer.inbound.execute(() -> peer.peerConnected.accept(nodeId));
+                inbound.execute(() -> peerConnected.accept(peerId));
+            }
+        });
+    }
+
+    @Override
+    public boolean send(String targetNode, ClusterFrame frame) {
+        LoopbackNodeTransport target = NODES.get(targetNode);
+        if (target == null) {
+            return false;
+        }
+        ByteBuf buf = PooledByteBufAllocator.DEFAULT.buffer();
+        try {
+            ClusterFrameCodec.encode(frame, buf);
+        } catch (RuntimeException e) {
+            buf.release();
+            throw e;
+        }
+        target.inbound.execute(() -> {
+            try {
+                target.receiver.accept(ClusterFrameCodec.decode(buf));
+            } catch (Exception e) {
+                log.error("Error handling cluster frame on {}", targetNode, e);
+            } finally {
+                buf.release();
+            }
+        });
+        return true;
+    }
+
+    @Override
+    public void broadcast(ClusterFrame frame) {
+        for (String peerId : NODES.keySet()) {
+            if (!peerId.equals(nodeId)) {
+                send(peerId, frame);
+            }
+        }
+    }
+
+    @Override
+    public void stop() {
+        if (NODES.remove(nodeId, this)) {
+            NODES.forEach((peerId, peer) -> peer.inbound.execute(() -> peer.peerLost.accept(nodeId)));
+        }
+        if (inbound != null) {
+            inbound.shutdown();
+        }
+    }
+}
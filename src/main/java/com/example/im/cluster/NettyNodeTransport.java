@@ -0,0 +1,194 @@
+package com.example.im.cluster;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.ChannelPipeline;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.handler.codec.LengthFieldBasedFrameDecoder;
+import io.netty.handler.codec.LengthFieldPrepender;
+import io.netty.handler.flush.FlushConsolidationHandler;
+import lombok.extern.slf4j.Slf4j;
+
+import java.net.InetSocketAddress;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * 基于 Netty 的节点间通道：每个节点监听一个端口接收其他节点的帧，并主动连接所有对端用于发送。
+ * FlushConsolidationHandler 把同一轮事件循环中的多次写合并为一次 flush。
+ */
+@Slf4j
+public class NettyNodeTransport implements NodeTransport {
+    private static final int MAX_FRAME_LENGTH = 4 * 1024 * 1024;
+    private static final long RECONNECT_DELAY_MILLIS = 1000;
+
+    private final int port;
+    private final Map<String, InetSocketAddress> peers;
+    private final int flushBatchSize;
+    private final Map<String, Channel> channels = new ConcurrentHashMap<>();
+    // 对端发往本节点的通道，按帧里的来源节点登记；对端的上下线同步只经过这条通道
+    private final Map<String, Channel> inboundChannels = new ConcurrentHashMap<>();
+
+    private Consumer<ClusterFrame> receiver;
+    private Consumer<String> peerConnected;
+    private Consumer<String> peerLost;
+    private EventLoopGroup bossGroup;
+    private EventLoopGroup workerGroup;
+    private Bootstrap clientBootstrap;
+    private Channel serverChannel;
+    private volatile boolean running;
+
+    public NettyNodeTransport(int port, Map<String, InetSocketAddress> peers, int flushBatchSize) {
+        this.port = port;
+        this.peers = peers;
+        this.flushBatchSize = flushBatchSize;
+    }
+
+    @Override
+    public void start(String nodeId, Consumer<ClusterFrame> receiver, Consumer<String> peerConnected,
+                      Consumer<String> peerLost) {
+        this.receiver = receiver;
+        this.peerConnected = peerConnected;
+        this.peerLost = peerLost;
+        this.bossGroup = new NioEventLoopGroup(1);
+        this.workerGroup = new NioEventLoopGroup();
+        this.running = true;
+
+        ServerBootstrap serverBootstrap = new ServerBootstrap()
+                .group(bossGroup, workerGroup)
+                .channel(NioServerSocketChannel.class)
+                .childOption(ChannelOption.TCP_NODELAY, true)
+                .childHandler(new ChannelInitializer<SocketChannel>() {
+                    @Override
+                    protected void initChannel(SocketChannel ch) {
+                        initPipeline(ch.pipeline());
+                        ch.pipeline().addLast(new InboundHandler());
+                    }
+                });
+        serverChannel = serverBootstrap.bind(port).syncUninterruptibly().channel();
+        log.info("Cluster node {} listening on port {}", nodeId, port);
+
+        clientBootstrap = new Bootstrap()
+                .group(workerGroup)
+                .channel(NioSocketChannel.class)
+                .option(ChannelOption.TCP_NODELAY, true)
+                .handler(new ChannelInitializer<SocketChannel>() {
+                    @Override
+                    protected void initChannel(SocketChannel ch) {
+                        initPipeline(ch.pipeline());
+                    }
+                });
+        peers.keySet().forEach(this::connect);
+    }
+
+    @Override
+    public boolean send(String nodeId, ClusterFrame frame) {
+        Channel channel = channels.get(nodeId);
+        if (channel == null || !channel.isActive()) {
+            return false;
+        }
+        channel.writeAndFlush(frame, channel.voidPromise());
+        return true;
+    }
+
+    @Override
+    public void broadcast(ClusterFrame frame) {
+        channels.keySet().forEach(nodeId -> send(nodeId, frame));
+    }
+
+    @Override
+    public void stop() {
+        running = false;
+        channels.values().forEach(Channel::close);
+        if (serverChannel != null) {
+            serverChannel.close();
+        }
+        if (workerGroup != null) {
+            workerGroup.shutdownGracefully();
+        }
+        if (bossGroup != null) {
+            bossGroup.shutdownGracefully();
+        }
+    }
+
+    private void initPipeline(ChannelPipeline pipeline) {
+        pipeline.addLast(new FlushConsolidationHandler(flushBatchSize, true));
+        pipeline.addLast(new LengthFieldBasedFrameDecoder(MAX_FRAME_LENGTH, 0, 4, 0, 4));
+        pipeline.addLast(new LengthFieldPrepender(4));
+        pipeline.addLast(new ClusterFrameCodec());
+    }
+
+    private void connect(String nodeId) {
+        if (!running) return;
+        ChannelFuture future = clientBootstrap.connect(peers.get(nodeId));
+        future.addListener(f -> {
+            if (f.isSuccess()) {
+                Channel channel = future.channel();
+                channels.put(nodeId, channel);
+                log.info("Connected to cluster node {}", nodeId);
+                peerConnected.accept(nodeId);
+                channel.closeFuture().addListener(c -> {
+                    channels.remove(nodeId, channel);
+                    scheduleReconnect(nodeId);
+                });
+            } else {
+                log.debug("Cannot connect to cluster node {}", nodeId, f.cause());
+                scheduleReconnect(nodeId);
+            }
+        });
+    }
+
+    private void scheduleReconnect(String nodeId) {
+        if (running) {
+            workerGroup.schedule(() -> connect(nodeId), RECONNECT_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private class InboundHandler extends SimpleChannelInboundHandler<ClusterFrame> {
+        private String sourceNode;
+
+        @Override
+        protected void channelRead0(ChannelHandlerContext ctx, ClusterFrame frame) {
+            if (sourceNode == null) {
+                sourceNode = frame.getSourceNode();
+                // 与 channelInactive 互斥：旧通道的断开处理完之后，新通道上的帧才能开始登记用户
+                synchronized (inboundChannels) {
+                    inboundChannels.put(sourceNode, ctx.channel());
+                }
+            }
+            receiver.accept(frame);
+        }
+
+        @Override
+        public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+            // 对端已经用新通道重连时不再清理，新通道上补发的用户仍然有效
+            if (sourceNode != null && running) {
+                synchronized (inboundChannels) {
+                    if (inboundChannels.remove(sourceNode, ctx.channel())) {
+                        log.info("Cluster node {} disconnected", sourceNode);
+                        peerLost.accept(sourceNode);
+                    }
+                }
+            }
+            super.channelInactive(ctx);
+        }
+
+        @Override
+        public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+            log.error("Cluster channel error", cause);
+            ctx.close();
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package com.example.im.cluster;
+
+import java.util.function.Consumer;
+
+public interface NodeTransport {
+    /**
+     * @param receiver      收到其他节点发来的帧
+     * @param peerConnected 与某个节点建立（或重建）连接，用于同步本节点的在线用户
+     * @param peerLost      某个节点发往本节点的通道断开，它之前同步过来的在线用户不再可信
+     */
+    void start(String nodeId, Consumer<ClusterFrame> receiver, Consumer<String> peerConnected,
+               Consumer<String> peerLost);
+
+    boolean send(String nodeId, ClusterFrame frame);
+
+    void broadcast(ClusterFrame frame);
+
+    void stop();
+}
@@ -0,0 +1,17 @@
+package com.example.im.cluster;
+
+/**
+ * 用户所在节点的注册表。默认实现是每个节点一份的内存表，由 ClusterRouter 通过节点间通道同步；
+ * 也可以替换为集中式存储的实现。
+ */
+public interface SessionDirectory {
+    void register(String username, String nodeId);
+
+    void unregister(String username, String nodeId);
+
+    String lookup(String username);
+
+    void removeNode(String nodeId);
+
+    int size();
+}
@@ -0,0 +1,52 @@
+package com.example.im.config;
+
+import com.example.im.cluster.InMemorySessionDirectory;
+import com.example.im.cluster.LoopbackNodeTransport;
+import com.example.im.cluster.NettyNodeTransport;
+import com.example.im.cluster.NodeTransport;
+import com.example.im.cluster.SessionDirectory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.net.InetSocketAddress;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+@Configuration
+public class ClusterConfig {
+
+    @Bean
+    public SessionDirectory sessionDirectory() {
+        return new InMemorySessionDirectory();
+    }
+
+    // im.cluster.peers 格式: node-2@host:port,node-3@host:port
+    @Bean
+    public NodeTransport nodeTransport(
+            @Value("${im.cluster.transport:netty}") String transport,
+            @Value("${im.cluster.port:9090}") int port,
+            @Value("${im.cluster.peers:}") String peers,
+            @Value("${im.cluster.flush-batch-size:64}") int flushBatchSize) {
+        if ("loopback".equalsIgnoreCase(transport)) {
+            return new LoopbackNodeTransport();
+        }
+        return new NettyNodeTransport(port, parsePeers(peers), flushBatchSize);
+    }
+
+    private static Map<String, InetSocketAddress> parsePeers(String peers) {
+        Map<String, InetSocketAddress> result = new LinkedHashMap<>();
+        for (String peer : peers.split(",")) {
+            String trimmed = peer.trim();
+            if (trimmed.isEmpty()) continue;
+            int at = trimmed.indexOf('@');
+            int colon = trimmed.lastIndexOf(':');
+            if (at <= 0 || colon <= at) {
+                throw new IllegalArgumentException("Invalid cluster peer: " + trimmed);
+            }
+            result.put(trimmed.substring(0, at), InetSocketAddress.createUnresolved(
+                    trimmed.substring(at + 1, colon), Integer.parseInt(trimmed.substring(colon + 1))));
+        }
+        return result;
+    }
+}
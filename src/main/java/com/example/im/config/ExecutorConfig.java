@@ -0,0 +1,72 @@
+package com.example.im.config;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.coyote.AbstractProtocol;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.web.embedded.tomcat.TomcatProtocolHandlerCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.task.SimpleAsyncTaskExecutor;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+/**
+ * im.threads.mode=virtual（需 JDK 21+）时，Tomcat 连接器（WebSocket 消息处理与 REST 中的数据库查询）
+ * 和发送队列的接续写线程改为每个任务一个虚拟线程；离线回放仍用有界线程池，限制同时查库的数量。
+ */
+@Slf4j
+@Configuration
+public class ExecutorConfig {
+
+    @Value("${im.threads.mode:platform}")
+    private String threadsMode;
+
+    @Bean
+    public ThreadPoolTaskExecutor offlineReplayExecutor(
+            @Value("${im.offline.replay-threads:4}") int threads,
+            @Value("${im.offline.replay-queue-capacity:10000}") int queueCapacity) {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(threads);
+        executor.setMaxPoolSize(threads);
+        executor.setQueueCapacity(queueCapacity);
+        executor.setThreadNamePrefix("im-offline-replay-");
+        executor.setWaitForTasksToCompleteOnShutdown(false);
+        return executor;
+    }
+
+    // 发送队列一次排空超过上限后在这里接着写。写出是非阻塞的，慢连接只暂停自己的队列，不占用这里的线程
+    @Bean
+    public TaskExecutor outboundWriterExecutor(
+            @Value("${websocket.outbound.writer-threads:16}") int threads) {
+        if (VirtualThreads.isEnabled(threadsMode)) {
+            SimpleAsyncTaskExecutor executor = new SimpleAsyncTaskExecutor();
+            executor.setThreadFactory(VirtualThreads.threadFactory("im-ws-writer-"));
+            return executor;
+        }
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(threads);
+        executor.setMaxPoolSize(threads);
+        executor.setThreadNamePrefix("im-ws-writer-");
+        return executor;
+    }
+
+    @Bean
+    public ThreadPoolTaskExecutor fanOutExecutor(
+            @Value("${im.fanout.threads:#{T(java.lang.Runtime).getRuntime().availableProcessors()}}") int threads) {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(threads);
+        executor.setMaxPoolSize(threads);
+        executor.setThreadNamePrefix("im-fanout-");
+        return executor;
+    }
+
+    @Bean
+    public TomcatProtocolHandlerCustomizer<AbstractProtocol<?>> virtualThreadConnectorCustomizer() {
+        return protocol -> {
+            if (VirtualThreads.isEnabled(threadsMode)) {
+                protocol.setExecutor(VirtualThreads.newThreadPerTaskExecutor("im-tomcat-"));
+                log.info("Tomcat connector {} uses virtual threads", protocol.getName());
+            }
+        };
+    }
+}
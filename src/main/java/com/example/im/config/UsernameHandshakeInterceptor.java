@@ -0,0 +1,56 @@
+package com.example.im.config;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.server.ServerHttpRequest;
+import org.springframework.http.server.ServerHttpResponse;
+import org.springframework.web.socket.WebSocketHandler;
+import org.springframework.web.socket.server.HandshakeInterceptor;
+
+import java.net.URI;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+/**
+ * 握手时从 ?username= 解析一次用户名放进会话属性，之后每帧不再解析 URI。缺少用户名时拒绝握手。
+ */
+@Slf4j
+public class UsernameHandshakeInterceptor implements HandshakeInterceptor {
+    public static final String USERNAME_ATTRIBUTE = "im.username";
+
+    @Override
+    public boolean beforeHandshake(ServerHttpRequest request, ServerHttpResponse response,
+                                   WebSocketHandler wsHandler, Map<String, Object> attributes) {
+        String username = resolve(request.getURI());
+        if (username == null) {
+            log.warn("Rejecting WebSocket without username: {}", request.getURI());
+            response.setStatusCode(HttpStatus.BAD_REQUEST);
+            return false;
+        }
+        attributes.put(USERNAME_ATTRIBUTE, username);
+        return true;
+    }
+
+    @Override
+    public void afterHandshake(ServerHttpRequest request, ServerHttpResponse response,
+                               WebSocketHandler wsHandler, Exception exception) {
+    }
+
+    /**
+     * 查询串为 username=xxx 时返回解码后的用户名，否则返回 null。Netty 网关握手时也用它。
+     */
+    public static String resolve(URI uri) {
+        String query = uri != null ? uri.getRawQuery() : null;
+        if (query == null || !query.startsWith("username=")) {
+            return null;
+        }
+        try {
+            String username = URLDecoder.decode(query.substring("username=".length()), StandardCharsets.UTF_8);
+            return username.isEmpty() ? null : username;
+        } catch (IllegalArgumentException e) {
+            // 不完整的 % 转义
+            return null;
+        }
+    }
+}
@@ -1,12 +1,15 @@
 package com.example.im.config;
 
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.web.socket.config.annotation.EnableWebSocket;
 import org.springframework.web.socket.config.annotation.WebSocketConfigurer;
 import org.springframework.web.socket.config.annotation.WebSocketHandlerRegistry;
 
+// im.gateway.mode=netty 时 /ws 改由 NettyWebSocketGateway 提供
 @Configuration
 @EnableWebSocket
+@ConditionalOnProperty(name = "im.gateway.mode", havingValue = "spring", matchIfMissing = true)
 public class WebSocketConfig implements WebSocketConfigurer {
 
     private final WebSocketHandler webSocketHandler;
@@ -18,6 +21,7 @@ public class WebSocketConfig implements WebSocketConfigurer {
     @Override
     public void registerWebSocketHandlers(WebSocketHandlerRegistry registry) {
         registry.addHandler(webSocketHandler, "/ws")
+                .addInterceptors(new UsernameHandshakeInterceptor())
                 .setAllowedOrigins("*");
     }
 } 
\ No newline at end of file
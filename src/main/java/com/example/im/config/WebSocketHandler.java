@@ -1,29 +1,59 @@
 package com.example.im.config;
 
+import com.example.im.admission.AdmissionController;
+import com.example.im.admission.TokenBucket;
+import com.example.im.cluster.ClusterRouter;
+import com.example.im.entity.ChatMessage;
+import com.example.im.group.GroupService;
 import com.example.im.service.ChatMessageService;
+import com.example.im.service.OfflineMessageService;
+import com.example.im.service.ReadWatermarkService;
+import com.example.im.message.AckAggregator;
+import com.example.im.message.MessageIdGenerator;
 import com.example.im.message.MessageManager;
+import com.example.im.metrics.ImMetrics;
+import com.example.im.protocol.InboundFrame;
 import com.example.im.protocol.Message;
+import com.example.im.session.FanOutService;
+import com.example.im.session.IdleSessionMonitor;
+import com.example.im.session.OutboundSession;
+import com.example.im.session.OutboundSessionFactory;
+import com.example.im.session.PresenceTracker;
+import com.example.im.session.SessionRegistry;
+import com.example.im.summary.ConversationSummaryCache;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.io.JsonStringEncoder;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 import org.springframework.web.socket.CloseStatus;
 import org.springframework.web.socket.TextMessage;
 import org.springframework.web.socket.WebSocketSession;
 import org.springframework.web.socket.handler.TextWebSocketHandler;
 
+import javax.annotation.PostConstruct;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
-import java.nio.charset.StandardCharsets;
-import java.net.URLDecoder;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 @Component
 @Slf4j
 public class WebSocketHandler extends TextWebSocketHandler {
-    private final Map<String, WebSocketSession> sessions = new ConcurrentHashMap<>();
+    private static final String OUTBOUND_ATTRIBUTE = "im.outbound";
+    private static final String LIVENESS_ATTRIBUTE = "im.liveness";
+    private static final String RATE_LIMIT_ATTRIBUTE = "im.rate-limit";
+    // 转发聊天消息原文时追加的服务端字段，连接建立时按用户名生成一次
+    private static final String CHAT_FIELDS_ATTRIBUTE = "im.chat-fields";
+    private static final long OFFLINE_BATCH_WAIT_MILLIS = 30000;
+
     private final ObjectMapper objectMapper = new ObjectMapper();
+    private final JsonFactory jsonFactory = objectMapper.getFactory();
     
     @Autowired
     private MessageManager messageManager;
@@ -31,60 +61,220 @@ public class WebSocketHandler extends TextWebSocketHandler {
     @Autowired
     private ChatMessageService chatMessageService;
 
+    @Autowired
+    private OfflineMessageService offlineMessageService;
+
+    @Autowired
+    private OutboundSessionFactory outboundSessionFactory;
+
+    @Autowired
+    private SessionRegistry sessionRegistry;
+
+    @Autowired
+    private PresenceTracker presenceTracker;
+
+    @Autowired
+    private FanOutService fanOutService;
+
+    @Autowired
+    private ClusterRouter clusterRouter;
+
+    @Autowired
+    private ImMetrics metrics;
+
+    @Autowired
+    private AckAggregator ackAggregator;
+
+    @Autowired
+    private IdleSessionMonitor idleSessionMonitor;
+
+    @Autowired
+    private GroupService groupService;
+
+    @Autowired
+    private ReadWatermarkService readWatermarkService;
+
+    @Autowired
+    private ConversationSummaryCache summaryCache;
+
+    @Autowired
+    private AdmissionController admissionController;
+
+    @Value("${im.offline.batch-size:200}")
+    private int offlineBatchSize;
+
+    @PostConstruct
+    public void init() {
+        presenceTracker.setListener(this::broadcastPresence);
+        clusterRouter.setLocalDelivery(this::deliverForwarded);
+        ackAggregator.setSink(this::sendAck);
+        idleSessionMonitor.setListener(new IdleSessionMonitor.Listener() {
+            @Override
+            public void onIdle(WebSocketSession session) {
+                sendHeartbeatProbe(session);
+            }
+
+            @Override
+            public boolean onExpired(WebSocketSession session) {
+                return evictIdle(session);
+            }
+        });
+    }
+
     @Override
     public void afterConnectionEstablished(WebSocketSession session) {
-        String username = getUsername(session);
-        sessions.put(username, session);
-        
-        // 广播用户上线消息
-        broadcastUserStatus(username, true);
+        long connectedAt = System.currentTimeMillis();
+        Map<String, Object> attributes = session.getAttributes();
+        String username = (String) attributes.get(UsernameHandshakeInterceptor.USERNAME_ATTRIBUTE);
+        if (username == null) {
+            // 没有经过握手拦截器创建的会话
+            username = UsernameHandshakeInterceptor.resolve(session.getUri());
+            if (username == null) {
+                throw new IllegalArgumentException("Username parameter not found in WebSocket URL");
+            }
+            attributes.put(UsernameHandshakeInterceptor.USERNAME_ATTRIBUTE, username);
+        }
+        OutboundSession outbound = outboundSessionFactory.create(session);
+        session.getAttributes().put(OUTBOUND_ATTRIBUTE, outbound);
+        session.getAttributes().put(LIVENESS_ATTRIBUTE, idleSessionMonitor.track(session));
+        TokenBucket bucket = admissionController.bucketFor(username);
+        if (bucket != null) {
+            session.getAttributes().put(RATE_LIMIT_ATTRIBUTE, bucket);
+        }
+        session.getAttributes().put(CHAT_FIELDS_ATTRIBUTE, chatFields(username));
         
-        // 发送当前在线用户列表
-        sendUserList();
+        // 同一用户的其他端已在线时不再广播上线；上线事件并入下一个在线状态增量，新连接只单独收到一份全量快照
+        if (sessionRegistry.register(username, outbound)) {
+            clusterRouter.onLocalLogin(username);
+            presenceTracker.online(username);
+        }
+        sendUserList(outbound);
+
+        // 在后台分批回放离线消息
+        offlineMessageService.replayAsync(username, connectedAt, batch -> sendOfflineBatch(outbound, batch));
+        offlineMessageService.replayGroupsAsync(username, batch -> sendOfflineBatch(outbound, batch));
     }
 
     @Override
     public void afterConnectionClosed(WebSocketSession session, CloseStatus status) {
+        IdleSessionMonitor.Liveness liveness = liveness(session);
+        if (liveness != null) {
+            liveness.cancel();
+        }
         String username = getUsername(session);
-        sessions.remove(username);
+        OutboundSession outbound = outbound(session);
+        if (outbound == null || sessionRegistry.unregister(username, outbound) != 0) {
+            // 已经注销过（空闲驱逐先走了下线流程），或该用户还有其他连接在线，不广播下线
+            return;
+        }
         
-        // 广播用户下线消息
-        broadcastUserStatus(username, false);
+        // 下线事件并入下一个在线状态增量
+        clusterRouter.onLocalLogout(username);
+        ackAggregator.removePeer(username);
+        admissionController.release(username);
+        presenceTracker.offline(username);
+        groupService.markDeliveredAsync(username, System.currentTimeMillis());
     }
 
     @Override
     protected void handleTextMessage(WebSocketSession session, TextMessage textMessage) {
         try {
-            Message message = objectMapper.readValue(textMessage.getPayload(), Message.class);
-            message.setFrom(getUsername(session));
+            long receivedAt = metrics.start();
+            IdleSessionMonitor.Liveness liveness = liveness(session);
+            if (liveness != null) {
+                liveness.touch();
+            }
+            // 只流式读出需要的字段，确认和心跳不构造 Message
+            String payload = textMessage.getPayload();
+            InboundFrame frame = InboundFrame.parse(jsonFactory, payload);
+            metrics.recordStage(ImMetrics.Stage.RECEIVE, receivedAt);
+            metrics.received(frame.getType());
+            if (frame.getType() == null || !admit(session, frame)) {
+                return;
+            }
             
-            switch (message.getType()) {
+            switch (frame.getType()) {
                 case CHAT:
-                    handleChatMessage(session, message);
+                    // 单聊直接转发原文，只在末尾追加服务端盖章的 from 和 status
+                    String forward = InboundFrame.append(payload, (String) session.getAttributes().get(CHAT_FIELDS_ATTRIBUTE));
+                    handleChatMessage(session, frame.toMessage(getUsername(session)), forward);
                     break;
                 case ACK:
-                    handleAckMessage(message);
+                    handleAckMessage(frame.getTo(), frame.getAckMessageId(), frame.getStatus());
                     break;
                 case BATCH_ACK:
-                    handleBatchAckMessage(message);
+                    handleBatchAckMessage(frame);
+                    break;
+                case READ_RECEIPT:
+                    handleReadReceipt(frame.toMessage(getUsername(session)));
                     break;
                 case HEARTBEAT:
                     handleHeartbeat(session);
                     break;
+                case USER_LIST:
+                    // 客户端发现在线状态版本不连续时重新拉取快照
+                    sendUserList(outbound(session));
+                    break;
             }
         } catch (Exception e) {
             log.error("Error handling message", e);
         }
     }
 
+    // 确认和心跳总是放行；过载时只拒绝聊天消息，其余类型只受用户速率限制
+    private boolean admit(WebSocketSession session, InboundFrame frame) {
+        Message.Type type = frame.getType();
+        if (type == Message.Type.ACK || type == Message.Type.BATCH_ACK
+                || type == Message.Type.HEARTBEAT) {
+            return true;
+        }
+        if (type == Message.Type.CHAT && admissionController.isOverloaded()) {
+            reject(session, frame, ImMetrics.Rejection.OVERLOADED, admissionController.getOverloadRetryAfterMillis());
+            return false;
+        }
+        TokenBucket bucket = (TokenBucket) session.getAttributes().get(RATE_LIMIT_ATTRIBUTE);
+        if (bucket == null) {
+            return true;
+        }
+        long waitNanos = bucket.tryAcquire(System.nanoTime());
+        if (waitNanos > 0) {
+            reject(session, frame, ImMetrics.Rejection.RATE_LIMITED, TimeUnit.NANOSECONDS.toMillis(waitNanos) + 1);
+            return false;
+        }
+        return true;
+    }
+
+    // 直接回给发送连接，不经过 ACK 合并，客户端据此退避重发
+    private void reject(WebSocketSession session, InboundFrame frame, ImMetrics.Rejection reason, long retryAfterMillis) {
+        metrics.rejected(reason, frame.getType());
+        OutboundSession outbound = outbound(session);
+        if (outbound == null || frame.getMessageId() == null) {
+            return;
+        }
+        Message throttle = new Message();
+        throttle.setType(Message.Type.THROTTLE);
+        throttle.setAckMessageId(frame.getMessageId());
+        throttle.setStatus(Message.Status.FAILED);
+        throttle.setContent(reason.name());
+        throttle.setRetryAfterMillis(retryAfterMillis);
+        throttle.setTimestamp(System.currentTimeMillis());
+        try {
+            outbound.send(new TextMessage(objectMapper.writeValueAsString(throttle)));
+        } catch (IOException e) {
+            log.debug("Error sending THROTTLE to {}", session.getId(), e);
+        }
+    }
+
     public void sendMessage(Message message) {
         try {
-            WebSocketSession recipientSession = sessions.get(message.getTo());
-            if (recipientSession != null && recipientSession.isOpen()) {
+            OutboundSession[] recipients = sessionRegistry.get(message.getTo());
+            if (recipients.length > 0) {
                 String messageJson = objectMapper.writeValueAsString(message);
-                synchronized (recipientSession) {
-                    recipientSession.sendMessage(new TextMessage(messageJson));
+                if (!sendLocal(recipients, new TextMessage(messageJson))) {
+                    throw new IOException("Outbound queue rejected message for " + message.getTo());
                 }
+            } else {
+                clusterRouter.forward(message);
             }
         } catch (IOException e) {
             log.error("Error sending message", e);
@@ -92,36 +282,29 @@ public class WebSocketHandler extends TextWebSocketHandler {
         }
     }
 
+    // MessageManager 重发待确认的消息，只发给本节点上的连接，接收者已不在本节点时返回 false
+    public boolean redeliver(Message message) throws IOException {
+        return sendLocal(sessionRegistry.get(message.getTo()), new TextMessage(objectMapper.writeValueAsString(message)));
+    }
+
     public void handleIncomingMessage(Message message) {
         messageManager.handleIncomingMessage(message);
     }
 
-    public void updateMessageStatus(String messageId, Message.Status status) {
+    // MessageManager 通知原始发送者（重试用完时为 FAILED），与接收者的确认一样经过合并
+    public void updateMessageStatus(String to, String messageId, Message.Status status) {
+        sendAckToSender(to, messageId, status);
+    }
+
+    // forward 为追加了服务端字段的原文，无法拼接时为 null，按 message 重新序列化
+    private void handleChatMessage(WebSocketSession session, Message message, String forward) {
+        long routeStart = metrics.start();
         try {
-            Message statusMessage = new Message();
-            statusMessage.setType(Message.Type.ACK);
-            statusMessage.setAckMessageId(messageId);
-            statusMessage.setStatus(status);
-            
-            if (statusMessage.getTo() == null) {
-                log.warn("Cannot update message status: recipient is null");
+            if (message.getGroupId() != null) {
+                handleGroupMessage(message, routeStart);
                 return;
             }
-            
-            WebSocketSession senderSession = sessions.get(statusMessage.getTo());
-            if (senderSession != null && senderSession.isOpen()) {
-                String messageJson = objectMapper.writeValueAsString(statusMessage);
-                synchronized (senderSession) {
-                    senderSession.sendMessage(new TextMessage(messageJson));
-                }
-            }
-        } catch (IOException e) {
-            log.error("Error updating message status", e);
-        }
-    }
 
-    private void handleChatMessage(WebSocketSession session, Message message) {
-        try {
             // 设置消息状态为发送中
             message.setStatus(Message.Status.SENDING);
             
@@ -130,92 +313,300 @@ public class WebSocketHandler extends TextWebSocketHandler {
                 log.warn("Invalid chat message: missing to/from fields");
                 return;
             }
+
+            // 异步持久化，写入队列已满时拒绝消息，让发送者稍后重试
+            if (!chatMessageService.saveMessageAsync(ChatMessage.of(message))) {
+                log.warn("Persistence queue full, rejecting message {}", message.getMessageId());
+                metrics.failure(ImMetrics.Failure.PERSIST_REJECTED);
+                message.setStatus(Message.Status.FAILED);
+                sendAckToSender(message.getFrom(), message.getMessageId(), Message.Status.FAILED);
+                return;
+            }
             
-            // 发送消息给接收者
-            WebSocketSession recipientSession = sessions.get(message.getTo());
-            if (recipientSession != null && recipientSession.isOpen()) {
-                String messageJson = objectMapper.writeValueAsString(message);
-                synchronized (recipientSession) {
-                    recipientSession.sendMessage(new TextMessage(messageJson));
-                }
-                
-                // 更新消息状态为已发送，并通知发送者
+            // 发送消息给接收者，接收者在其他节点时转发过去；库中状态等帧真正写出后再改为 SENT
+            // 接收者在本节点上时登记待确认，超时重发；先登记，帧被丢弃的回调才能撤销。转发的由接收者所在节点登记
+            if (sessionRegistry.get(message.getTo()).length > 0) {
+                messageManager.track(message);
+            }
+            if (sendToUser(message.getTo(), message, forward, new ChatDelivery(message.getMessageId(), message.getTo()))) {
+                metrics.recordStage(ImMetrics.Stage.ROUTE, routeStart);
+                metrics.markDelivered(message.getMessageId());
+                // 通知发送者已发送
                 message.setStatus(Message.Status.SENT);
                 sendAckToSender(message.getFrom(), message.getMessageId(), Message.Status.SENT);
             } else {
-                // 接收者不在线，标记消息为发送失败
-                message.setStatus(Message.Status.FAILED);
-                sendAckToSender(message.getFrom(), message.getMessageId(), Message.Status.FAILED);
+                // 接收者不在线或发送队列拒绝，消息保持 SENDING 状态留在离线收件箱
+                storeOffline(message);
             }
         } catch (IOException e) {
             log.error("Error handling chat message", e);
-            message.setStatus(Message.Status.FAILED);
-            if (message.getFrom() != null) {
-                sendAckToSender(message.getFrom(), message.getMessageId(), Message.Status.FAILED);
-            }
+            metrics.failure(ImMetrics.Failure.SEND_ERROR);
+            storeOffline(message);
         }
     }
 
-    private void handleAckMessage(Message message) {
+    private void handleGroupMessage(Message message, long routeStart) throws IOException {
+        long groupId = MessageIdGenerator.parse(message.getGroupId());
+        if (groupId < 0 || !groupService.isMember(groupId, message.getFrom())) {
+            log.warn("Rejecting group message {} from non-member {}", message.getMessageId(), message.getFrom());
+            sendAckToSender(message.getFrom(), message.getMessageId(), Message.Status.FAILED);
+            return;
+        }
+        message.setTo(null);
+        message.setNeedAck(false);
+        message.setStatus(Message.Status.SENT);
+
+        // 一条群消息只写一行，离线成员上线后按 delivered_id 回放
+        if (!chatMessageService.saveMessageAsync(ChatMessage.of(message))) {
+            log.warn("Persistence queue full, rejecting group message {}", message.getMessageId());
+            metrics.failure(ImMetrics.Failure.PERSIST_REJECTED);
+            sendAckToSender(message.getFrom(), message.getMessageId(), Message.Status.FAILED);
+            return;
+        }
+
+        // 只序列化一次；成员解析和入队在扇出线程上完成，发送者的 IO 线程到这里就返回
+        TextMessage frame = new TextMessage(objectMapper.writeValueAsString(message));
+        fanOutService.fanOutAsync(frame, () -> groupTargets(groupId, message));
+        metrics.recordStage(ImMetrics.Stage.ROUTE, routeStart);
+        sendAckToSender(message.getFrom(), message.getMessageId(), Message.Status.SENT);
+    }
+
+    // 本节点上在线的成员；不在本节点的成员按所在节点分组转发，完全离线的成员不做任何处理
+    private List<OutboundSession> groupTargets(long groupId, Message message) {
+        List<OutboundSession> targets = new ArrayList<>();
+        List<String> remote = clusterRouter.isEnabled() ? new ArrayList<>() : null;
+        String sender = message.getFrom();
+        groupService.forEachMember(groupId, username -> {
+            if (username.equals(sender)) return;
+            OutboundSession[] sessions = sessionRegistry.get(username);
+            if (sessions.length > 0) {
+                Collections.addAll(targets, sessions);
+            } else if (remote != null) {
+                remote.add(username);
+            }
+        });
+        int forwarded = remote != null ? clusterRouter.forwardToUsers(message, remote) : 0;
+        groupService.recordFanOut(targets.size() + forwarded);
+        return targets;
+    }
+
+    // 其他节点转发过来的消息
+    private void deliverForwarded(Message message) {
         try {
-            // 验证消息的必要字段
-            if (message.getTo() == null) {
-                log.warn("Invalid ACK message: missing recipient");
+            if (message.getGroupId() != null && message.getUsers() != null) {
+                // 群消息：users 是本节点上的接收者
+                List<OutboundSession> targets = new ArrayList<>();
+                for (String username : message.getUsers()) {
+                    Collections.addAll(targets, sessionRegistry.get(username));
+                }
+                message.setUsers(null);
+                fanOutService.fanOut(new TextMessage(objectMapper.writeValueAsString(message)), targets, null);
                 return;
             }
-            
-            // 转发确认消息给原始发送者
-            WebSocketSession senderSession = sessions.get(message.getTo());
-            if (senderSession != null && senderSession.isOpen()) {
-                String messageJson = objectMapper.writeValueAsString(message);
-                synchronized (senderSession) {
-                    senderSession.sendMessage(new TextMessage(messageJson));
-                }
+            OutboundSession[] recipients = sessionRegistry.get(message.getTo());
+            if (recipients.length > 0 && message.getType() == Message.Type.CHAT) {
+                messageManager.track(message);
+            }
+            if (recipients.length > 0
+                    && sendLocal(recipients, new TextMessage(objectMapper.writeValueAsString(message)))) {
+                return;
+            }
+            if (message.getType() == Message.Type.CHAT) {
+                // 用户已离开本节点，留在离线收件箱
+                storeOffline(message);
             }
         } catch (IOException e) {
-            log.error("Error handling ACK message", e);
+            log.error("Error delivering forwarded message", e);
         }
     }
 
-    private void sendAckToSender(String to, String messageId, Message.Status status) {
-        try {
-            // 验证必要参数
-            if (to == null || messageId == null) {
-                log.warn("Cannot send ACK: missing to/messageId");
-                return;
+    // 发给本节点上的连接，不在本节点时转发到用户所在节点
+    private boolean sendToUser(String to, Message message) throws IOException {
+        return sendToUser(to, message, null);
+    }
+
+    private boolean sendToUser(String to, Message message, String frame) throws IOException {
+        return sendToUser(to, message, frame, null);
+    }
+
+    // 本节点上的连接直接发 frame（为 null 时序列化 message），转发到其他节点仍用 message，转发成功即算写出
+    private boolean sendToUser(String to, Message message, String frame, OutboundSession.WriteListener listener) throws IOException {
+        if (to == null) {
+            return false;
+        }
+        OutboundSession[] recipients = sessionRegistry.get(to);
+        if (recipients.length > 0) {
+            return sendLocal(recipients, new TextMessage(frame != null ? frame : objectMapper.writeValueAsString(message)), listener);
+        }
+        if (!clusterRouter.forward(message)) {
+            return false;
+        }
+        if (listener != null) {
+            listener.written();
+        }
+        return true;
+    }
+
+    private static boolean sendLocal(OutboundSession[] recipients, TextMessage frame) {
+        return sendLocal(recipients, frame, null);
+    }
+
+    // 发给用户在本节点上的每个连接（多端登录），任一连接接收即算送达
+    private static boolean sendLocal(OutboundSession[] recipients, TextMessage frame, OutboundSession.WriteListener listener) {
+        boolean sent = false;
+        for (OutboundSession recipient : recipients) {
+            if (recipient.isOpen() && recipient.send(frame, null, listener)) {
+                sent = true;
             }
+        }
+        return sent;
+    }
 
-            Message ackMessage = new Message();
-            ackMessage.setType(Message.Type.ACK);
-            ackMessage.setAckMessageId(messageId);
-            ackMessage.setStatus(status);
-            ackMessage.setTimestamp(System.currentTimeMillis());
-            ackMessage.setTo(to);
-
-            WebSocketSession senderSession = sessions.get(to);
-            if (senderSession != null && senderSession.isOpen()) {
-                String messageJson = objectMapper.writeValueAsString(ackMessage);
-                synchronized (senderSession) {
-                    senderSession.sendMessage(new TextMessage(messageJson));
-                }
+    /**
+     * 单聊帧写出后把库中状态改为 SENT，多端登录时只改一次；连接关闭导致帧被丢弃时消息仍是 SENDING，
+     * 标记接收者有离线消息，下次上线回放。
+     */
+    private final class ChatDelivery implements OutboundSession.WriteListener {
+        private final String messageId;
+        private final String recipient;
+        private final AtomicBoolean written = new AtomicBoolean();
+
+        private ChatDelivery(String messageId, String recipient) {
+            this.messageId = messageId;
+            this.recipient = recipient;
+        }
+
+        @Override
+        public void written() {
+            if (written.compareAndSet(false, true)) {
+                chatMessageService.updateMessageStatusAsync(messageId, ChatMessage.Status.SENT);
+            }
+        }
+
+        @Override
+        public void discarded() {
+            offlineMessageService.markOffline(recipient);
+            if (!written.get()) {
+                messageManager.forget(messageId);
             }
-        } catch (IOException e) {
-            log.error("Error sending ACK to sender", e);
         }
     }
 
-    private void handleBatchAckMessage(Message message) {
+    private void storeOffline(Message message) {
+        messageManager.forget(message.getMessageId());
+        message.setStatus(Message.Status.SENDING);
+        offlineMessageService.markOffline(message.getTo());
+        sendAckToSender(message.getFrom(), message.getMessageId(), Message.Status.SENDING);
+    }
+
+    private boolean sendOfflineBatch(OutboundSession session, List<ChatMessage> batch) throws IOException {
+        for (ChatMessage chatMessage : batch) {
+            Message message = chatMessage.toMessage();
+            message.setStatus(Message.Status.SENT);
+            String messageJson = objectMapper.writeValueAsString(message);
+            // 群消息本来就是 SENT，靠 delivered_id 回放
+            OutboundSession.WriteListener listener = chatMessage.getGroupId() == null
+                    ? new ChatDelivery(chatMessage.getMessageId(), chatMessage.getTo()) : null;
+            if (listener != null) {
+                messageManager.track(message);
+            }
+            if (!session.send(new TextMessage(messageJson), null, listener)) {
+                messageManager.forget(message.getMessageId());
+                return false;
+            }
+        }
+        // 流控：等对端消费掉这一批再取下一批，避免积压在发送队列中
         try {
-            // 转发批量确认消息给原始发送者
-            WebSocketSession senderSession = sessions.get(message.getTo());
-            if (senderSession != null && senderSession.isOpen()) {
-                String messageJson = objectMapper.writeValueAsString(message);
-                synchronized (senderSession) {
-                    senderSession.sendMessage(new TextMessage(messageJson));
-                }
+            return session.awaitDepthBelow(offlineBatchSize, OFFLINE_BATCH_WAIT_MILLIS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private void handleAckMessage(String to, String ackMessageId, Message.Status status) {
+        // 验证消息的必要字段
+        if (to == null) {
+            log.warn("Invalid ACK message: missing recipient");
+            return;
+        }
+
+        if (ackMessageId != null) {
+            ChatMessage.Status persisted = status != null
+                    ? ChatMessage.Status.of(status) : ChatMessage.Status.DELIVERED;
+            chatMessageService.updateMessageStatusAsync(ackMessageId, persisted);
+            if (persisted == ChatMessage.Status.DELIVERED) {
+                metrics.markAcked(ackMessageId);
+            }
+            if (persisted == ChatMessage.Status.DELIVERED || persisted == ChatMessage.Status.READ) {
+                messageManager.acknowledge(ackMessageId);
             }
+        }
+
+        // 确认合并后再转给原始发送者
+        ackAggregator.add(to, ackMessageId, status);
+    }
+
+    private void sendAckToSender(String to, String messageId, Message.Status status) {
+        // 验证必要参数
+        if (to == null || messageId == null) {
+            log.warn("Cannot send ACK: missing to/messageId");
+            return;
+        }
+        ackAggregator.add(to, messageId, status);
+    }
+
+    // AckAggregator 合并后的 ACK / BATCH_ACK
+    private void sendAck(Message ackMessage) {
+        try {
+            sendToUser(ackMessage.getTo(), ackMessage);
         } catch (IOException e) {
-            log.error("Error handling batch ACK message", e);
+            log.error("Error sending ACK to {}", ackMessage.getTo(), e);
+        }
+    }
+
+    private void handleBatchAckMessage(InboundFrame frame) {
+        for (String messageId : AckAggregator.expand(frame.getBatchAckMessageIds(), frame.getBatchAckRanges())) {
+            chatMessageService.updateMessageStatusAsync(messageId, ChatMessage.Status.DELIVERED);
+            metrics.markAcked(messageId);
+            messageManager.acknowledge(messageId);
+            // 转发给原始发送者
+            ackAggregator.add(frame.getTo(), messageId, Message.Status.DELIVERED);
+        }
+    }
+
+    // 回执只带会话中最后一条已读消息的 timestamp 与 ackMessageId，一次推进整个会话的已读位置
+    private void handleReadReceipt(Message message) {
+        if (message.getAckMessageId() == null || (message.getTo() == null && message.getGroupId() == null)) {
+            log.warn("Invalid read receipt: missing to/ackMessageId");
+            return;
+        }
+        String conversationKey;
+        if (message.getGroupId() != null) {
+            long groupId = MessageIdGenerator.parse(message.getGroupId());
+            if (groupId < 0 || !groupService.isMember(groupId, message.getFrom())) {
+                log.warn("Rejecting read receipt for group {} from non-member {}", message.getGroupId(), message.getFrom());
+                return;
+            }
+            conversationKey = ChatMessage.groupConversationKey(groupId);
+        } else {
+            conversationKey = ChatMessage.conversationKey(message.getFrom(), message.getTo());
+        }
+        // 已读位置不能超过当前时间，否则之后收到的消息会一直被当作已读
+        message.setTimestamp(Math.min(message.getTimestamp(), System.currentTimeMillis()));
+        if (!readWatermarkService.markRead(message.getFrom(), conversationKey,
+                message.getTimestamp(), message.getAckMessageId())) {
+            return;
+        }
+        // 单聊转给对方，一帧即可把此前发出的消息都标为已读；群里不逐人转发
+        if (message.getGroupId() == null) {
+            summaryCache.onRead(message.getFrom(), message.getTo(), message.getTimestamp(), message.getAckMessageId());
+            message.setStatus(Message.Status.READ);
+            try {
+                sendToUser(message.getTo(), message);
+            } catch (IOException e) {
+                log.error("Error forwarding read receipt to {}", message.getTo(), e);
+            }
         }
     }
 
@@ -226,59 +617,102 @@ public class WebSocketHandler extends TextWebSocketHandler {
             heartbeatResponse.setTimestamp(System.currentTimeMillis());
             
             String messageJson = objectMapper.writeValueAsString(heartbeatResponse);
-            synchronized (session) {
-                session.sendMessage(new TextMessage(messageJson));
+            OutboundSession outbound = outbound(session);
+            if (outbound != null) {
+                outbound.send(new TextMessage(messageJson), Message.Type.HEARTBEAT.name());
             }
         } catch (IOException e) {
             log.error("Error sending heartbeat response", e);
         }
     }
 
-    private void broadcastUserStatus(String username, boolean isOnline) {
-        Message statusMessage = new Message();
-        statusMessage.setType(isOnline ? Message.Type.LOGIN : Message.Type.LOGOUT);
-        statusMessage.setFrom(username);
-        statusMessage.setTimestamp(System.currentTimeMillis());
-        
-        broadcast(statusMessage);
+    // 服务端心跳带 needAck，客户端收到后回一个心跳；客户端自己发的心跳仍按原样回显
+    private void sendHeartbeatProbe(WebSocketSession session) {
+        OutboundSession outbound = outbound(session);
+        if (outbound == null) return;
+        try {
+            Message probe = new Message();
+            probe.setType(Message.Type.HEARTBEAT);
+            probe.setNeedAck(true);
+            probe.setTimestamp(System.currentTimeMillis());
+            outbound.send(new TextMessage(objectMapper.writeValueAsString(probe)), Message.Type.HEARTBEAT.name());
+        } catch (IOException e) {
+            log.error("Error sending heartbeat probe", e);
+        }
     }
 
-    private void sendUserList() {
-        Message userListMessage = new Message();
-        userListMessage.setType(Message.Type.USER_LIST);
-        userListMessage.setUsers(new ArrayList<>(sessions.keySet()));
-        userListMessage.setTimestamp(System.currentTimeMillis());
-        
-        broadcast(userListMessage);
+    // 超时无入站消息：关闭连接并立即走下线流程，不等容器的关闭回调（半开连接上可能迟迟不来）
+    private boolean evictIdle(WebSocketSession session) {
+        OutboundSession outbound = outbound(session);
+        String username = getUsername(session);
+        // 底层连接已断开却仍在跟踪，或已经注销却没有关闭
+        boolean zombie = !session.isOpen() || outbound == null || !sessionRegistry.contains(username, outbound);
+        log.info("Evicting idle session {} of {}{}", session.getId(), username, zombie ? " (zombie)" : "");
+        if (outbound != null) {
+            outbound.close(CloseStatus.SESSION_NOT_RELIABLE);
+        }
+        afterConnectionClosed(session, CloseStatus.SESSION_NOT_RELIABLE);
+        return zombie;
+    }
+
+    private void broadcastPresence(PresenceTracker.Delta delta) {
+        Message presenceMessage = new Message();
+        presenceMessage.setType(Message.Type.PRESENCE);
+        presenceMessage.setVersion(delta.getVersion());
+        presenceMessage.setUsers(delta.getJoined());
+        presenceMessage.setOfflineUsers(delta.getLeft());
+        presenceMessage.setTimestamp(System.currentTimeMillis());
+
+        broadcast(presenceMessage);
+    }
+
+    private void sendUserList(OutboundSession session) {
+        if (session == null) return;
+        try {
+            Message userListMessage = new Message();
+            userListMessage.setType(Message.Type.USER_LIST);
+            userListMessage.setVersion(presenceTracker.getVersion());
+            userListMessage.setUsers(sessionRegistry.onlineUsers());
+            userListMessage.setTimestamp(System.currentTimeMillis());
+
+            // 用户列表只需最新一份，队列中未发出的旧列表直接被替换
+            String messageJson = objectMapper.writeValueAsString(userListMessage);
+            session.send(new TextMessage(messageJson), Message.Type.USER_LIST.name());
+        } catch (IOException e) {
+            log.error("Error sending user list", e);
+        }
     }
 
     private void broadcast(Message message) {
         try {
+            // 只序列化一次，所有连接共享同一帧
             String messageJson = objectMapper.writeValueAsString(message);
-            TextMessage textMessage = new TextMessage(messageJson);
-            
-            for (WebSocketSession session : sessions.values()) {
-                if (session.isOpen()) {
-                    synchronized (session) {
-                        session.sendMessage(textMessage);
-                    }
-                }
-            }
+            fanOutService.fanOut(new TextMessage(messageJson), sessionRegistry.allSessions(), null);
         } catch (IOException e) {
             log.error("Error broadcasting message", e);
         }
     }
 
+    private OutboundSession outbound(WebSocketSession session) {
+        return (OutboundSession) session.getAttributes().get(OUTBOUND_ATTRIBUTE);
+    }
+
+    private IdleSessionMonitor.Liveness liveness(WebSocketSession session) {
+        return (IdleSessionMonitor.Liveness) session.getAttributes().get(LIVENESS_ATTRIBUTE);
+    }
+
+    public int getOnlineCount() {
+        return sessionRegistry.getUserCount();
+    }
+
+    // 与 handleChatMessage 中的 setStatus(SENDING)、setFrom 对应
+    private static String chatFields(String username) {
+        return ",\"status\":\"SENDING\",\"from\":\""
+                + new String(JsonStringEncoder.getInstance().quoteAsString(username)) + "\"}";
+    }
+
+    // 握手时已解析好
     private String getUsername(WebSocketSession session) {
-        try {
-            String query = session.getUri().getQuery();
-            if (query != null && query.startsWith("username=")) {
-                String username = query.substring("username=".length());
-                return URLDecoder.decode(username, StandardCharsets.UTF_8.name());
-            }
-            throw new IllegalArgumentException("Username parameter not found in WebSocket URL");
-        } catch (Exception e) {
-            throw new RuntimeException("Error getting username from session", e);
-        }
+        return (String) session.getAttributes().get(UsernameHandshakeInterceptor.USERNAME_ATTRIBUTE);
     }
 } 
\ No newline at end of file
@@ -1,11 +1,17 @@
 package com.example.im.controller;
 
 import com.example.im.entity.ChatMessage;
+import com.example.im.gateway.NettyWebSocketGateway;
+import com.example.im.search.MessageSearchService;
 import com.example.im.service.ChatMessageService;
+import com.example.im.summary.ConversationSummary;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.web.bind.annotation.*;
 
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 @RestController
 @RequestMapping("/api/chat")
@@ -13,21 +19,74 @@ public class ChatController {
     @Autowired
     private ChatMessageService chatMessageService;
 
+    @Autowired
+    private MessageSearchService messageSearchService;
+
+    @Autowired
+    private ObjectProvider<NettyWebSocketGateway> nettyGateway;
+
+    // 游标分页：传入上一页最后一条消息的 timestamp 和 messageId 获取更早的消息
     @GetMapping("/history")
     public List<ChatMessage> getChatHistory(
             @RequestParam String user1,
             @RequestParam String user2,
-            @RequestParam(defaultValue = "50") int limit) {
-        return chatMessageService.getChatHistory(user1, user2, limit);
+            @RequestParam(defaultValue = "50") int limit,
+            @RequestParam(required = false) Long beforeTimestamp,
+            @RequestParam(required = false) String beforeMessageId) {
+        return chatMessageService.getChatHistory(user1, user2, limit, beforeTimestamp, beforeMessageId);
     }
 
     @GetMapping("/messages")
-    public List<ChatMessage> getUserMessages(@RequestParam String username) {
-        return chatMessageService.getUserMessages(username);
+    public List<ChatMessage> getUserMessages(
+            @RequestParam String username,
+            @RequestParam(defaultValue = "50") int limit,
+            @RequestParam(required = false) Long beforeTimestamp,
+            @RequestParam(required = false) String beforeMessageId) {
+        return chatMessageService.getUserMessages(username, limit, beforeTimestamp, beforeMessageId);
     }
 
     @GetMapping("/unread")
-    public List<ChatMessage> getUnreadMessages(@RequestParam String username) {
-        return chatMessageService.getUnreadMessages(username);
+    public List<ChatMessage> getUnreadMessages(
+            @RequestParam String username,
+            @RequestParam(defaultValue = "50") int limit,
+            @RequestParam(required = false) Long beforeTimestamp,
+            @RequestParam(required = false) String beforeMessageId) {
+        return chatMessageService.getUnreadMessages(username, limit, beforeTimestamp, beforeMessageId);
+    }
+
+    @GetMapping("/unread/counts")
+    public Map<String, Long> getUnreadCounts(@RequestParam String username) {
+        return chatMessageService.getUnreadCounts(username);
+    }
+
+    // 最近会话列表（最后一条消息与未读数），按最近消息排序
+    @GetMapping("/conversations")
+    public List<ConversationSummary> getConversations(
+            @RequestParam String username,
+            @RequestParam(defaultValue = "50") int limit) {
+        return chatMessageService.getConversations(username, limit);
+    }
+
+    // 全文搜索，按消息从新到旧分页：传入上一页最后一条的 id 获取更早的结果
+    @GetMapping("/search")
+    public List<ChatMessage> search(
+            @RequestParam String username,
+            @RequestParam String q,
+            @RequestParam(required = false) String peer,
+            @RequestParam(required = false) Long groupId,
+            @RequestParam(defaultValue = "20") int limit,
+            @RequestParam(required = false) Long beforeId) {
+        return messageSearchService.search(username, q, peer, groupId, limit, beforeId);
+    }
+
+    // 前端据此决定 WebSocket 连到哪个端口：spring 模式与页面同源，netty 模式走网关端口
+    @GetMapping("/gateway")
+    public Map<String, Object> getGateway() {
+        Map<String, Object> gateway = new LinkedHashMap<>();
+        NettyWebSocketGateway netty = nettyGateway.getIfAvailable();
+        gateway.put("mode", netty != null ? "netty" : "spring");
+        gateway.put("port", netty != null ? netty.getPort() : null);
+        gateway.put("path", netty != null ? netty.getPath() : "/ws");
+        return gateway;
     }
-} 
\ No newline at end of file
+}
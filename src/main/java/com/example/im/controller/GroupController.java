@@ -0,0 +1,69 @@
+package com.example.im.controller;
+
+import com.example.im.entity.ChatGroup;
+import com.example.im.entity.ChatMessage;
+import com.example.im.group.GroupService;
+import com.example.im.service.ChatMessageService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.util.Collections;
+import java.util.List;
+
+@RestController
+@RequestMapping("/api/groups")
+public class GroupController {
+    @Autowired
+    private GroupService groupService;
+
+    @Autowired
+    private ChatMessageService chatMessageService;
+
+    @PostMapping
+    public ChatGroup createGroup(
+            @RequestParam String name,
+            @RequestParam String owner,
+            @RequestParam(required = false) List<String> members) {
+        try {
+            return groupService.createGroup(name, owner, members != null ? members : Collections.emptyList());
+        } catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage());
+        }
+    }
+
+    @GetMapping
+    public List<ChatGroup> getGroups(@RequestParam String username) {
+        return groupService.getGroups(username);
+    }
+
+    @GetMapping("/{groupId}/members")
+    public List<String> getMembers(@PathVariable long groupId) {
+        return groupService.getMembers(groupId);
+    }
+
+    @PostMapping("/{groupId}/members")
+    public boolean addMember(@PathVariable long groupId, @RequestParam String username) {
+        try {
+            return groupService.addMember(groupId, username);
+        } catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage());
+        }
+    }
+
+    @DeleteMapping("/{groupId}/members/{username}")
+    public boolean removeMember(@PathVariable long groupId, @PathVariable String username) {
+        return groupService.removeMember(groupId, username);
+    }
+
+    // 与单聊历史相同的游标分页
+    @GetMapping("/{groupId}/history")
+    public List<ChatMessage> getHistory(
+            @PathVariable long groupId,
+            @RequestParam(defaultValue = "50") int limit,
+            @RequestParam(required = false) Long beforeTimestamp,
+            @RequestParam(required = false) String beforeMessageId) {
+        return chatMessageService.getGroupHistory(groupId, limit, beforeTimestamp, beforeMessageId);
+    }
+}
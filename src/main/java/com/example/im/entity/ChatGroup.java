@@ -0,0 +1,52 @@
+package com.example.im.entity;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import com.fasterxml.jackson.databind.ser.std.ToStringSerializer;
+import lombok.Data;
+import org.springframework.data.domain.Persistable;
+
+import javax.persistence.*;
+import java.util.Date;
+
+@Data
+@Entity
+@Table(name = "chat_groups")
+public class ChatGroup implements Persistable<Long> {
+    // Snowflake id，JSON 中按字符串输出
+    @Id
+    @JsonSerialize(using = ToStringSerializer.class)
+    private Long id;
+
+    @Column
+    private String name;
+
+    @Column(name = "owner_user")
+    private String owner;
+
+    @Column(name = "created_at")
+    @Temporal(TemporalType.TIMESTAMP)
+    private Date createdAt;
+
+    // id 是预先分配的，靠这个标记让 save() 直接 persist，而不是先查一次再 merge
+    @Transient
+    @JsonIgnore
+    private boolean persisted;
+
+    @Override
+    @JsonIgnore
+    public boolean isNew() {
+        return !persisted;
+    }
+
+    @PostLoad
+    @PostPersist
+    protected void markPersisted() {
+        persisted = true;
+    }
+
+    @PrePersist
+    protected void onCreate() {
+        createdAt = new Date();
+    }
+}
@@ -1,19 +1,31 @@
 package com.example.im.entity;
 
+import com.example.im.protocol.Message;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import com.fasterxml.jackson.databind.ser.std.ToStringSerializer;
 import lombok.Data;
-import org.hibernate.annotations.GenericGenerator;
+import org.springframework.data.domain.Persistable;
 
 import javax.persistence.*;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
+import java.util.List;
 
 @Data
 @Entity
-@Table(name = "chat_messages")
-public class ChatMessage {
+@Table(name = "chat_messages", indexes = {
+        @Index(name = "idx_chat_conversation_ts", columnList = "conversation_key, timestamp, message_id"),
+        @Index(name = "idx_chat_to_status_ts", columnList = "to_user, status, timestamp, message_id"),
+        @Index(name = "idx_chat_to_ts", columnList = "to_user, timestamp, message_id"),
+        @Index(name = "idx_chat_group_id", columnList = "group_id, id")
+})
+public class ChatMessage implements Persistable<Long> {
+    // Snowflake id，由 ChatMessageService 在写入前分配，主键索引只在末尾追加；JSON 中按字符串输出避免 JS 精度丢失
     @Id
-    @GeneratedValue(generator = "system-uuid")
-    @GenericGenerator(name = "system-uuid", strategy = "uuid2")
-    private String id;
+    @JsonSerialize(using = ToStringSerializer.class)
+    private Long id;
 
     @Column(name = "message_id", unique = true)
     private String messageId;
@@ -24,6 +36,15 @@ public class ChatMessage {
     @Column(name = "to_user")
     private String to;
 
+    // 群消息只存一行，to 为空
+    @Column(name = "group_id")
+    @JsonSerialize(using = ToStringSerializer.class)
+    private Long groupId;
+
+    // 会话双方归一化后的键，单次索引范围扫描即可取出两人的历史消息
+    @Column(name = "conversation_key")
+    private String conversationKey;
+
     @Column(columnDefinition = "TEXT")
     private String content;
 
@@ -37,16 +58,121 @@ public class ChatMessage {
     @Temporal(TemporalType.TIMESTAMP)
     private Date createdAt;
 
+    // id 是预先分配的，靠这个标记让 save() 直接 persist，而不是先查一次再 merge
+    @Transient
+    @JsonIgnore
+    private boolean persisted;
+
+    @Override
+    @JsonIgnore
+    public boolean isNew() {
+        return !persisted;
+    }
+
+    @PostLoad
+    @PostPersist
+    protected void markPersisted() {
+        persisted = true;
+    }
+
     @PrePersist
     protected void onCreate() {
         createdAt = new Date();
+        if (conversationKey == null && groupId != null) {
+            conversationKey = groupConversationKey(groupId);
+        } else if (conversationKey == null && from != null && to != null) {
+            conversationKey = conversationKey(from, to);
+        }
+    }
+
+    public static String conversationKey(String user1, String user2) {
+        String first = user1.compareTo(user2) <= 0 ? user1 : user2;
+        String second = first == user1 ? user2 : user1;
+        return first.length() + ":" + first + ":" + second;
+    }
+
+    // 与单聊的 "长度:用户:用户" 不会冲突
+    public static String groupConversationKey(long groupId) {
+        return "g:" + groupId;
     }
 
+    public static ChatMessage of(Message message) {
+        ChatMessage chatMessage = new ChatMessage();
+        chatMessage.setMessageId(message.getMessageId());
+        chatMessage.setFrom(message.getFrom());
+        chatMessage.setTo(message.getTo());
+        if (message.getGroupId() != null) {
+            chatMessage.setGroupId(Long.parseLong(message.getGroupId()));
+        }
+        chatMessage.setContent(message.getContent());
+        chatMessage.setTimestamp(message.getTimestamp());
+        chatMessage.setStatus(Status.of(message.getStatus()));
+        return chatMessage;
+    }
+
+    public Message toMessage() {
+        Message message = new Message();
+        message.setType(Message.Type.CHAT);
+        message.setMessageId(messageId);
+        message.setFrom(from);
+        message.setTo(to);
+        message.setGroupId(groupId != null ? groupId.toString() : null);
+        message.setContent(content);
+        message.setTimestamp(timestamp != null ? timestamp : 0L);
+        message.setStatus(status != null ? Message.Status.valueOf(status.name()) : null);
+        // 群消息不逐个成员确认，靠成员的 delivered_id 回放保证送达
+        message.setNeedAck(groupId == null);
+        return message;
+    }
+
+    /**
+     * 状态只前进不后退，rank 是前进的顺序：重试用完记为 FAILED，之后迟到的确认仍可改为 DELIVERED / READ，
+     * 而迟到的 SENT 或 FAILED 不会覆盖已送达。声明顺序（ordinal）不变，与 Message.Status 对应。
+     */
     public enum Status {
-        SENDING,
-        SENT,
-        DELIVERED,
-        READ,
-        FAILED
+        SENDING(0),
+        SENT(1),
+        DELIVERED(3),
+        READ(4),
+        FAILED(2);
+
+        private final int rank;
+        // 可以前进到该状态的全部状态，条件更新时作为 WHERE status IN 的取值
+        private List<Status> predecessors;
+
+        Status(int rank) {
+            this.rank = rank;
+        }
+
+        public static Status of(Message.Status status) {
+            return status == null ? null : valueOf(status.name());
+        }
+
+        public boolean canAdvanceTo(Status next) {
+            return next != null && next.rank > rank;
+        }
+
+        // 同一条消息的两次变更合并时取更靠后的那个
+        public static Status later(Status a, Status b) {
+            if (a == null) return b;
+            if (b == null) return a;
+            return b.rank > a.rank ? b : a;
+        }
+
+        public List<Status> predecessors() {
+            return predecessors;
+        }
+
+        static {
+            for (Status status : values()) {
+                List<Status> lower = new ArrayList<>();
+                for (Status candidate : values()) {
+                    if (candidate.canAdvanceTo(status)) {
+                        lower.add(candidate);
+                    }
+                }
+                status.predecessors = Collections.unmodifiableList(lower);
+            }
+        }
     }
 } 
\ No newline at end of file
@@ -0,0 +1,67 @@
+package com.example.im.entity;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import com.fasterxml.jackson.databind.ser.std.ToStringSerializer;
+import lombok.Data;
+import org.springframework.data.domain.Persistable;
+
+import javax.persistence.*;
+import java.io.Serializable;
+
+@Data
+@Entity
+@IdClass(GroupMember.Key.class)
+@Table(name = "group_members", indexes = {
+        @Index(name = "idx_group_member_user", columnList = "username, group_id")
+})
+public class GroupMember implements Persistable<GroupMember.Key> {
+    @Id
+    @Column(name = "group_id")
+    @JsonSerialize(using = ToStringSerializer.class)
+    private Long groupId;
+
+    @Id
+    @Column
+    private String username;
+
+    // 该成员已收到的群消息位置（群消息 id），入群时为入群那一刻的 id，下线时推进；
+    // 上线后回放 id 大于它的群消息，不为离线成员逐条复制消息
+    @Column(name = "delivered_id")
+    @JsonSerialize(using = ToStringSerializer.class)
+    private Long deliveredId;
+
+    // 主键由调用方给定，入群时直接 persist，不先查一次
+    @Transient
+    @JsonIgnore
+    private boolean persisted;
+
+    @Override
+    @JsonIgnore
+    public Key getId() {
+        Key key = new Key();
+        key.setGroupId(groupId);
+        key.setUsername(username);
+        return key;
+    }
+
+    @Override
+    @JsonIgnore
+    public boolean isNew() {
+        return !persisted;
+    }
+
+    @PostLoad
+    @PostPersist
+    protected void markPersisted() {
+        persisted = true;
+    }
+
+    @Data
+    public static class Key implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private Long groupId;
+        private String username;
+    }
+}
@@ -0,0 +1,70 @@
+package com.example.im.entity;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import lombok.Data;
+import org.springframework.data.domain.Persistable;
+
+import javax.persistence.*;
+import java.io.Serializable;
+
+/**
+ * 用户在一个会话中的已读位置：该会话里 (timestamp, messageId) 不大于它的消息都算已读，
+ * 与历史消息游标的排序一致。打开一个有几千条未读的会话只写这一行。
+ */
+@Data
+@Entity
+@IdClass(ReadWatermark.Key.class)
+@Table(name = "read_watermarks")
+public class ReadWatermark implements Persistable<ReadWatermark.Key> {
+    @Id
+    @Column
+    private String username;
+
+    @Id
+    @Column(name = "conversation_key")
+    private String conversationKey;
+
+    @Column(name = "read_timestamp")
+    private Long readTimestamp;
+
+    @Column(name = "read_message_id")
+    private String readMessageId;
+
+    // 首次写入时直接 persist，不先查一次
+    @Transient
+    @JsonIgnore
+    private boolean persisted;
+
+    @Override
+    @JsonIgnore
+    public Key getId() {
+        return key(username, conversationKey);
+    }
+
+    @Override
+    @JsonIgnore
+    public boolean isNew() {
+        return !persisted;
+    }
+
+    @PostLoad
+    @PostPersist
+    protected void markPersisted() {
+        persisted = true;
+    }
+
+    public static Key key(String username, String conversationKey) {
+        Key key = new Key();
+        key.setUsername(username);
+        key.setConversationKey(conversationKey);
+        return key;
+    }
+
+    @Data
+    public static class Key implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private String username;
+        private String conversationKey;
+    }
+}
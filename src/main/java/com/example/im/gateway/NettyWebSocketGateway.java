@@ -0,0 +1,191 @@
+package com.example.im.gateway;
+
+import com.example.im.admission.AdmissionController;
+import com.example.im.config.WebSocketHandler;
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.ChannelPipeline;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.ServerChannel;
+import io.netty.channel.WriteBufferWaterMark;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.epoll.EpollServerSocketChannel;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.handler.codec.http.HttpObjectAggregator;
+import io.netty.handler.codec.http.HttpServerCodec;
+import io.netty.handler.codec.http.websocketx.WebSocketServerProtocolConfig;
+import io.netty.handler.codec.http.websocketx.WebSocketServerProtocolHandler;
+import io.netty.handler.codec.http.websocketx.extensions.WebSocketExtensionFilter;
+import io.netty.handler.codec.http.websocketx.extensions.WebSocketExtensionFilterProvider;
+import io.netty.handler.codec.http.websocketx.extensions.WebSocketServerExtensionHandler;
+import io.netty.handler.codec.http.websocketx.extensions.compression.PerMessageDeflateServerExtensionHandshaker;
+import io.netty.handler.flush.FlushConsolidationHandler;
+import io.netty.util.concurrent.DefaultEventExecutorGroup;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import io.netty.util.concurrent.EventExecutorGroup;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+/**
+ * im.gateway.mode=netty 时由 Netty 直接提供 /ws，代替 Tomcat 上的 Spring WebSocket。
+ * Tomcat 仍负责 REST 接口和静态页面。消息处理仍交给 WebSocketHandler，两种网关行为一致。
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "im.gateway.mode", havingValue = "netty")
+public class NettyWebSocketGateway {
+    @Autowired
+    private WebSocketHandler webSocketHandler;
+
+    @Autowired
+    private AdmissionController admissionController;
+
+    @Value("${im.gateway.port:8081}")
+    private int port;
+
+    @Value("${im.gateway.path:/ws}")
+    private String path;
+
+    @Value("${im.gateway.epoll:true}")
+    private boolean epoll;
+
+    @Value("${im.gateway.io-threads:0}")
+    private int ioThreads;
+
+    // 大于 0 时消息处理移出事件循环，同一连接仍按顺序处理
+    @Value("${im.gateway.handler-threads:0}")
+    private int handlerThreads;
+
+    @Value("${im.gateway.backlog:4096}")
+    private int backlog;
+
+    @Value("${im.gateway.max-frame-bytes:65536}")
+    private int maxFrameBytes;
+
+    // channel 出站缓冲高水位：保持较小，让积压留在 OutboundSession 队列里按 overflow-policy 合并或丢弃，
+    // 而不是在每个慢连接上各占一份直接内存
+    @Value("${im.gateway.write-buffer-high-water:65536}")
+    private int writeBufferHighWater;
+
+    // 客户端请求 permessage-deflate 时协商压缩
+    @Value("${im.gateway.compression:true}")
+    private boolean compression;
+
+    // 小于该长度的帧不压缩，deflate 对几十字节的聊天消息几乎没有收益，只增加 CPU
+    @Value("${im.gateway.compression-threshold:256}")
+    private int compressionThreshold;
+
+    @Value("${websocket.outbound.send-time-limit:10000}")
+    private long sendTimeLimitMillis;
+
+    private EventLoopGroup bossGroup;
+    private EventLoopGroup workerGroup;
+    private EventExecutorGroup handlerGroup;
+    private Channel serverChannel;
+
+    @PostConstruct
+    public void start() {
+        boolean useEpoll = epoll && Epoll.isAvailable();
+        Class<? extends ServerChannel> channelClass;
+        if (useEpoll) {
+            bossGroup = new EpollEventLoopGroup(1, new DefaultThreadFactory("im-gateway-boss"));
+            workerGroup = new EpollEventLoopGroup(ioThreads, new DefaultThreadFactory("im-gateway-io"));
+            channelClass = EpollServerSocketChannel.class;
+        } else {
+            bossGroup = new NioEventLoopGroup(1, new DefaultThreadFactory("im-gateway-boss"));
+            workerGroup = new NioEventLoopGroup(ioThreads, new DefaultThreadFactory("im-gateway-io"));
+            channelClass = NioServerSocketChannel.class;
+        }
+        if (handlerThreads > 0) {
+            handlerGroup = new DefaultEventExecutorGroup(handlerThreads, new DefaultThreadFactory("im-gateway-handler"));
+        }
+
+        WebSocketServerProtocolConfig protocolConfig = WebSocketServerProtocolConfig.newBuilder()
+                .websocketPath(path)
+                // 路径后带 ?username=
+                .checkStartsWith(true)
+                .maxFramePayloadLength(maxFrameBytes)
+                .allowExtensions(compression)
+                .build();
+
+        ServerBootstrap bootstrap = new ServerBootstrap()
+                .group(bossGroup, workerGroup)
+                .channel(channelClass)
+                .option(ChannelOption.SO_BACKLOG, backlog)
+                .option(ChannelOption.SO_REUSEADDR, true)
+                .childOption(ChannelOption.TCP_NODELAY, true)
+                .childOption(ChannelOption.ALLOCATOR, PooledByteBufAllocator.DEFAULT)
+                .childOption(ChannelOption.WRITE_BUFFER_WATER_MARK,
+                        new WriteBufferWaterMark(writeBufferHighWater / 2, writeBufferHighWater))
+                .childHandler(new ChannelInitializer<SocketChannel>() {
+                    @Override
+                    protected void initChannel(SocketChannel ch) {
+                        ChannelPipeline pipeline = ch.pipeline();
+                        pipeline.addLast(new HttpServerCodec());
+                        pipeline.addLast(new HttpObjectAggregator(maxFrameBytes));
+                        if (compression) {
+                            pipeline.addLast(new WebSocketServerExtensionHandler(deflateHandshaker()));
+                        }
+                        pipeline.addLast(new WebSocketServerProtocolHandler(protocolConfig));
+                        pipeline.addLast(new FlushConsolidationHandler(256, true));
+                        pipeline.addLast(handlerGroup, "im", new WebSocketGatewayHandler(webSocketHandler, sendTimeLimitMillis));
+                    }
+                });
+        serverChannel = bootstrap.bind(port).syncUninterruptibly().channel();
+        // 事件循环延迟计入过载判断
+        admissionController.monitor(workerGroup);
+        if (handlerGroup != null) {
+            admissionController.monitor(handlerGroup);
+        }
+        log.info("Netty WebSocket gateway listening on port {}{} ({})", port, path, useEpoll ? "epoll" : "nio");
+    }
+
+    // 压缩上下文按连接保存，同一条广播对每个连接各压缩一次
+    private PerMessageDeflateServerExtensionHandshaker deflateHandshaker() {
+        WebSocketExtensionFilter skipSmall = frame -> frame.content().readableBytes() < compressionThreshold;
+        WebSocketExtensionFilterProvider filters = new WebSocketExtensionFilterProvider() {
+            @Override
+            public WebSocketExtensionFilter encoderFilter() {
+                return skipSmall;
+            }
+
+            @Override
+            public WebSocketExtensionFilter decoderFilter() {
+                return WebSocketExtensionFilter.NEVER_SKIP;
+            }
+        };
+        return new PerMessageDeflateServerExtensionHandshaker(6, false, 15, false, false, filters);
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (serverChannel != null) {
+            serverChannel.close().syncUninterruptibly();
+        }
+        workerGroup.shutdownGracefully();
+        bossGroup.shutdownGracefully();
+        if (handlerGroup != null) {
+            handlerGroup.shutdownGracefully();
+        }
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    public String getPath() {
+        return path;
+    }
+}
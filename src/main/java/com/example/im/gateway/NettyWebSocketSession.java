@@ -0,0 +1,242 @@
+package com.example.im.gateway;
+
+import com.example.im.session.NonBlockingWriter;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelPromise;
+import io.netty.handler.codec.http.HttpHeaders;
+import io.netty.handler.codec.http.websocketx.CloseWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.TextWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.WebSocketCloseStatus;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketExtension;
+import org.springframework.web.socket.WebSocketMessage;
+import org.springframework.web.socket.WebSocketSession;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.security.Principal;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
+
+/**
+ * 把 Netty 的 WebSocket 连接包装成 Spring 的 WebSocketSession，WebSocketHandler 无需区分两种网关。
+ * <p>
+ * OutboundSession 经 {@link #write} 写出：文本编码进池化的直接内存后写入 channel，不阻塞，
+ * 每帧带一个 promise，写到 socket 或失败时才回调；出站缓冲超过高水位（慢连接）时返回 false，
+ * 等 channel 重新可写再恢复。持续不可写超过发送时限时断开，与 Tomcat 发送超时的行为一致。
+ * {@link #sendMessage} 保留阻塞语义：等这一帧写出后返回，写失败或超过发送时限时抛出 IOException。
+ */
+public class NettyWebSocketSession implements WebSocketSession, NonBlockingWriter {
+    private final Channel channel;
+    private final URI uri;
+    private final org.springframework.http.HttpHeaders handshakeHeaders;
+    private final long sendTimeLimitNanos;
+    private final Map<String, Object> attributes = new ConcurrentHashMap<>();
+    private volatile CloseStatus closeStatus;
+    private volatile Runnable resume = () -> { };
+    // 最近一次因不可写而暂停的时间，重新可写后清零；只在事件循环上检查
+    private volatile long unwritableSinceNanos;
+    private int textMessageSizeLimit;
+    private int binaryMessageSizeLimit;
+
+    public NettyWebSocketSession(Channel channel, URI uri, HttpHeaders headers, long sendTimeLimitMillis) {
+        this.channel = channel;
+        this.uri = uri;
+        this.sendTimeLimitNanos = TimeUnit.MILLISECONDS.toNanos(sendTimeLimitMillis);
+        this.handshakeHeaders = new org.springframework.http.HttpHeaders();
+        headers.forEach(header -> handshakeHeaders.add(header.getKey(), header.getValue()));
+    }
+
+    @Override
+    public String getId() {
+        return channel.id().asShortText();
+    }
+
+    @Override
+    public URI getUri() {
+        return uri;
+    }
+
+    @Override
+    public org.springframework.http.HttpHeaders getHandshakeHeaders() {
+        return handshakeHeaders;
+    }
+
+    @Override
+    public Map<String, Object> getAttributes() {
+        return attributes;
+    }
+
+    @Override
+    public Principal getPrincipal() {
+        return null;
+    }
+
+    @Override
+    public InetSocketAddress getLocalAddress() {
+        return (InetSocketAddress) channel.localAddress();
+    }
+
+    @Override
+    public InetSocketAddress getRemoteAddress() {
+        return (InetSocketAddress) channel.remoteAddress();
+    }
+
+    @Override
+    public String getAcceptedProtocol() {
+        return null;
+    }
+
+    @Override
+    public void setTextMessageSizeLimit(int messageSizeLimit) {
+        this.textMessageSizeLimit = messageSizeLimit;
+    }
+
+    @Override
+    public int getTextMessageSizeLimit() {
+        return textMessageSizeLimit;
+    }
+
+    @Override
+    public void setBinaryMessageSizeLimit(int messageSizeLimit) {
+        this.binaryMessageSizeLimit = messageSizeLimit;
+    }
+
+    @Override
+    public int getBinaryMessageSizeLimit() {
+        return binaryMessageSizeLimit;
+    }
+
+    @Override
+    public List<WebSocketExtension> getExtensions() {
+        return Collections.emptyList();
+    }
+
+    @Override
+    public void sendMessage(WebSocketMessage<?> message) throws IOException {
+        if (!(message instanceof TextMessage)) {
+            throw new IllegalArgumentException("Unsupported message type: " + message.getClass().getName());
+        }
+        if (!channel.isActive()) {
+            throw new IOException("Channel " + getId() + " is closed");
+        }
+        CompletableFuture<Void> written = new CompletableFuture<>();
+        write((TextMessage) message, error -> {
+            if (error == null) {
+                written.complete(null);
+            } else {
+                written.completeExceptionally(error);
+            }
+        });
+        // 在事件循环线程上等待会卡住写出本身，只能交给 promise 之后返回
+        if (channel.eventLoop().inEventLoop()) {
+            return;
+        }
+        // CompletableFuture 的等待不用监视器锁，虚拟线程等在这里不会钉住载体线程（Netty 的 await 会）
+        try {
+            written.get(sendTimeLimitNanos, TimeUnit.NANOSECONDS);
+        } catch (ExecutionException e) {
+            throw new IOException("Send to " + getId() + " failed", e.getCause());
+        } catch (TimeoutException e) {
+            throw new IOException("Send to " + getId() + " timed out waiting for the peer to drain");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while sending to " + getId(), e);
+        }
+    }
+
+    @Override
+    public boolean write(TextMessage message, Consumer<Throwable> done) {
+        ChannelPromise promise = channel.newPromise();
+        promise.addListener(future -> done.accept(future.cause()));
+        channel.writeAndFlush(encode(message), promise);
+        if (channel.isWritable() || !channel.isActive()) {
+            return true;
+        }
+        if (unwritableSinceNanos == 0) {
+            unwritableSinceNanos = System.nanoTime();
+            channel.eventLoop().schedule(this::checkStalled, sendTimeLimitNanos, TimeUnit.NANOSECONDS);
+        }
+        return false;
+    }
+
+    @Override
+    public void onResume(Runnable resume) {
+        this.resume = resume;
+    }
+
+    private TextWebSocketFrame encode(TextMessage message) {
+        // 按实际 UTF-8 长度分配，writeUtf8 会按最坏情况预留 3 倍空间，广播大帧时很浪费
+        String text = message.getPayload();
+        int length = ByteBufUtil.utf8Bytes(text);
+        ByteBuf payload = channel.alloc().directBuffer(length);
+        ByteBufUtil.reserveAndWriteUtf8(payload, text, length);
+        return new TextWebSocketFrame(payload);
+    }
+
+    private void checkStalled() {
+        long since = unwritableSinceNanos;
+        if (since == 0 || !channel.isActive()) {
+            return;
+        }
+        long remaining = since + sendTimeLimitNanos - System.nanoTime();
+        if (remaining > 0) {
+            // 期间恢复过又重新暂停，按新的起点再等
+            channel.eventLoop().schedule(this::checkStalled, remaining, TimeUnit.NANOSECONDS);
+        } else {
+            // 对端长时间不读，出站缓冲中的帧连同关闭帧都发不出去，直接断开，在途帧的 promise 随之失败
+            closeStatus = CloseStatus.SESSION_NOT_RELIABLE;
+            channel.close();
+        }
+    }
+
+    @Override
+    public boolean isOpen() {
+        return channel.isActive() && closeStatus == null;
+    }
+
+    @Override
+    public void close() {
+        close(CloseStatus.NORMAL);
+    }
+
+    @Override
+    public void close(CloseStatus status) {
+        if (closeStatus != null) {
+            return;
+        }
+        closeStatus = status;
+        if (!channel.isWritable()) {
+            // 出站缓冲已满（对端不读或半开），关闭帧发不出去，直接断开
+            channel.close();
+        } else if (channel.isActive()) {
+            channel.writeAndFlush(new CloseWebSocketFrame(new WebSocketCloseStatus(status.getCode(),
+                            status.getReason() != null ? status.getReason() : "")))
+                    .addListener(future -> channel.close());
+        }
+        writabilityChanged();
+    }
+
+    CloseStatus getCloseStatus() {
+        return closeStatus;
+    }
+
+    // 由 channel 的可写状态变化事件和连接断开事件调用
+    void writabilityChanged() {
+        if (channel.isWritable() || !channel.isActive()) {
+            unwritableSinceNanos = 0;
+            resume.run();
+        }
+    }
+}
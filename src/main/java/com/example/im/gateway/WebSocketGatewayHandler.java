@@ -0,0 +1,115 @@
+package com.example.im.gateway;
+
+import com.example.im.config.UsernameHandshakeInterceptor;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.handler.codec.http.DefaultFullHttpResponse;
+import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.websocketx.BinaryWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.TextWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.WebSocketServerProtocolHandler;
+import io.netty.util.ReferenceCountUtil;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.handler.TextWebSocketHandler;
+
+import java.net.URI;
+
+/**
+ * 每个连接一个实例：握手完成后建立 NettyWebSocketSession，之后把文本帧和连接关闭事件交给 WebSocketHandler，
+ * 与 Tomcat 网关走同一套消息处理逻辑。
+ */
+@Slf4j
+public class WebSocketGatewayHandler extends ChannelInboundHandlerAdapter {
+    private final TextWebSocketHandler webSocketHandler;
+    private final long sendTimeLimitMillis;
+    private NettyWebSocketSession session;
+
+    public WebSocketGatewayHandler(TextWebSocketHandler webSocketHandler, long sendTimeLimitMillis) {
+        this.webSocketHandler = webSocketHandler;
+        this.sendTimeLimitMillis = sendTimeLimitMillis;
+    }
+
+    @Override
+    public void userEventTriggered(ChannelHandlerContext ctx, Object evt) throws Exception {
+        if (evt instanceof WebSocketServerProtocolHandler.HandshakeComplete) {
+            WebSocketServerProtocolHandler.HandshakeComplete handshake = (WebSocketServerProtocolHandler.HandshakeComplete) evt;
+            URI uri;
+            try {
+                uri = URI.create(handshake.requestUri());
+            } catch (IllegalArgumentException e) {
+                log.warn("Rejecting WebSocket with malformed URI {}", handshake.requestUri());
+                ctx.close();
+                return;
+            }
+            String username = UsernameHandshakeInterceptor.resolve(uri);
+            if (username == null) {
+                log.warn("Rejecting WebSocket without username: {}", handshake.requestUri());
+                ctx.close();
+                return;
+            }
+            session = new NettyWebSocketSession(ctx.channel(), uri, handshake.requestHeaders(), sendTimeLimitMillis);
+            session.getAttributes().put(UsernameHandshakeInterceptor.USERNAME_ATTRIBUTE, username);
+            try {
+                webSocketHandler.afterConnectionEstablished(session);
+            } catch (Exception e) {
+                log.warn("Closing WebSocket {}: {}", session.getId(), e.getMessage());
+                session.close(CloseStatus.POLICY_VIOLATION);
+                session = null;
+            }
+            return;
+        }
+        super.userEventTriggered(ctx, evt);
+    }
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+        try {
+            if (msg instanceof TextWebSocketFrame) {
+                if (session != null) {
+                    webSocketHandler.handleMessage(session, new TextMessage(((TextWebSocketFrame) msg).text()));
+                }
+            } else if (msg instanceof BinaryWebSocketFrame) {
+                if (session != null) {
+                    session.close(CloseStatus.NOT_ACCEPTABLE.withReason("Binary messages not supported"));
+                }
+            } else if (msg instanceof FullHttpRequest) {
+                // 不是 /ws 的普通 HTTP 请求
+                ctx.writeAndFlush(new DefaultFullHttpResponse(((FullHttpRequest) msg).protocolVersion(),
+                                HttpResponseStatus.NOT_FOUND, Unpooled.EMPTY_BUFFER))
+                        .addListener(ChannelFutureListener.CLOSE);
+            }
+        } finally {
+            ReferenceCountUtil.release(msg);
+        }
+    }
+
+    @Override
+    public void channelWritabilityChanged(ChannelHandlerContext ctx) throws Exception {
+        if (session != null) {
+            session.writabilityChanged();
+        }
+        super.channelWritabilityChanged(ctx);
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        if (session != null) {
+            session.writabilityChanged();
+            CloseStatus status = session.getCloseStatus();
+            webSocketHandler.afterConnectionClosed(session, status != null ? status : CloseStatus.NORMAL);
+            session = null;
+        }
+        super.channelInactive(ctx);
+    }
+
+    @Override
+    public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+        log.debug("WebSocket gateway error on {}", ctx.channel(), cause);
+        ctx.close();
+    }
+}
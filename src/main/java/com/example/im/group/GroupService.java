@@ -0,0 +1,228 @@
+package com.example.im.group;
+
+import com.example.im.entity.ChatGroup;
+import com.example.im.entity.ChatMessage;
+import com.example.im.entity.GroupMember;
+import com.example.im.message.MessageIdGenerator;
+import com.example.im.repository.ChatGroupRepository;
+import com.example.im.repository.ChatMessageRepository;
+import com.example.im.repository.GroupMemberRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import javax.annotation.PostConstruct;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * 群及成员管理：成员关系持久化在 group_members，内存中由 MemberIndex 维护位图索引。
+ * 群消息在 chat_messages 中只存一行，离线成员靠 delivered_id 上线后回放。
+ */
+@Slf4j
+@Service
+public class GroupService {
+    @Autowired(required = false)
+    private ChatGroupRepository groupRepository;
+
+    @Autowired(required = false)
+    private GroupMemberRepository memberRepository;
+
+    @Autowired(required = false)
+    private ChatMessageRepository chatMessageRepository;
+
+    @Autowired
+    private MemberIndex memberIndex;
+
+    @Autowired
+    private MessageIdGenerator idGenerator;
+
+    @Autowired
+    @Qualifier("offlineReplayExecutor")
+    private ThreadPoolTaskExecutor replayExecutor;
+
+    @Value("${im.group.max-members:10000}")
+    private int maxMembers;
+
+    // 下线时 delivered_id 回退这么久，覆盖下线瞬间仍在扇出中的消息，重复的由客户端按 messageId 去重
+    @Value("${im.group.replay-overlap-millis:5000}")
+    private long replayOverlapMillis;
+
+    private final AtomicLong fanOutCount = new AtomicLong();
+    private final AtomicLong recipientCount = new AtomicLong();
+    // 群消息回放尚未完整结束（进行中或中途失败）的用户，下线时不推进 delivered_id
+    private final Set<String> unfinishedReplays = ConcurrentHashMap.newKeySet();
+
+    @PostConstruct
+    public void loadIndex() {
+        if (memberRepository == null) return;
+        try {
+            List<Object[]> memberships = memberRepository.findAllMemberships();
+            for (Object[] row : memberships) {
+                memberIndex.add(((Number) row[0]).longValue(), (String) row[1]);
+            }
+            log.info("Loaded {} memberships of {} groups", memberships.size(), memberIndex.getGroupCount());
+        } catch (Exception e) {
+            log.error("Error loading group membership index", e);
+        }
+    }
+
+    @Transactional
+    public ChatGroup createGroup(String name, String owner, Collection<String> members) {
+        Set<String> unique = new LinkedHashSet<>();
+        unique.add(owner);
+        unique.addAll(members);
+        if (unique.size() > maxMembers) {
+            throw new IllegalArgumentException("Group exceeds " + maxMembers + " members");
+        }
+        ChatGroup group = new ChatGroup();
+        group.setId(idGenerator.nextId());
+        group.setName(name);
+        group.setOwner(owner);
+        groupRepository.save(group);
+
+        List<GroupMember> rows = new ArrayList<>(unique.size());
+        for (String username : unique) {
+            rows.add(member(group.getId(), username));
+        }
+        memberRepository.saveAll(rows);
+        for (String username : unique) {
+            memberIndex.add(group.getId(), username);
+        }
+        return group;
+    }
+
+    @Transactional
+    public boolean addMember(long groupId, String username) {
+        if (!memberIndex.exists(groupId) || memberIndex.contains(groupId, username)) {
+            return false;
+        }
+        if (memberIndex.getMemberCount(groupId) >= maxMembers) {
+            throw new IllegalArgumentException("Group " + groupId + " is full");
+        }
+        memberRepository.save(member(groupId, username));
+        memberIndex.add(groupId, username);
+        return true;
+    }
+
+    @Transactional
+    public boolean removeMember(long groupId, String username) {
+        if (!memberIndex.contains(groupId, username)) {
+            return false;
+        }
+        GroupMember.Key key = new GroupMember.Key();
+        key.setGroupId(groupId);
+        key.setUsername(username);
+        memberRepository.deleteById(key);
+        memberIndex.remove(groupId, username);
+        return true;
+    }
+
+    public Optional<ChatGroup> getGroup(long groupId) {
+        return groupRepository != null ? groupRepository.findById(groupId) : Optional.empty();
+    }
+
+    public List<ChatGroup> getGroups(String username) {
+        if (groupRepository == null || !memberIndex.hasGroups(username)) {
+            return Collections.emptyList();
+        }
+        return groupRepository.findByMember(username);
+    }
+
+    public List<String> getMembers(long groupId) {
+        List<String> members = new ArrayList<>(memberIndex.getMemberCount(groupId));
+        memberIndex.forEachMember(groupId, members::add);
+        return members;
+    }
+
+    public boolean isMember(long groupId, String username) {
+        return memberIndex.contains(groupId, username);
+    }
+
+    public boolean hasGroups(String username) {
+        return memberIndex.hasGroups(username);
+    }
+
+    public void forEachMember(long groupId, Consumer<String> consumer) {
+        memberIndex.forEachMember(groupId, consumer);
+    }
+
+    public void recordFanOut(int recipients) {
+        fanOutCount.incrementAndGet();
+        recipientCount.addAndGet(recipients);
+    }
+
+    // 所在各群中尚未收到的消息，afterId 为上一页最后一条的 id
+    public List<ChatMessage> getBacklog(String username, long afterId, int limit) {
+        if (chatMessageRepository == null) {
+            return Collections.emptyList();
+        }
+        return chatMessageRepository.findGroupBacklogAfter(username, afterId, PageRequest.of(0, limit));
+    }
+
+    public void replayStarted(String username) {
+        unfinishedReplays.add(username);
+    }
+
+    public void replayFinished(String username) {
+        unfinishedReplays.remove(username);
+    }
+
+    /**
+     * 用户下线时推进其在所有群中的位置，在后台线程上执行，不阻塞连接关闭。
+     * 本次在线期间的回放没有完整送达时不推进，未送达的部分下次上线重新回放。
+     */
+    public void markDeliveredAsync(String username, long offlineAtMillis) {
+        if (unfinishedReplays.remove(username)) {
+            log.debug("Group replay of {} did not finish, keeping delivered position", username);
+            return;
+        }
+        if (memberRepository == null || !memberIndex.hasGroups(username)) return;
+        long deliveredId = idGenerator.idAt(offlineAtMillis - replayOverlapMillis, 0);
+        replayExecutor.execute(() -> {
+            try {
+                memberRepository.advanceDelivered(username, deliveredId);
+            } catch (Exception e) {
+                log.error("Error advancing group position of {}", username, e);
+            }
+        });
+    }
+
+    public int getGroupCount() {
+        return memberIndex.getGroupCount();
+    }
+
+    public long getIndexBytes() {
+        return memberIndex.getSizeInBytes();
+    }
+
+    public long getFanOutCount() {
+        return fanOutCount.get();
+    }
+
+    public long getRecipientCount() {
+        return recipientCount.get();
+    }
+
+    // 新成员从入群这一刻开始收消息
+    private GroupMember member(long groupId, String username) {
+        GroupMember member = new GroupMember();
+        member.setGroupId(groupId);
+        member.setUsername(username);
+        member.setDeliveredId(idGenerator.nextId());
+        return member;
+    }
+}
@@ -0,0 +1,126 @@
+package com.example.im.group;
+
+import org.roaringbitmap.RoaringBitmap;
+import org.springframework.stereotype.Component;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+/**
+ * 群成员索引：用户名映射为本节点内连续的 int id，每个群的成员是一个 RoaringBitmap。
+ * 成员变更远少于群消息，位图按写时复制替换，发群消息时拿到的快照可以无锁遍历。
+ * 1 万人的群约占 30KB，判断成员是否在群里是一次位图查找。
+ */
+@Component
+public class MemberIndex {
+    private final Map<String, Integer> userIds = new ConcurrentHashMap<>();
+    private final Map<Long, RoaringBitmap> groups = new ConcurrentHashMap<>();
+    // 每个用户加入的群数，上线时据此跳过没有群的用户
+    private final Map<Integer, Integer> groupCounts = new ConcurrentHashMap<>();
+    private volatile String[] usernames = new String[1024];
+    private int nextUserId;
+
+    public void add(long groupId, String username) {
+        int userId = userId(username);
+        groups.compute(groupId, (id, current) -> {
+            if (current != null && current.contains(userId)) {
+                return current;
+            }
+            RoaringBitmap copy = current != null ? current.clone() : new RoaringBitmap();
+            copy.add(userId);
+            copy.runOptimize();
+            groupCounts.merge(userId, 1, Integer::sum);
+            return copy;
+        });
+    }
+
+    public void remove(long groupId, String username) {
+        Integer userId = userIds.get(username);
+        if (userId == null) return;
+        groups.computeIfPresent(groupId, (id, current) -> {
+            if (!current.contains(userId)) {
+                return current;
+            }
+            RoaringBitmap copy = current.clone();
+            copy.remove(userId);
+            copy.runOptimize();
+            groupCounts.computeIfPresent(userId, (k, count) -> count > 1 ? count - 1 : null);
+            return copy;
+        });
+    }
+
+    public void removeGroup(long groupId) {
+        RoaringBitmap removed = groups.remove(groupId);
+        if (removed != null) {
+            removed.forEach((int userId) ->
+                    groupCounts.computeIfPresent(userId, (k, count) -> count > 1 ? count - 1 : null));
+        }
+    }
+
+    public boolean contains(long groupId, String username) {
+        Integer userId = userIds.get(username);
+        RoaringBitmap members = groups.get(groupId);
+        return userId != null && members != null && members.contains(userId);
+    }
+
+    public boolean hasGroups(String username) {
+        Integer userId = userIds.get(username);
+        return userId != null && groupCounts.containsKey(userId);
+    }
+
+    public boolean exists(long groupId) {
+        return groups.containsKey(groupId);
+    }
+
+    /**
+     * 遍历群成员快照，期间的成员变更不影响本次遍历。
+     */
+    public void forEachMember(long groupId, Consumer<String> consumer) {
+        RoaringBitmap members = groups.get(groupId);
+        if (members == null) return;
+        String[] names = usernames;
+        members.forEach((int userId) -> consumer.accept(names[userId]));
+    }
+
+    public int getMemberCount(long groupId) {
+        RoaringBitmap members = groups.get(groupId);
+        return members != null ? members.getCardinality() : 0;
+    }
+
+    public int getGroupCount() {
+        return groups.size();
+    }
+
+    public long getSizeInBytes() {
+        long bytes = 0;
+        for (RoaringBitmap members : groups.values()) {
+            bytes += members.getSizeInBytes();
+        }
+        return bytes;
+    }
+
+    private int userId(String username) {
+        Integer existing = userIds.get(username);
+        if (existing != null) {
+            return existing;
+        }
+        synchronized (this) {
+            existing = userIds.get(username);
+            if (existing != null) {
+                return existing;
+            }
+            int userId = nextUserId++;
+            String[] names = usernames;
+            if (userId >= names.length) {
+                names = Arrays.copyOf(names, names.length * 2);
+            }
+            names[userId] = username;
+            // 先发布名字数组再发布 id，遍历位图时总能查到名字
+            usernames = names;
+            userIds.put(username, userId);
+            return userId;
+        }
+    }
+}
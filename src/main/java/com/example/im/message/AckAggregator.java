@@ -0,0 +1,273 @@
+package com.example.im.message;
+
+import com.example.im.protocol.Message;
+import io.netty.util.Timeout;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * 按目标用户和状态合并确认：攒够条数、字节数或等待超时后发出一帧 BATCH_ACK。
+ * 每个目标用户一把锁，不同目标之间互不竞争。
+ */
+@Slf4j
+@Component
+public class AckAggregator {
+    // 单个 id 在 JSON 数组中的额外开销：两个引号和一个逗号
+    private static final int ID_OVERHEAD_BYTES = 3;
+    // 连续 id 至少这么长才压缩成区间
+    private static final int MIN_RANGE_LENGTH = 3;
+    // 对端发来的区间展开上限，防止一个区间撑爆内存
+    private static final int MAX_RANGE_LENGTH = 4096;
+    // 一帧展开后的 id 总数上限，超过时整帧丢弃；BATCH_ACK 不经过限流，不能靠多个区间绕过单区间上限
+    private static final int MAX_EXPANDED_IDS = 4096;
+
+    private static final Message.Status[] STATUSES = Message.Status.values();
+
+    @Autowired
+    private RetryScheduler retryScheduler;
+
+    @Value("${im.ack.batch-size:64}")
+    private int batchSize;
+
+    @Value("${im.ack.batch-bytes:4096}")
+    private int batchBytes;
+
+    // 实际精度受 im.retry.tick-millis 限制
+    @Value("${im.ack.max-delay-millis:50}")
+    private long maxDelayMillis;
+
+    private final Map<String, PeerAcks[]> peers = new ConcurrentHashMap<>();
+    private final AtomicLong ackCount = new AtomicLong();
+    private final AtomicLong frameCount = new AtomicLong();
+
+    private volatile Consumer<Message> sink = message -> { };
+
+    public void setSink(Consumer<Message> sink) {
+        this.sink = sink;
+    }
+
+    /**
+     * 登记一条发往 peer 的确认，触发条数或字节阈值时在调用线程上直接发出。
+     */
+    public void add(String peer, String messageId, Message.Status status) {
+        if (peer == null || messageId == null) {
+            return;
+        }
+        ackCount.incrementAndGet();
+        PeerAcks acks = peers.computeIfAbsent(peer, this::newBuckets)[statusIndex(status)];
+        List<String> ready = acks.add(messageId);
+        if (ready != null) {
+            emit(acks, ready);
+        }
+    }
+
+    // 立即发出 peer 所有积压的确认
+    public void flush(String peer) {
+        PeerAcks[] buckets = peers.get(peer);
+        if (buckets != null) {
+            for (PeerAcks acks : buckets) {
+                flush(acks);
+            }
+        }
+    }
+
+    // 用户下线后不再需要给它发确认
+    public void removePeer(String peer) {
+        PeerAcks[] buckets = peers.remove(peer);
+        if (buckets != null) {
+            for (PeerAcks acks : buckets) {
+                acks.drain();
+            }
+        }
+    }
+
+    public long getAckCount() {
+        return ackCount.get();
+    }
+
+    public long getFrameCount() {
+        return frameCount.get();
+    }
+
+    private PeerAcks[] newBuckets(String peer) {
+        PeerAcks[] buckets = new PeerAcks[STATUSES.length + 1];
+        for (int i = 0; i < buckets.length; i++) {
+            buckets[i] = new PeerAcks(peer, i < STATUSES.length ? STATUSES[i] : null);
+        }
+        return buckets;
+    }
+
+    private static int statusIndex(Message.Status status) {
+        return status != null ? status.ordinal() : STATUSES.length;
+    }
+
+    private void flush(PeerAcks acks) {
+        List<String> ready = acks.drain();
+        if (ready != null) {
+            emit(acks, ready);
+        }
+    }
+
+    private void emit(PeerAcks acks, List<String> ids) {
+        Message ack = new Message();
+        ack.setTo(acks.peer);
+        ack.setStatus(acks.status);
+        ack.setTimestamp(System.currentTimeMillis());
+        if (ids.size() == 1) {
+            ack.setType(Message.Type.ACK);
+            ack.setAckMessageId(ids.get(0));
+        } else {
+            ack.setType(Message.Type.BATCH_ACK);
+            compress(ids, ack);
+        }
+        frameCount.incrementAndGet();
+        try {
+            sink.accept(ack);
+        } catch (RuntimeException e) {
+            log.error("Failed to send {} ACKs to {}", ids.size(), acks.peer, e);
+        }
+    }
+
+    /**
+     * 纯数字且递增的连续 id 写成 "first-last" 区间，其余保持原样。
+     */
+    private static void compress(List<String> ids, Message ack) {
+        List<String> singles = null;
+        List<String> ranges = null;
+        int i = 0;
+        while (i < ids.size()) {
+            int end = i;
+            long first = parseId(ids.get(i));
+            if (first >= 0) {
+                long previous = first;
+                while (end + 1 < ids.size()) {
+                    long next = parseId(ids.get(end + 1));
+                    if (next != previous + 1) break;
+                    previous = next;
+                    end++;
+                }
+            }
+            if (end - i + 1 >= MIN_RANGE_LENGTH) {
+                if (ranges == null) ranges = new ArrayList<>();
+                ranges.add(ids.get(i) + "-" + ids.get(end));
+            } else {
+                if (singles == null) singles = new ArrayList<>(ids.size());
+                for (int j = i; j <= end; j++) {
+                    singles.add(ids.get(j));
+                }
+            }
+            i = end + 1;
+        }
+        ack.setBatchAckMessageIds(singles != null ? singles : Collections.emptyList());
+        ack.setBatchAckRanges(ranges);
+    }
+
+    /**
+     * 展开 BATCH_ACK 中的单条 id 与区间。
+     */
+    public static List<String> expand(Message ack) {
+        return expand(ack.getBatchAckMessageIds(), ack.getBatchAckRanges());
+    }
+
+    public static List<String> expand(List<String> messageIds, List<String> ranges) {
+        int explicit = messageIds != null ? messageIds.size() : 0;
+        long[] bounds = null;
+        long total = explicit;
+        if (ranges != null) {
+            // 先解析并统计总数，超限时不做任何分配
+            bounds = new long[ranges.size() * 2];
+            for (int i = 0; i < ranges.size(); i++) {
+                String range = ranges.get(i);
+                int dash = range != null ? range.indexOf('-') : -1;
+                long first = dash > 0 ? parseId(range.substring(0, dash)) : -1;
+                long last = dash > 0 ? parseId(range.substring(dash + 1)) : -1;
+                if (first < 0 || last < first || last - first >= MAX_RANGE_LENGTH) {
+                    log.warn("Ignoring malformed ACK range {}", range);
+                    bounds[2 * i] = -1;
+                    continue;
+                }
+                bounds[2 * i] = first;
+                bounds[2 * i + 1] = last;
+                total += last - first + 1;
+            }
+        }
+        if (total > MAX_EXPANDED_IDS) {
+            log.warn("Rejecting BATCH_ACK with {} ids, limit is {}", total, MAX_EXPANDED_IDS);
+            return Collections.emptyList();
+        }
+        List<String> ids = new ArrayList<>((int) total);
+        if (messageIds != null) {
+            ids.addAll(messageIds);
+        }
+        if (bounds != null) {
+            for (int i = 0; i < bounds.length; i += 2) {
+                if (bounds[i] < 0) {
+                    continue;
+                }
+                for (long id = bounds[i]; id <= bounds[i + 1]; id++) {
+                    ids.add(Long.toString(id));
+                }
+            }
+        }
+        return ids;
+    }
+
+    // 不是规范的非负十进制 long（含前导零）时返回 -1，保证展开后与原 id 一致
+    private static long parseId(String id) {
+        if (id.length() > 1 && id.charAt(0) == '0') {
+            return -1;
+        }
+        return MessageIdGenerator.parse(id);
+    }
+
+    private final class PeerAcks {
+        private final String peer;
+        private final Message.Status status;
+        private List<String> ids = new ArrayList<>();
+        private int bytes;
+        private Timeout timeout;
+
+        private PeerAcks(String peer, Message.Status status) {
+            this.peer = peer;
+            this.status = status;
+        }
+
+        // 达到阈值时返回需要发出的一批，否则返回 null
+        synchronized List<String> add(String messageId) {
+            ids.add(messageId);
+            bytes += messageId.length() + ID_OVERHEAD_BYTES;
+            if (ids.size() >= batchSize || bytes >= batchBytes) {
+                return take();
+            }
+            if (timeout == null) {
+                timeout = retryScheduler.schedule(() -> flush(this), maxDelayMillis);
+            }
+            return null;
+        }
+
+        synchronized List<String> drain() {
+            return ids.isEmpty() ? null : take();
+        }
+
+        private List<String> take() {
+            List<String> ready = ids;
+            ids = new ArrayList<>(Math.min(ready.size(), batchSize));
+            bytes = 0;
+            if (timeout != null) {
+                timeout.cancel();
+                timeout = null;
+            }
+            return ready;
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package com.example.im.message;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Snowflake 风格的 64 位 id：41 位毫秒时间戳 + 10 位节点号 + 12 位序列号，单节点内严格递增。
+ * 状态是一个 (时间戳, 序列号) 打包的 long，用一次 CAS 推进，不加锁、不分配对象。
+ * 同一毫秒内序列号用完时借用下一毫秒，时钟回拨时沿用上一个时间戳，都不会等待。
+ */
+@Slf4j
+@Component
+public class MessageIdGenerator {
+    public static final int SEQUENCE_BITS = 12;
+    public static final int NODE_BITS = 10;
+    public static final int MAX_NODE_ID = (1 << NODE_BITS) - 1;
+    private static final int TIMESTAMP_SHIFT = SEQUENCE_BITS + NODE_BITS;
+    private static final long SEQUENCE_MASK = (1L << SEQUENCE_BITS) - 1;
+    private static final Pattern TRAILING_DIGITS = Pattern.compile("(\\d{1,9})$");
+
+    // 2024-01-01T00:00:00Z，41 位时间戳可用到 2093 年
+    @Value("${im.id.epoch-millis:1704067200000}")
+    private long epochMillis;
+
+    // 集群内每个节点必须唯一，0 ~ 1023；留空时单机为 1，集群模式下取 im.cluster.node-id 末尾的数字
+    @Value("${im.id.node-id:}")
+    private String configuredNodeId;
+
+    @Value("${im.cluster.enabled:false}")
+    private boolean clusterEnabled;
+
+    @Value("${im.cluster.node-id:node-1}")
+    private String clusterNodeId;
+
+    private final AtomicLong state = new AtomicLong();
+    private int nodeId;
+    private long nodeBits;
+
+    @PostConstruct
+    public void init() {
+        nodeId = resolveNodeId();
+        if (nodeId < 0 || nodeId > MAX_NODE_ID) {
+            throw new IllegalStateException("im.id.node-id must be between 0 and " + MAX_NODE_ID + ": " + nodeId);
+        }
+        nodeBits = (long) nodeId << SEQUENCE_BITS;
+        log.info("Message id node {}", nodeId);
+    }
+
+    // 集群里各节点共用同一个默认值会生成重复的 id，推导不出来时拒绝启动
+    private int resolveNodeId() {
+        if (!configuredNodeId.isBlank()) {
+            try {
+                return Integer.parseInt(configuredNodeId.trim());
+            } catch (NumberFormatException e) {
+                throw new IllegalStateException("im.id.node-id must be a number: " + configuredNodeId);
+            }
+        }
+        if (!clusterEnabled) {
+            return 1;
+        }
+        Matcher matcher = TRAILING_DIGITS.matcher(clusterNodeId);
+        if (!matcher.find()) {
+            throw new IllegalStateException("Set im.id.node-id in cluster mode, it cannot be derived from im.cluster.node-id "
+                    + clusterNodeId);
+        }
+        return Integer.parseInt(matcher.group(1));
+    }
+
+    public long nextId() {
+        long now = (System.currentTimeMillis() - epochMillis) << SEQUENCE_BITS;
+        long next = state.accumulateAndGet(now, MessageIdGenerator::advance);
+        return compose(next >>> SEQUENCE_BITS, next & SEQUENCE_MASK);
+    }
+
+    /**
+     * 为已有时间戳的数据生成 id（例如迁移旧数据），调用方负责同一毫秒内序列号不重复。
+     */
+    public long idAt(long timestampMillis, int sequence) {
+        return compose(Math.max(0, timestampMillis - epochMillis), sequence & SEQUENCE_MASK);
+    }
+
+    public long timestampOf(long id) {
+        return (id >>> TIMESTAMP_SHIFT) + epochMillis;
+    }
+
+    public static int nodeOf(long id) {
+        return (int) (id >>> SEQUENCE_BITS) & MAX_NODE_ID;
+    }
+
+    public int getNodeId() {
+        return nodeId;
+    }
+
+    private long compose(long timestamp, long sequence) {
+        return (timestamp << TIMESTAMP_SHIFT) | nodeBits | sequence;
+    }
+
+    // 序列号溢出时自然进位到时间戳
+    private static long advance(long previous, long now) {
+        return Math.max(previous + 1, now);
+    }
+
+    /**
+     * 解析十进制 id，不是合法的非负 long 时返回 -1。
+     */
+    public static long parse(String id) {
+        if (id == null || id.isEmpty() || id.length() > 19) {
+            return -1;
+        }
+        long value = 0;
+        for (int i = 0; i < id.length(); i++) {
+            char c = id.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            int digit = c - '0';
+            if (value > (Long.MAX_VALUE - digit) / 10) {
+                return -1;
+            }
+            value = value * 10 + digit;
+        }
+        return value;
+    }
+}
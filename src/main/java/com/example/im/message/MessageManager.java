@@ -1,29 +1,56 @@
 package com.example.im.message;
 
+import com.example.im.entity.ChatMessage;
 import com.example.im.protocol.Message;
 import com.example.im.config.WebSocketHandler;
+import com.example.im.metrics.ImMetrics;
 import com.example.im.service.ChatMessageService;
-import lombok.AllArgsConstructor;
-import lombok.Data;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Lazy;
 import org.springframework.stereotype.Component;
 
-import java.util.ArrayList;
-import java.util.List;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Paths;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
 
+/**
+ * 待确认消息的登记、重试和确认。
+ * <p>
+ * 服务端的单聊由 WebSocketHandler 持久化并写出，帧交给本节点上的接收者连接后调用 {@link #track} 登记，
+ * 接收者的 ACK 通过 {@link #acknowledge} 了结；超时未确认的按间隔重发，次数用完记为 FAILED 并通知发送者。
+ * {@link #sendMessage} / {@link #handleAck} 是同一套机制的完整入口（持久化 + 投递 + 登记），供直接调用。
+ * 两条路径都不等待预写日志落盘：发送记录由刷盘线程组提交，sendMessage 通过返回的 future 通知落盘。
+ */
 @Slf4j
 @Component
 public class MessageManager {
-    private final Map<String, PendingMessage> pendingMessages = new ConcurrentHashMap<>();
-    private final List<String> messageQueue = new ArrayList<>();
+    // 每次扫描最多处理的到期消息数，剩下的留到下一轮
+    private static final int RETRY_BATCH = 1024;
+
     private final int retryCount = 3;
     private final long retryInterval = 3000;
-    private final int batchSize = 10;
-    private final List<String> pendingAcks = new ArrayList<>();
+
+    @Value("${im.pending.segments:16}")
+    private int segments;
+
+    @Value("${im.pending.slab-bytes:1048576}")
+    private int slabBytes;
+
+    @Value("${im.pending.max-offheap-bytes:268435456}")
+    private long maxOffHeapBytes;
+
+    @Value("${im.pending.spill-dir:${java.io.tmpdir}/im-pending}")
+    private String spillDir;
+
+    @Value("${im.retry.scan-millis:100}")
+    private long scanMillis;
 
     @Autowired
     @Lazy
@@ -32,9 +59,82 @@ public class MessageManager {
     @Autowired
     private ChatMessageService chatMessageService;
 
-    public String sendMessage(Message message) {
+    @Autowired
+    private RetryScheduler retryScheduler;
+
+    @Autowired
+    private ImMetrics metrics;
+
+    @Autowired
+    private AckAggregator ackAggregator;
+
+    @Autowired
+    private MessageIdGenerator idGenerator;
+
+    @Autowired
+    private PendingMessageLog wal;
+
+    // 以 Snowflake id 为键，消息编码后放在堆外，超出上限的溢出到磁盘
+    private OffHeapPendingTable pendingMessages;
+    private final RetryRing retryRing = new RetryRing(4096);
+    private final long[] retryBatch = new long[RETRY_BATCH];
+    // 旧版客户端的 messageId 不是数字（如 UUID），登记时分配一个 Snowflake id 作为表中的键，了结时移除
+    private final Map<String, Long> legacyIds = new ConcurrentHashMap<>();
+    private volatile boolean running;
+
+    @PostConstruct
+    public void init() {
+        pendingMessages = new OffHeapPendingTable(segments, slabBytes, maxOffHeapBytes, Paths.get(spillDir));
+        if (wal.isEnabled()) {
+            recover();
+        }
+        running = true;
+        retryScheduler.schedule(this::scanRetries, scanMillis);
+    }
+
+    @PreDestroy
+    public void destroy() {
+        running = false;
+        pendingMessages.close();
+    }
+
+    // 重启前未确认的消息重新进入待确认表，下一个重试周期重发；日志中的确认 / 失败补写到数据库
+    private void recover() {
+        long dueAt = System.currentTimeMillis() + retryInterval;
+        try {
+            wal.open(new PendingMessageLog.Replay() {
+                @Override
+                public void pending(long id, Message message) {
+                    if (MessageIdGenerator.parse(message.getMessageId()) < 0) {
+                        legacyIds.put(message.getMessageId(), id);
+                    }
+                    pendingMessages.put(id, message);
+                    retryRing.add(id, dueAt);
+                }
+
+                @Override
+                public void resolved(long id, Message.Status status) {
+                    // 旧版 id 的消息库中以原 messageId 为键，这里补写不到；运行时了结已直接更新过数据库
+                    chatMessageService.updateMessageStatusAsync(Long.toString(id), ChatMessage.Status.of(status));
+                }
+            });
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to recover pending messages", e);
+        }
+    }
+
+    /**
+     * 持久化、投递并登记待确认，不等待预写日志落盘。返回的 future 在发送记录落盘后以 messageId 完成
+     * （未启用预写日志时立即完成）；发送或落盘失败时消息记为 FAILED，future 以 null 完成。
+     * 调用方可以连续发送，按需等待 future，多条发送自然落在同一次组提交里。
+     */
+    public CompletableFuture<String> sendMessage(Message message) {
+        long id;
         if (message.getMessageId() == null) {
-            message.setMessageId(generateMessageId());
+            id = idGenerator.nextId();
+            message.setMessageId(Long.toString(id));
+        } else {
+            id = trackingId(message.getMessageId());
         }
         message.setTimestamp(System.currentTimeMillis());
         message.setNeedAck(true);
@@ -43,137 +143,224 @@ public class MessageManager {
         log.debug("Sending message: {}", message);
 
         // 存储消息到待确认列表
-        pendingMessages.put(message.getMessageId(), new PendingMessage(
-                message,
-                0,
-                System.currentTimeMillis()
-        ));
+        pendingMessages.put(id, message);
 
         try {
+            // 记入预写日志，投递与 fsync 并行
+            PendingMessageLog.Commit walCommit = wal.isEnabled() ? wal.appendSend(id, message) : null;
+            if (message.getType() == Message.Type.CHAT) {
+                ChatMessage chatMessage = ChatMessage.of(message);
+                chatMessage.setId(id);
+                chatMessageService.saveMessageAsync(chatMessage);
+            }
+
             // 发送消息
             webSocketHandler.sendMessage(message);
+            metrics.markDelivered(message.getMessageId());
 
-            // 启动重试计时器
-            scheduleRetry(message.getMessageId());
+            // 加入重试队列
+            retryRing.add(id, System.currentTimeMillis() + retryInterval);
 
-            return message.getMessageId();
+            if (walCommit == null) {
+                return CompletableFuture.completedFuture(message.getMessageId());
+            }
+            return wal.whenDurable(walCommit).handle((ignored, e) -> {
+                if (e == null) {
+                    return message.getMessageId();
+                }
+                sendFailed(id, message, e);
+                return null;
+            });
         } catch (Exception e) {
-            log.error("Failed to send message: {}", message.getMessageId(), e);
-            pendingMessages.remove(message.getMessageId());
-            webSocketHandler.updateMessageStatus(message.getMessageId(), Message.Status.FAILED);
-            return null;
+            sendFailed(id, message, e);
+            return CompletableFuture.completedFuture(null);
+        }
+    }
+
+    private void sendFailed(long id, Message message, Throwable e) {
+        log.error("Failed to send message: {}", message.getMessageId(), e);
+        metrics.failure(ImMetrics.Failure.SEND_ERROR);
+        // 落盘失败时消息可能已经被确认，这时不再改成 FAILED
+        if (resolve(id, message.getMessageId(), Message.Status.FAILED)) {
+            webSocketHandler.updateMessageStatus(message.getFrom(), message.getMessageId(), Message.Status.FAILED);
+        }
+    }
+
+    /**
+     * 登记一条已持久化、已交给接收者连接的单聊消息，等待接收者确认，超时重发。
+     * 只在接收者连接所在的节点上调用，确认也在这个节点上收到。
+     */
+    public void track(Message message) {
+        if (!message.isNeedAck() || message.getMessageId() == null) {
+            return;
+        }
+        long id = trackingId(message.getMessageId());
+        pendingMessages.put(id, message);
+        try {
+            if (wal.isEnabled()) {
+                wal.appendSend(id, message);
+            }
+        } catch (IOException e) {
+            // 只影响重启后的重试，消息本身已经持久化
+            log.warn("Failed to log pending message {}", message.getMessageId(), e);
+        }
+        retryRing.add(id, System.currentTimeMillis() + retryInterval);
+    }
+
+    /**
+     * 接收者确认了消息，停止重试。库中状态和转给发送者的确认由调用方处理；未登记时返回 false。
+     */
+    public boolean acknowledge(String messageId) {
+        long id = lookupId(messageId);
+        return id >= 0 && release(id, messageId, Message.Status.DELIVERED);
+    }
+
+    /**
+     * 帧没有写出（连接关闭），消息仍是 SENDING，交给离线回放，不再重试。
+     */
+    public void forget(String messageId) {
+        long id = lookupId(messageId);
+        if (id >= 0) {
+            // SENDING 不会覆盖库中任何状态，回放日志时这条记录只起了结作用
+            release(id, messageId, Message.Status.SENDING);
         }
     }
 
     public void handleAck(Message ackMessage) {
         log.debug("Handling ACK message: {}", ackMessage);
 
-        if (ackMessage.getBatchAckMessageIds() != null) {
+        if (ackMessage.getBatchAckMessageIds() != null || ackMessage.getBatchAckRanges() != null) {
             // 处理批量确认
-            ackMessage.getBatchAckMessageIds().forEach(this::confirmMessage);
+            AckAggregator.expand(ackMessage).forEach(messageId -> confirmMessage(ackMessage.getTo(), messageId));
         } else if (ackMessage.getAckMessageId() != null) {
             // 处理单条确认
-            confirmMessage(ackMessage.getAckMessageId());
+            confirmMessage(ackMessage.getTo(), ackMessage.getAckMessageId());
         }
     }
 
-    private void confirmMessage(String messageId) {
+    // to 为原始发送者
+    private void confirmMessage(String to, String messageId) {
         log.debug("Confirming message: {}", messageId);
 
-        PendingMessage pendingMessage = pendingMessages.remove(messageId);
-        if (pendingMessage != null) {
+        long id = lookupId(messageId);
+        if (id < 0) return;
+        // 重试队列里的条目到期时发现已不在表中会自动跳过
+        if (resolve(id, messageId, Message.Status.DELIVERED)) {
+            metrics.markAcked(messageId);
             // 更新消息状态
-            webSocketHandler.updateMessageStatus(messageId, Message.Status.DELIVERED);
+            webSocketHandler.updateMessageStatus(to, messageId, Message.Status.DELIVERED);
         }
     }
 
     public void handleIncomingMessage(Message message) {
         log.debug("Handling incoming message: {}", message);
 
-        // 显示接收到的消息
-        webSocketHandler.handleIncomingMessage(message);
+        // 转交接收者
+        webSocketHandler.sendMessage(message);
 
         if (message.isNeedAck()) {
-            // 将确认消息添加到队列
-            pendingAcks.add(message.getMessageId());
-
-            // 如果队列达到批量大小或者是第一个确认，启动批量发送
-            if (pendingAcks.size() >= batchSize) {
-                sendBatchAck();
-            } else if (pendingAcks.size() == 1) {
-                scheduleAckSend();
+            // 确认按发送者合并成 BATCH_ACK
+            ackAggregator.add(message.getFrom(), message.getMessageId(), Message.Status.DELIVERED);
+        }
+    }
+
+    // 单个周期任务扫描重试队列，代替每条消息一个定时器
+    private void scanRetries() {
+        try {
+            long now = System.currentTimeMillis();
+            while (retryRing.pollDue(now, retryBatch, this::retry) == RETRY_BATCH) {
+                now = System.currentTimeMillis();
+            }
+        } finally {
+            if (running) {
+                retryScheduler.schedule(this::scanRetries, scanMillis);
             }
         }
     }
 
-    private void scheduleRetry(String messageId) {
-        PendingMessage pendingMessage = pendingMessages.get(messageId);
-        if (pendingMessage == null) return;
+    private void retry(long id) {
+        int retries = pendingMessages.incrementRetries(id);
+        Message message = retries < 0 ? null : pendingMessages.get(id);
+        // 扫描期间已被确认
+        if (message == null) return;
+        String messageId = message.getMessageId();
 
-        new Thread(() -> {
-            try {
-                Thread.sleep(retryInterval);
-                if (pendingMessages.containsKey(messageId)) {
-                    if (pendingMessage.getRetries() < retryCount) {
-                        pendingMessage.setRetries(pendingMessage.getRetries() + 1);
-                        log.debug("Retrying message: {} (attempt {})", messageId, pendingMessage.getRetries());
-                        webSocketHandler.sendMessage(pendingMessage.getMessage());
-                        scheduleRetry(messageId);
-                        webSocketHandler.updateMessageStatus(messageId, Message.Status.SENDING);
-                    } else {
-                        log.warn("Message {} failed after {} retries", messageId, retryCount);
-                        pendingMessages.remove(messageId);
-                        webSocketHandler.updateMessageStatus(messageId, Message.Status.FAILED);
-                    }
+        try {
+            if (retries <= retryCount) {
+                metrics.retry();
+                log.debug("Retrying message: {} (attempt {})", messageId, retries);
+                if (webSocketHandler.redeliver(message)) {
+                    retryRing.add(id, System.currentTimeMillis() + retryInterval);
+                    return;
                 }
-            } catch (InterruptedException e) {
-                Thread.currentThread().interrupt();
-                log.error("Retry interrupted for message: {}", messageId, e);
-            } catch (Exception e) {
-                log.error("Error retrying message: {}", messageId, e);
-                pendingMessages.remove(messageId);
-                webSocketHandler.updateMessageStatus(messageId, Message.Status.FAILED);
+                // 接收者已不在本节点上，在这里重试收不到确认
+                log.warn("Message {} failed, recipient {} left this node", messageId, message.getTo());
+            } else {
+                log.warn("Message {} failed after {} retries", messageId, retryCount);
             }
-        }).start();
+            metrics.failure(ImMetrics.Failure.RETRY_EXHAUSTED);
+            resolve(id, messageId, Message.Status.FAILED);
+            webSocketHandler.updateMessageStatus(message.getFrom(), messageId, Message.Status.FAILED);
+        } catch (Exception e) {
+            log.error("Error retrying message: {}", messageId, e);
+            metrics.failure(ImMetrics.Failure.SEND_ERROR);
+            resolve(id, messageId, Message.Status.FAILED);
+            webSocketHandler.updateMessageStatus(message.getFrom(), messageId, Message.Status.FAILED);
+        }
     }
 
-    private void scheduleAckSend() {
-        new Thread(() -> {
+    // 了结并把状态写入数据库，已不在表中时返回 false
+    private boolean resolve(long id, String messageId, Message.Status status) {
+        if (!release(id, messageId, status)) {
+            return false;
+        }
+        chatMessageService.updateMessageStatusAsync(messageId, ChatMessage.Status.of(status));
+        return true;
+    }
+
+    // 从待确认表移除并记入日志，已不在表中时返回 false
+    private boolean release(long id, String messageId, Message.Status status) {
+        if (!pendingMessages.remove(id)) {
+            return false;
+        }
+        if (MessageIdGenerator.parse(messageId) < 0) {
+            legacyIds.remove(messageId, id);
+        }
+        if (wal.isEnabled()) {
             try {
-                Thread.sleep(1000);
-                sendBatchAck();
-            } catch (InterruptedException e) {
-                Thread.currentThread().interrupt();
-                log.error("ACK send interrupted", e);
+                wal.appendResolve(id, status);
+            } catch (IOException e) {
+                log.warn("Failed to log {} for message {}", status, id, e);
             }
-        }).start();
+        }
+        return true;
     }
 
-    private void sendBatchAck() {
-        if (pendingAcks.isEmpty()) return;
-
-        Message ackMessage = new Message();
-        ackMessage.setType(Message.Type.BATCH_ACK);
-        ackMessage.setBatchAckMessageIds(new ArrayList<>(pendingAcks));
-        ackMessage.setTimestamp(System.currentTimeMillis());
+    // 待确认表的键：数字 id 直接使用，旧版 id 分配一个 Snowflake id，重复登记时沿用
+    private long trackingId(String messageId) {
+        long id = MessageIdGenerator.parse(messageId);
+        return id >= 0 ? id : legacyIds.computeIfAbsent(messageId, key -> idGenerator.nextId());
+    }
 
-        try {
-            webSocketHandler.sendMessage(ackMessage);
-            pendingAcks.clear();
-        } catch (Exception e) {
-            log.error("Failed to send batch ACK", e);
+    // 确认和撤销时查找，不分配，未登记时返回 -1
+    private long lookupId(String messageId) {
+        long id = MessageIdGenerator.parse(messageId);
+        if (id >= 0) {
+            return id;
         }
+        Long legacy = messageId != null ? legacyIds.get(messageId) : null;
+        return legacy != null ? legacy : -1;
+    }
+
+    public int getPendingCount() {
+        return pendingMessages.size();
     }
 
-    private String generateMessageId() {
-        return System.currentTimeMillis() + "-" + Math.random();
+    public long getPendingOffHeapBytes() {
+        return pendingMessages.getOffHeapBytes();
     }
 
-    @Data
-    @AllArgsConstructor
-    private static class PendingMessage {
-        private Message message;
-        private int retries;
-        private long timestamp;
+    public long getPendingSpilledBytes() {
+        return pendingMessages.getSpilledBytes();
     }
-} 
\ No newline at end of file
+}
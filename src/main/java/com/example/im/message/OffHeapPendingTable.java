@@ -0,0 +1,436 @@
+package com.example.im.message;
+
+import com.example.im.protocol.Message;
+import com.example.im.protocol.codec.BinaryMessageCodec;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.buffer.Unpooled;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 待确认消息表：消息按二进制编码存放在堆外 slab 中，以 long id 为键，堆上不为每条消息保留对象。
+ * <p>
+ * 表分成若干段，每段一把锁，各自维护 slab、索引和溢出文件。slab 只追加写，里面的消息全部确认后整块回收；
+ * 堆外内存达到上限后新消息写入溢出文件，溢出文件中的消息全部确认后截断。
+ * 每条记录的布局为 [长度 int][重试次数 int][编码后的消息]。
+ */
+@Slf4j
+public class OffHeapPendingTable implements AutoCloseable {
+    private static final int HEADER_BYTES = 8;
+    private static final long MISSING = -1;
+    private static final long SPILL_FLAG = 1L << 62;
+
+    private final Segment[] segments;
+    private final int mask;
+    private final int slabBytes;
+    private final long segmentMaxBytes;
+    private final Path spillDir;
+
+    public OffHeapPendingTable(int segmentCount, int slabBytes, long maxOffHeapBytes, Path spillDir) {
+        int count = Integer.highestOneBit(Math.max(1, segmentCount) - 1) << 1;
+        this.segments = new Segment[Math.max(1, count)];
+        this.mask = segments.length - 1;
+        this.slabBytes = slabBytes;
+        this.segmentMaxBytes = Math.max(slabBytes, maxOffHeapBytes / segments.length);
+        this.spillDir = spillDir;
+        for (int i = 0; i < segments.length; i++) {
+            segments[i] = new Segment(i);
+        }
+    }
+
+    /**
+     * 写入一条待确认消息，已存在时覆盖并清零重试次数。
+     */
+    public void put(long id, Message message) {
+        ByteBuf encoded = PooledByteBufAllocator.DEFAULT.heapBuffer();
+        try {
+            BinaryMessageCodec.encode(message, encoded);
+            segment(id).put(id, encoded);
+        } finally {
+            encoded.release();
+        }
+    }
+
+    // 不存在时返回 null
+    public Message get(long id) {
+        return segment(id).get(id);
+    }
+
+    public boolean contains(long id) {
+        return segment(id).contains(id);
+    }
+
+    public boolean remove(long id) {
+        return segment(id).remove(id);
+    }
+
+    /**
+     * 重试次数加一并返回新值，消息已被确认时返回 -1。
+     */
+    public int incrementRetries(long id) {
+        return segment(id).incrementRetries(id);
+    }
+
+    public int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            size += segment.size();
+        }
+        return size;
+    }
+
+    // 已申请的堆外内存
+    public long getOffHeapBytes() {
+        long bytes = 0;
+        for (Segment segment : segments) {
+            bytes += segment.offHeapBytes();
+        }
+        return bytes;
+    }
+
+    // 仍在使用的堆外字节数，与 getOffHeapBytes 之差是尚未回收的碎片
+    public long getLiveBytes() {
+        long bytes = 0;
+        for (Segment segment : segments) {
+            bytes += segment.liveBytes();
+        }
+        return bytes;
+    }
+
+    public long getSpilledBytes() {
+        long bytes = 0;
+        for (Segment segment : segments) {
+            bytes += segment.spilledBytes();
+        }
+        return bytes;
+    }
+
+    public int getSpilledCount() {
+        int count = 0;
+        for (Segment segment : segments) {
+            count += segment.spilledCount();
+        }
+        return count;
+    }
+
+    @Override
+    public void close() {
+        for (Segment segment : segments) {
+            segment.close();
+        }
+    }
+
+    private Segment segment(long id) {
+        long h = id ^ (id >>> 22);
+        return segments[(int) (h ^ (h >>> 32)) & mask];
+    }
+
+    private final class Segment {
+        // 不用 synchronized：溢出文件的读写在锁内进行，虚拟线程在 synchronized 内阻塞会钉住载体线程
+        private final ReentrantLock lock = new ReentrantLock();
+        private final int number;
+        private final LongLongHashMap index = new LongLongHashMap(1024);
+        private final List<ByteBuffer> slabs = new ArrayList<>();
+        private final ArrayDeque<Integer> freeSlabs = new ArrayDeque<>();
+        private int[] slabLive = new int[4];
+        private int[] slabLiveBytes = new int[4];
+        private int current = -1;
+        private long liveBytes;
+
+        private FileChannel spill;
+        private Path spillFile;
+        private long spillEnd;
+        private int spillLive;
+        private long spillLiveBytes;
+
+        private Segment(int number) {
+            this.number = number;
+        }
+
+        void put(long id, ByteBuf encoded) {
+            lock.lock();
+            try {
+                removeLocked(id);
+                int length = encoded.readableBytes();
+                int recordBytes = HEADER_BYTES + length;
+                int slab = recordBytes <= slabBytes ? slabWithRoom(recordBytes) : -1;
+                if (slab >= 0) {
+                    ByteBuffer buffer = slabs.get(slab);
+                    int offset = buffer.position();
+                    buffer.putInt(length).putInt(0);
+                    buffer.put(encoded.nioBuffer());
+                    slabLive[slab]++;
+                    slabLiveBytes[slab] += recordBytes;
+                    liveBytes += recordBytes;
+                    index.put(id, ((long) slab << 32) | offset);
+                } else {
+                    index.put(id, SPILL_FLAG | spillWrite(encoded, length));
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        Message get(long id) {
+            lock.lock();
+            try {
+                long location = index.get(id, MISSING);
+                if (location == MISSING) {
+                    return null;
+                }
+                if ((location & SPILL_FLAG) != 0) {
+                    return BinaryMessageCodec.decode(Unpooled.wrappedBuffer(spillRead(location & ~SPILL_FLAG)));
+                }
+                ByteBuffer record = slabs.get((int) (location >>> 32)).duplicate();
+                int offset = (int) location;
+                int length = record.getInt(offset);
+                record.limit(offset + HEADER_BYTES + length).position(offset + HEADER_BYTES);
+                // 直接在堆外内存上解码，不复制
+                return BinaryMessageCodec.decode(Unpooled.wrappedBuffer(record));
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        boolean contains(long id) {
+            lock.lock();
+            try {
+                return index.get(id, MISSING) != MISSING;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        boolean remove(long id) {
+            lock.lock();
+            try {
+                return removeLocked(id);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        int incrementRetries(long id) {
+            lock.lock();
+            try {
+                long location = index.get(id, MISSING);
+                if (location == MISSING) {
+                    return -1;
+                }
+                if ((location & SPILL_FLAG) != 0) {
+                    return spillIncrementRetries(location & ~SPILL_FLAG);
+                }
+                ByteBuffer slab = slabs.get((int) (location >>> 32));
+                int at = (int) location + 4;
+                int retries = slab.getInt(at) + 1;
+                slab.putInt(at, retries);
+                return retries;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        int size() {
+            lock.lock();
+            try {
+                return index.size();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        long offHeapBytes() {
+            lock.lock();
+            try {
+                return (long) slabs.size() * slabBytes;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        long liveBytes() {
+            lock.lock();
+            try {
+                return liveBytes;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        long spilledBytes() {
+            lock.lock();
+            try {
+                return spillLiveBytes;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        int spilledCount() {
+            lock.lock();
+            try {
+                return spillLive;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void close() {
+            lock.lock();
+            try {
+                index.clear();
+                slabs.clear();
+                freeSlabs.clear();
+                closeSpill();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private boolean removeLocked(long id) {
+            long location = index.remove(id, MISSING);
+            if (location == MISSING) {
+                return false;
+            }
+            if ((location & SPILL_FLAG) != 0) {
+                spillRelease(location & ~SPILL_FLAG);
+                return true;
+            }
+            int slab = (int) (location >>> 32);
+            int recordBytes = HEADER_BYTES + slabs.get(slab).getInt((int) location);
+            slabLive[slab]--;
+            slabLiveBytes[slab] -= recordBytes;
+            liveBytes -= recordBytes;
+            if (slabLive[slab] == 0) {
+                // 整块已空：当前 slab 原地复用，其余放回空闲列表
+                slabs.get(slab).clear();
+                if (slab != current) {
+                    freeSlabs.push(slab);
+                }
+            }
+            return true;
+        }
+
+        // 返回有足够空间的 slab，堆外内存已达上限时返回 -1
+        private int slabWithRoom(int recordBytes) {
+            if (current >= 0 && slabs.get(current).remaining() >= recordBytes) {
+                return current;
+            }
+            if (current >= 0 && slabLive[current] == 0) {
+                slabs.get(current).clear();
+                return current;
+            }
+            Integer free = freeSlabs.poll();
+            if (free != null) {
+                current = free;
+                return current;
+            }
+            if ((long) (slabs.size() + 1) * slabBytes > segmentMaxBytes) {
+                return -1;
+            }
+            slabs.add(ByteBuffer.allocateDirect(slabBytes));
+            current = slabs.size() - 1;
+            if (current >= slabLive.length) {
+                slabLive = Arrays.copyOf(slabLive, slabLive.length * 2);
+                slabLiveBytes = Arrays.copyOf(slabLiveBytes, slabLiveBytes.length * 2);
+            }
+            return current;
+        }
+
+        private long spillWrite(ByteBuf encoded, int length) {
+            try {
+                if (spill == null) {
+                    Files.createDirectories(spillDir);
+                    spillFile = Files.createTempFile(spillDir, "pending-" + number + "-", ".spill");
+                    spill = FileChannel.open(spillFile, StandardOpenOption.READ, StandardOpenOption.WRITE,
+                            StandardOpenOption.DELETE_ON_CLOSE);
+                    log.info("Pending table segment {} spilling to {}", number, spillFile);
+                }
+                long offset = spillEnd;
+                ByteBuffer record = ByteBuffer.allocate(HEADER_BYTES + length);
+                record.putInt(length).putInt(0);
+                record.put(encoded.nioBuffer());
+                record.flip();
+                long position = offset;
+                while (record.hasRemaining()) {
+                    position += spill.write(record, position);
+                }
+                spillEnd = position;
+                spillLive++;
+                spillLiveBytes += HEADER_BYTES + length;
+                return offset;
+            } catch (IOException e) {
+                throw new UncheckedIOException("Failed to spill pending message", e);
+            }
+        }
+
+        private ByteBuffer spillRead(long offset) {
+            try {
+                ByteBuffer header = readFully(offset, HEADER_BYTES);
+                return readFully(offset + HEADER_BYTES, header.getInt(0));
+            } catch (IOException e) {
+                throw new UncheckedIOException("Failed to read spilled pending message", e);
+            }
+        }
+
+        private int spillIncrementRetries(long offset) {
+            try {
+                int retries = readFully(offset + 4, 4).getInt(0) + 1;
+                ByteBuffer value = ByteBuffer.allocate(4).putInt(0, retries);
+                spill.write(value, offset + 4);
+                return retries;
+            } catch (IOException e) {
+                throw new UncheckedIOException("Failed to update spilled pending message", e);
+            }
+        }
+
+        private void spillRelease(long offset) {
+            try {
+                spillLiveBytes -= HEADER_BYTES + readFully(offset, 4).getInt(0);
+                if (--spillLive == 0) {
+                    // 溢出的消息都已确认，截断文件从头写
+                    spill.truncate(0);
+                    spillEnd = 0;
+                    spillLiveBytes = 0;
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException("Failed to release spilled pending message", e);
+            }
+        }
+
+        private ByteBuffer readFully(long position, int length) throws IOException {
+            ByteBuffer buffer = ByteBuffer.allocate(length);
+            while (buffer.hasRemaining()) {
+                if (spill.read(buffer, position + buffer.position()) < 0) {
+                    throw new IOException("Unexpected end of spill file " + spillFile);
+                }
+            }
+            buffer.flip();
+            return buffer;
+        }
+
+        private void closeSpill() {
+            if (spill != null) {
+                try {
+                    spill.close();
+                } catch (IOException e) {
+                    log.warn("Failed to close spill file {}", spillFile, e);
+                }
+                spill = null;
+            }
+        }
+    }
+}
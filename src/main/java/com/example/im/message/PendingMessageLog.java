@@ -0,0 +1,504 @@
+package com.example.im.message;
+
+import com.example.im.protocol.Message;
+import com.example.im.protocol.codec.BinaryMessageCodec;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.buffer.Unpooled;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32C;
+
+/**
+ * 待确认消息的预写日志：发送和确认 / 失败事件按顺序追加到分段文件，重启后回放重建待确认表。
+ * <p>
+ * 追加只写内存缓冲，由一个刷盘线程把积攒的记录一次写入并 fsync，同一批内的发送共享一次 fsync（组提交）。
+ * 段文件以起始逻辑偏移命名，最早的段内发送全部了结后整段删除。回放时以只读内存映射读取。
+ * 每条记录为 [长度 int][CRC32C int][类型 byte][id long][状态 byte][编码后的消息]，长度和校验只覆盖记录体。
+ */
+@Slf4j
+@Component
+public class PendingMessageLog {
+    private static final byte SEND = 1;
+    private static final byte RESOLVE = 2;
+    private static final int HEADER_BYTES = 8;
+    private static final int BODY_FIXED_BYTES = 10;
+    private static final long MISSING = -1;
+    private static final String SUFFIX = ".wal";
+    private static final Message.Status[] STATUSES = Message.Status.values();
+
+    /**
+     * 回放结果：仍未了结的消息，以及日志中记录的确认 / 失败。
+     */
+    public interface Replay {
+        void pending(long id, Message message);
+
+        void resolved(long id, Message.Status status);
+    }
+
+    /**
+     * 一次组提交：同一批追加的记录共享，fsync 完成后一起完成，不会被其他批次的刷盘触发。
+     */
+    public static final class Commit {
+        private final CompletableFuture<Void> done = new CompletableFuture<>();
+
+        private void complete(IOException failure) {
+            if (failure == null) {
+                done.complete(null);
+            } else {
+                done.completeExceptionally(failure);
+            }
+        }
+    }
+
+    @Value("${im.wal.enabled:true}")
+    private boolean enabled;
+
+    @Value("${im.wal.dir:./wal}")
+    private String dir;
+
+    @Value("${im.wal.segment-bytes:67108864}")
+    private long segmentBytes;
+
+    @Value("${im.wal.sync-timeout-millis:5000}")
+    private long syncTimeoutMillis;
+
+    // 只有确认记录时不唤醒刷盘线程，由下一批发送记录捎带，或最迟这么久后单独刷一次
+    @Value("${im.wal.resolve-flush-millis:1000}")
+    private long resolveFlushMillis;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+
+    // 以下字段受 lock 保护
+    private ByteBuf buffer = Unpooled.buffer(64 * 1024);
+    private ByteBuf spare = Unpooled.buffer(64 * 1024);
+    private long appendPosition;
+    private long durablePosition;
+    private Commit commit = new Commit();
+    private IOException failure;
+    // buffer 中是否有等待落盘的发送记录
+    private boolean sendPending;
+    private long lastFlushNanos = System.nanoTime();
+    // 最早的段在前；id 到其发送记录所在段的起始偏移
+    private final ArrayDeque<Segment> segments = new ArrayDeque<>();
+    private final LongLongHashMap liveIds = new LongLongHashMap(1024);
+
+    private final AtomicLong recordCount = new AtomicLong();
+    private final AtomicLong syncCount = new AtomicLong();
+
+    private Path directory;
+    private Thread flusher;
+    private volatile boolean running;
+
+    // 刷盘线程独占
+    private FileChannel channel;
+    private long channelBase = MISSING;
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * 回放已有日志并启动刷盘线程，只在启动时调用一次。
+     */
+    public void open(Replay replay) throws IOException {
+        directory = Paths.get(dir);
+        Files.createDirectories(directory);
+        long start = System.currentTimeMillis();
+        int pending = recover(replay);
+        log.info("Recovered {} pending messages from {} WAL segments in {} ms",
+                pending, segments.size(), System.currentTimeMillis() - start);
+
+        running = true;
+        flusher = new Thread(this::runFlusher, "im-wal-flusher");
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    @PreDestroy
+    public void close() throws InterruptedException {
+        if (flusher == null) {
+            return;
+        }
+        running = false;
+        lock.lock();
+        try {
+            notEmpty.signal();
+        } finally {
+            lock.unlock();
+        }
+        flusher.join(syncTimeoutMillis);
+    }
+
+    /**
+     * 追加一条发送记录，返回所在的组提交，传给 whenDurable 得到落盘通知。
+     */
+    public Commit appendSend(long id, Message message) throws IOException {
+        ByteBuf record = PooledByteBufAllocator.DEFAULT.heapBuffer();
+        try {
+            BinaryMessageCodec.encode(message, encodeHeader(record, SEND, id, null));
+            return append(record, id, SEND);
+        } finally {
+            record.release();
+        }
+    }
+
+    /**
+     * 追加一条确认或失败记录。不等待落盘：丢失时重启后只会多重试一次。
+     */
+    public void appendResolve(long id, Message.Status status) throws IOException {
+        ByteBuf record = PooledByteBufAllocator.DEFAULT.heapBuffer(HEADER_BYTES + BODY_FIXED_BYTES);
+        try {
+            append(encodeHeader(record, RESOLVE, id, status), id, RESOLVE);
+        } finally {
+            record.release();
+        }
+    }
+
+    /**
+     * 组提交落盘后完成；刷盘失败或超过 sync-timeout-millis 未落盘时异常完成。
+     * 回调在刷盘线程上执行，不能阻塞，否则拖慢后面所有批次。
+     */
+    public CompletableFuture<Void> whenDurable(Commit commit) {
+        return commit.done;
+    }
+
+    public long getRecordCount() {
+        return recordCount.get();
+    }
+
+    public long getSyncCount() {
+        return syncCount.get();
+    }
+
+    public int getSegmentCount() {
+        lock.lock();
+        try {
+            return segments.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static ByteBuf encodeHeader(ByteBuf record, byte type, long id, Message.Status status) {
+        record.writeInt(0).writeInt(0)
+                .writeByte(type)
+                .writeLong(id)
+                .writeByte(status != null ? status.ordinal() : -1);
+        return record;
+    }
+
+    private Commit append(ByteBuf record, long id, byte type) throws IOException {
+        int length = record.readableBytes() - HEADER_BYTES;
+        CRC32C crc = new CRC32C();
+        crc.update(record.nioBuffer(HEADER_BYTES, length));
+        record.setInt(0, length).setInt(4, (int) crc.getValue());
+        int recordBytes = record.readableBytes();
+
+        lock.lock();
+        try {
+            if (failure != null) {
+                throw new IOException("WAL is unavailable", failure);
+            }
+            if (type == RESOLVE) {
+                long base = liveIds.remove(id, MISSING);
+                if (base == MISSING) {
+                    return commit;
+                }
+                segment(base).live--;
+            } else {
+                Segment current = segments.peekLast();
+                if (appendPosition > current.base && appendPosition - current.base + recordBytes > segmentBytes) {
+                    current = new Segment(appendPosition);
+                    segments.addLast(current);
+                }
+                long previous = liveIds.get(id, MISSING);
+                if (previous != MISSING) {
+                    segment(previous).live--;
+                }
+                liveIds.put(id, current.base);
+                current.live++;
+            }
+            buffer.writeBytes(record);
+            appendPosition += recordBytes;
+            recordCount.incrementAndGet();
+            // 确认记录丢失只会多重试一次，不为它单独 fsync
+            if (type == SEND && !sendPending) {
+                sendPending = true;
+                notEmpty.signal();
+            }
+            return commit;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private Segment segment(long base) {
+        for (Segment segment : segments) {
+            if (segment.base == base) {
+                return segment;
+            }
+        }
+        throw new IllegalStateException("Unknown WAL segment " + base);
+    }
+
+    private void runFlusher() {
+        while (true) {
+            ByteBuf batch;
+            Commit batchCommit;
+            long from;
+            long[] bases;
+            lock.lock();
+            try {
+                long resolveFlushNanos = TimeUnit.MILLISECONDS.toNanos(resolveFlushMillis);
+                while (!sendPending && running) {
+                    if (buffer.readableBytes() > 0 && System.nanoTime() - lastFlushNanos >= resolveFlushNanos) {
+                        break;
+                    }
+                    try {
+                        notEmpty.awaitNanos(resolveFlushNanos);
+                    } catch (InterruptedException e) {
+                        // 只由 running 控制退出
+                    }
+                }
+                if (buffer.readableBytes() == 0) {
+                    break;
+                }
+                sendPending = false;
+                lastFlushNanos = System.nanoTime();
+                batch = buffer;
+                buffer = spare;
+                spare = null;
+                batchCommit = commit;
+                commit = new Commit();
+                // 每批一个超时，磁盘卡住时等待者不会一直挂着
+                batchCommit.done.orTimeout(syncTimeoutMillis, TimeUnit.MILLISECONDS);
+                from = durablePosition;
+                bases = segments.stream().mapToLong(segment -> segment.base).toArray();
+            } finally {
+                lock.unlock();
+            }
+
+            long to = from + batch.readableBytes();
+            List<Path> obsolete = null;
+            try {
+                write(batch, from, bases);
+                syncCount.incrementAndGet();
+            } catch (IOException e) {
+                log.error("WAL flush failed, durable sends will be rejected", e);
+                lock.lock();
+                try {
+                    failure = e;
+                    commit.complete(e);
+                } finally {
+                    lock.unlock();
+                }
+                batchCommit.complete(e);
+                return;
+            }
+
+            batch.clear();
+            batchCommit.complete(null);
+            lock.lock();
+            try {
+                spare = batch;
+                durablePosition = to;
+                // 只按从旧到新的顺序删除，避免先删掉某段里的确认记录而让更早的发送在回放时复活
+                while (segments.size() > 1) {
+                    Iterator<Segment> it = segments.iterator();
+                    Segment oldest = it.next();
+                    if (oldest.live > 0 || durablePosition <= it.next().base) {
+                        break;
+                    }
+                    segments.pollFirst();
+                    if (obsolete == null) obsolete = new ArrayList<>();
+                    obsolete.add(file(oldest.base));
+                }
+            } finally {
+                lock.unlock();
+            }
+            if (obsolete != null) {
+                for (Path path : obsolete) {
+                    try {
+                        Files.deleteIfExists(path);
+                    } catch (IOException e) {
+                        log.warn("Failed to delete WAL segment {}", path, e);
+                    }
+                }
+            }
+        }
+        closeChannel();
+    }
+
+    // 把 [from, from + batch 长度) 写入对应的段文件，跨段时先同步并关闭旧段
+    private void write(ByteBuf batch, long from, long[] bases) throws IOException {
+        long position = from;
+        while (batch.isReadable()) {
+            int index = bases.length - 1;
+            while (bases[index] > position) {
+                index--;
+            }
+            long base = bases[index];
+            long end = index + 1 < bases.length ? bases[index + 1] : Long.MAX_VALUE;
+            int length = (int) Math.min(batch.readableBytes(), end - position);
+            if (channelBase != base) {
+                closeChannel();
+                channel = FileChannel.open(file(base), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+                channelBase = base;
+            }
+            long offset = position - base;
+            int written = 0;
+            while (written < length) {
+                written += batch.getBytes(batch.readerIndex() + written, channel, offset + written, length - written);
+            }
+            batch.skipBytes(length);
+            position += length;
+        }
+        channel.force(false);
+    }
+
+    private void closeChannel() {
+        if (channel != null) {
+            try {
+                channel.force(false);
+                channel.close();
+            } catch (IOException e) {
+                log.warn("Failed to close WAL segment {}", channelBase, e);
+            }
+            channel = null;
+            channelBase = MISSING;
+        }
+    }
+
+    /**
+     * 依次扫描段文件重建 liveIds 和各段计数，最后一段中校验失败的尾部（写到一半时宕机）截掉。
+     */
+    private int recover(Replay replay) throws IOException {
+        TreeMap<Long, Path> files = new TreeMap<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + SUFFIX)) {
+            for (Path path : stream) {
+                String name = path.getFileName().toString();
+                files.put(Long.parseLong(name.substring(0, name.length() - SUFFIX.length())), path);
+            }
+        }
+
+        // id 到发送记录的逻辑偏移
+        LongLongHashMap sends = new LongLongHashMap(1024);
+        TreeMap<Long, MappedByteBuffer> mapped = new TreeMap<>();
+        long end = 0;
+        for (Map.Entry<Long, Path> entry : files.entrySet()) {
+            long base = entry.getKey();
+            MappedByteBuffer data;
+            try (FileChannel file = FileChannel.open(entry.getValue(), StandardOpenOption.READ)) {
+                data = file.map(FileChannel.MapMode.READ_ONLY, 0, file.size());
+            }
+            mapped.put(base, data);
+            segments.addLast(new Segment(base));
+
+            int valid = scan(data, base, sends, replay);
+            if (valid < data.capacity()) {
+                if (base == files.lastKey()) {
+                    log.warn("Truncating torn WAL tail at {} in {}", valid, entry.getValue());
+                    try (FileChannel file = FileChannel.open(entry.getValue(), StandardOpenOption.WRITE)) {
+                        file.truncate(valid);
+                    }
+                } else {
+                    log.error("Corrupt WAL record at {} in {}, skipping the rest of the segment", valid, entry.getValue());
+                }
+            }
+            end = base + valid;
+        }
+        if (segments.isEmpty()) {
+            segments.addLast(new Segment(0));
+        }
+
+        sends.forEach((id, position) -> {
+            Map.Entry<Long, MappedByteBuffer> entry = mapped.floorEntry(position);
+            ByteBuffer data = entry.getValue().duplicate();
+            int offset = (int) (position - entry.getKey());
+            int length = data.getInt(offset) - BODY_FIXED_BYTES;
+            data.limit(offset + HEADER_BYTES + BODY_FIXED_BYTES + length).position(offset + HEADER_BYTES + BODY_FIXED_BYTES);
+            Segment segment = segment(entry.getKey());
+            segment.live++;
+            liveIds.put(id, segment.base);
+            replay.pending(id, BinaryMessageCodec.decode(Unpooled.wrappedBuffer(data)));
+        });
+
+        // 开头已经全部了结的段直接删除，最后一段继续追加
+        while (segments.size() > 1 && segments.peekFirst().live == 0) {
+            Files.deleteIfExists(file(segments.pollFirst().base));
+        }
+        appendPosition = end;
+        durablePosition = end;
+        return sends.size();
+    }
+
+    // 返回有效记录的结束位置
+    private static int scan(MappedByteBuffer data, long base, LongLongHashMap sends, Replay replay) {
+        int position = 0;
+        int limit = data.capacity();
+        CRC32C crc = new CRC32C();
+        while (position + HEADER_BYTES + BODY_FIXED_BYTES <= limit) {
+            int length = data.getInt(position);
+            if (length < BODY_FIXED_BYTES || length > limit - position - HEADER_BYTES) {
+                break;
+            }
+            crc.reset();
+            crc.update(data.duplicate().limit(position + HEADER_BYTES + length).position(position + HEADER_BYTES));
+            if ((int) crc.getValue() != data.getInt(position + 4)) {
+                break;
+            }
+            int body = position + HEADER_BYTES;
+            long id = data.getLong(body + 1);
+            if (data.get(body) == SEND) {
+                sends.put(id, base + position);
+            } else {
+                sends.remove(id, MISSING);
+                int status = data.get(body + 9);
+                if (status >= 0 && status < STATUSES.length) {
+                    replay.resolved(id, STATUSES[status]);
+                }
+            }
+            position = body + length;
+        }
+        return position;
+    }
+
+    private Path file(long base) {
+        return directory.resolve(String.format("%020d%s", base, SUFFIX));
+    }
+
+    private static final class Segment {
+        private final long base;
+        // 本段中尚未了结的发送
+        private int live;
+
+        private Segment(long base) {
+            this.base = base;
+        }
+    }
+}
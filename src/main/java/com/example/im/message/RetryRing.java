@@ -0,0 +1,69 @@
+package com.example.im.message;
+
+import java.util.function.LongConsumer;
+
+/**
+ * 待重试消息的先进先出环形队列，存 (id, 到期时间) 两个 long。
+ * 重试间隔固定，入队顺序就是到期顺序，扫描时只需从队头取到第一个未到期的为止。
+ * 已确认的消息不从队列中删除，到期时查表发现不存在直接跳过。
+ */
+final class RetryRing {
+    private long[] ids;
+    private long[] dueAt;
+    private int head;
+    private int size;
+
+    RetryRing(int initialCapacity) {
+        int capacity = Integer.highestOneBit(Math.max(16, initialCapacity) - 1) << 1;
+        ids = new long[capacity];
+        dueAt = new long[capacity];
+    }
+
+    synchronized void add(long id, long due) {
+        if (size == ids.length) {
+            grow();
+        }
+        int tail = (head + size) & (ids.length - 1);
+        ids[tail] = id;
+        dueAt[tail] = due;
+        size++;
+    }
+
+    /**
+     * 取出到期的 id，每次最多 batch.length 条，返回取出的条数。回调在锁外执行。
+     */
+    int pollDue(long now, long[] batch, LongConsumer consumer) {
+        int count;
+        synchronized (this) {
+            count = 0;
+            int mask = ids.length - 1;
+            while (size > 0 && count < batch.length && dueAt[head] <= now) {
+                batch[count++] = ids[head];
+                head = (head + 1) & mask;
+                size--;
+            }
+        }
+        for (int i = 0; i < count; i++) {
+            consumer.accept(batch[i]);
+        }
+        return count;
+    }
+
+    synchronized int size() {
+        return size;
+    }
+
+    private void grow() {
+        int capacity = ids.length * 2;
+        long[] newIds = new long[capacity];
+        long[] newDueAt = new long[capacity];
+        for (int i = 0; i < size; i++) {
+            int from = (head + i) & (ids.length - 1);
+            newIds[i] = ids[from];
+            newDueAt[i] = dueAt[from];
+        }
+        ids = newIds;
+        dueAt = newDueAt;
+        head = 0;
+    }
+}
@@ -0,0 +1,114 @@
+package com.example.im.message;
+
+import com.example.im.config.VirtualThreads;
+import io.netty.util.HashedWheelTimer;
+import io.netty.util.Timeout;
+import io.netty.util.TimerTask;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 所有待确认消息共享的定时器：一个时间轮线程负责全部超时，到期任务交给小线程池执行，
+ * 避免每条消息一个睡眠线程。
+ */
+@Slf4j
+@Component
+public class RetryScheduler {
+    @Value("${im.retry.tick-millis:100}")
+    private long tickMillis;
+
+    @Value("${im.retry.ticks-per-wheel:512}")
+    private int ticksPerWheel;
+
+    @Value("${im.retry.worker-threads:2}")
+    private int workerThreads;
+
+    @Value("${im.threads.mode:platform}")
+    private String threadsMode;
+
+    private final AtomicLong firedCount = new AtomicLong();
+    private final AtomicLong lastFireLagMillis = new AtomicLong();
+    private final AtomicLong maxFireLagMillis = new AtomicLong();
+
+    private ExecutorService taskExecutor;
+    private HashedWheelTimer timer;
+
+    @PostConstruct
+    public void start() {
+        // 虚拟线程模式下每个到期任务一个虚拟线程，重发时阻塞在慢连接上不会拖住其他重试
+        taskExecutor = VirtualThreads.isEnabled(threadsMode)
+                ? VirtualThreads.newThreadPerTaskExecutor("im-retry-worker-")
+                : new ThreadPoolExecutor(workerThreads, workerThreads, 0L, TimeUnit.MILLISECONDS,
+                        new LinkedBlockingQueue<>(), new DefaultThreadFactory("im-retry-worker", true));
+        timer = new HashedWheelTimer(new DefaultThreadFactory("im-retry-wheel", true),
+                tickMillis, TimeUnit.MILLISECONDS, ticksPerWheel, true, -1, taskExecutor);
+        timer.start();
+    }
+
+    @PreDestroy
+    public void stop() {
+        timer.stop();
+        taskExecutor.shutdown();
+    }
+
+    /**
+     * 在 delayMillis 之后执行任务，返回的 Timeout 可用于 O(1) 取消。
+     */
+    public Timeout schedule(Runnable task, long delayMillis) {
+        long deadline = System.currentTimeMillis() + delayMillis;
+        return timer.newTimeout(new TrackedTask(task, deadline), delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public long getPendingCount() {
+        return timer.pendingTimeouts();
+    }
+
+    public long getFiredCount() {
+        return firedCount.get();
+    }
+
+    public long getLastFireLagMillis() {
+        return lastFireLagMillis.get();
+    }
+
+    public long getMaxFireLagMillis() {
+        return maxFireLagMillis.get();
+    }
+
+    private void recordFire(long deadline) {
+        long lag = Math.max(0, System.currentTimeMillis() - deadline);
+        firedCount.incrementAndGet();
+        lastFireLagMillis.set(lag);
+        maxFireLagMillis.accumulateAndGet(lag, Math::max);
+    }
+
+    private final class TrackedTask implements TimerTask {
+        private final Runnable task;
+        private final long deadline;
+
+        private TrackedTask(Runnable task, long deadline) {
+            this.task = task;
+            this.deadline = deadline;
+        }
+
+        @Override
+        public void run(Timeout timeout) {
+            recordFire(deadline);
+            try {
+                task.run();
+            } catch (Exception e) {
+                log.error("Scheduled task failed", e);
+            }
+        }
+    }
+}
@@ -0,0 +1,192 @@
+package com.example.im.metrics;
+
+import com.example.im.admission.AdmissionController;
+import com.example.im.cluster.ClusterRouter;
+import com.example.im.config.WebSocketHandler;
+import com.example.im.group.GroupService;
+import com.example.im.message.AckAggregator;
+import com.example.im.message.MessageManager;
+import com.example.im.message.PendingMessageLog;
+import com.example.im.message.RetryScheduler;
+import com.example.im.search.MessageSearchIndex;
+import com.example.im.service.ChatMessageWriteBehind;
+import com.example.im.service.OfflineMessageService;
+import com.example.im.service.ReadWatermarkService;
+import com.example.im.session.IdleSessionMonitor;
+import com.example.im.session.SessionRegistry;
+import com.example.im.summary.ConversationSummaryCache;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+/**
+ * 各组件已有的计数器和队列长度，在抓取时读取，不在热路径上记录。
+ */
+@Component
+public class ImGauges implements MeterBinder {
+    @Autowired
+    private WebSocketHandler webSocketHandler;
+
+    @Autowired
+    private MessageManager messageManager;
+
+    @Autowired
+    private RetryScheduler retryScheduler;
+
+    @Autowired
+    private PendingMessageLog wal;
+
+    @Autowired
+    private AckAggregator ackAggregator;
+
+    @Autowired
+    private ChatMessageWriteBehind writeBehind;
+
+    @Autowired
+    private OfflineMessageService offlineMessageService;
+
+    @Autowired
+    private ClusterRouter clusterRouter;
+
+    @Autowired
+    private IdleSessionMonitor idleSessionMonitor;
+
+    @Autowired
+    private SessionRegistry sessionRegistry;
+
+    @Autowired
+    private GroupService groupService;
+
+    @Autowired
+    private ReadWatermarkService readWatermarkService;
+
+    @Autowired
+    private ConversationSummaryCache summaryCache;
+
+    @Autowired
+    private MessageSearchIndex searchIndex;
+
+    @Autowired
+    private AdmissionController admissionController;
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("im.sessions.online", webSocketHandler, WebSocketHandler::getOnlineCount)
+                .description("Users with at least one session on this node")
+                .register(registry);
+        Gauge.builder("im.sessions.connections", sessionRegistry, SessionRegistry::getSessionCount)
+                .description("Sessions connected to this node, counting every device of a user")
+                .register(registry);
+        Gauge.builder("im.sessions.tracked", idleSessionMonitor, IdleSessionMonitor::getTrackedCount)
+                .description("Connections with a pending liveness check")
+                .register(registry);
+        FunctionCounter.builder("im.sessions.pings", idleSessionMonitor, IdleSessionMonitor::getPingCount)
+                .description("Server heartbeat probes sent to idle connections")
+                .register(registry);
+        FunctionCounter.builder("im.sessions.evicted", idleSessionMonitor, IdleSessionMonitor::getEvictedCount)
+                .description("Connections closed after the heartbeat timeout")
+                .register(registry);
+        FunctionCounter.builder("im.sessions.zombie", idleSessionMonitor, IdleSessionMonitor::getZombieCount)
+                .description("Evicted connections the normal close path had already lost track of")
+                .register(registry);
+        Gauge.builder("im.groups", groupService, GroupService::getGroupCount)
+                .register(registry);
+        Gauge.builder("im.groups.index", groupService, GroupService::getIndexBytes)
+                .description("Memory held by the group member bitmaps")
+                .baseUnit("bytes")
+                .register(registry);
+        FunctionCounter.builder("im.groups.fanouts", groupService, GroupService::getFanOutCount)
+                .register(registry);
+        FunctionCounter.builder("im.groups.recipients", groupService, GroupService::getRecipientCount)
+                .description("Online members reached by group fan-out")
+                .register(registry);
+        Gauge.builder("im.read.pending", readWatermarkService, ReadWatermarkService::getPendingCount)
+                .description("Read positions waiting to be flushed")
+                .register(registry);
+        FunctionCounter.builder("im.read.receipts", readWatermarkService, ReadWatermarkService::getReceiptCount)
+                .register(registry);
+        FunctionCounter.builder("im.read.advanced", readWatermarkService, ReadWatermarkService::getAdvancedCount)
+                .description("Read receipts that moved a read position forward")
+                .register(registry);
+        FunctionCounter.builder("im.read.writes", readWatermarkService, ReadWatermarkService::getWrittenCount)
+                .description("Read positions written to the database")
+                .register(registry);
+        Gauge.builder("im.summary.size", summaryCache, ConversationSummaryCache::getSize)
+                .description("Users whose conversation summary is cached")
+                .register(registry);
+        FunctionCounter.builder("im.summary.requests", summaryCache, c -> c.getStats().hitCount())
+                .tag("result", "hit")
+                .register(registry);
+        FunctionCounter.builder("im.summary.requests", summaryCache, c -> c.getStats().missCount())
+                .tag("result", "miss")
+                .register(registry);
+        FunctionCounter.builder("im.summary.evictions", summaryCache, c -> c.getStats().evictionCount())
+                .register(registry);
+        Gauge.builder("im.summary.hit.ratio", summaryCache, c -> c.getStats().hitRate())
+                .register(registry);
+        Gauge.builder("im.search.queue", searchIndex, MessageSearchIndex::getQueueSize)
+                .description("Persisted messages waiting to be indexed")
+                .register(registry);
+        Gauge.builder("im.search.docs", searchIndex, MessageSearchIndex::getDocCount)
+                .register(registry);
+        FunctionCounter.builder("im.search.indexed", searchIndex, MessageSearchIndex::getIndexedCount)
+                .register(registry);
+        FunctionCounter.builder("im.search.queries", searchIndex, MessageSearchIndex::getQueryCount)
+                .register(registry);
+        Gauge.builder("im.admission.overloaded", admissionController, admission -> admission.isOverloaded() ? 1 : 0)
+                .description("1 while new chat messages are being shed")
+                .register(registry);
+        Gauge.builder("im.admission.loop.lag", admissionController, AdmissionController::getLoopLagMillis)
+                .description("Worst gateway event loop lag in milliseconds")
+                .register(registry);
+        Gauge.builder("im.admission.buckets", admissionController, AdmissionController::getBucketCount)
+                .register(registry);
+        Gauge.builder("im.admission.queued.frames", admissionController, AdmissionController::getQueuedFrames)
+                .description("Frames waiting in all outbound session queues at the last check")
+                .register(registry);
+        Gauge.builder("im.messages.pending", messageManager, MessageManager::getPendingCount)
+                .description("Messages waiting for an ACK")
+                .register(registry);
+        Gauge.builder("im.pending.offheap", messageManager, MessageManager::getPendingOffHeapBytes)
+                .baseUnit("bytes")
+                .register(registry);
+        Gauge.builder("im.pending.spilled", messageManager, MessageManager::getPendingSpilledBytes)
+                .baseUnit("bytes")
+                .register(registry);
+        FunctionCounter.builder("im.wal.records", wal, PendingMessageLog::getRecordCount)
+                .register(registry);
+        // records / syncs 即组提交的平均批大小
+        FunctionCounter.builder("im.wal.syncs", wal, PendingMessageLog::getSyncCount)
+                .register(registry);
+        Gauge.builder("im.wal.segments", wal, PendingMessageLog::getSegmentCount)
+                .register(registry);
+        Gauge.builder("im.retry.timeouts", retryScheduler, RetryScheduler::getPendingCount)
+                .register(registry);
+        Gauge.builder("im.retry.max.lag", retryScheduler, RetryScheduler::getMaxFireLagMillis)
+                .baseUnit("milliseconds")
+                .register(registry);
+        FunctionCounter.builder("im.ack.ids", ackAggregator, AckAggregator::getAckCount)
+                .description("ACKs passed through the aggregator")
+                .register(registry);
+        FunctionCounter.builder("im.ack.frames", ackAggregator, AckAggregator::getFrameCount)
+                .description("ACK / BATCH_ACK frames emitted by the aggregator")
+                .register(registry);
+        Gauge.builder("im.persist.queue.size", writeBehind, ChatMessageWriteBehind::getQueueSize)
+                .register(registry);
+        FunctionCounter.builder("im.persist.flushed", writeBehind, ChatMessageWriteBehind::getFlushedCount)
+                .register(registry);
+        FunctionCounter.builder("im.persist.rejected", writeBehind, ChatMessageWriteBehind::getRejectedCount)
+                .register(registry);
+        Gauge.builder("im.offline.recipients", offlineMessageService, OfflineMessageService::getPendingRecipients)
+                .register(registry);
+        FunctionCounter.builder("im.offline.replayed", offlineMessageService, OfflineMessageService::getReplayedCount)
+                .register(registry);
+        FunctionCounter.builder("im.cluster.forwarded", clusterRouter, ClusterRouter::getForwardedCount)
+                .register(registry);
+        FunctionCounter.builder("im.cluster.received", clusterRouter, ClusterRouter::getReceivedCount)
+                .register(registry);
+    }
+}
@@ -0,0 +1,168 @@
+package com.example.im.metrics;
+
+import com.example.im.protocol.Message;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.time.Duration;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 消息链路的指标。所有 Meter 在启动时注册好并按下标取用，热路径上只做计数和直方图记录，不分配对象。
+ */
+@Component
+public class ImMetrics {
+
+    public enum Stage {
+        // 收到帧到解析完成
+        RECEIVE,
+        // 解析完成到投递进接收者的发送队列（或转发到其他节点）
+        ROUTE,
+        // 入发送队列到写完 socket
+        WRITE,
+        // 投递到接收者确认
+        ACK
+    }
+
+    public enum Failure {
+        // 持久化队列已满被拒绝
+        PERSIST_REJECTED,
+        // 发送时出错
+        SEND_ERROR,
+        // 重试次数用尽
+        RETRY_EXHAUSTED
+    }
+
+    public enum Rejection {
+        // 超过用户的令牌桶速率
+        RATE_LIMITED,
+        // 服务端过载，拒绝新的聊天消息
+        OVERLOADED
+    }
+
+    @Autowired
+    private MeterRegistry registry;
+
+    @Value("${im.metrics.ack-tracking-slots:65536}")
+    private int ackTrackingSlots;
+
+    @Value("${im.metrics.max-expected-seconds:30}")
+    private long maxExpectedSeconds;
+
+    private final Timer[] stageTimers = new Timer[Stage.values().length];
+    private final Counter[] inboundCounters = new Counter[Message.Type.values().length];
+    private final Counter[] failureCounters = new Counter[Failure.values().length];
+    private final Counter[][] rejectionCounters = new Counter[Rejection.values().length][Message.Type.values().length];
+    private Counter retryCounter;
+
+    // 发出时间按 messageId 哈希放进定长槽位，确认时取回；槽位冲突时丢掉旧样本，只影响统计
+    private int ackSlotMask;
+    private int[] ackSlotHashes;
+    private long[] ackSlotSentAt;
+
+    @PostConstruct
+    public void init() {
+        for (Stage stage : Stage.values()) {
+            stageTimers[stage.ordinal()] = Timer.builder("im.message.stage")
+                    .description("Message lifecycle stage latency")
+                    .tag("stage", name(stage))
+                    .publishPercentiles(0.5, 0.99, 0.999)
+                    .publishPercentileHistogram()
+                    .minimumExpectedValue(Duration.ofNanos(TimeUnit.MICROSECONDS.toNanos(10)))
+                    .maximumExpectedValue(Duration.ofSeconds(maxExpectedSeconds))
+                    .register(registry);
+        }
+        for (Message.Type type : Message.Type.values()) {
+            inboundCounters[type.ordinal()] = Counter.builder("im.messages.received")
+                    .description("Inbound messages by type")
+                    .tag("type", name(type))
+                    .register(registry);
+        }
+        for (Failure failure : Failure.values()) {
+            failureCounters[failure.ordinal()] = Counter.builder("im.message.failures")
+                    .tag("reason", name(failure))
+                    .register(registry);
+        }
+        for (Rejection rejection : Rejection.values()) {
+            for (Message.Type type : Message.Type.values()) {
+                rejectionCounters[rejection.ordinal()][type.ordinal()] = Counter.builder("im.messages.rejected")
+                        .description("Inbound messages rejected by admission control")
+                        .tag("reason", name(rejection))
+                        .tag("type", name(type))
+                        .register(registry);
+            }
+        }
+        retryCounter = Counter.builder("im.message.retries").register(registry);
+
+        int slots = Integer.highestOneBit(Math.max(ackTrackingSlots, 1024) - 1) << 1;
+        ackSlotMask = slots - 1;
+        ackSlotHashes = new int[slots];
+        ackSlotSentAt = new long[slots];
+    }
+
+    public long start() {
+        return System.nanoTime();
+    }
+
+    public void recordStage(Stage stage, long startNanos) {
+        stageTimers[stage.ordinal()].record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void recordStageNanos(Stage stage, long nanos) {
+        stageTimers[stage.ordinal()].record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void received(Message.Type type) {
+        if (type != null) {
+            inboundCounters[type.ordinal()].increment();
+        }
+    }
+
+    public void retry() {
+        retryCounter.increment();
+    }
+
+    public void failure(Failure failure) {
+        failureCounters[failure.ordinal()].increment();
+    }
+
+    public void rejected(Rejection rejection, Message.Type type) {
+        if (type != null) {
+            rejectionCounters[rejection.ordinal()][type.ordinal()].increment();
+        }
+    }
+
+    // 消息已投递给接收者，开始等待确认
+    public void markDelivered(String messageId) {
+        if (messageId == null) return;
+        int hash = messageId.hashCode();
+        int slot = spread(hash) & ackSlotMask;
+        ackSlotHashes[slot] = hash;
+        ackSlotSentAt[slot] = System.nanoTime();
+    }
+
+    public void markAcked(String messageId) {
+        if (messageId == null) return;
+        int hash = messageId.hashCode();
+        int slot = spread(hash) & ackSlotMask;
+        long sentAt = ackSlotSentAt[slot];
+        if (sentAt != 0 && ackSlotHashes[slot] == hash) {
+            ackSlotSentAt[slot] = 0;
+            recordStage(Stage.ACK, sentAt);
+        }
+    }
+
+    private static int spread(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+
+    private static String name(Enum<?> value) {
+        return value.name().toLowerCase(Locale.ROOT);
+    }
+}
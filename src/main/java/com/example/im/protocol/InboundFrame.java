@@ -0,0 +1,179 @@
+package com.example.im.protocol;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 客户端发来的 JSON 帧，用流式解析器一次读出路由和处理需要的字段，不经过 Message 的反射反序列化。
+ * 只有客户端会发的字段会被读取，其余字段直接跳过；字符串值在跳过时不会被解码。
+ * 需要转发原文时用 {@link #append} 在末尾追加服务端字段，同名字段以后出现的为准。
+ */
+public final class InboundFrame {
+    private Message.Type type;
+    private String messageId;
+    private String to;
+    private String groupId;
+    private String content;
+    private long timestamp;
+    private Message.Status status;
+    private boolean needAck;
+    private String ackMessageId;
+    private List<String> batchAckMessageIds;
+    private List<String> batchAckRanges;
+
+    private InboundFrame() {
+    }
+
+    public static InboundFrame parse(JsonFactory factory, String json) throws IOException {
+        InboundFrame frame = new InboundFrame();
+        try (JsonParser parser = factory.createParser(json)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new JsonParseException(parser, "Expected a JSON object");
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.getCurrentName();
+                JsonToken value = parser.nextToken();
+                if (value == JsonToken.VALUE_NULL) {
+                    continue;
+                }
+                switch (field) {
+                    case "type":
+                        frame.type = Message.Type.valueOf(parser.getText());
+                        break;
+                    case "messageId":
+                        frame.messageId = parser.getValueAsString();
+                        break;
+                    case "to":
+                        frame.to = parser.getValueAsString();
+                        break;
+                    case "groupId":
+                        frame.groupId = parser.getValueAsString();
+                        break;
+                    case "content":
+                        frame.content = parser.getValueAsString();
+                        break;
+                    case "timestamp":
+                        frame.timestamp = parser.getValueAsLong();
+                        break;
+                    case "status":
+                        frame.status = Message.Status.valueOf(parser.getText());
+                        break;
+                    case "needAck":
+                        frame.needAck = parser.getValueAsBoolean();
+                        break;
+                    case "ackMessageId":
+                        frame.ackMessageId = parser.getValueAsString();
+                        break;
+                    case "batchAckMessageIds":
+                        frame.batchAckMessageIds = readStrings(parser);
+                        break;
+                    case "batchAckRanges":
+                        frame.batchAckRanges = readStrings(parser);
+                        break;
+                    default:
+                        parser.skipChildren();
+                }
+            }
+            // 根对象之后不能再有内容，否则转发时 append 拼出来的不是原来那个对象
+            if (parser.nextToken() != null) {
+                throw new JsonParseException(parser, "Unexpected content after the JSON object");
+            }
+        }
+        return frame;
+    }
+
+    private static List<String> readStrings(JsonParser parser) throws IOException {
+        if (parser.currentToken() != JsonToken.START_ARRAY) {
+            throw new JsonParseException(parser, "Expected an array of strings");
+        }
+        List<String> values = new ArrayList<>();
+        while (parser.nextToken() != JsonToken.END_ARRAY) {
+            values.add(parser.getValueAsString());
+        }
+        return values;
+    }
+
+    /**
+     * 把 fields（形如 ,"from":"alice"}，以逗号开头、右括号结尾）接到原文最后一个右括号的位置。
+     * 原文不是以右括号结尾的对象时返回 null，由调用方重新序列化。
+     */
+    public static String append(String json, String fields) {
+        int end = json.length() - 1;
+        while (end >= 0 && Character.isWhitespace(json.charAt(end))) {
+            end--;
+        }
+        if (end < 1 || json.charAt(end) != '}') {
+            return null;
+        }
+        int last = end - 1;
+        while (last >= 0 && Character.isWhitespace(json.charAt(last))) {
+            last--;
+        }
+        // 空对象不需要前导逗号
+        if (last >= 0 && json.charAt(last) == '{') {
+            return json.substring(0, last + 1) + fields.substring(1);
+        }
+        return new StringBuilder(end + fields.length())
+                .append(json, 0, end)
+                .append(fields)
+                .toString();
+    }
+
+    /**
+     * 需要完整消息时（持久化、群发、转发到其他节点）再构造。
+     */
+    public Message toMessage(String from) {
+        Message message = new Message();
+        message.setType(type);
+        message.setMessageId(messageId);
+        message.setFrom(from);
+        message.setTo(to);
+        message.setGroupId(groupId);
+        message.setContent(content);
+        message.setTimestamp(timestamp);
+        message.setStatus(status);
+        message.setNeedAck(needAck);
+        message.setAckMessageId(ackMessageId);
+        message.setBatchAckMessageIds(batchAckMessageIds);
+        message.setBatchAckRanges(batchAckRanges);
+        return message;
+    }
+
+    public Message.Type getType() {
+        return type;
+    }
+
+    public String getMessageId() {
+        return messageId;
+    }
+
+    public String getTo() {
+        return to;
+    }
+
+    public String getGroupId() {
+        return groupId;
+    }
+
+    public Message.Status getStatus() {
+        return status;
+    }
+
+    public String getAckMessageId() {
+        return ackMessageId;
+    }
+
+    public List<String> getBatchAckMessageIds() {
+        return batchAckMessageIds;
+    }
+
+    public List<String> getBatchAckRanges() {
+        return batchAckRanges;
+    }
+}
@@ -10,13 +10,21 @@ public class Message {
     private Type type;
     private String from;
     private String to;
+    // 群消息时为群 id（十进制字符串），to 为空
+    private String groupId;
     private String content;
     private long timestamp;
     private Status status;
     private boolean needAck;
     private String ackMessageId;
     private List<String> batchAckMessageIds;
+    // 连续数字 id 压缩成的 "first-last" 区间
+    private List<String> batchAckRanges;
     private List<String> users;
+    private List<String> offlineUsers;
+    private long version;
+    // THROTTLE 帧：客户端至少等待这么久再重发被拒绝的消息
+    private long retryAfterMillis;
 
     public enum Type {
         CHAT,
@@ -26,7 +34,10 @@ public class Message {
         LOGOUT,
         USER_LIST,
         READ_RECEIPT,
-        HEARTBEAT
+        HEARTBEAT,
+        PRESENCE,
+        // 服务端拒绝了 ackMessageId 对应的消息（限流或过载），content 为原因
+        THROTTLE
     }
 
     public enum Status {
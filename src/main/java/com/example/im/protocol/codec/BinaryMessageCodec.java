@@ -0,0 +1,219 @@
+package com.example.im.protocol.codec;
+
+import com.example.im.protocol.Message;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.handler.codec.CorruptedFrameException;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Message 的紧凑二进制格式：字段位图 + varint 长度的 UTF-8 字符串，枚举按序号编码。
+ * 给定 ContentCompressor 时，较长的 content 以 [算法][原始长度][压缩后长度][数据] 写出，其余字段不压缩。
+ */
+public final class BinaryMessageCodec {
+    private static final int F_MESSAGE_ID = 1;
+    private static final int F_TYPE = 1 << 1;
+    private static final int F_FROM = 1 << 2;
+    private static final int F_TO = 1 << 3;
+    private static final int F_CONTENT = 1 << 4;
+    private static final int F_STATUS = 1 << 5;
+    private static final int F_NEED_ACK = 1 << 6;
+    private static final int F_ACK_MESSAGE_ID = 1 << 7;
+    private static final int F_BATCH_ACK_IDS = 1 << 8;
+    private static final int F_USERS = 1 << 9;
+    private static final int F_OFFLINE_USERS = 1 << 10;
+    private static final int F_VERSION = 1 << 11;
+    private static final int F_BATCH_ACK_RANGES = 1 << 12;
+    private static final int F_GROUP_ID = 1 << 13;
+    private static final int F_RETRY_AFTER = 1 << 14;
+    private static final int F_COMPRESSED_CONTENT = 1 << 15;
+
+    private static final Message.Type[] TYPES = Message.Type.values();
+    private static final Message.Status[] STATUSES = Message.Status.values();
+
+    private BinaryMessageCodec() {
+    }
+
+    public static void encode(Message message, ByteBuf out) {
+        encode(message, out, null);
+    }
+
+    public static void encode(Message message, ByteBuf out, ContentCompressor compressor) {
+        byte[] rawContent = null;
+        byte[] compressedContent = null;
+        if (compressor != null && message.getContent() != null
+                && message.getContent().length() * 3 >= compressor.getThreshold()) {
+            rawContent = message.getContent().getBytes(StandardCharsets.UTF_8);
+            compressedContent = compressor.compress(rawContent);
+        }
+
+        int flags = 0;
+        if (message.getMessageId() != null) flags |= F_MESSAGE_ID;
+        if (message.getType() != null) flags |= F_TYPE;
+        if (message.getFrom() != null) flags |= F_FROM;
+        if (message.getTo() != null) flags |= F_TO;
+        if (compressedContent != null) flags |= F_COMPRESSED_CONTENT;
+        else if (message.getContent() != null) flags |= F_CONTENT;
+        if (message.getStatus() != null) flags |= F_STATUS;
+        if (message.isNeedAck()) flags |= F_NEED_ACK;
+        if (message.getAckMessageId() != null) flags |= F_ACK_MESSAGE_ID;
+        if (message.getBatchAckMessageIds() != null) flags |= F_BATCH_ACK_IDS;
+        if (message.getUsers() != null) flags |= F_USERS;
+        if (message.getOfflineUsers() != null) flags |= F_OFFLINE_USERS;
+        if (message.getVersion() != 0) flags |= F_VERSION;
+        if (message.getBatchAckRanges() != null) flags |= F_BATCH_ACK_RANGES;
+        if (message.getGroupId() != null) flags |= F_GROUP_ID;
+        if (message.getRetryAfterMillis() != 0) flags |= F_RETRY_AFTER;
+
+        writeVarInt(out, flags);
+        writeVarLong(out, message.getTimestamp());
+        if ((flags & F_MESSAGE_ID) != 0) writeString(out, message.getMessageId());
+        if ((flags & F_TYPE) != 0) writeVarInt(out, message.getType().ordinal());
+        if ((flags & F_FROM) != 0) writeString(out, message.getFrom());
+        if ((flags & F_TO) != 0) writeString(out, message.getTo());
+        if ((flags & F_CONTENT) != 0) writeString(out, message.getContent());
+        if ((flags & F_STATUS) != 0) writeVarInt(out, message.getStatus().ordinal());
+        if ((flags & F_ACK_MESSAGE_ID) != 0) writeString(out, message.getAckMessageId());
+        if ((flags & F_BATCH_ACK_IDS) != 0) writeStringList(out, message.getBatchAckMessageIds());
+        if ((flags & F_USERS) != 0) writeStringList(out, message.getUsers());
+        if ((flags & F_OFFLINE_USERS) != 0) writeStringList(out, message.getOfflineUsers());
+        if ((flags & F_VERSION) != 0) writeVarLong(out, message.getVersion());
+        if ((flags & F_BATCH_ACK_RANGES) != 0) writeStringList(out, message.getBatchAckRanges());
+        if ((flags & F_GROUP_ID) != 0) writeString(out, message.getGroupId());
+        if ((flags & F_RETRY_AFTER) != 0) writeVarLong(out, message.getRetryAfterMillis());
+        if ((flags & F_COMPRESSED_CONTENT) != 0) {
+            writeVarInt(out, compressor.getAlgorithm().getId());
+            writeVarInt(out, rawContent.length);
+            writeVarInt(out, compressedContent.length);
+            out.writeBytes(compressedContent);
+        }
+    }
+
+    public static Message decode(ByteBuf in) {
+        return decode(in, null);
+    }
+
+    public static Message decode(ByteBuf in, ContentCompressor compressor) {
+        Message message = new Message();
+        int flags = readVarInt(in);
+        message.setTimestamp(readVarLong(in));
+        if ((flags & F_MESSAGE_ID) != 0) message.setMessageId(readString(in));
+        if ((flags & F_TYPE) != 0) message.setType(TYPES[readOrdinal(in, TYPES.length)]);
+        if ((flags & F_FROM) != 0) message.setFrom(readString(in));
+        if ((flags & F_TO) != 0) message.setTo(readString(in));
+        if ((flags & F_CONTENT) != 0) message.setContent(readString(in));
+        if ((flags & F_STATUS) != 0) message.setStatus(STATUSES[readOrdinal(in, STATUSES.length)]);
+        message.setNeedAck((flags & F_NEED_ACK) != 0);
+        if ((flags & F_ACK_MESSAGE_ID) != 0) message.setAckMessageId(readString(in));
+        if ((flags & F_BATCH_ACK_IDS) != 0) message.setBatchAckMessageIds(readStringList(in));
+        if ((flags & F_USERS) != 0) message.setUsers(readStringList(in));
+        if ((flags & F_OFFLINE_USERS) != 0) message.setOfflineUsers(readStringList(in));
+        if ((flags & F_VERSION) != 0) message.setVersion(readVarLong(in));
+        if ((flags & F_BATCH_ACK_RANGES) != 0) message.setBatchAckRanges(readStringList(in));
+        if ((flags & F_GROUP_ID) != 0) message.setGroupId(readString(in));
+        if ((flags & F_RETRY_AFTER) != 0) message.setRetryAfterMillis(readVarLong(in));
+        if ((flags & F_COMPRESSED_CONTENT) != 0) message.setContent(readCompressedContent(in, compressor));
+        return message;
+    }
+
+    private static String readCompressedContent(ByteBuf in, ContentCompressor compressor) {
+        if (compressor == null) {
+            throw new CorruptedFrameException("Compressed content without a compressor");
+        }
+        ContentCompressor.Algorithm algorithm = ContentCompressor.Algorithm.fromId(readVarInt(in));
+        int rawLength = readVarInt(in);
+        int length = readVarInt(in);
+        if (length < 0 || length > in.readableBytes()) {
+            throw new CorruptedFrameException("Compressed length " + length + " exceeds frame");
+        }
+        byte[] compressed = new byte[length];
+        in.readBytes(compressed);
+        return new String(compressor.decompress(algorithm, compressed, rawLength), StandardCharsets.UTF_8);
+    }
+
+    public static void writeString(ByteBuf out, String value) {
+        int length = ByteBufUtil.utf8Bytes(value);
+        writeVarInt(out, length);
+        ByteBufUtil.reserveAndWriteUtf8(out, value, length);
+    }
+
+    public static String readString(ByteBuf in) {
+        int length = readVarInt(in);
+        if (length > in.readableBytes()) {
+            throw new CorruptedFrameException("String length " + length + " exceeds frame");
+        }
+        String value = in.toString(in.readerIndex(), length, StandardCharsets.UTF_8);
+        in.skipBytes(length);
+        return value;
+    }
+
+    private static void writeStringList(ByteBuf out, List<String> values) {
+        writeVarInt(out, values.size());
+        for (String value : values) {
+            writeString(out, value);
+        }
+    }
+
+    private static List<String> readStringList(ByteBuf in) {
+        int size = readVarInt(in);
+        if (size > in.readableBytes()) {
+            throw new CorruptedFrameException("List size " + size + " exceeds frame");
+        }
+        List<String> values = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            values.add(readString(in));
+        }
+        return values;
+    }
+
+    private static int readOrdinal(ByteBuf in, int bound) {
+        int ordinal = readVarInt(in);
+        if (ordinal < 0 || ordinal >= bound) {
+            throw new CorruptedFrameException("Unknown enum ordinal: " + ordinal);
+        }
+        return ordinal;
+    }
+
+    public static void writeVarInt(ByteBuf out, int value) {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    public static int readVarInt(ByteBuf in) {
+        int result = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            byte b = in.readByte();
+            result |= (b & 0x7F) << shift;
+            if (b >= 0) {
+                return result;
+            }
+        }
+        throw new CorruptedFrameException("Malformed varint");
+    }
+
+    public static void writeVarLong(ByteBuf out, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) (value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    public static long readVarLong(ByteBuf in) {
+        long result = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = in.readByte();
+            result |= (long) (b & 0x7F) << shift;
+            if (b >= 0) {
+                return result;
+            }
+        }
+        throw new CorruptedFrameException("Malformed varlong");
+    }
+}
@@ -0,0 +1,29 @@
+package com.example.im.protocol.codec;
+
+import io.netty.handler.codec.CorruptedFrameException;
+
+public enum CodecType {
+    BINARY((byte) 1),
+    JSON((byte) 2);
+
+    private final byte id;
+
+    CodecType(byte id) {
+        this.id = id;
+    }
+
+    public byte getId() {
+        return id;
+    }
+
+    public static CodecType fromId(byte id) {
+        switch (id) {
+            case 1:
+                return BINARY;
+            case 2:
+                return JSON;
+            default:
+                throw new CorruptedFrameException("Unknown codec id: " + id);
+        }
+    }
+}
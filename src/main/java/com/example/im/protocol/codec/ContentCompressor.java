@@ -0,0 +1,161 @@
+package com.example.im.protocol.codec;
+
+import com.github.luben.zstd.Zstd;
+import com.github.luben.zstd.ZstdDictCompress;
+import com.github.luben.zstd.ZstdDictDecompress;
+import io.netty.handler.codec.CorruptedFrameException;
+import net.jpountz.lz4.LZ4Compressor;
+import net.jpountz.lz4.LZ4Factory;
+import net.jpountz.lz4.LZ4SafeDecompressor;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 二进制协议中 content 字段的压缩：只压缩不小于 threshold 字节的内容，压缩后没有变小就原样发送。
+ * ZSTD 可以加载按部署训练的字典（{@link #trainDictionary}），短消息也有压缩收益；LZ4 更快但不支持字典。
+ * 收发两端的字典必须相同。实例线程安全，可被所有连接共用。
+ */
+public final class ContentCompressor {
+    // 解压后的上限，防止压缩炸弹
+    static final int MAX_CONTENT_BYTES = 16 * MessageCodecs.MAX_FRAME_LENGTH;
+
+    public enum Algorithm {
+        LZ4(1),
+        ZSTD(2);
+
+        private final int id;
+
+        Algorithm(int id) {
+            this.id = id;
+        }
+
+        public int getId() {
+            return id;
+        }
+
+        // 帧头 codec 字节的高 4 位中，表示“接受这种压缩”的位
+        int capability() {
+            return 0x10 << (id - 1);
+        }
+
+        static Algorithm fromId(int id) {
+            switch (id) {
+                case 1:
+                    return LZ4;
+                case 2:
+                    return ZSTD;
+                default:
+                    throw new CorruptedFrameException("Unknown compression id: " + id);
+            }
+        }
+    }
+
+    private static final LZ4Compressor LZ4_COMPRESSOR = LZ4Factory.fastestInstance().fastCompressor();
+    // 内容来自对端，不可信，用带边界检查的解压器
+    private static final LZ4SafeDecompressor LZ4_DECOMPRESSOR = LZ4Factory.fastestInstance().safeDecompressor();
+
+    private final Algorithm algorithm;
+    private final int threshold;
+    private final int level;
+    private final ZstdDictCompress dictCompress;
+    private final ZstdDictDecompress dictDecompress;
+
+    public ContentCompressor(Algorithm algorithm, int threshold) {
+        this(algorithm, threshold, Zstd.defaultCompressionLevel(), null);
+    }
+
+    public ContentCompressor(Algorithm algorithm, int threshold, int level, byte[] dictionary) {
+        this.algorithm = algorithm;
+        this.threshold = threshold;
+        this.level = level;
+        if (dictionary != null && algorithm == Algorithm.ZSTD) {
+            dictCompress = new ZstdDictCompress(dictionary, level);
+            dictDecompress = new ZstdDictDecompress(dictionary);
+        } else {
+            dictCompress = null;
+            dictDecompress = null;
+        }
+    }
+
+    public static ContentCompressor withDictionary(Algorithm algorithm, int threshold, int level, Path dictionary)
+            throws IOException {
+        return new ContentCompressor(algorithm, threshold, level, Files.readAllBytes(dictionary));
+    }
+
+    /**
+     * 用一批典型消息内容训练 ZSTD 字典，结果写入文件后由各节点和客户端加载。
+     */
+    public static byte[] trainDictionary(List<byte[]> samples, int dictionaryBytes) {
+        byte[] dictionary = new byte[dictionaryBytes];
+        long size = Zstd.trainFromBuffer(samples.toArray(new byte[0][]), dictionary);
+        if (Zstd.isError(size)) {
+            throw new IllegalArgumentException("Cannot train dictionary: " + Zstd.getErrorName(size));
+        }
+        return Arrays.copyOf(dictionary, (int) size);
+    }
+
+    public Algorithm getAlgorithm() {
+        return algorithm;
+    }
+
+    public int getThreshold() {
+        return threshold;
+    }
+
+    // 本端能解压的算法，写在发出的每一帧的 codec 字节里
+    int capabilities() {
+        return algorithm.capability();
+    }
+
+    // 对端声明接受本端使用的算法时才压缩
+    boolean acceptedBy(int peerCapabilities) {
+        return (peerCapabilities & algorithm.capability()) != 0;
+    }
+
+    /**
+     * 压缩 UTF-8 内容，不值得压缩时返回 null。
+     */
+    byte[] compress(byte[] raw) {
+        if (raw.length < threshold) {
+            return null;
+        }
+        byte[] compressed;
+        if (algorithm == Algorithm.LZ4) {
+            compressed = LZ4_COMPRESSOR.compress(raw);
+        } else if (dictCompress != null) {
+            compressed = Zstd.compress(raw, dictCompress);
+        } else {
+            compressed = Zstd.compress(raw, level);
+        }
+        return compressed.length < raw.length ? compressed : null;
+    }
+
+    byte[] decompress(Algorithm used, byte[] compressed, int rawLength) {
+        if (rawLength < 0 || rawLength > MAX_CONTENT_BYTES) {
+            throw new CorruptedFrameException("Content length " + rawLength + " out of range");
+        }
+        try {
+            byte[] raw;
+            if (used == Algorithm.LZ4) {
+                raw = LZ4_DECOMPRESSOR.decompress(compressed, rawLength);
+            } else {
+                raw = dictDecompress != null
+                        ? Zstd.decompress(compressed, dictDecompress, rawLength)
+                        : Zstd.decompress(compressed, rawLength);
+            }
+            if (raw.length != rawLength) {
+                throw new CorruptedFrameException("Content length mismatch: " + raw.length + " != " + rawLength);
+            }
+            return raw;
+        } catch (RuntimeException e) {
+            if (e instanceof CorruptedFrameException) {
+                throw e;
+            }
+            throw new CorruptedFrameException("Cannot decompress content", e);
+        }
+    }
+}
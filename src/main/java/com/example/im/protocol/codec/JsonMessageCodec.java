@@ -0,0 +1,36 @@
+package com.example.im.protocol.codec;
+
+import com.example.im.protocol.Message;
+import com.google.gson.Gson;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufInputStream;
+import io.netty.buffer.ByteBufOutputStream;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * JSON 兼容格式，直接在 ByteBuf 上读写，不经过中间 String。
+ */
+public final class JsonMessageCodec {
+    private static final Gson gson = new Gson();
+
+    private JsonMessageCodec() {
+    }
+
+    public static void encode(Message message, ByteBuf out) throws IOException {
+        try (Writer writer = new OutputStreamWriter(new ByteBufOutputStream(out), StandardCharsets.UTF_8)) {
+            gson.toJson(message, writer);
+        }
+    }
+
+    public static Message decode(ByteBuf in) throws IOException {
+        try (Reader reader = new InputStreamReader(new ByteBufInputStream(in), StandardCharsets.UTF_8)) {
+            return gson.fromJson(reader, Message.class);
+        }
+    }
+}
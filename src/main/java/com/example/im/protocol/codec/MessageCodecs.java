@@ -0,0 +1,25 @@
+package com.example.im.protocol.codec;
+
+import io.netty.channel.ChannelPipeline;
+import io.netty.handler.codec.LengthFieldBasedFrameDecoder;
+import io.netty.handler.codec.LengthFieldPrepender;
+
+public final class MessageCodecs {
+    public static final int MAX_FRAME_LENGTH = 1024 * 1024;
+
+    private MessageCodecs() {
+    }
+
+    // 帧格式: [length:int32][codec:byte][body]
+    public static void addTo(ChannelPipeline pipeline, CodecType preferred) {
+        addTo(pipeline, preferred, null);
+    }
+
+    // codec 字节低 4 位为编码，高 4 位为本端接受的 content 压缩算法；compressor 为空时不声明也不压缩
+    public static void addTo(ChannelPipeline pipeline, CodecType preferred, ContentCompressor compressor) {
+        pipeline.addLast(new LengthFieldBasedFrameDecoder(MAX_FRAME_LENGTH, 0, 4, 0, 4));
+        pipeline.addLast(new LengthFieldPrepender(4));
+        pipeline.addLast(new MessageFrameDecoder(compressor));
+        pipeline.addLast(new MessageFrameEncoder(preferred, compressor));
+    }
+}
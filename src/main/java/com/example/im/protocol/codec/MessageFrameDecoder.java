@@ -0,0 +1,40 @@
+package com.example.im.protocol.codec;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.MessageToMessageDecoder;
+import io.netty.util.AttributeKey;
+
+import java.util.List;
+
+/**
+ * 解码 LengthFieldBasedFrameDecoder 切出的完整帧，并记录对端使用的编码和声明接受的压缩算法。
+ */
+public class MessageFrameDecoder extends MessageToMessageDecoder<ByteBuf> {
+    static final AttributeKey<CodecType> PEER_CODEC = AttributeKey.valueOf("im.peerCodec");
+    static final AttributeKey<Integer> PEER_CAPABILITIES = AttributeKey.valueOf("im.peerCapabilities");
+
+    private final ContentCompressor compressor;
+
+    public MessageFrameDecoder() {
+        this(null);
+    }
+
+    public MessageFrameDecoder(ContentCompressor compressor) {
+        this.compressor = compressor;
+    }
+
+    @Override
+    protected void decode(ChannelHandlerContext ctx, ByteBuf frame, List<Object> out) throws Exception {
+        int header = frame.readUnsignedByte();
+        CodecType codec = CodecType.fromId((byte) (header & 0x0F));
+        ctx.channel().attr(PEER_CODEC).set(codec);
+        ctx.channel().attr(PEER_CAPABILITIES).set(header & 0xF0);
+
+        if (codec == CodecType.BINARY) {
+            out.add(BinaryMessageCodec.decode(frame, compressor));
+        } else {
+            out.add(JsonMessageCodec.decode(frame));
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package com.example.im.protocol.codec;
+
+import com.example.im.protocol.Message;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.MessageToByteEncoder;
+
+/**
+ * 写出 [codec][body]，帧长度由后面的 LengthFieldPrepender 补上。
+ * 优先使用对端最近一次使用的编码，对端未发过消息时使用本端首选编码。
+ * 配置了 ContentCompressor 时，codec 字节的高 4 位声明本端能解压的算法；对端声明过接受同一算法后才压缩 content。
+ */
+public class MessageFrameEncoder extends MessageToByteEncoder<Message> {
+    private final CodecType preferred;
+    private final ContentCompressor compressor;
+
+    public MessageFrameEncoder(CodecType preferred) {
+        this(preferred, null);
+    }
+
+    public MessageFrameEncoder(CodecType preferred, ContentCompressor compressor) {
+        this.preferred = preferred;
+        this.compressor = compressor;
+    }
+
+    @Override
+    protected void encode(ChannelHandlerContext ctx, Message msg, ByteBuf out) throws Exception {
+        CodecType negotiated = ctx.channel().attr(MessageFrameDecoder.PEER_CODEC).get();
+        CodecType codec = negotiated != null ? negotiated : preferred;
+
+        out.writeByte(codec.getId() | (compressor != null ? compressor.capabilities() : 0));
+        if (codec == CodecType.BINARY) {
+            Integer peerCapabilities = ctx.channel().attr(MessageFrameDecoder.PEER_CAPABILITIES).get();
+            boolean compress = compressor != null && peerCapabilities != null && compressor.acceptedBy(peerCapabilities);
+            BinaryMessageCodec.encode(msg, out, compress ? compressor : null);
+        } else {
+            JsonMessageCodec.encode(msg, out);
+        }
+    }
+}
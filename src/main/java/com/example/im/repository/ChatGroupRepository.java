@@ -0,0 +1,15 @@
+package com.example.im.repository;
+
+import com.example.im.entity.ChatGroup;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.util.List;
+
+@Repository
+public interface ChatGroupRepository extends JpaRepository<ChatGroup, Long> {
+    @Query("SELECT c FROM ChatGroup c, GroupMember g WHERE g.username = :username AND c.id = g.groupId ORDER BY c.id")
+    List<ChatGroup> findByMember(@Param("username") String username);
+}
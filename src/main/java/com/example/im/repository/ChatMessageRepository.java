@@ -1,27 +1,108 @@
 package com.example.im.repository;
 
 import com.example.im.entity.ChatMessage;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 
 @Repository
-public interface ChatMessageRepository extends JpaRepository<ChatMessage, String> {
+public interface ChatMessageRepository extends JpaRepository<ChatMessage, Long> {
+    String AFTER_WATERMARK = "(w.readTimestamp IS NULL OR m.timestamp > w.readTimestamp OR " +
+            "(m.timestamp = w.readTimestamp AND m.messageId > w.readMessageId))";
+
     Optional<ChatMessage> findByMessageId(String messageId);
 
-    @Query(value = "SELECT m FROM ChatMessage m WHERE " +
-           "(m.from = :user1 AND m.to = :user2) OR " +
-           "(m.from = :user2 AND m.to = :user1) " +
-           "ORDER BY m.timestamp DESC")
-    List<ChatMessage> findChatHistory(
-        @Param("user1") String user1,
-        @Param("user2") String user2);
+    // 按主键顺序补建搜索索引
+    List<ChatMessage> findByIdGreaterThanOrderByIdAsc(Long id, Pageable pageable);
+
+    // 游标分页：先按 timestamp 做范围扫描，相同时间戳再按 message_id 区分
+    @Query("SELECT m FROM ChatMessage m WHERE m.conversationKey = :conversationKey AND " +
+           "m.timestamp <= :beforeTimestamp AND " +
+           "(m.timestamp < :beforeTimestamp OR m.messageId < :beforeMessageId) " +
+           "ORDER BY m.timestamp DESC, m.messageId DESC")
+    List<ChatMessage> findChatHistoryBefore(
+        @Param("conversationKey") String conversationKey,
+        @Param("beforeTimestamp") Long beforeTimestamp,
+        @Param("beforeMessageId") String beforeMessageId,
+        Pageable pageable);
+
+    @Query("SELECT m FROM ChatMessage m WHERE m.to = :to AND " +
+           "m.timestamp <= :beforeTimestamp AND " +
+           "(m.timestamp < :beforeTimestamp OR m.messageId < :beforeMessageId) " +
+           "ORDER BY m.timestamp DESC, m.messageId DESC")
+    List<ChatMessage> findByToBefore(
+        @Param("to") String to,
+        @Param("beforeTimestamp") Long beforeTimestamp,
+        @Param("beforeMessageId") String beforeMessageId,
+        Pageable pageable);
+
+    // 未读 = 排在接收者在该会话已读位置之后的消息，没有已读位置时整个会话都算未读
+    @Query("SELECT m FROM ChatMessage m LEFT JOIN ReadWatermark w " +
+           "ON w.username = m.to AND w.conversationKey = m.conversationKey " +
+           "WHERE m.to = :to AND " + AFTER_WATERMARK + " AND " +
+           "m.timestamp <= :beforeTimestamp AND " +
+           "(m.timestamp < :beforeTimestamp OR m.messageId < :beforeMessageId) " +
+           "ORDER BY m.timestamp DESC, m.messageId DESC")
+    List<ChatMessage> findUnreadBefore(
+        @Param("to") String to,
+        @Param("beforeTimestamp") Long beforeTimestamp,
+        @Param("beforeMessageId") String beforeMessageId,
+        Pageable pageable);
+
+    @Query("SELECT m.from, COUNT(m) FROM ChatMessage m LEFT JOIN ReadWatermark w " +
+           "ON w.username = m.to AND w.conversationKey = m.conversationKey " +
+           "WHERE m.to = :to AND " + AFTER_WATERMARK + " GROUP BY m.from")
+    List<Object[]> countUnreadBySender(@Param("to") String to);
+
+    // 用户参与的各单聊会话中最新的一条，最近的会话在前，用于重建会话列表缓存
+    @Query("SELECT m FROM ChatMessage m WHERE m.id IN (SELECT MAX(l.id) FROM ChatMessage l " +
+           "WHERE (l.from = :username OR l.to = :username) AND l.groupId IS NULL " +
+           "GROUP BY l.conversationKey) ORDER BY m.id DESC")
+    List<ChatMessage> findLatestPerConversation(@Param("username") String username, Pageable pageable);
+
+    // 只从更早的状态前进，乱序到达的旧状态不会覆盖新状态
+    @Modifying
+    @Query("UPDATE ChatMessage m SET m.status = :status WHERE m.messageId IN :messageIds AND " +
+           "(m.status IN :predecessors OR m.status IS NULL)")
+    int updateStatusByMessageIds(
+        @Param("status") ChatMessage.Status status,
+        @Param("predecessors") Collection<ChatMessage.Status> predecessors,
+        @Param("messageIds") Collection<String> messageIds);
+
+    @Query("SELECT m FROM ChatMessage m WHERE m.to = :to AND m.status = :status AND " +
+           "m.timestamp >= :afterTimestamp AND " +
+           "(m.timestamp > :afterTimestamp OR m.messageId > :afterMessageId) " +
+           "ORDER BY m.timestamp ASC, m.messageId ASC")
+    List<ChatMessage> findPendingAfter(
+        @Param("to") String to,
+        @Param("status") ChatMessage.Status status,
+        @Param("afterTimestamp") Long afterTimestamp,
+        @Param("afterMessageId") String afterMessageId,
+        Pageable pageable);
+
+    // 用户所在各群中 id 大于其 delivered_id 的消息，按 id 游标分页；自己发的不回放
+    @Query("SELECT m FROM ChatMessage m, GroupMember g WHERE g.username = :username AND " +
+           "m.groupId = g.groupId AND m.id > g.deliveredId AND m.id > :afterId AND m.from <> :username " +
+           "ORDER BY m.id ASC")
+    List<ChatMessage> findGroupBacklogAfter(
+        @Param("username") String username,
+        @Param("afterId") Long afterId,
+        Pageable pageable);
 
-    List<ChatMessage> findByToOrderByTimestampDesc(String to);
+    @Modifying
+    @Query("UPDATE ChatMessage m SET m.conversationKey = CASE WHEN m.from <= m.to " +
+           "THEN CONCAT(LENGTH(m.from), ':', m.from, ':', m.to) " +
+           "ELSE CONCAT(LENGTH(m.to), ':', m.to, ':', m.from) END " +
+           "WHERE m.conversationKey IS NULL AND m.from IS NOT NULL AND m.to IS NOT NULL")
+    int backfillConversationKeys();
 
-    List<ChatMessage> findByToAndStatusOrderByTimestampDesc(String to, ChatMessage.Status status);
+    @Query("SELECT m.to, COUNT(m) FROM ChatMessage m WHERE m.status = :status GROUP BY m.to")
+    List<Object[]> countByRecipientAndStatus(@Param("status") ChatMessage.Status status);
 } 
\ No newline at end of file
@@ -0,0 +1,25 @@
+package com.example.im.repository;
+
+import com.example.im.entity.GroupMember;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.List;
+
+@Repository
+public interface GroupMemberRepository extends JpaRepository<GroupMember, GroupMember.Key> {
+    // 启动时重建内存中的成员索引
+    @Query("SELECT g.groupId, g.username FROM GroupMember g")
+    List<Object[]> findAllMemberships();
+
+    // 一条语句推进该用户在所有群里的位置，不随群数量增加写入次数
+    @Modifying
+    @Transactional
+    @Query("UPDATE GroupMember g SET g.deliveredId = :deliveredId " +
+           "WHERE g.username = :username AND g.deliveredId < :deliveredId")
+    int advanceDelivered(@Param("username") String username, @Param("deliveredId") Long deliveredId);
+}
@@ -0,0 +1,17 @@
+package com.example.im.repository;
+
+import com.example.im.entity.ReadWatermark;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.util.Collection;
+import java.util.List;
+
+@Repository
+public interface ReadWatermarkRepository extends JpaRepository<ReadWatermark, ReadWatermark.Key> {
+    // 批量刷新前按用户一次取出已有位置，复合主键的 findAllById 会逐条查询
+    @Query("SELECT w FROM ReadWatermark w WHERE w.username IN :usernames")
+    List<ReadWatermark> findByUsernames(@Param("usernames") Collection<String> usernames);
+}
@@ -0,0 +1,391 @@
+package com.example.im.search;
+
+import com.example.im.entity.ChatMessage;
+import com.example.im.repository.ChatMessageRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.cjk.CJKAnalyzer;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.LongPoint;
+import org.apache.lucene.document.NumericDocValuesField;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.FieldDoc;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.SearcherManager;
+import org.apache.lucene.search.Sort;
+import org.apache.lucene.search.SortField;
+import org.apache.lucene.search.TermInSetQuery;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.TopFieldDocs;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.util.BytesRef;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 聊天消息的全文索引（Lucene，索引目录在本地磁盘）。
+ * 消息由异步写入队列落库后交给这里，索引线程批量写入，每隔 refresh 间隔对查询可见，
+ * 每隔 commit 间隔落盘并记下已索引的最大 id；重启后从数据库补齐该 id 之后的消息。
+ * 内容按 CJK 二元组切分，中文不依赖词典；只建索引不存原文，查询命中后按 id 回表。
+ */
+@Slf4j
+@Component
+public class MessageSearchIndex {
+    private static final String ID = "id";
+    private static final String UID = "uid";
+    private static final String CONVERSATION = "conversation";
+    private static final String FROM = "from";
+    private static final String TO = "to";
+    private static final String CONTENT = "content";
+    private static final String LAST_ID = "lastId";
+    private static final Sort NEWEST_FIRST = new Sort(new SortField(ID, SortField.Type.LONG, true));
+
+    @Autowired(required = false)
+    private ChatMessageRepository chatMessageRepository;
+
+    @Value("${im.search.enabled:true}")
+    private boolean enabled;
+
+    @Value("${im.search.dir:./search-index}")
+    private String indexDir;
+
+    @Value("${im.search.queue-capacity:100000}")
+    private int queueCapacity;
+
+    @Value("${im.search.batch-size:1000}")
+    private int batchSize;
+
+    @Value("${im.search.refresh-millis:1000}")
+    private long refreshMillis;
+
+    @Value("${im.search.commit-millis:10000}")
+    private long commitMillis;
+
+    @Value("${im.search.ram-buffer-mb:64}")
+    private double ramBufferMb;
+
+    private final AtomicLong indexedCount = new AtomicLong();
+    private final AtomicLong queryCount = new AtomicLong();
+    private final AtomicLong droppedCount = new AtomicLong();
+    // 队列满时丢弃的最小 id 减一，索引线程从这里回库补齐；Long.MAX_VALUE 表示没有缺口
+    private final AtomicLong gapFrom = new AtomicLong(Long.MAX_VALUE);
+
+    private Analyzer analyzer;
+    private IndexWriter writer;
+    private SearcherManager searcherManager;
+    private BlockingQueue<ChatMessage> queue;
+    private Thread indexer;
+    private volatile boolean running;
+    private volatile long lastId;
+
+    @PostConstruct
+    public void start() throws IOException {
+        if (!enabled) return;
+        analyzer = new CJKAnalyzer();
+        IndexWriterConfig config = new IndexWriterConfig(analyzer)
+                .setOpenMode(IndexWriterConfig.OpenMode.CREATE_OR_APPEND)
+                // 段内按 id 倒序存放，按新到旧取一页时每个段只需读到第一页为止
+                .setIndexSort(NEWEST_FIRST)
+                .setRAMBufferSizeMB(ramBufferMb);
+        writer = new IndexWriter(FSDirectory.open(Paths.get(indexDir)), config);
+        searcherManager = new SearcherManager(writer, null);
+        lastId = committedLastId();
+        queue = new LinkedBlockingQueue<>(queueCapacity);
+        running = true;
+    }
+
+    // 补齐索引要查数据库，等应用启动完成后再开始，避免与容器初始化争用仓库代理
+    @EventListener(ApplicationReadyEvent.class)
+    public void startIndexer() {
+        if (!running) return;
+        indexer = new Thread(this::runIndexer, "im-search-indexer");
+        indexer.setDaemon(true);
+        indexer.start();
+    }
+
+    @PreDestroy
+    public void stop() throws InterruptedException, IOException {
+        if (!enabled) return;
+        running = false;
+        if (indexer != null) {
+            indexer.join(TimeUnit.SECONDS.toMillis(10));
+        }
+        searcherManager.close();
+        writer.close();
+    }
+
+    /**
+     * 已落库的消息交给索引线程。由持久化线程调用，不能阻塞它：队列满时丢弃，
+     * 记下缺口，索引线程空下来后按 id 从数据库补齐。
+     */
+    public void enqueue(Collection<ChatMessage> messages) {
+        if (!running || messages.isEmpty()) return;
+        for (ChatMessage message : messages) {
+            if (!queue.offer(message) && message.getId() != null) {
+                droppedCount.incrementAndGet();
+                gapFrom.accumulateAndGet(message.getId() - 1, Math::min);
+            }
+        }
+    }
+
+    /**
+     * 按 id 从新到旧返回命中的消息 id。scope 为空时不限会话；beforeId 为上一页最后一条的 id。
+     */
+    public List<Long> search(String text, Scope scope, Long beforeId, int limit) throws IOException {
+        if (!enabled) return Collections.emptyList();
+        Query content = contentQuery(text);
+        if (content == null) return Collections.emptyList();
+
+        BooleanQuery.Builder query = new BooleanQuery.Builder().add(content, BooleanClause.Occur.MUST);
+        if (scope != null) {
+            query.add(scope.toQuery(), BooleanClause.Occur.FILTER);
+        }
+        if (beforeId != null) {
+            query.add(LongPoint.newRangeQuery(ID, Long.MIN_VALUE, beforeId - 1), BooleanClause.Occur.FILTER);
+        }
+
+        queryCount.incrementAndGet();
+        IndexSearcher searcher = searcherManager.acquire();
+        try {
+            TopFieldDocs top = searcher.search(query.build(), limit, NEWEST_FIRST);
+            List<Long> ids = new ArrayList<>(top.scoreDocs.length);
+            for (ScoreDoc hit : top.scoreDocs) {
+                ids.add((Long) ((FieldDoc) hit).fields[0]);
+            }
+            return ids;
+        } finally {
+            searcherManager.release(searcher);
+        }
+    }
+
+    // 立即刷新并落盘，压测和关闭前使用
+    public void commit() throws IOException {
+        if (!enabled) return;
+        // 有未补齐的缺口时只记到缺口之前，重启后从那里补
+        long committed = Math.min(lastId, gapFrom.get());
+        writer.setLiveCommitData(Map.of(LAST_ID, Long.toString(committed)).entrySet());
+        writer.commit();
+        searcherManager.maybeRefreshBlocking();
+    }
+
+    // 直接写入一批消息，不经过队列，供重建和压测使用
+    public void index(Collection<ChatMessage> messages) throws IOException {
+        for (ChatMessage message : messages) {
+            if (message.getId() == null || message.getContent() == null) continue;
+            writer.updateDocument(new Term(UID, Long.toString(message.getId())), document(message));
+            if (message.getId() > lastId) {
+                lastId = message.getId();
+            }
+        }
+        indexedCount.addAndGet(messages.size());
+    }
+
+    public int getQueueSize() {
+        return queue != null ? queue.size() : 0;
+    }
+
+    public long getIndexedCount() {
+        return indexedCount.get();
+    }
+
+    public long getQueryCount() {
+        return queryCount.get();
+    }
+
+    public long getDroppedCount() {
+        return droppedCount.get();
+    }
+
+    public long getDocCount() {
+        return writer != null ? writer.getDocStats().numDocs : 0;
+    }
+
+    private void runIndexer() {
+        catchUp(lastId);
+        List<ChatMessage> batch = new ArrayList<>(batchSize);
+        long nextRefresh = System.currentTimeMillis() + refreshMillis;
+        long nextCommit = System.currentTimeMillis() + commitMillis;
+        long committedId = lastId;
+        while (running || !queue.isEmpty()) {
+            try {
+                ChatMessage first = queue.poll(refreshMillis, TimeUnit.MILLISECONDS);
+                if (first != null) {
+                    batch.add(first);
+                    queue.drainTo(batch, batchSize - 1);
+                    index(batch);
+                    batch.clear();
+                }
+                // 积压消化得差不多了再回库补缺口，不在过载时加重数据库负担
+                if (gapFrom.get() != Long.MAX_VALUE && queue.size() < batchSize) {
+                    // 补齐期间又有丢弃时保留缺口，下一轮再补一次，重复写入按 uid 覆盖
+                    long drops = droppedCount.get();
+                    long from = gapFrom.get();
+                    if (catchUp(from) && droppedCount.get() == drops) {
+                        gapFrom.compareAndSet(from, Long.MAX_VALUE);
+                    }
+                }
+                long now = System.currentTimeMillis();
+                if (now >= nextRefresh) {
+                    searcherManager.maybeRefresh();
+                    nextRefresh = now + refreshMillis;
+                }
+                if (now >= nextCommit) {
+                    if (lastId != committedId) {
+                        commit();
+                        committedId = lastId;
+                    }
+                    nextCommit = now + commitMillis;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Exception e) {
+                log.error("Error indexing {} messages", batch.size(), e);
+                batch.clear();
+            }
+        }
+        try {
+            commit();
+        } catch (Exception e) {
+            log.error("Error committing search index", e);
+        }
+    }
+
+    // 从数据库补齐 id 大于 from 的消息：启动时是上次落盘之后的，运行中是队列满时丢弃的。没有补完时返回 false
+    private boolean catchUp(long from) {
+        if (chatMessageRepository == null) return true;
+        int total = 0;
+        boolean complete = false;
+        try {
+            while (running) {
+                List<ChatMessage> page = chatMessageRepository.findByIdGreaterThanOrderByIdAsc(
+                        from, PageRequest.of(0, batchSize));
+                if (page.isEmpty()) {
+                    complete = true;
+                    break;
+                }
+                index(page);
+                total += page.size();
+                from = page.get(page.size() - 1).getId();
+            }
+            if (total > 0) {
+                commit();
+                log.info("Indexed {} messages missing from the search index", total);
+            }
+            return complete;
+        } catch (Exception e) {
+            log.error("Error catching up search index from id {}", from, e);
+            return false;
+        }
+    }
+
+    private long committedLastId() {
+        for (Map.Entry<String, String> entry : writer.getLiveCommitData()) {
+            if (LAST_ID.equals(entry.getKey())) {
+                return Long.parseLong(entry.getValue());
+            }
+        }
+        return 0L;
+    }
+
+    private static Document document(ChatMessage message) {
+        Document document = new Document();
+        document.add(new StringField(UID, Long.toString(message.getId()), Field.Store.NO));
+        document.add(new LongPoint(ID, message.getId()));
+        document.add(new NumericDocValuesField(ID, message.getId()));
+        if (message.getConversationKey() != null) {
+            document.add(new StringField(CONVERSATION, message.getConversationKey(), Field.Store.NO));
+        }
+        if (message.getFrom() != null) {
+            document.add(new StringField(FROM, message.getFrom(), Field.Store.NO));
+        }
+        if (message.getTo() != null) {
+            document.add(new StringField(TO, message.getTo(), Field.Store.NO));
+        }
+        document.add(new TextField(CONTENT, message.getContent(), Field.Store.NO));
+        return document;
+    }
+
+    // 查询串按同一分析器切分，所有词项都要命中
+    private Query contentQuery(String text) throws IOException {
+        BooleanQuery.Builder query = new BooleanQuery.Builder();
+        int terms = 0;
+        try (TokenStream tokens = analyzer.tokenStream(CONTENT, text)) {
+            CharTermAttribute term = tokens.addAttribute(CharTermAttribute.class);
+            tokens.reset();
+            while (tokens.incrementToken() && terms < IndexSearcher.getMaxClauseCount() - 3) {
+                query.add(new TermQuery(new Term(CONTENT, term.toString())), BooleanClause.Occur.MUST);
+                terms++;
+            }
+            tokens.end();
+        }
+        return terms > 0 ? query.build() : null;
+    }
+
+    /**
+     * 查询范围：指定会话，或某个用户收发的单聊加上所在群。
+     */
+    public static final class Scope {
+        private final String conversationKey;
+        private final String username;
+        private final Collection<String> groupKeys;
+
+        private Scope(String conversationKey, String username, Collection<String> groupKeys) {
+            this.conversationKey = conversationKey;
+            this.username = username;
+            this.groupKeys = groupKeys;
+        }
+
+        public static Scope conversation(String conversationKey) {
+            return new Scope(conversationKey, null, null);
+        }
+
+        public static Scope user(String username, Collection<String> groupKeys) {
+            return new Scope(null, username, groupKeys);
+        }
+
+        private Query toQuery() {
+            if (conversationKey != null) {
+                return new TermQuery(new Term(CONVERSATION, conversationKey));
+            }
+            BooleanQuery.Builder query = new BooleanQuery.Builder()
+                    .add(new TermQuery(new Term(FROM, username)), BooleanClause.Occur.SHOULD)
+                    .add(new TermQuery(new Term(TO, username)), BooleanClause.Occur.SHOULD);
+            if (!groupKeys.isEmpty()) {
+                List<BytesRef> keys = new ArrayList<>(groupKeys.size());
+                groupKeys.forEach(key -> keys.add(new BytesRef(key)));
+                query.add(new TermInSetQuery(CONVERSATION, keys), BooleanClause.Occur.SHOULD);
+            }
+            return query.setMinimumNumberShouldMatch(1).build();
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package com.example.im.search;
+
+import com.example.im.entity.ChatGroup;
+import com.example.im.entity.ChatMessage;
+import com.example.im.group.GroupService;
+import com.example.im.repository.ChatMessageRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 消息搜索：只在用户自己能看到的会话里查，索引返回 id 后回表取消息。
+ */
+@Slf4j
+@Service
+public class MessageSearchService {
+    private static final int DEFAULT_PAGE_SIZE = 20;
+    private static final int MAX_PAGE_SIZE = 100;
+
+    @Autowired
+    private MessageSearchIndex searchIndex;
+
+    @Autowired
+    private GroupService groupService;
+
+    @Autowired(required = false)
+    private ChatMessageRepository chatMessageRepository;
+
+    /**
+     * peer 或 groupId 给定时只查该会话，否则查该用户的全部单聊和所在的群。
+     */
+    public List<ChatMessage> search(String username, String text, String peer, Long groupId,
+                                    int limit, Long beforeId) {
+        if (chatMessageRepository == null || text == null || text.isBlank()) {
+            return Collections.emptyList();
+        }
+        MessageSearchIndex.Scope scope;
+        if (groupId != null) {
+            if (!groupService.isMember(groupId, username)) {
+                return Collections.emptyList();
+            }
+            scope = MessageSearchIndex.Scope.conversation(ChatMessage.groupConversationKey(groupId));
+        } else if (peer != null) {
+            scope = MessageSearchIndex.Scope.conversation(ChatMessage.conversationKey(username, peer));
+        } else {
+            List<String> groupKeys = new ArrayList<>();
+            for (ChatGroup group : groupService.getGroups(username)) {
+                groupKeys.add(ChatMessage.groupConversationKey(group.getId()));
+            }
+            scope = MessageSearchIndex.Scope.user(username, groupKeys);
+        }
+
+        try {
+            int size = limit > 0 ? Math.min(limit, MAX_PAGE_SIZE) : DEFAULT_PAGE_SIZE;
+            List<Long> ids = searchIndex.search(text, scope, beforeId, size);
+            if (ids.isEmpty()) {
+                return Collections.emptyList();
+            }
+            // 按索引给出的顺序（新到旧）返回
+            Map<Long, ChatMessage> byId = new HashMap<>();
+            for (ChatMessage message : chatMessageRepository.findAllById(ids)) {
+                byId.put(message.getId(), message);
+            }
+            List<ChatMessage> messages = new ArrayList<>(ids.size());
+            for (Long id : ids) {
+                ChatMessage message = byId.get(id);
+                if (message != null) {
+                    messages.add(message);
+                }
+            }
+            return messages;
+        } catch (Exception e) {
+            log.error("Error searching messages of {}", username, e);
+            return Collections.emptyList();
+        }
+    }
+}
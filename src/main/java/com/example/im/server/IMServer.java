@@ -1,6 +1,7 @@
 package com.example.im.server;
 
 import io.netty.bootstrap.ServerBootstrap;
+import io.netty.channel.Channel;
 import io.netty.channel.ChannelFuture;
 import io.netty.channel.ChannelInitializer;
 import io.netty.channel.ChannelOption;
@@ -8,14 +9,40 @@ import io.netty.channel.EventLoopGroup;
 import io.netty.channel.nio.NioEventLoopGroup;
 import io.netty.channel.socket.SocketChannel;
 import io.netty.channel.socket.nio.NioServerSocketChannel;
-import io.netty.handler.codec.string.StringDecoder;
-import io.netty.handler.codec.string.StringEncoder;
+import com.example.im.channel.HeartbeatHandler;
+import com.example.im.protocol.codec.CodecType;
+import com.example.im.protocol.codec.ContentCompressor;
+import com.example.im.protocol.codec.MessageCodecs;
 
 public class IMServer {
     private int port;
+    private final CodecType codec;
+    private final long heartbeatIntervalMillis;
+    private final long heartbeatTimeoutMillis;
+    private final ContentCompressor compressor;
+    private volatile Channel serverChannel;
 
     public IMServer(int port) {
+        this(port, CodecType.BINARY);
+    }
+
+    public IMServer(int port, CodecType codec) {
+        this(port, codec, HeartbeatHandler.DEFAULT_INTERVAL_MILLIS, HeartbeatHandler.DEFAULT_TIMEOUT_MILLIS);
+    }
+
+    // 心跳参数需与客户端一致
+    public IMServer(int port, CodecType codec, long heartbeatIntervalMillis, long heartbeatTimeoutMillis) {
+        this(port, codec, heartbeatIntervalMillis, heartbeatTimeoutMillis, null);
+    }
+
+    // compressor 不为空时与同样配置了压缩的客户端之间压缩较长的 content
+    public IMServer(int port, CodecType codec, long heartbeatIntervalMillis, long heartbeatTimeoutMillis,
+                    ContentCompressor compressor) {
         this.port = port;
+        this.codec = codec;
+        this.heartbeatIntervalMillis = heartbeatIntervalMillis;
+        this.heartbeatTimeoutMillis = heartbeatTimeoutMillis;
+        this.compressor = compressor;
     }
 
     public void start() throws Exception {
@@ -29,17 +56,16 @@ public class IMServer {
                     .childHandler(new ChannelInitializer<SocketChannel>() {
                         @Override
                         protected void initChannel(SocketChannel ch) throws Exception {
-                            ch.pipeline().addLast(
-                                    new StringDecoder(),
-                                    new StringEncoder(),
-                                    new IMServerHandler()
-                            );
+                            MessageCodecs.addTo(ch.pipeline(), codec, compressor);
+                            HeartbeatHandler.addTo(ch.pipeline(), heartbeatIntervalMillis, heartbeatTimeoutMillis);
+                            ch.pipeline().addLast(new IMServerHandler());
                         }
                     })
                     .option(ChannelOption.SO_BACKLOG, 128)
                     .childOption(ChannelOption.SO_KEEPALIVE, true);
 
             ChannelFuture f = b.bind(port).sync();
+            serverChannel = f.channel();
             System.out.println("IM Server started on port " + port);
             f.channel().closeFuture().sync();
         } finally {
@@ -48,6 +74,14 @@ public class IMServer {
         }
     }
 
+    // 关闭监听端口，start() 随之返回并释放线程组
+    public void stop() {
+        Channel channel = serverChannel;
+        if (channel != null) {
+            channel.close();
+        }
+    }
+
     public static void main(String[] args) throws Exception {
         int port = 8080;
         new IMServer(port).start();
@@ -1,28 +1,54 @@
 package com.example.im.server;
 
-import com.google.gson.Gson;
+import com.example.im.admission.TokenBucket;
 import com.example.im.protocol.Message;
 import io.netty.channel.Channel;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.util.AttributeKey;
 
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class IMServerHandler extends SimpleChannelInboundHandler<Message> {
+    public static final double DEFAULT_USER_RATE = 20;
+    public static final int DEFAULT_USER_BURST = 40;
 
-public class IMServerHandler extends SimpleChannelInboundHandler<String> {
     private static final Map<String, Channel> channelMap = new ConcurrentHashMap<>();
-    private static final Gson gson = new Gson();
+    // 每个用户一个令牌桶，同一用户的多个连接共用
+    private static final Map<String, TokenBucket> buckets = new ConcurrentHashMap<>();
+    private static final AtomicLong rejectedCount = new AtomicLong();
+    private static final AttributeKey<String> USERNAME = AttributeKey.valueOf("im.username");
+    private static final AttributeKey<TokenBucket> BUCKET = AttributeKey.valueOf("im.rate-limit");
+
+    private final double userRate;
+    private final int userBurst;
+
+    public IMServerHandler() {
+        this(DEFAULT_USER_RATE, DEFAULT_USER_BURST);
+    }
+
+    public IMServerHandler(double userRate, int userBurst) {
+        this.userRate = userRate;
+        this.userBurst = userBurst;
+    }
+
+    public static long getRejectedCount() {
+        return rejectedCount.get();
+    }
 
     @Override
-    protected void channelRead0(ChannelHandlerContext ctx, String msg) throws Exception {
-        Message message = gson.fromJson(msg, Message.class);
-        
+    protected void channelRead0(ChannelHandlerContext ctx, Message message) throws Exception {
         switch (message.getType()) {
             case LOGIN:
                 handleLogin(ctx, message);
                 break;
             case CHAT:
-                handleChat(message);
+                if (admit(ctx, message)) {
+                    handleChat(message);
+                }
                 break;
             case LOGOUT:
                 handleLogout(message);
@@ -31,14 +57,39 @@ public class IMServerHandler extends SimpleChannelInboundHandler<String> {
     }
 
     private void handleLogin(ChannelHandlerContext ctx, Message message) {
+        ctx.channel().attr(USERNAME).set(message.getFrom());
         channelMap.put(message.getFrom(), ctx.channel());
+        ctx.channel().attr(BUCKET).set(buckets.computeIfAbsent(message.getFrom(),
+                username -> new TokenBucket(userRate, userBurst)));
         System.out.println("User logged in: " + message.getFrom());
     }
 
+    // 超过速率时回一个 THROTTLE 帧，客户端等 retryAfterMillis 后再发
+    private boolean admit(ChannelHandlerContext ctx, Message message) {
+        TokenBucket bucket = ctx.channel().attr(BUCKET).get();
+        if (bucket == null) {
+            return true;
+        }
+        long waitNanos = bucket.tryAcquire(System.nanoTime());
+        if (waitNanos == 0) {
+            return true;
+        }
+        rejectedCount.incrementAndGet();
+        Message throttle = new Message();
+        throttle.setType(Message.Type.THROTTLE);
+        throttle.setAckMessageId(message.getMessageId());
+        throttle.setStatus(Message.Status.FAILED);
+        throttle.setContent("RATE_LIMITED");
+        throttle.setRetryAfterMillis(TimeUnit.NANOSECONDS.toMillis(waitNanos) + 1);
+        throttle.setTimestamp(System.currentTimeMillis());
+        ctx.writeAndFlush(throttle);
+        return false;
+    }
+
     private void handleChat(Message message) {
         Channel targetChannel = channelMap.get(message.getTo());
         if (targetChannel != null && targetChannel.isActive()) {
-            targetChannel.writeAndFlush(gson.toJson(message));
+            targetChannel.writeAndFlush(message);
         }
     }
 
@@ -47,6 +98,29 @@ public class IMServerHandler extends SimpleChannelInboundHandler<String> {
         System.out.println("User logged out: " + message.getFrom());
     }
 
+    // 连接断开（包括心跳超时被关闭）时清理，避免没有 LOGOUT 的连接一直留在 channelMap 里
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        String username = ctx.channel().attr(USERNAME).get();
+        if (username != null) {
+            channelMap.remove(username, ctx.channel());
+            TokenBucket bucket = ctx.channel().attr(BUCKET).get();
+            if (bucket != null) {
+                scheduleEviction(ctx, username, bucket);
+            }
+        }
+        super.channelInactive(ctx);
+    }
+
+    // 桶攒满之后再删，断线重连不能重置限流；到时用户又在线或桶没满时保留，由之后的断开重新安排
+    private static void scheduleEviction(ChannelHandlerContext ctx, String username, TokenBucket bucket) {
+        ctx.executor().schedule(() -> {
+            if (!channelMap.containsKey(username) && bucket.isFull(System.nanoTime())) {
+                buckets.remove(username, bucket);
+            }
+        }, bucket.getRefillNanos(), TimeUnit.NANOSECONDS);
+    }
+
     @Override
     public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
         cause.printStackTrace();
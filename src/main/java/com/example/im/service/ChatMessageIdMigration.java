@@ -0,0 +1,87 @@
+package com.example.im.service;
+
+import com.example.im.message.MessageIdGenerator;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 旧版本的 chat_messages 主键是 UUID 字符串，启动时就地换成按 created_at 顺序分配的 Snowflake id。
+ * 在容器开始接受连接之前完成，新库和已迁移的库直接跳过。
+ */
+@Slf4j
+@Component
+public class ChatMessageIdMigration {
+    private static final String TABLE = "chat_messages";
+    private static final String TEMP_COLUMN = "snowflake_id";
+    private static final int BATCH_SIZE = 1000;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private MessageIdGenerator idGenerator;
+
+    @PostConstruct
+    public void migrate() {
+        String idType = columnType("id");
+        if (idType == null || !idType.contains("CHAR")) {
+            return;
+        }
+
+        long start = System.currentTimeMillis();
+        jdbcTemplate.execute("ALTER TABLE \"" + TABLE + "\" ADD COLUMN IF NOT EXISTS \"" + TEMP_COLUMN + "\" BIGINT");
+
+        // 用服务端写入时间而不是客户端时间戳，保证旧 id 都小于本节点之后生成的 id
+        List<Object[]> updates = new ArrayList<>(BATCH_SIZE);
+        long[] last = {Long.MIN_VALUE, 0};
+        int[] migrated = {0};
+        jdbcTemplate.query("SELECT \"id\", \"created_at\" FROM \"" + TABLE + "\" ORDER BY \"created_at\", \"id\"", rs -> {
+            Timestamp createdAt = rs.getTimestamp(2);
+            long millis = createdAt != null ? createdAt.getTime() : 0L;
+            if (millis <= last[0]) {
+                millis = last[0];
+                if (++last[1] > (1 << MessageIdGenerator.SEQUENCE_BITS) - 1) {
+                    millis++;
+                    last[1] = 0;
+                }
+            } else {
+                last[1] = 0;
+            }
+            last[0] = millis;
+            updates.add(new Object[]{idGenerator.idAt(millis, (int) last[1]), rs.getString(1)});
+            if (updates.size() >= BATCH_SIZE) {
+                migrated[0] += flush(updates);
+            }
+        });
+        migrated[0] += flush(updates);
+
+        jdbcTemplate.execute("ALTER TABLE \"" + TABLE + "\" DROP PRIMARY KEY");
+        jdbcTemplate.execute("ALTER TABLE \"" + TABLE + "\" DROP COLUMN \"id\"");
+        jdbcTemplate.execute("ALTER TABLE \"" + TABLE + "\" ALTER COLUMN \"" + TEMP_COLUMN + "\" RENAME TO \"id\"");
+        jdbcTemplate.execute("ALTER TABLE \"" + TABLE + "\" ALTER COLUMN \"id\" SET NOT NULL");
+        jdbcTemplate.execute("ALTER TABLE \"" + TABLE + "\" ADD PRIMARY KEY (\"id\")");
+        log.info("Migrated {} chat messages to numeric ids in {} ms", migrated[0], System.currentTimeMillis() - start);
+    }
+
+    private int flush(List<Object[]> updates) {
+        if (updates.isEmpty()) return 0;
+        jdbcTemplate.batchUpdate("UPDATE \"" + TABLE + "\" SET \"" + TEMP_COLUMN + "\" = ? WHERE \"id\" = ?", updates);
+        int count = updates.size();
+        updates.clear();
+        return count;
+    }
+
+    private String columnType(String column) {
+        List<String> types = jdbcTemplate.queryForList(
+                "SELECT TYPE_NAME FROM INFORMATION_SCHEMA.COLUMNS WHERE TABLE_NAME = ? AND COLUMN_NAME = ?",
+                String.class, TABLE, column);
+        return types.isEmpty() ? null : types.get(0);
+    }
+}
@@ -1,26 +1,50 @@
 package com.example.im.service;
 
 import com.example.im.entity.ChatMessage;
+import com.example.im.message.MessageIdGenerator;
 import com.example.im.repository.ChatMessageRepository;
+import com.example.im.summary.ConversationSummary;
+import com.example.im.summary.ConversationSummaryCache;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 
 @Slf4j
 @Service
 public class ChatMessageService {
+    private static final int DEFAULT_PAGE_SIZE = 50;
+    private static final int MAX_PAGE_SIZE = 200;
+
     @Autowired(required = false)
     private ChatMessageRepository chatMessageRepository;
 
+    @Autowired
+    private ChatMessageWriteBehind writeBehind;
+
+    @Autowired
+    private MessageIdGenerator idGenerator;
+
+    @Autowired
+    private ReadWatermarkService readWatermarkService;
+
+    @Autowired
+    private ConversationSummaryCache summaryCache;
+
     @Transactional
     public ChatMessage saveMessage(ChatMessage message) {
         if (chatMessageRepository != null) {
             try {
+                assignId(message);
                 return chatMessageRepository.save(message);
             } catch (Exception e) {
                 log.error("Error saving message", e);
@@ -34,22 +58,45 @@ public class ChatMessageService {
         if (chatMessageRepository != null) {
             try {
                 Optional<ChatMessage> messageOpt = chatMessageRepository.findByMessageId(messageId);
-                messageOpt.ifPresent(message -> {
-                    message.setStatus(status);
-                    chatMessageRepository.save(message);
-                });
+                messageOpt.filter(message -> message.getStatus() == null || message.getStatus().canAdvanceTo(status))
+                        .ifPresent(message -> {
+                            message.setStatus(status);
+                            chatMessageRepository.save(message);
+                        });
             } catch (Exception e) {
                 log.error("Error updating message status", e);
             }
         }
     }
 
-    public List<ChatMessage> getChatHistory(String user1, String user2, int limit) {
+    // 异步写入，队列已满时返回 false，调用方不会阻塞在数据库上
+    public boolean saveMessageAsync(ChatMessage message) {
+        assignId(message);
+        if (!writeBehind.enqueueInsert(message)) {
+            return false;
+        }
+        summaryCache.onMessage(message);
+        return true;
+    }
+
+    private void assignId(ChatMessage message) {
+        if (message.getId() == null) {
+            message.setId(idGenerator.nextId());
+        }
+    }
+
+    public boolean updateMessageStatusAsync(String messageId, ChatMessage.Status status) {
+        return writeBehind.enqueueStatusUpdate(messageId, status);
+    }
+
+    public List<ChatMessage> getChatHistory(String user1, String user2, int limit,
+                                            Long beforeTimestamp, String beforeMessageId) {
         if (chatMessageRepository != null) {
             try {
-                List<ChatMessage> messages = chatMessageRepository.findChatHistory(user1, user2);
-                return limit > 0 && messages.size() > limit ? 
-                    messages.subList(0, limit) : messages;
+                return chatMessageRepository.findChatHistoryBefore(
+                    ChatMessage.conversationKey(user1, user2),
+                    cursorTimestamp(beforeTimestamp), cursorMessageId(beforeTimestamp, beforeMessageId),
+                    page(limit));
             } catch (Exception e) {
                 log.error("Error getting chat history", e);
             }
@@ -57,10 +104,29 @@ public class ChatMessageService {
         return Collections.emptyList();
     }
 
-    public List<ChatMessage> getUserMessages(String username) {
+    public List<ChatMessage> getGroupHistory(long groupId, int limit,
+                                             Long beforeTimestamp, String beforeMessageId) {
         if (chatMessageRepository != null) {
             try {
-                return chatMessageRepository.findByToOrderByTimestampDesc(username);
+                return chatMessageRepository.findChatHistoryBefore(
+                    ChatMessage.groupConversationKey(groupId),
+                    cursorTimestamp(beforeTimestamp), cursorMessageId(beforeTimestamp, beforeMessageId),
+                    page(limit));
+            } catch (Exception e) {
+                log.error("Error getting group history", e);
+            }
+        }
+        return Collections.emptyList();
+    }
+
+    public List<ChatMessage> getUserMessages(String username, int limit,
+                                             Long beforeTimestamp, String beforeMessageId) {
+        if (chatMessageRepository != null) {
+            try {
+                return chatMessageRepository.findByToBefore(
+                    username,
+                    cursorTimestamp(beforeTimestamp), cursorMessageId(beforeTimestamp, beforeMessageId),
+                    page(limit));
             } catch (Exception e) {
                 log.error("Error getting user messages", e);
             }
@@ -68,15 +134,58 @@ public class ChatMessageService {
         return Collections.emptyList();
     }
 
-    public List<ChatMessage> getUnreadMessages(String username) {
+    public List<ChatMessage> getUnreadMessages(String username, int limit,
+                                               Long beforeTimestamp, String beforeMessageId) {
         if (chatMessageRepository != null) {
             try {
-                return chatMessageRepository.findByToAndStatusOrderByTimestampDesc(
-                    username, ChatMessage.Status.SENT);
+                readWatermarkService.flush();
+                return chatMessageRepository.findUnreadBefore(
+                    username,
+                    cursorTimestamp(beforeTimestamp), cursorMessageId(beforeTimestamp, beforeMessageId),
+                    page(limit));
             } catch (Exception e) {
                 log.error("Error getting unread messages", e);
             }
         }
         return Collections.emptyList();
     }
-} 
\ No newline at end of file
+
+    // 按发送者统计的未读数与会话列表都从缓存读取，未命中时才查库
+    public Map<String, Long> getUnreadCounts(String username) {
+        return summaryCache.getUnreadCounts(username);
+    }
+
+    public List<ConversationSummary> getConversations(String username, int limit) {
+        return summaryCache.getConversations(username, Math.min(limit, MAX_PAGE_SIZE));
+    }
+
+    // 为旧数据补齐 conversation_key，新消息在 @PrePersist 中生成
+    @Transactional
+    @EventListener(ApplicationReadyEvent.class)
+    public void backfillConversationKeys() {
+        if (chatMessageRepository != null) {
+            try {
+                int updated = chatMessageRepository.backfillConversationKeys();
+                if (updated > 0) {
+                    log.info("Backfilled conversation key for {} messages", updated);
+                }
+            } catch (Exception e) {
+                log.error("Error backfilling conversation keys", e);
+            }
+        }
+    }
+
+    private static Pageable page(int limit) {
+        int size = limit > 0 ? Math.min(limit, MAX_PAGE_SIZE) : DEFAULT_PAGE_SIZE;
+        return PageRequest.of(0, size);
+    }
+
+    private static Long cursorTimestamp(Long beforeTimestamp) {
+        return beforeTimestamp != null ? beforeTimestamp : Long.MAX_VALUE;
+    }
+
+    // 只给了时间戳时返回严格早于该时间戳的消息
+    private static String cursorMessageId(Long beforeTimestamp, String beforeMessageId) {
+        return beforeTimestamp != null && beforeMessageId != null ? beforeMessageId : "";
+    }
+}
\ No newline at end of file
@@ -0,0 +1,257 @@
+package com.example.im.service;
+
+import com.example.im.entity.ChatMessage;
+import com.example.im.repository.ChatMessageRepository;
+import com.example.im.search.MessageSearchIndex;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 聊天消息的异步写入队列：消息和状态变更先进入有界队列，
+ * 由后台线程按数量或时间触发，以 JDBC 批量方式写入数据库。
+ */
+@Slf4j
+@Component
+public class ChatMessageWriteBehind {
+    private static final int MAX_IN_CLAUSE = 1000;
+
+    @Autowired(required = false)
+    private ChatMessageRepository chatMessageRepository;
+
+    @Autowired(required = false)
+    private PlatformTransactionManager transactionManager;
+
+    @Autowired
+    private MessageSearchIndex searchIndex;
+
+    @Value("${im.persist.queue-capacity:10000}")
+    private int queueCapacity;
+
+    @Value("${im.persist.batch-size:500}")
+    private int batchSize;
+
+    @Value("${im.persist.flush-interval-millis:50}")
+    private long flushIntervalMillis;
+
+    @Value("${im.persist.offer-timeout-millis:0}")
+    private long offerTimeoutMillis;
+
+    @Value("${im.persist.shutdown-timeout-millis:10000}")
+    private long shutdownTimeoutMillis;
+
+    private final AtomicLong rejectedCount = new AtomicLong();
+    private final AtomicLong enqueuedCount = new AtomicLong();
+    private final AtomicLong flushedCount = new AtomicLong();
+
+    private BlockingQueue<PersistOp> queue;
+    private TransactionTemplate transactionTemplate;
+    private Thread flusher;
+    private volatile boolean running;
+
+    @PostConstruct
+    public void start() {
+        queue = new ArrayBlockingQueue<>(queueCapacity);
+        if (transactionManager != null) {
+            transactionTemplate = new TransactionTemplate(transactionManager);
+        }
+        running = true;
+        flusher = new Thread(this::runFlusher, "im-persist-flusher");
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        // 停止接收新任务，刷新线程会在退出前排空队列。
+        // 不中断刷新线程，H2 在 IO 过程中被中断会关闭数据库文件
+        running = false;
+        flusher.join(shutdownTimeoutMillis);
+        if (flusher.isAlive()) {
+            log.warn("Persist flusher did not finish draining, {} operations left", queue.size());
+        }
+    }
+
+    public boolean enqueueInsert(ChatMessage message) {
+        return offer(new PersistOp(message, message.getMessageId(), null));
+    }
+
+    public boolean enqueueStatusUpdate(String messageId, ChatMessage.Status status) {
+        return offer(new PersistOp(null, messageId, status));
+    }
+
+    public int getQueueSize() {
+        return queue.size();
+    }
+
+    public long getRejectedCount() {
+        return rejectedCount.get();
+    }
+
+    public long getFlushedCount() {
+        return flushedCount.get();
+    }
+
+    // 等待调用前已入队的操作全部落库，超时返回 false
+    public boolean awaitFlush(long timeoutMillis) throws InterruptedException {
+        long target = enqueuedCount.get();
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        while (flushedCount.get() < target) {
+            if (System.currentTimeMillis() >= deadline) {
+                return false;
+            }
+            Thread.sleep(Math.min(flushIntervalMillis, 10));
+        }
+        return true;
+    }
+
+    private boolean offer(PersistOp op) {
+        if (!running || chatMessageRepository == null) {
+            return false;
+        }
+        try {
+            if (queue.offer(op, offerTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                enqueuedCount.incrementAndGet();
+                return true;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        rejectedCount.incrementAndGet();
+        return false;
+    }
+
+    private void runFlusher() {
+        List<PersistOp> batch = new ArrayList<>(batchSize);
+        while (running) {
+            try {
+                PersistOp first = queue.poll(flushIntervalMillis, TimeUnit.MILLISECONDS);
+                if (first == null) continue;
+                batch.add(first);
+
+                // 凑满一批或等到时间窗口结束
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(flushIntervalMillis);
+                while (batch.size() < batchSize) {
+                    queue.drainTo(batch, batchSize - batch.size());
+                    long remaining = deadline - System.nanoTime();
+                    if (batch.size() >= batchSize || remaining <= 0) break;
+                    PersistOp next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+                    if (next == null) break;
+                    batch.add(next);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                running = false;
+            }
+            flush(batch);
+        }
+
+        // 关闭时排空队列
+        while (!queue.isEmpty()) {
+            queue.drainTo(batch, batchSize);
+            flush(batch);
+        }
+    }
+
+    private void flush(List<PersistOp> batch) {
+        if (batch.isEmpty()) return;
+
+        // 同一条消息的插入和状态变更合并（取更靠后的状态）：状态直接写入待插入实体，其余按状态分组
+        List<ChatMessage> inserts = new ArrayList<>();
+        Map<String, ChatMessage> insertsById = new HashMap<>();
+        Map<String, ChatMessage.Status> statusUpdates = new LinkedHashMap<>();
+        for (PersistOp op : batch) {
+            if (op.message != null) {
+                inserts.add(op.message);
+                if (op.messageId != null) {
+                    insertsById.put(op.messageId, op.message);
+                }
+            } else {
+                ChatMessage pending = insertsById.get(op.messageId);
+                if (pending != null) {
+                    pending.setStatus(ChatMessage.Status.later(pending.getStatus(), op.status));
+                } else {
+                    statusUpdates.merge(op.messageId, op.status, ChatMessage.Status::later);
+                }
+            }
+        }
+        Map<ChatMessage.Status, List<String>> idsByStatus = new EnumMap<>(ChatMessage.Status.class);
+        statusUpdates.forEach((messageId, status) ->
+                idsByStatus.computeIfAbsent(status, s -> new ArrayList<>()).add(messageId));
+
+        try {
+            transactionTemplate.executeWithoutResult(tx -> {
+                chatMessageRepository.saveAll(inserts);
+                applyStatusUpdates(idsByStatus);
+            });
+            // 提交后才交给搜索索引，回滚的消息不会被搜到
+            searchIndex.enqueue(inserts);
+        } catch (Exception e) {
+            // 批量失败（例如客户端重发导致 message_id 冲突）时逐条写入，隔离坏数据
+            log.warn("Batch flush of {} operations failed, retrying individually", batch.size(), e);
+            flushIndividually(inserts, idsByStatus);
+        }
+        flushedCount.addAndGet(batch.size());
+        batch.clear();
+    }
+
+    private void flushIndividually(List<ChatMessage> inserts,
+                                   Map<ChatMessage.Status, List<String>> idsByStatus) {
+        List<ChatMessage> saved = new ArrayList<>(inserts.size());
+        for (ChatMessage message : inserts) {
+            try {
+                // 批量事务回滚后重新按新实体插入
+                message.setPersisted(false);
+                transactionTemplate.executeWithoutResult(tx -> chatMessageRepository.save(message));
+                saved.add(message);
+            } catch (Exception e) {
+                log.error("Error saving message {}", message.getMessageId(), e);
+            }
+        }
+        searchIndex.enqueue(saved);
+        try {
+            transactionTemplate.executeWithoutResult(tx -> applyStatusUpdates(idsByStatus));
+        } catch (Exception e) {
+            log.error("Error updating message status", e);
+        }
+    }
+
+    private void applyStatusUpdates(Map<ChatMessage.Status, List<String>> idsByStatus) {
+        idsByStatus.forEach((status, ids) -> {
+            // SENDING 是最早的状态，不会覆盖任何已有状态
+            if (status.predecessors().isEmpty()) return;
+            for (int from = 0; from < ids.size(); from += MAX_IN_CLAUSE) {
+                List<String> chunk = ids.subList(from, Math.min(ids.size(), from + MAX_IN_CLAUSE));
+                chatMessageRepository.updateStatusByMessageIds(status, status.predecessors(), chunk);
+            }
+        });
+    }
+
+    private static final class PersistOp {
+        private final ChatMessage message;
+        private final String messageId;
+        private final ChatMessage.Status status;
+
+        private PersistOp(ChatMessage message, String messageId, ChatMessage.Status status) {
+            this.message = message;
+            this.messageId = messageId;
+            this.status = status;
+        }
+    }
+}
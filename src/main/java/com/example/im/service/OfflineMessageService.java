@@ -0,0 +1,199 @@
+package com.example.im.service;
+
+import com.example.im.entity.ChatMessage;
+import com.example.im.group.GroupService;
+import com.example.im.repository.ChatMessageRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 离线消息收件箱：消息以 SENDING 状态保存在 chat_messages 中，
+ * 内存中只维护每个接收者的待投递计数，用户上线时按批次回放。
+ */
+@Slf4j
+@Service
+public class OfflineMessageService {
+    @Autowired(required = false)
+    private ChatMessageRepository chatMessageRepository;
+
+    @Autowired
+    private ChatMessageWriteBehind writeBehind;
+
+    @Autowired
+    private GroupService groupService;
+
+    @Autowired
+    @Qualifier("offlineReplayExecutor")
+    private ThreadPoolTaskExecutor replayExecutor;
+
+    @Value("${im.offline.batch-size:200}")
+    private int batchSize;
+
+    @Value("${im.offline.flush-wait-millis:2000}")
+    private long flushWaitMillis;
+
+    // 集群模式下离线消息可能由其他节点写入，本地索引不完整，登录时总是查库
+    @Value("${im.cluster.enabled:false}")
+    private boolean clusterEnabled;
+
+    private final Map<String, AtomicInteger> pendingCounts = new ConcurrentHashMap<>();
+
+    private final AtomicLong replayedCount = new AtomicLong();
+    private final AtomicLong lastReplayRate = new AtomicLong();
+    private final AtomicLong lastTimeToFirstMessageMillis = new AtomicLong();
+
+    @PostConstruct
+    public void loadIndex() {
+        if (chatMessageRepository == null) return;
+        try {
+            for (Object[] row : chatMessageRepository.countByRecipientAndStatus(ChatMessage.Status.SENDING)) {
+                pendingCounts.put((String) row[0], new AtomicInteger(((Number) row[1]).intValue()));
+            }
+            log.info("Loaded offline index for {} recipients", pendingCounts.size());
+        } catch (Exception e) {
+            log.error("Error loading offline message index", e);
+        }
+    }
+
+    // 消息已通过 saveMessageAsync 以 SENDING 状态入库，这里只更新索引
+    public void markOffline(String recipient) {
+        pendingCounts.computeIfAbsent(recipient, k -> new AtomicInteger()).incrementAndGet();
+    }
+
+    public boolean hasPending(String recipient) {
+        if (clusterEnabled) {
+            return true;
+        }
+        AtomicInteger count = pendingCounts.get(recipient);
+        return count != null && count.get() > 0;
+    }
+
+    public int getPendingRecipients() {
+        return pendingCounts.size();
+    }
+
+    public long getReplayedCount() {
+        return replayedCount.get();
+    }
+
+    public long getLastReplayRate() {
+        return lastReplayRate.get();
+    }
+
+    public long getLastTimeToFirstMessageMillis() {
+        return lastTimeToFirstMessageMillis.get();
+    }
+
+    public void replayAsync(String recipient, long connectedAt, BatchSink sink) {
+        if (!hasPending(recipient) || chatMessageRepository == null) return;
+        replayExecutor.execute(() -> replay(recipient, connectedAt, sink));
+    }
+
+    private void replay(String recipient, long connectedAt, BatchSink sink) {
+        long start = System.currentTimeMillis();
+        long total = 0;
+        boolean first = true;
+        try {
+            // 回放过程中又有新的离线消息入队时继续下一轮
+            boolean firstRound = clusterEnabled;
+            while (pendingCounts.remove(recipient) != null || firstRound) {
+                firstRound = false;
+                // 等待写入队列中尚未落库的离线消息
+                writeBehind.awaitFlush(flushWaitMillis);
+
+                long afterTimestamp = Long.MIN_VALUE;
+                String afterMessageId = "";
+                Pageable page = PageRequest.of(0, batchSize);
+                while (true) {
+                    List<ChatMessage> batch = chatMessageRepository.findPendingAfter(
+                            recipient, ChatMessage.Status.SENDING, afterTimestamp, afterMessageId, page);
+                    if (batch.isEmpty()) break;
+
+                    if (!sink.deliver(batch)) {
+                        // 连接已断开，剩余消息留待下次上线
+                        markOffline(recipient);
+                        return;
+                    }
+                    if (first) {
+                        first = false;
+                        lastTimeToFirstMessageMillis.set(System.currentTimeMillis() - connectedAt);
+                    }
+                    // 状态由 sink 在每帧真正写出后改为 SENT，连接关闭时没写出的仍留在收件箱
+                    total += batch.size();
+
+                    ChatMessage last = batch.get(batch.size() - 1);
+                    afterTimestamp = last.getTimestamp();
+                    afterMessageId = last.getMessageId();
+                    if (batch.size() < batchSize) break;
+                }
+            }
+        } catch (Exception e) {
+            log.error("Error replaying offline messages for {}", recipient, e);
+            markOffline(recipient);
+        } finally {
+            if (total > 0) {
+                long elapsed = Math.max(1, System.currentTimeMillis() - start);
+                replayedCount.addAndGet(total);
+                lastReplayRate.set(total * 1000 / elapsed);
+                log.info("Replayed {} offline messages to {} in {} ms", total, recipient, elapsed);
+            }
+        }
+    }
+
+    // 群消息不在 SENDING 收件箱里，按成员在各群的 delivered_id 回放
+    public void replayGroupsAsync(String recipient, BatchSink sink) {
+        if (!groupService.hasGroups(recipient)) return;
+        // 在提交任务前登记，回放还在排队时下线也不会推进 delivered_id
+        groupService.replayStarted(recipient);
+        replayExecutor.execute(() -> replayGroups(recipient, sink));
+    }
+
+    private void replayGroups(String recipient, BatchSink sink) {
+        long start = System.currentTimeMillis();
+        long total = 0;
+        try {
+            writeBehind.awaitFlush(flushWaitMillis);
+            long afterId = Long.MIN_VALUE;
+            while (true) {
+                List<ChatMessage> batch = groupService.getBacklog(recipient, afterId, batchSize);
+                if (batch.isEmpty()) break;
+                if (!sink.deliver(batch)) {
+                    // 连接已断开，下线时不推进 delivered_id，下次上线重新回放
+                    return;
+                }
+                total += batch.size();
+                afterId = batch.get(batch.size() - 1).getId();
+                if (batch.size() < batchSize) break;
+            }
+            groupService.replayFinished(recipient);
+        } catch (Exception e) {
+            log.error("Error replaying group messages for {}", recipient, e);
+        } finally {
+            if (total > 0) {
+                replayedCount.addAndGet(total);
+                log.info("Replayed {} group messages to {} in {} ms", total, recipient,
+                        System.currentTimeMillis() - start);
+            }
+        }
+    }
+
+    @FunctionalInterface
+    public interface BatchSink {
+        // 返回 false 表示连接已不可用，停止回放
+        boolean deliver(List<ChatMessage> batch) throws IOException;
+    }
+}
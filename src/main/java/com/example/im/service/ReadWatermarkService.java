@@ -0,0 +1,212 @@
+package com.example.im.service;
+
+import com.example.im.entity.ReadWatermark;
+import com.example.im.repository.ReadWatermarkRepository;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 已读位置：已读回执只推进 (用户, 会话) 的位置，不逐条改消息状态。
+ * 位置先在内存中合并，同一会话在一个刷新周期内的多次回执只留最大的一次，由后台线程批量写入 read_watermarks。
+ */
+@Slf4j
+@Service
+public class ReadWatermarkService {
+    private static final int MAX_IN_CLAUSE = 1000;
+
+    @Autowired(required = false)
+    private ReadWatermarkRepository watermarkRepository;
+
+    @Autowired(required = false)
+    private PlatformTransactionManager transactionManager;
+
+    @Value("${im.read.flush-interval-millis:1000}")
+    private long flushIntervalMillis;
+
+    // 内存中最多缓存的位置数，超过后在刷新时丢弃已落库的部分
+    @Value("${im.read.cache-size:100000}")
+    private int cacheSize;
+
+    private final Map<ReadWatermark.Key, Position> positions = new ConcurrentHashMap<>();
+    private final Map<ReadWatermark.Key, Position> dirty = new ConcurrentHashMap<>();
+    private final AtomicLong receiptCount = new AtomicLong();
+    private final AtomicLong advancedCount = new AtomicLong();
+    private final AtomicLong writtenCount = new AtomicLong();
+    // 刷新期间要等数据库，不用 synchronized，避免虚拟线程在 JDK 21 上被钉住载体线程
+    private final ReentrantLock flushLock = new ReentrantLock();
+
+    private TransactionTemplate transactionTemplate;
+    private ScheduledExecutorService flusher;
+
+    @PostConstruct
+    public void start() {
+        if (transactionManager != null) {
+            transactionTemplate = new TransactionTemplate(transactionManager);
+        }
+        flusher = Executors.newSingleThreadScheduledExecutor(new DefaultThreadFactory("im-read-flusher", true));
+        flusher.scheduleWithFixedDelay(this::flushQuietly, flushIntervalMillis, flushIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        flusher.shutdown();
+        flusher.awaitTermination(flushIntervalMillis, TimeUnit.MILLISECONDS);
+        flushQuietly();
+    }
+
+    /**
+     * 推进已读位置，返回 false 表示回执不比已知位置新（重复或乱序），调用方不必再转发。
+     */
+    public boolean markRead(String username, String conversationKey, long timestamp, String messageId) {
+        receiptCount.incrementAndGet();
+        ReadWatermark.Key key = ReadWatermark.key(username, conversationKey);
+        Position next = new Position(timestamp, messageId);
+        boolean[] advanced = new boolean[1];
+        positions.compute(key, (k, current) -> {
+            if (current != null && !next.isAfter(current)) {
+                return current;
+            }
+            advanced[0] = true;
+            return next;
+        });
+        if (!advanced[0]) {
+            return false;
+        }
+        dirty.merge(key, next, Position::max);
+        advancedCount.incrementAndGet();
+        return true;
+    }
+
+    // 等待落库的位置数
+    public int getPendingCount() {
+        return dirty.size();
+    }
+
+    public long getReceiptCount() {
+        return receiptCount.get();
+    }
+
+    public long getAdvancedCount() {
+        return advancedCount.get();
+    }
+
+    public long getWrittenCount() {
+        return writtenCount.get();
+    }
+
+    /**
+     * 把内存中的位置写入数据库。查询未读前调用一次，保证刚发出的回执能反映在结果里。
+     */
+    public void flush() {
+        if (dirty.isEmpty() || watermarkRepository == null || transactionTemplate == null) return;
+        flushLock.lock();
+        try {
+            flushDirty();
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    private void flushDirty() {
+        Map<ReadWatermark.Key, Position> batch = new HashMap<>();
+        for (Map.Entry<ReadWatermark.Key, Position> entry : dirty.entrySet()) {
+            if (dirty.remove(entry.getKey(), entry.getValue())) {
+                batch.put(entry.getKey(), entry.getValue());
+            }
+        }
+        if (batch.isEmpty()) return;
+
+        try {
+            transactionTemplate.executeWithoutResult(tx -> write(batch));
+            writtenCount.addAndGet(batch.size());
+        } catch (Exception e) {
+            // 放回去下一轮重试，期间更新的位置取较大者
+            batch.forEach((key, position) -> dirty.merge(key, position, Position::max));
+            throw e;
+        }
+
+        if (positions.size() > cacheSize) {
+            positions.keySet().removeIf(key -> !dirty.containsKey(key));
+        }
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (Exception e) {
+            log.error("Error flushing read watermarks", e);
+        }
+    }
+
+    // 一次查出涉及用户的已有位置，只在新位置更大时覆盖，其余直接插入
+    private void write(Map<ReadWatermark.Key, Position> batch) {
+        Set<String> usernames = new HashSet<>();
+        batch.keySet().forEach(key -> usernames.add(key.getUsername()));
+        Map<ReadWatermark.Key, ReadWatermark> existing = new HashMap<>();
+        List<String> names = new ArrayList<>(usernames);
+        for (int from = 0; from < names.size(); from += MAX_IN_CLAUSE) {
+            List<String> chunk = names.subList(from, Math.min(names.size(), from + MAX_IN_CLAUSE));
+            for (ReadWatermark watermark : watermarkRepository.findByUsernames(chunk)) {
+                existing.put(watermark.getId(), watermark);
+            }
+        }
+
+        List<ReadWatermark> changed = new ArrayList<>(batch.size());
+        batch.forEach((key, position) -> {
+            ReadWatermark watermark = existing.get(key);
+            if (watermark == null) {
+                watermark = new ReadWatermark();
+                watermark.setUsername(key.getUsername());
+                watermark.setConversationKey(key.getConversationKey());
+            } else if (!position.isAfter(new Position(watermark.getReadTimestamp(), watermark.getReadMessageId()))) {
+                return;
+            }
+            watermark.setReadTimestamp(position.timestamp);
+            watermark.setReadMessageId(position.messageId);
+            changed.add(watermark);
+        });
+        watermarkRepository.saveAll(changed);
+    }
+
+    private static final class Position {
+        private final long timestamp;
+        private final String messageId;
+
+        private Position(long timestamp, String messageId) {
+            this.timestamp = timestamp;
+            this.messageId = messageId;
+        }
+
+        // 与历史消息的排序一致：先比时间戳，相同时再比 messageId
+        private boolean isAfter(Position other) {
+            if (timestamp != other.timestamp) {
+                return timestamp > other.timestamp;
+            }
+            return messageId.compareTo(other.messageId) > 0;
+        }
+
+        private static Position max(Position a, Position b) {
+            return b.isAfter(a) ? b : a;
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package com.example.im.session;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.TextMessage;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.function.Supplier;
+
+/**
+ * 一帧发给多个连接：帧只序列化一次并被所有连接共享，连接数较多时按分片并行入队。
+ */
+@Component
+public class FanOutService {
+    @Autowired
+    @Qualifier("fanOutExecutor")
+    private ThreadPoolTaskExecutor fanOutExecutor;
+
+    @Value("${im.fanout.parallel-threshold:1024}")
+    private int parallelThreshold;
+
+    public void fanOut(TextMessage frame, Collection<OutboundSession> targets, String coalesceKey) {
+        if (targets.size() <= parallelThreshold) {
+            sendAll(frame, targets, coalesceKey);
+            return;
+        }
+
+        List<OutboundSession> snapshot = new ArrayList<>(targets);
+        int chunks = Math.max(1, fanOutExecutor.getCorePoolSize());
+        int chunkSize = Math.max(parallelThreshold, (snapshot.size() + chunks - 1) / chunks);
+        for (int from = 0; from < snapshot.size(); from += chunkSize) {
+            List<OutboundSession> chunk = snapshot.subList(from, Math.min(snapshot.size(), from + chunkSize));
+            fanOutExecutor.execute(() -> sendAll(frame, chunk, coalesceKey));
+        }
+    }
+
+    /**
+     * 目标连接在扇出线程上解析（例如逐个查找上万名群成员的连接），调用线程只负责提交。
+     */
+    public void fanOutAsync(TextMessage frame, Supplier<Collection<OutboundSession>> targets) {
+        fanOutExecutor.execute(() -> fanOut(frame, targets.get(), null));
+    }
+
+    private static void sendAll(TextMessage frame, Collection<OutboundSession> targets, String coalesceKey) {
+        for (OutboundSession session : targets) {
+            if (session.isOpen()) {
+                session.send(frame, coalesceKey);
+            }
+        }
+    }
+}
@@ -0,0 +1,167 @@
+package com.example.im.session;
+
+import io.netty.util.HashedWheelTimer;
+import io.netty.util.Timeout;
+import io.netty.util.TimerTask;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.WebSocketSession;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 连接存活检测：每个连接在时间轮上挂一个到期检查，入站消息只更新最近活跃时间，不动时间轮。
+ * 到期时如果期间有过活动就按剩余时间重新挂上，因此每个 tick 只处理本格到期的连接，与在线总数无关。
+ * 空闲超过心跳间隔时由服务端发一次心跳探测，超过超时时间仍无任何入站消息则驱逐。
+ */
+@Slf4j
+@Component
+public class IdleSessionMonitor {
+    public interface Listener {
+        // 空闲超过心跳间隔，发一次服务端心跳
+        void onIdle(WebSocketSession session);
+
+        // 超时仍无入站消息，返回 true 表示这是正常关闭流程已经漏掉的僵尸连接
+        boolean onExpired(WebSocketSession session);
+    }
+
+    @Value("${websocket.heartbeat.interval:30000}")
+    private long intervalMillis;
+
+    @Value("${websocket.heartbeat.timeout:90000}")
+    private long timeoutMillis;
+
+    @Value("${websocket.heartbeat.tick-millis:1000}")
+    private long tickMillis;
+
+    private final AtomicLong pingCount = new AtomicLong();
+    private final AtomicLong evictedCount = new AtomicLong();
+    private final AtomicLong zombieCount = new AtomicLong();
+
+    private volatile Listener listener;
+    private ExecutorService taskExecutor;
+    private HashedWheelTimer timer;
+    private long intervalNanos;
+    private long timeoutNanos;
+
+    @PostConstruct
+    public void start() {
+        intervalNanos = TimeUnit.MILLISECONDS.toNanos(intervalMillis);
+        timeoutNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(timeoutMillis, intervalMillis));
+        // 一圈覆盖整个超时时间，挂上的检查不会跨圈，每格只含本 tick 到期的连接
+        int ticksPerWheel = (int) Math.min(1 << 16, Math.max(64, timeoutMillis / tickMillis + 1));
+        // 驱逐时关闭 Tomcat 连接可能阻塞在半开的 socket 上，不放在时间轮线程里
+        taskExecutor = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>(), new DefaultThreadFactory("im-idle-worker", true));
+        timer = new HashedWheelTimer(new DefaultThreadFactory("im-idle-wheel", true),
+                tickMillis, TimeUnit.MILLISECONDS, ticksPerWheel, true, -1, taskExecutor);
+        timer.start();
+    }
+
+    @PreDestroy
+    public void stop() {
+        timer.stop();
+        taskExecutor.shutdown();
+    }
+
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * 开始跟踪一个连接，返回的 Liveness 在每条入站消息上 touch，连接关闭时 cancel。
+     */
+    public Liveness track(WebSocketSession session) {
+        Liveness liveness = new Liveness(session);
+        liveness.schedule(intervalNanos);
+        return liveness;
+    }
+
+    public long getTrackedCount() {
+        return timer.pendingTimeouts();
+    }
+
+    public long getPingCount() {
+        return pingCount.get();
+    }
+
+    public long getEvictedCount() {
+        return evictedCount.get();
+    }
+
+    public long getZombieCount() {
+        return zombieCount.get();
+    }
+
+    public final class Liveness implements TimerTask {
+        private final WebSocketSession session;
+        private volatile long lastSeenNanos = System.nanoTime();
+        private volatile boolean pinged;
+        private volatile boolean cancelled;
+        private volatile Timeout timeout;
+
+        private Liveness(WebSocketSession session) {
+            this.session = session;
+        }
+
+        public void touch() {
+            lastSeenNanos = System.nanoTime();
+            if (pinged) {
+                pinged = false;
+            }
+        }
+
+        public void cancel() {
+            cancelled = true;
+            Timeout current = timeout;
+            if (current != null) {
+                current.cancel();
+            }
+        }
+
+        private void schedule(long delayNanos) {
+            timeout = timer.newTimeout(this, delayNanos, TimeUnit.NANOSECONDS);
+            // 与 cancel 并发时，cancel 可能取消的是上一次的 Timeout
+            if (cancelled) {
+                timeout.cancel();
+            }
+        }
+
+        @Override
+        public void run(Timeout expired) {
+            if (cancelled) {
+                return;
+            }
+            Listener current = listener;
+            long idle = System.nanoTime() - lastSeenNanos;
+            try {
+                if (idle >= timeoutNanos) {
+                    cancelled = true;
+                    evictedCount.incrementAndGet();
+                    if (current != null && current.onExpired(session)) {
+                        zombieCount.incrementAndGet();
+                    }
+                    return;
+                }
+                if (idle >= intervalNanos && !pinged) {
+                    pinged = true;
+                    pingCount.incrementAndGet();
+                    if (current != null) {
+                        current.onIdle(session);
+                    }
+                }
+            } catch (Exception e) {
+                log.error("Idle check failed for session {}", session.getId(), e);
+            }
+            schedule(idle >= intervalNanos ? timeoutNanos - idle : intervalNanos - idle);
+        }
+    }
+}
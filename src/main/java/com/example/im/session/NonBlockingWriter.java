@@ -0,0 +1,21 @@
+package com.example.im.session;
+
+import org.springframework.web.socket.TextMessage;
+
+import java.util.function.Consumer;
+
+/**
+ * 连接的非阻塞写出方式。OutboundSession 通过它排空发送队列，慢连接只让自己的队列暂停，不占用任何线程。
+ */
+public interface NonBlockingWriter {
+    /**
+     * 写出一帧，不阻塞。写完或失败后回调 done（可能在其他线程上，成功时参数为 null）。
+     * 返回 false 表示暂时不能再写，等 {@link #onResume} 注册的回调触发后再写下一帧。
+     */
+    boolean write(TextMessage message, Consumer<Throwable> done);
+
+    /**
+     * 注册恢复写出的回调：连接重新可写、上一帧写完（需要逐帧等待的实现）或连接关闭时触发。
+     */
+    void onResume(Runnable resume);
+}
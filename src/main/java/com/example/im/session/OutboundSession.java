@@ -0,0 +1,352 @@
+package com.example.im.session;
+
+import com.example.im.metrics.ImMetrics;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketSession;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * 每个连接一个多生产者单消费者的发送队列。入队的线程抢到排空权后直接在本线程上写出，
+ * 写出是非阻塞的（{@link NonBlockingWriter}）：连接写不进去时队列暂停，由恢复回调接着排空，
+ * 不会有线程等在慢连接上。一次排空写满 MAX_FRAMES_PER_RUN 帧后交给 writerExecutor 接着写，
+ * 避免生产者线程被一个持续有新帧的连接长期占用。
+ */
+@Slf4j
+public class OutboundSession {
+    private static final int MAX_FRAMES_PER_RUN = 256;
+
+    private final WebSocketSession session;
+    private final NonBlockingWriter writer;
+    private final Executor writerExecutor;
+    private final int bufferSizeLimit;
+    private final long sendTimeLimitNanos;
+    private final OverflowPolicy overflowPolicy;
+    private final ImMetrics metrics;
+
+    private final Queue<Frame> queue = new ConcurrentLinkedQueue<>();
+    private final Map<String, Frame> pendingByKey = new ConcurrentHashMap<>();
+    private final AtomicBoolean draining = new AtomicBoolean();
+    // 写出暂停中，等待恢复回调
+    private final AtomicBoolean paused = new AtomicBoolean();
+    // 恢复回调已到达但还没有被排空的线程看到
+    private final AtomicBoolean resumed = new AtomicBoolean();
+    private final AtomicInteger queueDepth = new AtomicInteger();
+    private final AtomicLong bufferedBytes = new AtomicLong();
+    private volatile long sendStartNanos;
+    private volatile boolean closed;
+
+    private final AtomicLong sentCount = new AtomicLong();
+    private final AtomicLong droppedCount = new AtomicLong();
+    private final AtomicLong totalSendLatencyNanos = new AtomicLong();
+    private final AtomicLong maxSendLatencyNanos = new AtomicLong();
+
+    public OutboundSession(WebSocketSession session, NonBlockingWriter writer, Executor writerExecutor,
+                           int bufferSizeLimit, long sendTimeLimitMillis, OverflowPolicy overflowPolicy,
+                           ImMetrics metrics) {
+        this.session = session;
+        this.writer = writer;
+        this.writerExecutor = writerExecutor;
+        this.bufferSizeLimit = bufferSizeLimit;
+        this.sendTimeLimitNanos = TimeUnit.MILLISECONDS.toNanos(sendTimeLimitMillis);
+        this.overflowPolicy = overflowPolicy;
+        this.metrics = metrics;
+        writer.onResume(this::resume);
+    }
+
+    public WebSocketSession getSession() {
+        return session;
+    }
+
+    public boolean isOpen() {
+        return !closed && session.isOpen();
+    }
+
+    public boolean send(TextMessage message) {
+        return send(message, null);
+    }
+
+    /**
+     * 入队一帧，返回 false 表示连接已关闭或因慢连接策略被拒绝。
+     * coalesceKey 不为空且策略为 COALESCE 时，队列中尚未发送的同 key 帧会被直接替换。
+     */
+    public boolean send(TextMessage message, String coalesceKey) {
+        return send(message, coalesceKey, null);
+    }
+
+    /**
+     * 同上；listener 不为空时在这一帧真正写出后，或连接关闭导致这一帧被丢弃时回调，
+     * 供聊天消息在写出之后才把状态改为 SENT，丢弃的留在离线收件箱。入队被拒绝时不回调。
+     */
+    public boolean send(TextMessage message, String coalesceKey, WriteListener listener) {
+        if (!isOpen()) {
+            return false;
+        }
+
+        boolean coalesce = coalesceKey != null && overflowPolicy == OverflowPolicy.COALESCE;
+        if (coalesce) {
+            Frame pending = pendingByKey.get(coalesceKey);
+            if (pending != null) {
+                TextMessage replaced = pending.replace(message);
+                if (replaced != null) {
+                    bufferedBytes.addAndGet(message.getPayloadLength() - replaced.getPayloadLength());
+                    return true;
+                }
+            }
+        }
+
+        if (isOverLimit()) {
+            return handleOverflow();
+        }
+
+        Frame frame = new Frame(message, coalesce ? coalesceKey : null, listener);
+        if (coalesce) {
+            pendingByKey.put(coalesceKey, frame);
+        }
+        bufferedBytes.addAndGet(message.getPayloadLength());
+        queueDepth.incrementAndGet();
+        queue.offer(frame);
+        scheduleDrain();
+        return true;
+    }
+
+    public void close(CloseStatus status) {
+        closed = true;
+        try {
+            session.close(status);
+        } catch (IOException e) {
+            log.debug("Error closing session {}", session.getId(), e);
+        }
+        clear();
+    }
+
+    // 供批量生产者（如离线回放）做流控，等待队列深度降到阈值以下
+    public boolean awaitDepthBelow(int depth, long timeoutMillis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        while (queueDepth.get() >= depth) {
+            if (!isOpen() || System.currentTimeMillis() >= deadline) {
+                return false;
+            }
+            Thread.sleep(5);
+        }
+        return isOpen();
+    }
+
+    public int getQueueDepth() {
+        return queueDepth.get();
+    }
+
+    public long getBufferedBytes() {
+        return bufferedBytes.get();
+    }
+
+    public long getSentCount() {
+        return sentCount.get();
+    }
+
+    public long getDroppedCount() {
+        return droppedCount.get();
+    }
+
+    public long getMaxSendLatencyNanos() {
+        return maxSendLatencyNanos.get();
+    }
+
+    public long getAvgSendLatencyNanos() {
+        long sent = sentCount.get();
+        return sent == 0 ? 0 : totalSendLatencyNanos.get() / sent;
+    }
+
+    private boolean isOverLimit() {
+        if (bufferedBytes.get() > bufferSizeLimit) {
+            return true;
+        }
+        long start = sendStartNanos;
+        return start != 0 && System.nanoTime() - start > sendTimeLimitNanos;
+    }
+
+    private boolean handleOverflow() {
+        droppedCount.incrementAndGet();
+        if (overflowPolicy == OverflowPolicy.DISCONNECT) {
+            log.warn("Slow consumer {}: {} frames / {} bytes buffered, disconnecting",
+                    session.getId(), queueDepth.get(), bufferedBytes.get());
+            close(CloseStatus.SESSION_NOT_RELIABLE);
+        } else {
+            log.debug("Slow consumer {}: dropping frame", session.getId());
+        }
+        return false;
+    }
+
+    private void scheduleDrain() {
+        if (draining.compareAndSet(false, true)) {
+            drain();
+        }
+    }
+
+    // 调用方持有排空权（draining 为 true）
+    private void drain() {
+        int frames = 0;
+        while (true) {
+            if (frames == MAX_FRAMES_PER_RUN && handOff()) {
+                return;
+            }
+            Frame frame = queue.poll();
+            if (frame == null) {
+                draining.set(false);
+                // 释放排空权之后如有新入队的帧，重新抢占
+                if (queue.isEmpty() || closed || !draining.compareAndSet(false, true)) {
+                    return;
+                }
+                continue;
+            }
+            queueDepth.decrementAndGet();
+            TextMessage message = frame.take();
+            if (frame.key != null) {
+                pendingByKey.remove(frame.key, frame);
+            }
+            if (message == null) continue;
+            bufferedBytes.addAndGet(-message.getPayloadLength());
+            if (closed) {
+                frame.complete(false);
+                continue;
+            }
+
+            resumed.set(false);
+            sendStartNanos = System.nanoTime();
+            boolean more;
+            try {
+                more = writer.write(message, error -> written(frame, error));
+            } catch (RuntimeException e) {
+                written(frame, e);
+                more = true;
+            }
+            frames++;
+            if (!more && !pause()) {
+                return;
+            }
+            sendStartNanos = 0;
+        }
+    }
+
+    private boolean handOff() {
+        try {
+            writerExecutor.execute(this::drain);
+            return true;
+        } catch (RuntimeException e) {
+            log.debug("Writer executor rejected session {}, continuing inline", session.getId(), e);
+            return false;
+        }
+    }
+
+    // 返回 true 表示恢复回调已经到达，当前线程继续排空；否则由恢复回调所在的线程接着排空
+    private boolean pause() {
+        if (resumed.getAndSet(false)) {
+            return true;
+        }
+        paused.set(true);
+        return resumed.getAndSet(false) && paused.compareAndSet(true, false);
+    }
+
+    private void resume() {
+        resumed.set(true);
+        if (paused.compareAndSet(true, false)) {
+            resumed.set(false);
+            sendStartNanos = 0;
+            drain();
+        }
+    }
+
+    private void written(Frame frame, Throwable error) {
+        if (error == null) {
+            recordSend(System.nanoTime() - frame.enqueuedAt);
+            frame.complete(true);
+            return;
+        }
+        log.debug("Error writing to session {}", session.getId(), error);
+        // 写失败的这一帧不确定对端是否收到，按丢弃处理，重复的由客户端按 messageId 去重
+        frame.complete(false);
+        close(CloseStatus.SESSION_NOT_RELIABLE);
+    }
+
+    private void recordSend(long latencyNanos) {
+        sentCount.incrementAndGet();
+        totalSendLatencyNanos.addAndGet(latencyNanos);
+        maxSendLatencyNanos.accumulateAndGet(latencyNanos, Math::max);
+        metrics.recordStageNanos(ImMetrics.Stage.WRITE, latencyNanos);
+    }
+
+    private void clear() {
+        Frame frame;
+        while ((frame = queue.poll()) != null) {
+            queueDepth.decrementAndGet();
+            TextMessage message = frame.take();
+            if (message != null) {
+                bufferedBytes.addAndGet(-message.getPayloadLength());
+                frame.complete(false);
+            }
+        }
+        pendingByKey.clear();
+    }
+
+    public interface WriteListener {
+        void written();
+
+        void discarded();
+    }
+
+    private static final class Frame {
+        private final AtomicReference<TextMessage> payload;
+        private final String key;
+        private final WriteListener listener;
+        private final long enqueuedAt = System.nanoTime();
+
+        private Frame(TextMessage payload, String key, WriteListener listener) {
+            this.payload = new AtomicReference<>(payload);
+            this.key = key;
+            this.listener = listener;
+        }
+
+        void complete(boolean written) {
+            if (listener == null) {
+                return;
+            }
+            try {
+                if (written) {
+                    listener.written();
+                } else {
+                    listener.discarded();
+                }
+            } catch (RuntimeException e) {
+                log.error("Error in write listener", e);
+            }
+        }
+
+        // 帧已被写线程取走时返回 null
+        TextMessage replace(TextMessage message) {
+            TextMessage current = payload.get();
+            while (current != null) {
+                if (payload.compareAndSet(current, message)) {
+                    return current;
+                }
+                current = payload.get();
+            }
+            return null;
+        }
+
+        TextMessage take() {
+            return payload.getAndSet(null);
+        }
+    }
+}
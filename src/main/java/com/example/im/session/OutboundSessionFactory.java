@@ -0,0 +1,77 @@
+package com.example.im.session;
+
+import com.example.im.metrics.ImMetrics;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.adapter.standard.StandardWebSocketSession;
+
+import java.io.IOException;
+import java.util.function.Consumer;
+
+@Slf4j
+@Component
+public class OutboundSessionFactory {
+    // Tomcat 阻塞发送的超时时间，避免发送关闭帧的线程被卡死的连接无限占用
+    private static final String TOMCAT_BLOCKING_SEND_TIMEOUT = "org.apache.tomcat.websocket.BLOCKING_SEND_TIMEOUT";
+
+    @Autowired
+    @Qualifier("outboundWriterExecutor")
+    private TaskExecutor writerExecutor;
+
+    @Autowired
+    private ImMetrics metrics;
+
+    @Value("${websocket.outbound.buffer-size-limit:524288}")
+    private int bufferSizeLimit;
+
+    @Value("${websocket.outbound.send-time-limit:10000}")
+    private long sendTimeLimitMillis;
+
+    @Value("${websocket.outbound.overflow-policy:COALESCE}")
+    private OverflowPolicy overflowPolicy;
+
+    public OutboundSession create(WebSocketSession session) {
+        return new OutboundSession(session, writerFor(session), writerExecutor,
+                bufferSizeLimit, sendTimeLimitMillis, overflowPolicy, metrics);
+    }
+
+    private NonBlockingWriter writerFor(WebSocketSession session) {
+        if (session instanceof NonBlockingWriter) {
+            return (NonBlockingWriter) session;
+        }
+        if (session instanceof StandardWebSocketSession) {
+            try {
+                javax.websocket.Session nativeSession =
+                        ((StandardWebSocketSession) session).getNativeSession(javax.websocket.Session.class);
+                // 关闭帧等仍走阻塞发送
+                nativeSession.getUserProperties().put(TOMCAT_BLOCKING_SEND_TIMEOUT, sendTimeLimitMillis);
+                return new StandardSessionWriter(nativeSession, sendTimeLimitMillis);
+            } catch (Exception e) {
+                log.debug("Cannot use async send for session {}", session.getId(), e);
+            }
+        }
+        // 其他实现（例如压测用的内存连接）只能阻塞发送，要求其 sendMessage 本身不会等待对端
+        return new NonBlockingWriter() {
+            @Override
+            public boolean write(TextMessage message, Consumer<Throwable> done) {
+                try {
+                    session.sendMessage(message);
+                    done.accept(null);
+                } catch (IOException | RuntimeException e) {
+                    done.accept(e);
+                }
+                return true;
+            }
+
+            @Override
+            public void onResume(Runnable resume) {
+            }
+        };
+    }
+}
@@ -0,0 +1,10 @@
+package com.example.im.session;
+
+public enum OverflowPolicy {
+    // 丢弃新消息
+    DROP,
+    // 同 key 的帧（用户列表、心跳等）只保留最新一份，超限时丢弃其余新消息
+    COALESCE,
+    // 关闭慢连接
+    DISCONNECT
+}
@@ -0,0 +1,111 @@
+package com.example.im.session;
+
+import io.netty.util.concurrent.DefaultThreadFactory;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * 在线状态增量：同一个 tick 内的上下线事件按用户合并为最终状态，每个 tick 最多发出一个带版本号的增量。
+ * 客户端发现版本不连续时再单独拉取全量快照。
+ */
+@Slf4j
+@Component
+public class PresenceTracker {
+    @Value("${im.presence.tick-millis:200}")
+    private long tickMillis;
+
+    private final Map<String, Boolean> pendingChanges = new ConcurrentHashMap<>();
+    private final AtomicLong version = new AtomicLong();
+
+    private volatile Consumer<Delta> listener;
+    private ScheduledExecutorService ticker;
+
+    @PostConstruct
+    public void start() {
+        ticker = Executors.newSingleThreadScheduledExecutor(new DefaultThreadFactory("im-presence", true));
+        ticker.scheduleWithFixedDelay(this::tick, tickMillis, tickMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void stop() {
+        ticker.shutdownNow();
+    }
+
+    public void setListener(Consumer<Delta> listener) {
+        this.listener = listener;
+    }
+
+    public void online(String username) {
+        pendingChanges.put(username, Boolean.TRUE);
+    }
+
+    public void offline(String username) {
+        pendingChanges.put(username, Boolean.FALSE);
+    }
+
+    // 最近一次已发出增量的版本号，与快照一起下发
+    public long getVersion() {
+        return version.get();
+    }
+
+    private void tick() {
+        if (pendingChanges.isEmpty()) return;
+
+        List<String> joined = new ArrayList<>();
+        List<String> left = new ArrayList<>();
+        for (Map.Entry<String, Boolean> change : pendingChanges.entrySet()) {
+            // 读出之后状态又变了时不删除，留到下一个 tick 按最新状态发出
+            if (pendingChanges.remove(change.getKey(), change.getValue())) {
+                (change.getValue() ? joined : left).add(change.getKey());
+            }
+        }
+        if (joined.isEmpty() && left.isEmpty()) return;
+
+        Delta delta = new Delta(version.incrementAndGet(), joined, left);
+        try {
+            Consumer<Delta> current = listener;
+            if (current != null) {
+                current.accept(delta);
+            }
+        } catch (Exception e) {
+            log.error("Error publishing presence delta {}", delta.getVersion(), e);
+        }
+    }
+
+    public static final class Delta {
+        private final long version;
+        private final List<String> joined;
+        private final List<String> left;
+
+        Delta(long version, List<String> joined, List<String> left) {
+            this.version = version;
+            this.joined = joined;
+            this.left = left;
+        }
+
+        public long getVersion() {
+            return version;
+        }
+
+        public List<String> getJoined() {
+            return joined;
+        }
+
+        public List<String> getLeft() {
+            return left;
+        }
+    }
+}
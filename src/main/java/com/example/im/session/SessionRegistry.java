@@ -0,0 +1,254 @@
+package com.example.im.session;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * 本节点上的连接，按用户登记，同一用户可以同时有多个连接（多端登录）。
+ * 用户名第一次出现时分配一个稠密的 int id（只增不回收），id 的低位选分片，高位是分片内数组的下标。
+ * 数组元素是该用户当前全部连接组成的数组，上下线时整体替换（写时复制），
+ * 因此查找不加锁、不分配，上下线只锁所在分片，不同分片之间互不竞争。
+ */
+@Component
+public class SessionRegistry {
+    private static final OutboundSession[] NONE = new OutboundSession[0];
+
+    // 0 表示处理器数的两倍，与 Netty 事件循环的默认数量相同
+    @Value("${im.sessions.shards:0}")
+    private int configuredShards;
+
+    private final Map<String, Integer> ids = new ConcurrentHashMap<>();
+    // id -> 用户名，只在 ids 的锁内追加
+    private volatile String[] names = new String[1024];
+    private int nextId;
+
+    private Shard[] shards;
+    private int shardBits;
+    private final AtomicInteger userCount = new AtomicInteger();
+    private final AtomicInteger sessionCount = new AtomicInteger();
+
+    @PostConstruct
+    public void init() {
+        int count = configuredShards > 0 ? configuredShards : Runtime.getRuntime().availableProcessors() * 2;
+        int size = 1;
+        while (size < count) {
+            size <<= 1;
+        }
+        shardBits = Integer.numberOfTrailingZeros(size);
+        shards = new Shard[size];
+        for (int i = 0; i < size; i++) {
+            shards[i] = new Shard();
+        }
+    }
+
+    /**
+     * 用户名对应的 id，第一次出现时分配。
+     */
+    public int intern(String username) {
+        Integer id = ids.get(username);
+        if (id != null) {
+            return id;
+        }
+        synchronized (ids) {
+            id = ids.get(username);
+            if (id != null) {
+                return id;
+            }
+            int next = nextId++;
+            String[] current = names;
+            if (next == current.length) {
+                current = Arrays.copyOf(current, current.length * 2);
+                names = current;
+            }
+            current[next] = username;
+            // 放进 ids 之后其他线程才可能拿到这个 id，此时名字已经写好
+            ids.put(username, next);
+            return next;
+        }
+    }
+
+    // 从未登记过的用户返回 -1
+    public int idOf(String username) {
+        Integer id = ids.get(username);
+        return id != null ? id : -1;
+    }
+
+    public String usernameOf(int id) {
+        return names[id];
+    }
+
+    /**
+     * 登记一个连接，返回 true 表示这是该用户在本节点上的第一个连接。
+     */
+    public boolean register(String username, OutboundSession session) {
+        int id = intern(username);
+        return shardOf(id).add(id >>> shardBits, session);
+    }
+
+    /**
+     * 注销一个连接。返回该用户剩余的连接数，连接已不在登记中时返回 -1。
+     */
+    public int unregister(String username, OutboundSession session) {
+        int id = idOf(username);
+        if (id < 0) {
+            return -1;
+        }
+        return shardOf(id).remove(id >>> shardBits, session);
+    }
+
+    /**
+     * 用户当前的全部连接，没有时返回空数组。返回的数组是共享的，调用方不能修改。
+     */
+    public OutboundSession[] get(String username) {
+        if (username == null) {
+            return NONE;
+        }
+        int id = idOf(username);
+        return id >= 0 ? get(id) : NONE;
+    }
+
+    public OutboundSession[] get(int id) {
+        OutboundSession[] sessions = shardOf(id).get(id >>> shardBits);
+        return sessions != null ? sessions : NONE;
+    }
+
+    public boolean contains(String username, OutboundSession session) {
+        for (OutboundSession candidate : get(username)) {
+            if (candidate == session) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public List<String> onlineUsers() {
+        List<String> users = new ArrayList<>(userCount.get());
+        for (int shard = 0; shard < shards.length; shard++) {
+            AtomicReferenceArray<OutboundSession[]> slots = shards[shard].slots;
+            for (int slot = 0; slot < slots.length(); slot++) {
+                if (slots.get(slot) != null) {
+                    users.add(names[(slot << shardBits) | shard]);
+                }
+            }
+        }
+        return users;
+    }
+
+    public List<OutboundSession> allSessions() {
+        List<OutboundSession> all = new ArrayList<>(sessionCount.get());
+        for (Shard shard : shards) {
+            AtomicReferenceArray<OutboundSession[]> slots = shard.slots;
+            for (int slot = 0; slot < slots.length(); slot++) {
+                OutboundSession[] sessions = slots.get(slot);
+                if (sessions != null) {
+                    all.addAll(Arrays.asList(sessions));
+                }
+            }
+        }
+        return all;
+    }
+
+    // 所有连接发送队列中的帧数之和，只读各连接的计数，不复制连接列表
+    public long getQueuedFrames() {
+        long total = 0;
+        for (Shard shard : shards) {
+            AtomicReferenceArray<OutboundSession[]> slots = shard.slots;
+            for (int slot = 0; slot < slots.length(); slot++) {
+                OutboundSession[] sessions = slots.get(slot);
+                if (sessions != null) {
+                    for (OutboundSession session : sessions) {
+                        total += session.getQueueDepth();
+                    }
+                }
+            }
+        }
+        return total;
+    }
+
+    public int getUserCount() {
+        return userCount.get();
+    }
+
+    public int getSessionCount() {
+        return sessionCount.get();
+    }
+
+    public int getShardCount() {
+        return shards.length;
+    }
+
+    private Shard shardOf(int id) {
+        return shards[id & (shards.length - 1)];
+    }
+
+    private final class Shard {
+        // 只在分片锁内扩容和修改，读取不加锁
+        private volatile AtomicReferenceArray<OutboundSession[]> slots = new AtomicReferenceArray<>(64);
+
+        OutboundSession[] get(int slot) {
+            AtomicReferenceArray<OutboundSession[]> current = slots;
+            return slot < current.length() ? current.get(slot) : null;
+        }
+
+        synchronized boolean add(int slot, OutboundSession session) {
+            AtomicReferenceArray<OutboundSession[]> current = slots;
+            if (slot >= current.length()) {
+                AtomicReferenceArray<OutboundSession[]> grown =
+                        new AtomicReferenceArray<>(Math.max(slot + 1, current.length() * 2));
+                for (int i = 0; i < current.length(); i++) {
+                    grown.set(i, current.get(i));
+                }
+                slots = current = grown;
+            }
+            OutboundSession[] existing = current.get(slot);
+            sessionCount.incrementAndGet();
+            if (existing == null) {
+                current.set(slot, new OutboundSession[]{session});
+                userCount.incrementAndGet();
+                return true;
+            }
+            OutboundSession[] updated = Arrays.copyOf(existing, existing.length + 1);
+            updated[existing.length] = session;
+            current.set(slot, updated);
+            return false;
+        }
+
+        synchronized int remove(int slot, OutboundSession session) {
+            AtomicReferenceArray<OutboundSession[]> current = slots;
+            OutboundSession[] existing = slot < current.length() ? current.get(slot) : null;
+            if (existing == null) {
+                return -1;
+            }
+            int index = -1;
+            for (int i = 0; i < existing.length; i++) {
+                if (existing[i] == session) {
+                    index = i;
+                    break;
+                }
+            }
+            if (index < 0) {
+                return -1;
+            }
+            sessionCount.decrementAndGet();
+            if (existing.length == 1) {
+                current.set(slot, null);
+                userCount.decrementAndGet();
+                return 0;
+            }
+            OutboundSession[] updated = new OutboundSession[existing.length - 1];
+            System.arraycopy(existing, 0, updated, 0, index);
+            System.arraycopy(existing, index + 1, updated, index, existing.length - index - 1);
+            current.set(slot, updated);
+            return updated.length;
+        }
+    }
+}
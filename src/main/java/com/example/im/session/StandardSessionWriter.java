@@ -0,0 +1,35 @@
+package com.example.im.session;
+
+import org.springframework.web.socket.TextMessage;
+
+import javax.websocket.RemoteEndpoint;
+import javax.websocket.Session;
+import java.util.function.Consumer;
+
+/**
+ * Tomcat（JSR-356）连接用异步发送写出。同一连接同一时刻只能有一条异步消息在途，
+ * 所以每帧都返回 false，等发送回调之后再写下一帧；超过发送时限由容器判定失败。
+ */
+class StandardSessionWriter implements NonBlockingWriter {
+    private final RemoteEndpoint.Async remote;
+    private volatile Runnable resume = () -> { };
+
+    StandardSessionWriter(Session session, long sendTimeLimitMillis) {
+        this.remote = session.getAsyncRemote();
+        this.remote.setSendTimeout(sendTimeLimitMillis);
+    }
+
+    @Override
+    public boolean write(TextMessage message, Consumer<Throwable> done) {
+        remote.sendText(message.getPayload(), result -> {
+            done.accept(result.isOK() ? null : result.getException());
+            resume.run();
+        });
+        return false;
+    }
+
+    @Override
+    public void onResume(Runnable resume) {
+        this.resume = resume;
+    }
+}
@@ -0,0 +1,47 @@
+package com.example.im.summary;
+
+import com.example.im.entity.ChatMessage;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import lombok.Data;
+
+/**
+ * 会话列表中的一项：对方、最后一条消息与未读数。
+ */
+@Data
+public class ConversationSummary {
+    // 预览只保留开头，长消息不整条留在缓存里
+    static final int PREVIEW_LENGTH = 100;
+
+    private String peer;
+    private String lastMessageId;
+    private String lastFrom;
+    private String lastContent;
+    private long lastTimestamp;
+    private long unreadCount;
+
+    // 最后一条消息的 Snowflake id，按它排序与去重
+    @JsonIgnore
+    private long lastId;
+
+    ConversationSummary copy() {
+        ConversationSummary copy = new ConversationSummary();
+        copy.peer = peer;
+        copy.lastMessageId = lastMessageId;
+        copy.lastFrom = lastFrom;
+        copy.lastContent = lastContent;
+        copy.lastTimestamp = lastTimestamp;
+        copy.unreadCount = unreadCount;
+        copy.lastId = lastId;
+        return copy;
+    }
+
+    void setLastMessage(ChatMessage message) {
+        lastId = message.getId();
+        lastMessageId = message.getMessageId();
+        lastFrom = message.getFrom();
+        String content = message.getContent();
+        lastContent = content != null && content.length() > PREVIEW_LENGTH
+                ? content.substring(0, PREVIEW_LENGTH) : content;
+        lastTimestamp = message.getTimestamp() != null ? message.getTimestamp() : 0L;
+    }
+}
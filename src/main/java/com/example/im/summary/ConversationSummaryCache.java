@@ -0,0 +1,141 @@
+package com.example.im.summary;
+
+import com.example.im.entity.ChatMessage;
+import com.example.im.repository.ChatMessageRepository;
+import com.example.im.service.ChatMessageWriteBehind;
+import com.example.im.service.ReadWatermarkService;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 按用户缓存单聊会话列表：最近会话、最后一条消息与各会话未读数。
+ * 消息写入和已读回执时只修改已在缓存中的用户，不在缓存中的下次查询时从数据库重建。
+ * 缓存按 W-TinyLFU 淘汰，偶尔查询一次的用户不会挤掉频繁轮询的用户。
+ */
+@Slf4j
+@Component
+public class ConversationSummaryCache {
+    @Autowired(required = false)
+    private ChatMessageRepository chatMessageRepository;
+
+    @Autowired
+    private ChatMessageWriteBehind writeBehind;
+
+    @Autowired
+    private ReadWatermarkService readWatermarkService;
+
+    @Value("${im.summary.max-users:10000}")
+    private long maxUsers;
+
+    @Value("${im.summary.max-conversations:200}")
+    private int maxConversations;
+
+    @Value("${im.summary.expire-after-access-minutes:30}")
+    private long expireAfterAccessMinutes;
+
+    // 重建前等待异步写入队列落库，避免漏掉刚发出、还没写入的消息
+    @Value("${im.summary.flush-wait-millis:200}")
+    private long flushWaitMillis;
+
+    private Cache<String, UserSummary> cache;
+
+    @PostConstruct
+    public void start() {
+        cache = Caffeine.newBuilder()
+                .maximumSize(maxUsers)
+                .expireAfterAccess(expireAfterAccessMinutes, TimeUnit.MINUTES)
+                .recordStats()
+                .build();
+    }
+
+    public List<ConversationSummary> getConversations(String username, int limit) {
+        UserSummary summary = summary(username);
+        return summary != null ? summary.snapshot(limit > 0 ? limit : maxConversations) : Collections.emptyList();
+    }
+
+    public Map<String, Long> getUnreadCounts(String username) {
+        UserSummary summary = summary(username);
+        return summary != null ? summary.unreadCounts() : Collections.emptyMap();
+    }
+
+    /**
+     * 消息已交给异步写入队列，更新收发双方的摘要。群消息不在单聊会话列表中。
+     */
+    public void onMessage(ChatMessage message) {
+        if (message.getGroupId() != null || message.getFrom() == null || message.getTo() == null) return;
+        cache.asMap().computeIfPresent(message.getFrom(), (user, summary) -> {
+            summary.apply(message, message.getTo(), false);
+            return summary;
+        });
+        cache.asMap().computeIfPresent(message.getTo(), (user, summary) -> {
+            summary.apply(message, message.getFrom(), true);
+            return summary;
+        });
+    }
+
+    public void onRead(String reader, String peer, long timestamp, String messageId) {
+        cache.asMap().computeIfPresent(reader, (user, summary) ->
+                summary.markRead(peer, timestamp, messageId) ? summary : null);
+    }
+
+    public long getSize() {
+        return cache.estimatedSize();
+    }
+
+    public CacheStats getStats() {
+        return cache.stats();
+    }
+
+    // 在缓存外重建再 putIfAbsent：在 Caffeine 的 compute 里等落库和查库会卡住同一分段上 onMessage 的 computeIfPresent，
+    // 而且重建期间落库的消息会被查询和增量各算一次。重建期间的增量不会计入，最多少算几条，到期重建后恢复
+    private UserSummary summary(String username) {
+        UserSummary cached = cache.getIfPresent(username);
+        if (cached != null) {
+            return cached;
+        }
+        try {
+            UserSummary loaded = load(username);
+            UserSummary existing = cache.asMap().putIfAbsent(username, loaded);
+            return existing != null ? existing : loaded;
+        } catch (RuntimeException e) {
+            log.error("Error loading conversation summary of {}", username, e);
+            return null;
+        }
+    }
+
+    private UserSummary load(String username) {
+        try {
+            writeBehind.awaitFlush(flushWaitMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        readWatermarkService.flush();
+
+        UserSummary summary = new UserSummary(maxConversations);
+        if (chatMessageRepository == null) {
+            return summary;
+        }
+        List<ChatMessage> latest = chatMessageRepository.findLatestPerConversation(
+                username, PageRequest.of(0, maxConversations));
+        for (ChatMessage message : latest) {
+            boolean incoming = username.equals(message.getTo());
+            summary.apply(message, incoming ? message.getFrom() : message.getTo(), false);
+        }
+        for (Object[] row : chatMessageRepository.countUnreadBySender(username)) {
+            summary.setUnreadCount((String) row[0], ((Number) row[1]).longValue());
+        }
+        return summary;
+    }
+}
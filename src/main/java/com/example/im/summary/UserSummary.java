@@ -0,0 +1,103 @@
+package com.example.im.summary;
+
+import com.example.im.entity.ChatMessage;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 一个用户的全部会话摘要，按对方索引。只在缓存的 compute 中修改，读取时复制一份。
+ */
+final class UserSummary {
+    private static final Comparator<ConversationSummary> RECENT_FIRST =
+            Comparator.comparingLong(ConversationSummary::getLastId).reversed();
+
+    private final Map<String, ConversationSummary> byPeer = new HashMap<>();
+    private final int maxConversations;
+
+    UserSummary(int maxConversations) {
+        this.maxConversations = maxConversations;
+    }
+
+    // id 不大于已知最后一条的消息已经包含在从数据库重建的结果里；客户端重发同一条也只算一次
+    synchronized void apply(ChatMessage message, String peer, boolean incoming) {
+        ConversationSummary summary = byPeer.get(peer);
+        boolean added = summary == null;
+        if (added) {
+            summary = new ConversationSummary();
+            summary.setPeer(peer);
+            byPeer.put(peer, summary);
+        } else if (message.getId() <= summary.getLastId()
+                || message.getMessageId() != null && message.getMessageId().equals(summary.getLastMessageId())) {
+            return;
+        }
+        summary.setLastMessage(message);
+        if (incoming) {
+            summary.setUnreadCount(summary.getUnreadCount() + 1);
+        }
+        if (added) {
+            trim();
+        }
+    }
+
+    synchronized void setUnreadCount(String peer, long count) {
+        byPeer.computeIfAbsent(peer, p -> {
+            ConversationSummary summary = new ConversationSummary();
+            summary.setPeer(p);
+            return summary;
+        }).setUnreadCount(count);
+    }
+
+    /**
+     * 读到了该会话的最后一条时未读清零；读到中间某条时返回 false，由调用方丢弃整份摘要重新加载。
+     */
+    synchronized boolean markRead(String peer, long timestamp, String messageId) {
+        ConversationSummary summary = byPeer.get(peer);
+        if (summary == null || summary.getUnreadCount() == 0) {
+            return true;
+        }
+        boolean readToLast = timestamp != summary.getLastTimestamp()
+                ? timestamp > summary.getLastTimestamp()
+                : summary.getLastMessageId() == null || messageId.compareTo(summary.getLastMessageId()) >= 0;
+        if (readToLast) {
+            summary.setUnreadCount(0);
+        }
+        return readToLast;
+    }
+
+    synchronized List<ConversationSummary> snapshot(int limit) {
+        List<ConversationSummary> conversations = new ArrayList<>(byPeer.size());
+        for (ConversationSummary summary : byPeer.values()) {
+            conversations.add(summary.copy());
+        }
+        conversations.sort(RECENT_FIRST);
+        return conversations.size() > limit ? conversations.subList(0, limit) : conversations;
+    }
+
+    synchronized Map<String, Long> unreadCounts() {
+        Map<String, Long> counts = new HashMap<>();
+        byPeer.forEach((peer, summary) -> {
+            if (summary.getUnreadCount() > 0) {
+                counts.put(peer, summary.getUnreadCount());
+            }
+        });
+        return counts;
+    }
+
+    // 会话数超过上限时丢掉最久没有消息且没有未读的一个
+    private void trim() {
+        if (byPeer.size() <= maxConversations) return;
+        ConversationSummary oldest = null;
+        for (ConversationSummary summary : byPeer.values()) {
+            if (summary.getUnreadCount() == 0 && (oldest == null || summary.getLastId() < oldest.getLastId())) {
+                oldest = summary;
+            }
+        }
+        if (oldest != null) {
+            byPeer.remove(oldest.getPeer());
+        }
+    }
+}
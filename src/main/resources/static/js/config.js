@@ -19,6 +19,7 @@ const Config = {
     api: {
         chatHistory: '/api/chat/history',
         messages: '/api/chat/messages',
-        unread: '/api/chat/unread'
+        unread: '/api/chat/unread',
+        gateway: '/api/chat/gateway'
     }
 }; 
\ No newline at end of file
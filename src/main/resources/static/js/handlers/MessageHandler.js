@@ -1,4 +1,6 @@
 const MessageHandler = {
+    presenceVersion: 0,
+
     handleMessage(event) {
         try {
             const message = JSON.parse(event.data);
@@ -14,6 +16,12 @@ const MessageHandler = {
                 case 'BATCH_ACK':
                     this.handleBatchAck(message);
                     break;
+                case 'READ_RECEIPT':
+                    MessageManager.handleReadReceipt(message);
+                    break;
+                case 'THROTTLE':
+                    MessageManager.handleThrottle(message);
+                    break;
                 case 'USER_LIST':
                     this.handleUserList(message);
                     break;
@@ -23,8 +31,18 @@ const MessageHandler = {
                 case 'LOGOUT':
                     this.handleUserLogout(message);
                     break;
+                case 'PRESENCE':
+                    this.handlePresence(message);
+                    break;
                 case 'HEARTBEAT':
-                    // 心跳消息不需要特殊处理
+                    // 服务端空闲探测（needAck）需要回一个心跳，否则连接会被当作空闲驱逐
+                    if (message.needAck) {
+                        WebSocketManager.sendMessage({
+                            type: 'HEARTBEAT',
+                            from: WebSocketManager.username,
+                            timestamp: Date.now()
+                        });
+                    }
                     break;
                 default:
                     console.warn('Unknown message type:', message.type);
@@ -56,6 +74,9 @@ const MessageHandler = {
                 };
                 WebSocketManager.sendMessage(ackMessage);
             }
+            if (!isSent) {
+                MessageManager.markRead(message);
+            }
         }
     },
 
@@ -67,12 +88,13 @@ const MessageHandler = {
 
     handleBatchAck(message) {
         console.log('Received BATCH_ACK message:', message);
-        if (message.batchAckMessageIds) {
+        if (message.batchAckMessageIds || message.batchAckRanges) {
             MessageManager.handleAck(message);
         }
     },
 
     handleUserList(message) {
+        this.presenceVersion = message.version || 0;
         const userList = document.getElementById('userList');
         userList.innerHTML = '';
         
@@ -91,6 +113,24 @@ const MessageHandler = {
         });
     },
 
+    handlePresence(message) {
+        if (message.version <= this.presenceVersion) return;
+
+        if (message.version !== this.presenceVersion + 1) {
+            // 版本不连续，重新拉取全量在线列表
+            WebSocketManager.sendMessage({
+                type: 'USER_LIST',
+                from: UserManager.currentUser,
+                timestamp: Date.now()
+            });
+            return;
+        }
+
+        this.presenceVersion = message.version;
+        (message.users || []).forEach(username => this.handleUserLogin({ from: username }));
+        (message.offlineUsers || []).forEach(username => this.handleUserLogout({ from: username }));
+    },
+
     handleUserLogin(message) {
         if (message.from === UserManager.currentUser) return;
 
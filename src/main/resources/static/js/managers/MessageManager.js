@@ -5,6 +5,8 @@ const MessageManager = {
     retryInterval: 3000,
     batchSize: 10,
     pendingAcks: [],
+    lastRead: null,
+    readReceiptTimer: null,
 
     sendMessage(message) {
         if (message.messageId == null) {
@@ -48,11 +50,18 @@ const MessageManager = {
 
     handleAck(ackMessage) {
         console.log('Processing ACK:', ackMessage);
-        if (ackMessage.batchAckMessageIds) {
+        if (ackMessage.batchAckMessageIds || ackMessage.batchAckRanges) {
             // 处理批量确认
-            ackMessage.batchAckMessageIds.forEach(messageId => {
+            (ackMessage.batchAckMessageIds || []).forEach(messageId => {
                 this.confirmMessage(messageId);
             });
+            // 连续数字 id 压缩成的 "first-last" 区间
+            (ackMessage.batchAckRanges || []).forEach(range => {
+                const [first, last] = range.split('-').map(BigInt);
+                for (let id = first; id <= last; id++) {
+                    this.confirmMessage(id.toString());
+                }
+            });
         } else if (ackMessage.ackMessageId) {
             // 处理单条确认
             this.confirmMessage(ackMessage.ackMessageId);
@@ -77,6 +86,25 @@ const MessageManager = {
         }
     },
 
+    // 服务端限流或过载时拒绝了消息：等 retryAfterMillis 后重发，不计入重试次数
+    handleThrottle(throttle) {
+        const messageId = throttle.ackMessageId;
+        const pendingMessage = this.pendingMessages.get(messageId);
+        if (!pendingMessage) return;
+
+        console.warn(`Message ${messageId} throttled (${throttle.content}), retry in ${throttle.retryAfterMillis}ms`);
+        if (pendingMessage.retryTimer) {
+            clearTimeout(pendingMessage.retryTimer);
+        }
+        UIManager.updateMessageStatus(messageId, 'SENDING');
+        pendingMessage.retryTimer = setTimeout(() => {
+            if (this.pendingMessages.has(messageId)) {
+                WebSocketManager.sendMessage(pendingMessage.message);
+                this.scheduleRetry(messageId);
+            }
+        }, Math.max(throttle.retryAfterMillis || 0, 100));
+    },
+
     handleIncomingMessage(message) {
         // 显示接收到的消息
         UIManager.addMessage(message, false);
@@ -110,6 +138,52 @@ const MessageManager = {
         }
     },
 
+    // 当前会话中收到的消息视为已读，短时间内只发一次回执，带最后一条的位置
+    markRead(message) {
+        if (message.from !== UserManager.selectedUser || message.from === UserManager.currentUser) return;
+        if (this.lastRead && !this.isAfter(message, this.lastRead)) return;
+
+        this.lastRead = message;
+        if (!this.readReceiptTimer) {
+            this.readReceiptTimer = setTimeout(() => this.sendReadReceipt(), 500);
+        }
+    },
+
+    sendReadReceipt() {
+        this.readReceiptTimer = null;
+        const last = this.lastRead;
+        if (!last) return;
+
+        WebSocketManager.sendMessage({
+            type: 'READ_RECEIPT',
+            from: UserManager.currentUser,
+            to: last.from,
+            ackMessageId: last.messageId,
+            timestamp: last.timestamp
+        });
+    },
+
+    // 对方的已读位置之前发给对方的消息都标为已读
+    handleReadReceipt(receipt) {
+        document.querySelectorAll(`.message.sent[data-peer="${receipt.from}"]`).forEach(messageDiv => {
+            const message = {
+                messageId: messageDiv.getAttribute('data-message-id'),
+                timestamp: Number(messageDiv.getAttribute('data-timestamp'))
+            };
+            if (!this.isAfter(message, { messageId: receipt.ackMessageId, timestamp: receipt.timestamp })) {
+                UIManager.updateMessageStatus(message.messageId, 'READ');
+            }
+        });
+    },
+
+    // 与服务端一致：先比时间戳，相同时比 messageId
+    isAfter(a, b) {
+        if (a.timestamp !== b.timestamp) {
+            return a.timestamp > b.timestamp;
+        }
+        return a.messageId > b.messageId;
+    },
+
     scheduleRetry(messageId) {
         const pendingMessage = this.pendingMessages.get(messageId);
         if (!pendingMessage) return;
@@ -167,6 +241,7 @@ const MessageManager = {
             
             const messages = await response.json();
             UIManager.clearMessages();
+            this.lastRead = null;
             
             messages.forEach(message => {
                 const isSent = message.from === UserManager.currentUser;
@@ -178,6 +253,9 @@ const MessageManager = {
                     timestamp: message.timestamp,
                     status: message.status
                 }, isSent);
+                if (!isSent) {
+                    this.markRead(message);
+                }
             });
             
             UIManager.scrollToBottom();
@@ -8,13 +8,31 @@ const WebSocketManager = {
     lastHeartbeatResponse: Date.now(),
     heartbeatTimeout: 90000,
     
-    connect(username) {
+    // netty 网关监听独立端口，获取失败时按同源 /ws 连接
+    async resolveUrl(username) {
+        const protocol = window.location.protocol === 'https:' ? 'wss:' : 'ws:';
+        let host = window.location.host;
+        let path = '/ws';
+        try {
+            const response = await fetch(Config.api.gateway);
+            if (response.ok) {
+                const gateway = await response.json();
+                if (gateway.mode === 'netty' && gateway.port) {
+                    host = `${window.location.hostname}:${gateway.port}`;
+                }
+                path = gateway.path || path;
+            }
+        } catch (error) {
+            console.warn('Gateway lookup failed, using same origin:', error);
+        }
+        return `${protocol}//${host}${path}?username=${encodeURIComponent(username)}`;
+    },
+
+    async connect(username) {
         this.username = username;
+        const wsUrl = await this.resolveUrl(username);
         return new Promise((resolve, reject) => {
             try {
-                const protocol = window.location.protocol === 'https:' ? 'wss:' : 'ws:';
-                const wsUrl = `${protocol}//${window.location.host}/ws?username=${encodeURIComponent(username)}`;
-                
                 this.ws = new WebSocket(wsUrl);
                 
                 this.ws.onopen = () => {
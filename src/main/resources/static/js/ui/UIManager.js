@@ -33,6 +33,10 @@ const UIManager = {
         const messageDiv = document.createElement('div');
         messageDiv.className = `message ${isSent ? 'sent' : 'received'} message-new`;
         messageDiv.setAttribute('data-message-id', message.messageId);
+        messageDiv.setAttribute('data-timestamp', message.timestamp);
+        if (isSent && message.to) {
+            messageDiv.setAttribute('data-peer', message.to);
+        }
         
         const contentDiv = document.createElement('div');
         contentDiv.className = 'message-content';
@@ -68,6 +72,8 @@ const UIManager = {
 
         const statusDiv = messageDiv.querySelector('.message-status');
         if (!statusDiv) return;
+        // 已读回执可能先于送达确认到达，不回退
+        if (statusDiv.classList.contains('read') && status !== 'FAILED') return;
 
         statusDiv.classList.remove('sending', 'sent', 'delivered', 'read', 'failed');
         
@@ -87,6 +93,11 @@ const UIManager = {
                 text: '已送达',
                 icon: 'fa-check-double'
             },
+            READ: {
+                class: 'read',
+                text: '已读',
+                icon: 'fa-eye'
+            },
             FAILED: {
                 class: 'failed',
                 text: '发送失败，点击重试',